@@ -0,0 +1,861 @@
+package org.yanhuang.learning.jdk24.classapi;
+
+import java.io.IOException;
+import java.lang.classfile.*;
+import java.lang.classfile.attribute.CodeAttribute;
+import java.lang.classfile.attribute.StackMapFrameInfo;
+import java.lang.classfile.attribute.StackMapFrameInfo.SimpleVerificationTypeInfo;
+import java.lang.classfile.attribute.StackMapFrameInfo.VerificationTypeInfo;
+import java.lang.classfile.attribute.StackMapTableAttribute;
+import java.lang.classfile.instruction.*;
+import java.lang.constant.ClassDesc;
+import java.lang.constant.ConstantDesc;
+import java.lang.constant.MethodTypeDesc;
+import java.nio.file.Path;
+import java.util.*;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Supplier;
+
+/**
+ * 基于工作表的字节码抽象解释器
+ * <p>
+ * 在 {@link ControlFlowAnalyzer} 构建的基本块上迭代到不动点，得到每条指令执行前的局部变量和操作数栈的抽象值。
+ * 栈操作（load/store、dup/swap、调用参数出栈、long/double 占两个槽等）由解释器统一处理，
+ * 值的含义由可插拔的 {@link Lattice} 决定，内置三种格：
+ * <ul>
+ *     <li>{@link ConstantLattice}：常量传播，折叠 int/long/float/double 的算术和类型转换</li>
+ *     <li>{@link NullnessLattice}：null / 非null / 可能为null</li>
+ *     <li>{@link AllocationLattice}：引用来自方法内的哪个分配点，记录在合并点被混合的分配点，供逃逸分析使用</li>
+ * </ul>
+ * 抽象值用 int 表示，每个帧是一段 int 数组：[栈深度, 局部变量..., 操作数栈...]，
+ * 所有指令的帧存放在同一个 int 数组中，迭代过程只复用几个工作帧，不为每条指令分配对象。
+ * <p>
+ * 方法有 StackMapTable 时用它作为种子：验证器标记为 TOP 的局部变量（已失效）在合并点直接置为格的顶，
+ * 不参与合并；其他验证类型交给 {@link Lattice#seed} 细化，例如 null 类型。
+ * 不支持含 jsr/ret 的旧版本类文件。
+ */
+public class AbstractInterpreter {
+
+    private final ClassFileToolkit toolkit = new ClassFileToolkit();
+    private final ControlFlowAnalyzer controlFlow = new ControlFlowAnalyzer();
+
+    /**
+     * 抽象值的格。值用 int 编码，{@link #top()} 表示一无所知，也用于 long/double 的第二个槽。
+     * 同一个格实例只用于一个方法，可以在实例中保存方法内的辅助数据（例如常量表）
+     */
+    public interface Lattice {
+        int top();
+
+        int join(int a, int b);
+
+        /**
+         * @param slot 局部变量槽位
+         * @param type 参数类型
+         * @param receiver 是否为 this
+         */
+        default int parameter(int slot, ClassDesc type, boolean receiver) {
+            return top();
+        }
+
+        /**
+         * ldc、iconst、bipush 等加载的常量，以及 iinc 的增量
+         */
+        default int constant(ConstantDesc value) {
+            return top();
+        }
+
+        default int nullValue() {
+            return top();
+        }
+
+        /**
+         * new、newarray、anewarray、multianewarray 创建的对象
+         *
+         * @param index 分配指令在 elementList() 中的位置
+         * @param type 对象或数组类型
+         */
+        default int allocation(int index, ClassDesc type) {
+            return top();
+        }
+
+        /**
+         * 进入异常处理器时栈上的异常对象
+         */
+        default int caught() {
+            return top();
+        }
+
+        /**
+         * 一元运算：取负、类型转换、arraylength
+         */
+        default int unary(Opcode opcode, int value) {
+            return top();
+        }
+
+        /**
+         * 二元运算和比较，iinc 按 IADD 处理
+         */
+        default int binary(Opcode opcode, int left, int right) {
+            return top();
+        }
+
+        /**
+         * 其他产生值的指令：方法调用、字段和数组读取、instanceof 等
+         *
+         * @param index 指令在 elementList() 中的位置
+         */
+        default int result(int index, Instruction instruction) {
+            return top();
+        }
+
+        /**
+         * 用 StackMapTable 中的验证类型细化合并点的局部变量值，TOP 已由解释器处理
+         */
+        default int seed(VerificationTypeInfo type, int value) {
+            return value;
+        }
+    }
+
+    /**
+     * 方法分析函数，在解释完成后调用
+     *
+     * @param <R> 分析结果类型
+     */
+    public interface MethodAnalysis<R> {
+        /**
+         * @return 分析结果，返回null表示该方法没有结果
+         */
+        R analyze(ClassModel owner, MethodModel method, Frames frames);
+    }
+
+    /**
+     * 批量分析结果
+     *
+     * @param results 所有非null的分析结果，顺序不确定
+     * @param skippedMethods 无法解释而跳过的方法数（例如含 jsr/ret 的旧类文件）
+     * @param <R> 分析结果类型
+     */
+    public record AnalysisResults<R>(List<R> results, int skippedMethods) {
+    }
+
+    /**
+     * 解释结果：每个代码元素执行前的帧
+     */
+    public static final class Frames {
+        private final ControlFlowAnalyzer.ControlFlowGraph graph;
+        private final Lattice lattice;
+        private final int maxLocals;
+        private final int frameSize;
+        private final int[] data;
+        private final BitSet reached;
+
+        private Frames(ControlFlowAnalyzer.ControlFlowGraph graph, Lattice lattice, int maxLocals, int maxStack) {
+            this.graph = graph;
+            this.lattice = lattice;
+            this.maxLocals = maxLocals;
+            this.frameSize = 1 + maxLocals + maxStack;
+            this.data = new int[graph.elements().size() * frameSize];
+            this.reached = new BitSet(graph.elements().size());
+        }
+
+        private void record(int index, int[] frame) {
+            System.arraycopy(frame, 0, data, index * frameSize, frameSize);
+            reached.set(index);
+        }
+
+        public ControlFlowAnalyzer.ControlFlowGraph graph() {
+            return graph;
+        }
+
+        public List<CodeElement> elements() {
+            return graph.elements();
+        }
+
+        public Lattice lattice() {
+            return lattice;
+        }
+
+        public int maxLocals() {
+            return maxLocals;
+        }
+
+        /**
+         * @return 该位置是否可达，不可达的位置没有帧
+         */
+        public boolean reached(int index) {
+            return reached.get(index);
+        }
+
+        /**
+         * @return 执行前操作数栈的槽数，long/double 占两个槽
+         */
+        public int stackSize(int index) {
+            return data[index * frameSize];
+        }
+
+        public int local(int index, int slot) {
+            return data[index * frameSize + 1 + slot];
+        }
+
+        /**
+         * @param depth 从栈顶向下的槽位，0为栈顶。long/double 的值在较深的那个槽
+         */
+        public int peek(int index, int depth) {
+            int base = index * frameSize;
+            return data[base + 1 + maxLocals + data[base] - 1 - depth];
+        }
+    }
+
+    // ================= Running =================
+
+    /**
+     * 并行解释一组jar中所有方法并执行分析
+     *
+     * @param jarPaths jar路径列表
+     * @param lattices 格的工厂，每个方法创建一个新实例
+     * @param analysis 分析函数
+     * @return 所有非null的分析结果和跳过的方法数
+     * @throws IOException 如果文件读取失败
+     */
+    public <R> AnalysisResults<R> analyzeAll(List<Path> jarPaths, Supplier<? extends Lattice> lattices,
+                                             MethodAnalysis<R> analysis) throws IOException {
+        return analyzeAll(toolkit.readClasspath(jarPaths), lattices, analysis);
+    }
+
+    /**
+     * 并行解释一组类中所有有代码的方法并执行分析，并行粒度为方法。
+     * 无法解释的方法（例如含 jsr/ret 或栈深度不一致）跳过并计数，不影响其他方法
+     *
+     * @param classes 内部类名到类模型的映射
+     * @param lattices 格的工厂，每个方法创建一个新实例
+     * @param analysis 分析函数
+     * @return 所有非null的分析结果和跳过的方法数
+     */
+    public <R> AnalysisResults<R> analyzeAll(Map<String, ClassModel> classes, Supplier<? extends Lattice> lattices,
+                                             MethodAnalysis<R> analysis) {
+        AtomicInteger skipped = new AtomicInteger();
+        List<R> results = classes.values().stream()
+            .flatMap(model -> model.methods().stream()
+                .filter(method -> method.code().isPresent())
+                .map(method -> Map.entry(model, method)))
+            .toList()
+            .parallelStream()
+            .map(entry -> {
+                Frames frames;
+                try {
+                    frames = interpret(entry.getKey(), entry.getValue(), lattices.get());
+                } catch (IllegalArgumentException | IllegalStateException e) {
+                    skipped.incrementAndGet();
+                    return null;
+                }
+                return analysis.analyze(entry.getKey(), entry.getValue(), frames);
+            })
+            .filter(Objects::nonNull)
+            .toList();
+        return new AnalysisResults<>(results, skipped.get());
+    }
+
+    /**
+     * 解释一个方法
+     *
+     * @param owner 方法所在的类
+     * @param method 方法模型，必须有代码
+     * @param lattice 格实例
+     * @return 每个代码元素执行前的帧
+     */
+    public Frames interpret(ClassModel owner, MethodModel method, Lattice lattice) {
+        if (!(method.code().orElse(null) instanceof CodeAttribute code)) {
+            throw new IllegalArgumentException("方法没有代码: " + method.methodName().stringValue());
+        }
+        ControlFlowAnalyzer.ControlFlowGraph graph = controlFlow.buildGraph(code);
+        List<CodeElement> elements = graph.elements();
+        List<ControlFlowAnalyzer.BasicBlock> blocks = graph.blocks();
+        int maxLocals = code.maxLocals();
+        int frameSize = 1 + maxLocals + code.maxStack();
+        Frames frames = new Frames(graph, lattice, maxLocals, code.maxStack());
+
+        int[] entries = new int[blocks.size() * frameSize];
+        boolean[] reached = new boolean[blocks.size()];
+        VerificationTypeInfo[][] seeds = seeds(code, graph, maxLocals);
+        // 工作帧：当前状态、合并时的临时帧、进入异常处理器的帧
+        int[] state = new int[frameSize];
+        int[] scratch = new int[frameSize];
+        int[] handlerState = new int[frameSize];
+
+        initialFrame(owner, method, lattice, state);
+        merge(state, 0, entries, reached, seeds, lattice, maxLocals, scratch);
+        BitSet worklist = new BitSet(blocks.size());
+        worklist.set(0);
+        while (!worklist.isEmpty()) {
+            int b = worklist.nextSetBit(0);
+            worklist.clear(b);
+            ControlFlowAnalyzer.BasicBlock block = blocks.get(b);
+            System.arraycopy(entries, b * frameSize, state, 0, frameSize);
+            for (int i = block.start(); i < block.end(); i++) {
+                frames.record(i, state);
+                if (!(elements.get(i) instanceof Instruction instruction)) {
+                    continue;
+                }
+                // 指令执行时可能抛出异常，此时的局部变量流向处理器，栈上只有异常对象
+                for (int handler : block.handlers()) {
+                    System.arraycopy(state, 0, handlerState, 0, 1 + maxLocals);
+                    handlerState[0] = 1;
+                    handlerState[1 + maxLocals] = lattice.caught();
+                    if (merge(handlerState, handler, entries, reached, seeds, lattice, maxLocals, scratch)) {
+                        worklist.set(handler);
+                    }
+                }
+                execute(i, instruction, state, maxLocals, lattice);
+            }
+            for (int successor : block.successors()) {
+                if (merge(state, successor, entries, reached, seeds, lattice, maxLocals, scratch)) {
+                    worklist.set(successor);
+                }
+            }
+        }
+        return frames;
+    }
+
+    /**
+     * 把帧合并到块的入口帧
+     *
+     * @return 入口帧是否发生变化
+     */
+    private static boolean merge(int[] incoming, int block, int[] entries, boolean[] reached,
+                                 VerificationTypeInfo[][] seeds, Lattice lattice, int maxLocals, int[] scratch) {
+        int frameSize = incoming.length;
+        int base = block * frameSize;
+        System.arraycopy(incoming, 0, scratch, 0, frameSize);
+        VerificationTypeInfo[] seed = seeds[block];
+        if (seed != null) {
+            for (int slot = 0; slot < maxLocals; slot++) {
+                VerificationTypeInfo type = seed[slot];
+                scratch[1 + slot] = type == null || type == SimpleVerificationTypeInfo.TOP
+                    ? lattice.top()
+                    : lattice.seed(type, scratch[1 + slot]);
+            }
+        }
+        if (!reached[block]) {
+            reached[block] = true;
+            System.arraycopy(scratch, 0, entries, base, frameSize);
+            return true;
+        }
+        if (entries[base] != scratch[0]) {
+            throw new IllegalStateException("合并点的操作数栈深度不一致: " + entries[base] + " / " + scratch[0]);
+        }
+        boolean changed = false;
+        int used = 1 + maxLocals + scratch[0];
+        for (int i = 1; i < used; i++) {
+            int joined = lattice.join(entries[base + i], scratch[i]);
+            if (joined != entries[base + i]) {
+                entries[base + i] = joined;
+                changed = true;
+            }
+        }
+        return changed;
+    }
+
+    private static void initialFrame(ClassModel owner, MethodModel method, Lattice lattice, int[] state) {
+        Arrays.fill(state, lattice.top());
+        state[0] = 0;
+        int slot = 0;
+        if ((method.flags().flagsMask() & ClassFile.ACC_STATIC) == 0) {
+            state[1] = lattice.parameter(0, owner.thisClass().asSymbol(), true);
+            slot = 1;
+        }
+        for (ClassDesc type : method.methodTypeSymbol().parameterList()) {
+            state[1 + slot] = lattice.parameter(slot, type, false);
+            slot += TypeKind.from(type).slotSize();
+        }
+    }
+
+    /**
+     * 按块整理 StackMapTable 的局部变量验证类型，每个槽一个元素，long/double 的第二个槽为null
+     */
+    private static VerificationTypeInfo[][] seeds(CodeAttribute code, ControlFlowAnalyzer.ControlFlowGraph graph,
+                                                  int maxLocals) {
+        VerificationTypeInfo[][] seeds = new VerificationTypeInfo[graph.blocks().size()][];
+        Optional<StackMapTableAttribute> table = code.findAttribute(Attributes.stackMapTable());
+        if (table.isEmpty()) {
+            return seeds;
+        }
+        Map<Label, Integer> labelIndex = new HashMap<>();
+        List<CodeElement> elements = graph.elements();
+        for (int i = 0; i < elements.size(); i++) {
+            if (elements.get(i) instanceof LabelTarget target) {
+                labelIndex.put(target.label(), i);
+            }
+        }
+        for (StackMapFrameInfo frame : table.get().entries()) {
+            Integer index = labelIndex.get(frame.target());
+            if (index == null) {
+                continue;
+            }
+            VerificationTypeInfo[] slots = new VerificationTypeInfo[maxLocals];
+            int slot = 0;
+            for (VerificationTypeInfo type : frame.locals()) {
+                if (slot >= maxLocals) {
+                    break;
+                }
+                slots[slot] = type;
+                slot += type == SimpleVerificationTypeInfo.LONG || type == SimpleVerificationTypeInfo.DOUBLE ? 2 : 1;
+            }
+            // 长类型的第二个槽不携带值，按 TOP 处理
+            for (int i = 0; i < maxLocals; i++) {
+                if (i > 0 && slots[i] == null && (slots[i - 1] == SimpleVerificationTypeInfo.LONG
+                        || slots[i - 1] == SimpleVerificationTypeInfo.DOUBLE)) {
+                    slots[i] = SimpleVerificationTypeInfo.TOP;
+                }
+            }
+            seeds[graph.blockOf()[index]] = slots;
+        }
+        return seeds;
+    }
+
+    // ================= Transfer functions =================
+
+    private static void execute(int index, Instruction instruction, int[] f, int maxLocals, Lattice lattice) {
+        int top = lattice.top();
+        switch (instruction) {
+            case LoadInstruction load -> {
+                push(f, maxLocals, f[1 + load.slot()]);
+                if (load.typeKind().slotSize() == 2) {
+                    push(f, maxLocals, top);
+                }
+            }
+            case StoreInstruction store -> {
+                int size = store.typeKind().slotSize();
+                pop(f, maxLocals, size - 1);
+                f[1 + store.slot()] = pop(f, maxLocals);
+                if (size == 2) {
+                    f[2 + store.slot()] = top;
+                }
+            }
+            case IncrementInstruction increment -> f[1 + increment.slot()] =
+                lattice.binary(Opcode.IADD, f[1 + increment.slot()], lattice.constant(increment.constant()));
+            case ConstantInstruction constant -> {
+                if (constant.opcode() == Opcode.ACONST_NULL) {
+                    push(f, maxLocals, lattice.nullValue());
+                } else {
+                    push(f, maxLocals, lattice.constant(constant.constantValue()));
+                    if (constant.typeKind().slotSize() == 2) {
+                        push(f, maxLocals, top);
+                    }
+                }
+            }
+            case StackInstruction stack -> executeStack(stack.opcode(), f, maxLocals);
+            case OperatorInstruction operator -> executeOperator(operator.opcode(), f, maxLocals, lattice);
+            case ConvertInstruction convert -> {
+                int value = popValue(f, maxLocals, convert.fromType().slotSize());
+                pushValue(f, maxLocals, lattice.unary(convert.opcode(), value), convert.toType().slotSize(), top);
+            }
+            case FieldInstruction field -> {
+                int size = TypeKind.from(field.typeSymbol()).slotSize();
+                switch (field.opcode()) {
+                    case GETSTATIC -> pushValue(f, maxLocals, lattice.result(index, field), size, top);
+                    case GETFIELD -> {
+                        pop(f, maxLocals);
+                        pushValue(f, maxLocals, lattice.result(index, field), size, top);
+                    }
+                    case PUTSTATIC -> pop(f, maxLocals, size);
+                    default -> pop(f, maxLocals, size + 1);
+                }
+            }
+            case InvokeInstruction invoke -> {
+                MethodTypeDesc type = invoke.typeSymbol();
+                pop(f, maxLocals, argumentSlots(type) + (invoke.opcode() == Opcode.INVOKESTATIC ? 0 : 1));
+                int size = TypeKind.from(type.returnType()).slotSize();
+                if (size > 0) {
+                    pushValue(f, maxLocals, lattice.result(index, invoke), size, top);
+                }
+            }
+            case InvokeDynamicInstruction invoke -> {
+                MethodTypeDesc type = invoke.typeSymbol();
+                pop(f, maxLocals, argumentSlots(type));
+                int size = TypeKind.from(type.returnType()).slotSize();
+                if (size > 0) {
+                    pushValue(f, maxLocals, lattice.result(index, invoke), size, top);
+                }
+            }
+            case NewObjectInstruction newObject ->
+                push(f, maxLocals, lattice.allocation(index, newObject.className().asSymbol()));
+            case NewPrimitiveArrayInstruction newArray -> {
+                pop(f, maxLocals);
+                push(f, maxLocals, lattice.allocation(index, newArray.typeKind().upperBound().arrayType()));
+            }
+            case NewReferenceArrayInstruction newArray -> {
+                pop(f, maxLocals);
+                push(f, maxLocals, lattice.allocation(index, newArray.componentType().asSymbol().arrayType()));
+            }
+            case NewMultiArrayInstruction newArray -> {
+                pop(f, maxLocals, newArray.dimensions());
+                push(f, maxLocals, lattice.allocation(index, newArray.arrayType().asSymbol()));
+            }
+            case ArrayLoadInstruction load -> {
+                pop(f, maxLocals, 2);
+                pushValue(f, maxLocals, lattice.result(index, load), load.typeKind().slotSize(), top);
+            }
+            case ArrayStoreInstruction store -> pop(f, maxLocals, store.typeKind().slotSize() + 2);
+            case TypeCheckInstruction check -> {
+                if (check.opcode() == Opcode.INSTANCEOF) {
+                    pop(f, maxLocals);
+                    push(f, maxLocals, lattice.result(index, check));
+                }
+                // checkcast 不改变值
+            }
+            case MonitorInstruction monitor -> pop(f, maxLocals);
+            case BranchInstruction branch -> pop(f, maxLocals, switch (branch.opcode()) {
+                case GOTO, GOTO_W -> 0;
+                case IF_ICMPEQ, IF_ICMPNE, IF_ICMPLT, IF_ICMPGE, IF_ICMPGT, IF_ICMPLE, IF_ACMPEQ, IF_ACMPNE -> 2;
+                default -> 1;
+            });
+            case TableSwitchInstruction table -> pop(f, maxLocals);
+            case LookupSwitchInstruction lookup -> pop(f, maxLocals);
+            case ReturnInstruction ret -> f[0] = 0;
+            case ThrowInstruction thr -> f[0] = 0;
+            case NopInstruction nop -> {
+            }
+            default -> throw new IllegalArgumentException("不支持的指令: " + instruction.opcode());
+        }
+    }
+
+    private static void executeStack(Opcode opcode, int[] f, int maxLocals) {
+        int base = 1 + maxLocals;
+        int sp = f[0];
+        switch (opcode) {
+            case POP -> f[0] = sp - 1;
+            case POP2 -> f[0] = sp - 2;
+            case DUP -> push(f, maxLocals, f[base + sp - 1]);
+            case DUP_X1 -> {
+                int v1 = f[base + sp - 1];
+                int v2 = f[base + sp - 2];
+                f[base + sp - 2] = v1;
+                f[base + sp - 1] = v2;
+                push(f, maxLocals, v1);
+            }
+            case DUP_X2 -> {
+                int v1 = f[base + sp - 1];
+                System.arraycopy(f, base + sp - 3, f, base + sp - 2, 2);
+                f[base + sp - 3] = v1;
+                push(f, maxLocals, v1);
+            }
+            case DUP2 -> {
+                push(f, maxLocals, f[base + sp - 2]);
+                push(f, maxLocals, f[base + sp - 1]);
+            }
+            case DUP2_X1 -> {
+                int v1 = f[base + sp - 1];
+                int v2 = f[base + sp - 2];
+                f[base + sp - 1] = f[base + sp - 3];
+                f[base + sp - 3] = v2;
+                f[base + sp - 2] = v1;
+                push(f, maxLocals, v2);
+                push(f, maxLocals, v1);
+            }
+            case DUP2_X2 -> {
+                int v1 = f[base + sp - 1];
+                int v2 = f[base + sp - 2];
+                System.arraycopy(f, base + sp - 4, f, base + sp - 2, 2);
+                f[base + sp - 4] = v2;
+                f[base + sp - 3] = v1;
+                push(f, maxLocals, v2);
+                push(f, maxLocals, v1);
+            }
+            case SWAP -> {
+                int v1 = f[base + sp - 1];
+                f[base + sp - 1] = f[base + sp - 2];
+                f[base + sp - 2] = v1;
+            }
+            default -> throw new IllegalArgumentException("不支持的栈指令: " + opcode);
+        }
+    }
+
+    private static void executeOperator(Opcode opcode, int[] f, int maxLocals, Lattice lattice) {
+        int top = lattice.top();
+        switch (opcode) {
+            case INEG, FNEG -> push(f, maxLocals, lattice.unary(opcode, pop(f, maxLocals)));
+            case LNEG, DNEG -> pushValue(f, maxLocals, lattice.unary(opcode, popValue(f, maxLocals, 2)), 2, top);
+            case ARRAYLENGTH -> push(f, maxLocals, lattice.unary(opcode, pop(f, maxLocals)));
+            case LSHL, LSHR, LUSHR -> {
+                int shift = pop(f, maxLocals);
+                int value = popValue(f, maxLocals, 2);
+                pushValue(f, maxLocals, lattice.binary(opcode, value, shift), 2, top);
+            }
+            case LCMP, DCMPL, DCMPG -> {
+                int right = popValue(f, maxLocals, 2);
+                int left = popValue(f, maxLocals, 2);
+                push(f, maxLocals, lattice.binary(opcode, left, right));
+            }
+            case LADD, LSUB, LMUL, LDIV, LREM, LAND, LOR, LXOR, DADD, DSUB, DMUL, DDIV, DREM -> {
+                int right = popValue(f, maxLocals, 2);
+                int left = popValue(f, maxLocals, 2);
+                pushValue(f, maxLocals, lattice.binary(opcode, left, right), 2, top);
+            }
+            default -> {
+                // int 和 float 的二元运算及 fcmpl/fcmpg
+                int right = pop(f, maxLocals);
+                int left = pop(f, maxLocals);
+                push(f, maxLocals, lattice.binary(opcode, left, right));
+            }
+        }
+    }
+
+    private static int argumentSlots(MethodTypeDesc type) {
+        int slots = 0;
+        for (ClassDesc parameter : type.parameterList()) {
+            slots += TypeKind.from(parameter).slotSize();
+        }
+        return slots;
+    }
+
+    private static void push(int[] f, int maxLocals, int value) {
+        f[1 + maxLocals + f[0]] = value;
+        f[0]++;
+    }
+
+    private static int pop(int[] f, int maxLocals) {
+        f[0]--;
+        return f[1 + maxLocals + f[0]];
+    }
+
+    private static void pop(int[] f, int maxLocals, int slots) {
+        f[0] -= slots;
+    }
+
+    /** 压入占 size 个槽的值，long/double 的值在较深的槽，上面是 top */
+    private static void pushValue(int[] f, int maxLocals, int value, int size, int top) {
+        push(f, maxLocals, value);
+        if (size == 2) {
+            push(f, maxLocals, top);
+        }
+    }
+
+    private static int popValue(int[] f, int maxLocals, int size) {
+        if (size == 2) {
+            f[0]--;
+        }
+        return pop(f, maxLocals);
+    }
+
+    // ================= Built-in lattices =================
+
+    /**
+     * 常量传播。0 表示非常量，正数为常量表中的编号；相同的常量共用一个编号，合并时编号相同才保持常量
+     */
+    public static final class ConstantLattice implements Lattice {
+        public static final int NOT_CONSTANT = 0;
+
+        private final List<Object> constants = new ArrayList<>();
+        private final Map<Object, Integer> ids = new HashMap<>();
+
+        @Override
+        public int top() {
+            return NOT_CONSTANT;
+        }
+
+        @Override
+        public int join(int a, int b) {
+            return a == b ? a : NOT_CONSTANT;
+        }
+
+        /**
+         * @return 抽象值对应的常量，非常量时返回空
+         */
+        public Optional<Object> value(int value) {
+            return value == NOT_CONSTANT ? Optional.empty() : Optional.of(constants.get(value - 1));
+        }
+
+        @Override
+        public int constant(ConstantDesc value) {
+            return value instanceof Number || value instanceof String ? intern(value) : NOT_CONSTANT;
+        }
+
+        private int intern(Object value) {
+            return ids.computeIfAbsent(value, v -> {
+                constants.add(v);
+                return constants.size();
+            });
+        }
+
+        @Override
+        public int unary(Opcode opcode, int value) {
+            if (value == NOT_CONSTANT || !(constants.get(value - 1) instanceof Number n)) {
+                return NOT_CONSTANT;
+            }
+            Object result = switch (opcode) {
+                case INEG -> -n.intValue();
+                case LNEG -> -n.longValue();
+                case FNEG -> -n.floatValue();
+                case DNEG -> -n.doubleValue();
+                case I2L, F2L, D2L -> n.longValue();
+                case I2F, L2F, D2F -> n.floatValue();
+                case I2D, L2D, F2D -> n.doubleValue();
+                case L2I, F2I, D2I -> n.intValue();
+                case I2B -> (int) (byte) n.intValue();
+                case I2C -> (int) (char) n.intValue();
+                case I2S -> (int) (short) n.intValue();
+                default -> null;
+            };
+            return result == null ? NOT_CONSTANT : intern(result);
+        }
+
+        @Override
+        public int binary(Opcode opcode, int left, int right) {
+            if (left == NOT_CONSTANT || right == NOT_CONSTANT
+                    || !(constants.get(left - 1) instanceof Number a) || !(constants.get(right - 1) instanceof Number b)) {
+                return NOT_CONSTANT;
+            }
+            try {
+                Object result = switch (opcode) {
+                    case IADD -> a.intValue() + b.intValue();
+                    case ISUB -> a.intValue() - b.intValue();
+                    case IMUL -> a.intValue() * b.intValue();
+                    case IDIV -> a.intValue() / b.intValue();
+                    case IREM -> a.intValue() % b.intValue();
+                    case IAND -> a.intValue() & b.intValue();
+                    case IOR -> a.intValue() | b.intValue();
+                    case IXOR -> a.intValue() ^ b.intValue();
+                    case ISHL -> a.intValue() << b.intValue();
+                    case ISHR -> a.intValue() >> b.intValue();
+                    case IUSHR -> a.intValue() >>> b.intValue();
+                    case LADD -> a.longValue() + b.longValue();
+                    case LSUB -> a.longValue() - b.longValue();
+                    case LMUL -> a.longValue() * b.longValue();
+                    case LDIV -> a.longValue() / b.longValue();
+                    case LREM -> a.longValue() % b.longValue();
+                    case LAND -> a.longValue() & b.longValue();
+                    case LOR -> a.longValue() | b.longValue();
+                    case LXOR -> a.longValue() ^ b.longValue();
+                    case LSHL -> a.longValue() << b.intValue();
+                    case LSHR -> a.longValue() >> b.intValue();
+                    case LUSHR -> a.longValue() >>> b.intValue();
+                    case LCMP -> Long.compare(a.longValue(), b.longValue());
+                    case FADD -> a.floatValue() + b.floatValue();
+                    case FSUB -> a.floatValue() - b.floatValue();
+                    case FMUL -> a.floatValue() * b.floatValue();
+                    case FDIV -> a.floatValue() / b.floatValue();
+                    case FREM -> a.floatValue() % b.floatValue();
+                    case DADD -> a.doubleValue() + b.doubleValue();
+                    case DSUB -> a.doubleValue() - b.doubleValue();
+                    case DMUL -> a.doubleValue() * b.doubleValue();
+                    case DDIV -> a.doubleValue() / b.doubleValue();
+                    case DREM -> a.doubleValue() % b.doubleValue();
+                    default -> null;
+                };
+                return result == null ? NOT_CONSTANT : intern(result);
+            } catch (ArithmeticException e) {
+                // 除以0在运行时抛出异常，不是常量
+                return NOT_CONSTANT;
+            }
+        }
+    }
+
+    /**
+     * 空值分析：{@link #MAYBE_NULL} 为顶，{@link #NULL} 和 {@link #NON_NULL} 合并后为 MAYBE_NULL。
+     * 不根据 ifnull/ifnonnull 分支细化
+     */
+    public static final class NullnessLattice implements Lattice {
+        public static final int MAYBE_NULL = 0;
+        public static final int NULL = 1;
+        public static final int NON_NULL = 2;
+
+        @Override
+        public int top() {
+            return MAYBE_NULL;
+        }
+
+        @Override
+        public int join(int a, int b) {
+            return a == b ? a : MAYBE_NULL;
+        }
+
+        @Override
+        public int parameter(int slot, ClassDesc type, boolean receiver) {
+            return receiver ? NON_NULL : MAYBE_NULL;
+        }
+
+        @Override
+        public int constant(ConstantDesc value) {
+            // 字符串、类、方法类型等引用常量
+            return value instanceof Number ? MAYBE_NULL : NON_NULL;
+        }
+
+        @Override
+        public int nullValue() {
+            return NULL;
+        }
+
+        @Override
+        public int allocation(int index, ClassDesc type) {
+            return NON_NULL;
+        }
+
+        @Override
+        public int caught() {
+            return NON_NULL;
+        }
+
+        @Override
+        public int result(int index, Instruction instruction) {
+            return instruction instanceof InvokeDynamicInstruction ? NON_NULL : MAYBE_NULL;
+        }
+
+        @Override
+        public int seed(VerificationTypeInfo type, int value) {
+            return type == SimpleVerificationTypeInfo.NULL ? NULL
+                : type instanceof StackMapFrameInfo.UninitializedVerificationTypeInfo
+                    || type == SimpleVerificationTypeInfo.UNINITIALIZED_THIS ? NON_NULL
+                : value;
+        }
+    }
+
+    /**
+     * 分配点跟踪：正数为分配指令在 elementList() 中的位置加1，{@link #UNKNOWN} 表示不是方法内分配的对象
+     * （参数、字段、调用结果或基本类型），{@link #MERGED} 表示在合并点混合了不同的来源。
+     * 被合并过的分配点记录在 {@link #mergedSites()} 中
+     */
+    public static final class AllocationLattice implements Lattice {
+        public static final int UNKNOWN = 0;
+        public static final int MERGED = -1;
+
+        private final BitSet merged = new BitSet();
+
+        @Override
+        public int top() {
+            return UNKNOWN;
+        }
+
+        @Override
+        public int join(int a, int b) {
+            if (a == b) {
+                return a;
+            }
+            if (a > 0) {
+                merged.set(a - 1);
+            }
+            if (b > 0) {
+                merged.set(b - 1);
+            }
+            return a == UNKNOWN && b == UNKNOWN ? UNKNOWN : MERGED;
+        }
+
+        @Override
+        public int allocation(int index, ClassDesc type) {
+            return index + 1;
+        }
+
+        /**
+         * @return 抽象值对应的分配指令位置，不是单一分配点时返回-1
+         */
+        public static int site(int value) {
+            return value > 0 ? value - 1 : -1;
+        }
+
+        /**
+         * @return 在合并点与其他来源混合过的分配指令位置
+         */
+        public BitSet mergedSites() {
+            return merged;
+        }
+    }
+}
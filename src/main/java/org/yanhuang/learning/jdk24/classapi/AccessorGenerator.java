@@ -0,0 +1,291 @@
+package org.yanhuang.learning.jdk24.classapi;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.lang.classfile.*;
+import java.lang.classfile.instruction.SwitchCase;
+import java.lang.constant.ClassDesc;
+import java.lang.constant.ConstantDescs;
+import java.lang.constant.MethodTypeDesc;
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.MethodType;
+import java.util.*;
+
+/**
+ * 免反射的访问器生成器
+ * 读取目标类的ClassModel，为每个目标类生成一个访问器类，字段读写直接使用getfield/putfield，
+ * 方法调用直接使用invokevirtual/invokestatic/invokeinterface，
+ * 并通过 MethodHandles.Lookup.defineHiddenClass 定义为目标类的嵌套成员（nestmate），因此可以访问私有成员。
+ * 生成的访问器按目标类缓存。
+ * <p>
+ * 使用示例：
+ * <pre>{@code
+ * ClassAccessors accessors = AccessorGenerator.forClass(TempWorker.class);
+ * int nameField = accessors.fieldIndex("name");
+ * Object name = accessors.accessor().get(worker, nameField);
+ * }</pre>
+ * 目标类所在的包需要对本模块开放（类路径上的类总是满足）。
+ */
+public class AccessorGenerator {
+
+    private static final ClassDesc CD_ACCESSOR = ClassDesc.of(Accessor.class.getName());
+    private static final ClassDesc CD_INDEX_EXCEPTION = ClassDesc.of("java.lang.IndexOutOfBoundsException");
+    private static final ClassDesc CD_UNSUPPORTED = ClassDesc.of("java.lang.UnsupportedOperationException");
+    private static final MethodTypeDesc MTD_STRING_CONSTRUCTOR = MethodTypeDesc.of(ConstantDescs.CD_void, ConstantDescs.CD_String);
+    private static final MethodTypeDesc MTD_GET = MethodTypeDesc.of(
+        ConstantDescs.CD_Object, ConstantDescs.CD_Object, ConstantDescs.CD_int);
+    private static final MethodTypeDesc MTD_SET = MethodTypeDesc.of(
+        ConstantDescs.CD_void, ConstantDescs.CD_Object, ConstantDescs.CD_int, ConstantDescs.CD_Object);
+    private static final MethodTypeDesc MTD_INVOKE = MethodTypeDesc.of(
+        ConstantDescs.CD_Object, ConstantDescs.CD_Object, ConstantDescs.CD_int, ConstantDescs.CD_Object.arrayType());
+
+    /** 基本类型描述符到包装类型的映射 */
+    private static final Map<String, ClassDesc> WRAPPERS = Map.of(
+        "Z", ConstantDescs.CD_Boolean, "B", ConstantDescs.CD_Byte, "C", ConstantDescs.CD_Character,
+        "S", ConstantDescs.CD_Short, "I", ConstantDescs.CD_Integer, "J", ConstantDescs.CD_Long,
+        "F", ConstantDescs.CD_Float, "D", ConstantDescs.CD_Double);
+
+    private static final ClassValue<ClassAccessors> CACHE = new ClassValue<>() {
+        @Override
+        protected ClassAccessors computeValue(Class<?> type) {
+            return new AccessorGenerator().generate(type);
+        }
+    };
+
+    private final ClassFileToolkit toolkit = new ClassFileToolkit();
+
+    /**
+     * 生成的访问器实现的接口，字段和方法通过 {@link ClassAccessors} 中的下标选择
+     */
+    public interface Accessor {
+        Object get(Object target, int field);
+
+        void set(Object target, int field, Object value);
+
+        Object invoke(Object target, int method, Object[] args);
+    }
+
+    /**
+     * 目标类的访问器及成员下标
+     *
+     * @param type 目标类
+     * @param accessor 生成的访问器实例
+     * @param fields 字段名，列表下标即字段下标
+     * @param methods 方法名加描述符，例如 "setId(I)V"，列表下标即方法下标
+     */
+    public record ClassAccessors(Class<?> type, Accessor accessor, List<String> fields, List<String> methods) {
+        public int fieldIndex(String name) {
+            int index = fields.indexOf(name);
+            if (index < 0) {
+                throw new IllegalArgumentException("字段不存在: " + type.getName() + "." + name);
+            }
+            return index;
+        }
+
+        public int methodIndex(String name, String descriptor) {
+            int index = methods.indexOf(name + descriptor);
+            if (index < 0) {
+                throw new IllegalArgumentException("方法不存在: " + type.getName() + "." + name + descriptor);
+            }
+            return index;
+        }
+
+        public Object get(Object target, String field) {
+            return accessor.get(target, fieldIndex(field));
+        }
+
+        public void set(Object target, String field, Object value) {
+            accessor.set(target, fieldIndex(field), value);
+        }
+    }
+
+    /**
+     * 获取目标类的访问器，首次调用时生成并缓存
+     *
+     * @param type 目标类
+     * @return 访问器及成员下标
+     */
+    public static ClassAccessors forClass(Class<?> type) {
+        return CACHE.get(type);
+    }
+
+    private ClassAccessors generate(Class<?> type) {
+        ClassModel classModel = readClassModel(type);
+        ClassDesc owner = classModel.thisClass().asSymbol();
+        boolean isInterface = (classModel.flags().flagsMask() & ClassFile.ACC_INTERFACE) != 0;
+
+        List<FieldModel> fields = classModel.fields().stream()
+            .filter(field -> (field.flags().flagsMask() & ClassFile.ACC_SYNTHETIC) == 0)
+            .toList();
+        List<MethodModel> methods = classModel.methods().stream()
+            .filter(method -> !method.methodName().stringValue().startsWith("<")
+                && (method.flags().flagsMask() & ClassFile.ACC_SYNTHETIC) == 0)
+            .toList();
+
+        ClassDesc accessorClass = ClassDesc.of(type.getName() + "$$Accessor");
+        ClassLoader loader = Objects.requireNonNullElse(type.getClassLoader(), ClassLoader.getPlatformClassLoader());
+        byte[] bytes = ClassFile.of(ClassFile.ClassHierarchyResolverOption.of(
+                ClassHierarchyResolver.defaultResolver().orElse(ClassHierarchyResolver.ofClassLoading(loader))))
+            .build(accessorClass, classBuilder -> {
+                classBuilder.withFlags(ClassFile.ACC_FINAL | ClassFile.ACC_SUPER | ClassFile.ACC_SYNTHETIC);
+                classBuilder.withInterfaceSymbols(CD_ACCESSOR);
+                classBuilder.withMethodBody(ConstantDescs.INIT_NAME, ConstantDescs.MTD_void, ClassFile.ACC_PUBLIC,
+                    cb -> cb.aload(0)
+                        .invokespecial(ConstantDescs.CD_Object, ConstantDescs.INIT_NAME, ConstantDescs.MTD_void)
+                        .return_());
+                classBuilder.withMethodBody("get", MTD_GET, ClassFile.ACC_PUBLIC,
+                    cb -> emitGet(cb, owner, fields));
+                classBuilder.withMethodBody("set", MTD_SET, ClassFile.ACC_PUBLIC,
+                    cb -> emitSet(cb, owner, fields));
+                classBuilder.withMethodBody("invoke", MTD_INVOKE, ClassFile.ACC_PUBLIC,
+                    cb -> emitInvoke(cb, owner, isInterface, methods));
+            });
+
+        try {
+            MethodHandles.Lookup lookup = MethodHandles.privateLookupIn(type, MethodHandles.lookup())
+                .defineHiddenClass(bytes, true, MethodHandles.Lookup.ClassOption.NESTMATE);
+            Accessor accessor = (Accessor) lookup.findConstructor(lookup.lookupClass(), MethodType.methodType(void.class))
+                .invoke();
+            return new ClassAccessors(type, accessor,
+                fields.stream().map(field -> field.fieldName().stringValue()).toList(),
+                methods.stream().map(method -> method.methodName().stringValue() + method.methodType().stringValue()).toList());
+        } catch (Throwable e) {
+            throw new IllegalStateException("生成访问器失败: " + type.getName(), e);
+        }
+    }
+
+    private ClassModel readClassModel(Class<?> type) {
+        String resource = "/" + type.getName().replace('.', '/') + ".class";
+        try (InputStream in = type.getResourceAsStream(resource)) {
+            if (in == null) {
+                throw new IllegalArgumentException("找不到类文件: " + resource);
+            }
+            return toolkit.readClass(in.readAllBytes());
+        } catch (IOException e) {
+            throw new IllegalStateException("读取类文件失败: " + resource, e);
+        }
+    }
+
+    /**
+     * get(Object target, int field)：按下标tableswitch，读取字段后装箱返回
+     */
+    private static void emitGet(CodeBuilder cb, ClassDesc owner, List<FieldModel> fields) {
+        List<Label> labels = emitSwitch(cb, fields.size());
+        for (int i = 0; i < fields.size(); i++) {
+            FieldModel field = fields.get(i);
+            ClassDesc type = field.fieldTypeSymbol();
+            cb.labelBinding(labels.get(i));
+            if ((field.flags().flagsMask() & ClassFile.ACC_STATIC) != 0) {
+                cb.getstatic(owner, field.fieldName().stringValue(), type);
+            } else {
+                cb.aload(1).checkcast(owner).getfield(owner, field.fieldName().stringValue(), type);
+            }
+            box(cb, type);
+            cb.areturn();
+        }
+        emitThrow(cb, labels.getLast(), CD_INDEX_EXCEPTION, "字段下标越界");
+    }
+
+    /**
+     * set(Object target, int field, Object value)：final字段不能在构造函数之外写入，抛出UnsupportedOperationException
+     */
+    private static void emitSet(CodeBuilder cb, ClassDesc owner, List<FieldModel> fields) {
+        List<Label> labels = emitSwitch(cb, fields.size());
+        for (int i = 0; i < fields.size(); i++) {
+            FieldModel field = fields.get(i);
+            ClassDesc type = field.fieldTypeSymbol();
+            int flags = field.flags().flagsMask();
+            cb.labelBinding(labels.get(i));
+            if ((flags & ClassFile.ACC_FINAL) != 0) {
+                emitThrow(cb, null, CD_UNSUPPORTED, "final字段不可写: " + field.fieldName().stringValue());
+                continue;
+            }
+            if ((flags & ClassFile.ACC_STATIC) != 0) {
+                cb.aload(3);
+                unbox(cb, type);
+                cb.putstatic(owner, field.fieldName().stringValue(), type);
+            } else {
+                cb.aload(1).checkcast(owner).aload(3);
+                unbox(cb, type);
+                cb.putfield(owner, field.fieldName().stringValue(), type);
+            }
+            cb.return_();
+        }
+        emitThrow(cb, labels.getLast(), CD_INDEX_EXCEPTION, "字段下标越界");
+    }
+
+    /**
+     * invoke(Object target, int method, Object[] args)：拆箱参数后直接调用，返回值装箱，void方法返回null
+     */
+    private static void emitInvoke(CodeBuilder cb, ClassDesc owner, boolean isInterface, List<MethodModel> methods) {
+        List<Label> labels = emitSwitch(cb, methods.size());
+        for (int i = 0; i < methods.size(); i++) {
+            MethodModel method = methods.get(i);
+            MethodTypeDesc type = method.methodTypeSymbol();
+            boolean isStatic = (method.flags().flagsMask() & ClassFile.ACC_STATIC) != 0;
+            cb.labelBinding(labels.get(i));
+            if (!isStatic) {
+                cb.aload(1).checkcast(owner);
+            }
+            for (int p = 0; p < type.parameterCount(); p++) {
+                cb.aload(3).loadConstant(p).aaload();
+                unbox(cb, type.parameterType(p));
+            }
+            Opcode opcode = isStatic ? Opcode.INVOKESTATIC : isInterface ? Opcode.INVOKEINTERFACE : Opcode.INVOKEVIRTUAL;
+            cb.invoke(opcode, owner, method.methodName().stringValue(), type, isInterface);
+            if (type.returnType().equals(ConstantDescs.CD_void)) {
+                cb.aconst_null();
+            } else {
+                box(cb, type.returnType());
+            }
+            cb.areturn();
+        }
+        emitThrow(cb, labels.getLast(), CD_INDEX_EXCEPTION, "方法下标越界");
+    }
+
+    /**
+     * 生成对第二个参数（下标）的tableswitch，返回每个分支的标签，最后一个标签为default分支
+     */
+    private static List<Label> emitSwitch(CodeBuilder cb, int count) {
+        List<Label> labels = new ArrayList<>();
+        List<SwitchCase> cases = new ArrayList<>();
+        for (int i = 0; i < count; i++) {
+            Label label = cb.newLabel();
+            labels.add(label);
+            cases.add(SwitchCase.of(i, label));
+        }
+        Label defaultLabel = cb.newLabel();
+        labels.add(defaultLabel);
+        if (count > 0) {
+            cb.iload(2).tableswitch(0, count - 1, defaultLabel, cases);
+        }
+        return labels;
+    }
+
+    private static void emitThrow(CodeBuilder cb, Label label, ClassDesc exception, String message) {
+        if (label != null) {
+            cb.labelBinding(label);
+        }
+        cb.new_(exception)
+            .dup()
+            .ldc(message)
+            .invokespecial(exception, ConstantDescs.INIT_NAME, MTD_STRING_CONSTRUCTOR)
+            .athrow();
+    }
+
+    private static void box(CodeBuilder cb, ClassDesc type) {
+        if (type.isPrimitive()) {
+            ClassDesc wrapper = WRAPPERS.get(type.descriptorString());
+            cb.invokestatic(wrapper, "valueOf", MethodTypeDesc.of(wrapper, type));
+        }
+    }
+
+    private static void unbox(CodeBuilder cb, ClassDesc type) {
+        if (type.isPrimitive()) {
+            ClassDesc wrapper = WRAPPERS.get(type.descriptorString());
+            cb.checkcast(wrapper).invokevirtual(wrapper, type.displayName() + "Value", MethodTypeDesc.of(type));
+        } else if (!type.equals(ConstantDescs.CD_Object)) {
+            cb.checkcast(type);
+        }
+    }
+}
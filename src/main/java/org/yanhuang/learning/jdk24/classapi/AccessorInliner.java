@@ -0,0 +1,428 @@
+package org.yanhuang.learning.jdk24.classapi;
+
+import java.io.IOException;
+import java.lang.classfile.*;
+import java.lang.classfile.attribute.NestHostAttribute;
+import java.lang.classfile.constantpool.ClassEntry;
+import java.lang.classfile.instruction.*;
+import java.lang.constant.ClassDesc;
+import java.lang.constant.ConstantDesc;
+import java.lang.constant.ConstantDescs;
+import java.lang.constant.MethodTypeDesc;
+import java.nio.file.Path;
+import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * 简单访问方法内联（全程序优化）
+ * 识别只读写一个字段或只返回常量的简单方法（getter、setter、常量方法），
+ * 把对它们的调用直接替换为 getfield/putfield/getstatic/putstatic 或常量加载。
+ * 这类方法在解释执行和C1编译阶段仍有调用开销，还会占用C2的内联预算。
+ * <p>
+ * 只有调用目标不可能被覆盖时才替换：目标方法是 private、final 或 static，所在类是 final，
+ * 或者是 invokespecial 调用；开启封闭世界假设后，在分析范围内没有被子类覆盖的方法也视为不可覆盖。
+ * 生成的字段指令必须满足访问规则：private 字段只能在同一个类或同一个嵌套（nest）内访问，
+ * 包访问和 protected 字段只能在同一个包内访问。
+ */
+public class AccessorInliner {
+
+    private static final ClassDesc CD_OBJECTS = ClassDesc.of("java.util.Objects");
+    private static final MethodTypeDesc MTD_REQUIRE_NON_NULL = MethodTypeDesc.of(
+        ConstantDescs.CD_Object, ConstantDescs.CD_Object);
+
+    private final ClassFileToolkit toolkit = new ClassFileToolkit();
+    private boolean closedWorld = false;
+
+    /**
+     * 简单方法的种类
+     */
+    public enum Kind {
+        GETTER, SETTER, STATIC_GETTER, STATIC_SETTER, CONSTANT
+    }
+
+    /**
+     * 一个简单方法
+     *
+     * @param kind 种类
+     * @param owner 声明方法的类的内部名称
+     * @param flags 方法访问标志
+     * @param field 读写的字段，常量方法为null
+     * @param constant 返回的常量，只有常量方法有值
+     */
+    private record TrivialMethod(Kind kind, String owner, int flags, FieldInstruction field, ConstantDesc constant) {
+    }
+
+    /**
+     * 一次内联
+     *
+     * @param className 调用方类的内部名称
+     * @param method 调用方方法的名称和描述符
+     * @param target 被内联的方法，格式为 owner.name:descriptor
+     * @param kind 被内联方法的种类
+     */
+    public record InlinedCall(String className, String method, String target, Kind kind) {
+    }
+
+    /**
+     * 内联报告
+     *
+     * @param classes 被修改的类，内部类名到字节码的映射
+     * @param trivialMethods 识别出的简单方法数量
+     * @param inlined 所有内联
+     */
+    public record InliningReport(Map<String, byte[]> classes, int trivialMethods, List<InlinedCall> inlined) {
+    }
+
+    /**
+     * 设置是否采用封闭世界假设，默认关闭
+     * 开启后，在分析范围内没有被任何子类覆盖的非final方法也会被内联，只适用于不会在运行时加载其他子类的应用
+     */
+    public AccessorInliner setClosedWorld(boolean closedWorld) {
+        this.closedWorld = closedWorld;
+        return this;
+    }
+
+    /**
+     * 内联jar中所有可内联的调用，非类文件条目和没有变化的类原样保留
+     *
+     * @param inputJar 输入jar路径
+     * @param outputJar 输出jar路径
+     * @return 内联报告
+     * @throws IOException 如果文件读取或写入失败
+     */
+    public InliningReport inlineJar(Path inputJar, Path outputJar) throws IOException {
+        return inlineJar(inputJar, outputJar, List.of());
+    }
+
+    /**
+     * 同 {@link #inlineJar(Path, Path)}，并用类路径上的依赖jar解析类层次，
+     * 被转换的类继承依赖中的类时，生成栈映射帧需要这些依赖
+     *
+     * @param inputJar 输入jar路径
+     * @param outputJar 输出jar路径
+     * @param classpath 依赖jar路径，按类路径顺序排列
+     * @return 内联报告
+     * @throws IOException 如果文件读取或写入失败
+     */
+    public InliningReport inlineJar(Path inputJar, Path outputJar, List<Path> classpath) throws IOException {
+        Map<String, byte[]> entries = toolkit.readJar(inputJar);
+        InliningReport report = inline(toolkit.readClasspath(List.of(inputJar)),
+            toolkit.readClasspath(classpath).values());
+
+        Map<String, byte[]> output = new LinkedHashMap<>();
+        entries.forEach((name, bytes) -> {
+            String className = name.endsWith(".class") ? name.substring(0, name.length() - ".class".length()) : null;
+            output.put(name, className != null && report.classes().containsKey(className)
+                ? report.classes().get(className)
+                : bytes);
+        });
+        toolkit.writeJar(outputJar, output);
+        return report;
+    }
+
+    /**
+     * 并行内联一组类中的简单方法调用
+     *
+     * @param classes 内部类名到类模型的映射
+     * @return 内联报告
+     */
+    public InliningReport inline(Map<String, ClassModel> classes) {
+        return inline(classes, List.of());
+    }
+
+    /**
+     * 同 {@link #inline(Map)}，并用依赖中的类解析类层次
+     *
+     * @param classes 内部类名到类模型的映射
+     * @param dependencies 依赖中的类模型，只用于解析类层次，不会被转换
+     * @return 内联报告
+     */
+    public InliningReport inline(Map<String, ClassModel> classes, Collection<ClassModel> dependencies) {
+        ClassFile classFile = ClassFile.of(ClassFile.ClassHierarchyResolverOption.of(
+            toolkit.hierarchyResolver(classes.values(), dependencies)));
+
+        // 第一遍：识别所有简单方法
+        Map<String, TrivialMethod> trivialMethods = new ConcurrentHashMap<>();
+        classes.values().parallelStream().forEach(model -> {
+            for (MethodModel method : model.methods()) {
+                trivialMethod(model, method).ifPresent(trivial -> trivialMethods.put(
+                    memberKey(trivial.owner(), method.methodName().stringValue(), method.methodType().stringValue()),
+                    trivial));
+            }
+        });
+        Map<String, Set<String>> overridden = closedWorld ? overriddenMethods(classes) : Map.of();
+
+        // 第二遍：替换调用
+        Map<String, byte[]> output = new ConcurrentHashMap<>();
+        List<InlinedCall> inlined = Collections.synchronizedList(new ArrayList<>());
+        classes.values().parallelStream().forEach(model -> {
+            String caller = model.thisClass().asInternalName();
+            Map<String, Map<Integer, TrivialMethod>> replacements = new HashMap<>();
+            for (MethodModel method : model.methods()) {
+                if (method.code().isEmpty()) {
+                    continue;
+                }
+                String callerMethod = method.methodName().stringValue() + method.methodType().stringValue();
+                List<CodeElement> elements = method.code().get().elementList();
+                for (int i = 0; i < elements.size(); i++) {
+                    if (!(elements.get(i) instanceof InvokeInstruction invoke)) {
+                        continue;
+                    }
+                    TrivialMethod target = resolve(classes, trivialMethods, invoke);
+                    if (target == null || !cannotBeOverridden(classes, overridden, invoke, target)
+                            || !accessible(classes, caller, target)
+                            || isSelfCall(caller, method, invoke)) {
+                        continue;
+                    }
+                    replacements.computeIfAbsent(callerMethod, m -> new HashMap<>()).put(i, target);
+                    inlined.add(new InlinedCall(caller, callerMethod, target.owner() + "."
+                        + invoke.name().stringValue() + ":" + invoke.typeSymbol().descriptorString(), target.kind()));
+                }
+            }
+            if (!replacements.isEmpty()) {
+                output.put(caller, classFile.transformClass(model, (builder, element) -> {
+                    if (element instanceof MethodModel method && replacements.containsKey(
+                            method.methodName().stringValue() + method.methodType().stringValue())) {
+                        Map<Integer, TrivialMethod> sites = replacements.get(
+                            method.methodName().stringValue() + method.methodType().stringValue());
+                        builder.transformMethod(method, MethodTransform.transformingCode(inlineCode(sites)));
+                    } else {
+                        builder.with(element);
+                    }
+                }));
+            }
+        });
+
+        List<InlinedCall> sorted = new ArrayList<>(inlined);
+        sorted.sort(Comparator.comparing(InlinedCall::className).thenComparing(InlinedCall::method));
+        return new InliningReport(output, trivialMethods.size(), sorted);
+    }
+
+    // ================= Trivial method detection =================
+
+    /**
+     * 判断方法是否为简单方法：忽略标签、行号等伪指令后，指令序列恰好为下列形式之一
+     * <ul>
+     *     <li>aload_0; getfield this.f; xreturn</li>
+     *     <li>aload_0; xload_1; putfield this.f; return</li>
+     *     <li>getstatic this.f; xreturn</li>
+     *     <li>xload_0; putstatic this.f; return</li>
+     *     <li>常量; xreturn</li>
+     * </ul>
+     */
+    private static Optional<TrivialMethod> trivialMethod(ClassModel model, MethodModel method) {
+        int flags = method.flags().flagsMask();
+        if (method.code().isEmpty() || (flags & ClassFile.ACC_SYNCHRONIZED) != 0
+                || method.methodName().stringValue().startsWith("<")) {
+            return Optional.empty();
+        }
+        String owner = model.thisClass().asInternalName();
+        boolean isStatic = (flags & ClassFile.ACC_STATIC) != 0;
+        int parameters = method.methodTypeSymbol().parameterCount();
+        List<Instruction> code = method.code().get().elementList().stream()
+            .filter(element -> element instanceof Instruction)
+            .map(element -> (Instruction) element)
+            .toList();
+
+        if (code.size() == 2 && parameters == 0 && code.get(1) instanceof ReturnInstruction) {
+            if (code.get(0) instanceof ConstantInstruction constant) {
+                return Optional.of(new TrivialMethod(Kind.CONSTANT, owner, flags, null, constant.constantValue()));
+            }
+            if (isStatic && code.get(0) instanceof FieldInstruction field && field.opcode() == Opcode.GETSTATIC
+                    && field.owner().asInternalName().equals(owner)) {
+                return Optional.of(new TrivialMethod(Kind.STATIC_GETTER, owner, flags, field, null));
+            }
+        }
+        if (code.size() == 3 && code.get(2) instanceof ReturnInstruction) {
+            if (!isStatic && parameters == 0 && isLoad(code.get(0), 0)
+                    && code.get(1) instanceof FieldInstruction field && field.opcode() == Opcode.GETFIELD
+                    && field.owner().asInternalName().equals(owner)) {
+                return Optional.of(new TrivialMethod(Kind.GETTER, owner, flags, field, null));
+            }
+            if (isStatic && parameters == 1 && isLoad(code.get(0), 0)
+                    && code.get(1) instanceof FieldInstruction field && field.opcode() == Opcode.PUTSTATIC
+                    && field.owner().asInternalName().equals(owner)
+                    && method.methodTypeSymbol().returnType().equals(ConstantDescs.CD_void)) {
+                return Optional.of(new TrivialMethod(Kind.STATIC_SETTER, owner, flags, field, null));
+            }
+        }
+        if (code.size() == 4 && !isStatic && parameters == 1 && isLoad(code.get(0), 0) && isLoad(code.get(1), 1)
+                && code.get(2) instanceof FieldInstruction field && field.opcode() == Opcode.PUTFIELD
+                && field.owner().asInternalName().equals(owner)
+                && method.methodTypeSymbol().returnType().equals(ConstantDescs.CD_void)
+                && code.get(3) instanceof ReturnInstruction) {
+            return Optional.of(new TrivialMethod(Kind.SETTER, owner, flags, field, null));
+        }
+        return Optional.empty();
+    }
+
+    private static boolean isLoad(Instruction instruction, int slot) {
+        return instruction instanceof LoadInstruction load && load.slot() == slot;
+    }
+
+    /**
+     * 按JVM方法解析规则，从调用指令的owner开始沿父类链查找方法声明
+     */
+    private static TrivialMethod resolve(Map<String, ClassModel> classes, Map<String, TrivialMethod> trivialMethods,
+                                         InvokeInstruction invoke) {
+        if (invoke.opcode() == Opcode.INVOKEINTERFACE || invoke.isInterface()) {
+            return null;
+        }
+        String name = invoke.name().stringValue();
+        String descriptor = invoke.type().stringValue();
+        String current = invoke.owner().asInternalName();
+        while (current != null) {
+            ClassModel model = classes.get(current);
+            if (model == null) {
+                return null;
+            }
+            for (MethodModel method : model.methods()) {
+                if (method.methodName().equalsString(name) && method.methodType().equalsString(descriptor)) {
+                    TrivialMethod trivial = trivialMethods.get(memberKey(current, name, descriptor));
+                    boolean isStatic = (method.flags().flagsMask() & ClassFile.ACC_STATIC) != 0;
+                    // 调用指令与方法的静态性必须一致，否则运行时会抛出IncompatibleClassChangeError
+                    return trivial != null && isStatic == (invoke.opcode() == Opcode.INVOKESTATIC) ? trivial : null;
+                }
+            }
+            current = model.superclass().map(ClassEntry::asInternalName).orElse(null);
+        }
+        return null;
+    }
+
+    private boolean cannotBeOverridden(Map<String, ClassModel> classes, Map<String, Set<String>> overridden,
+                                              InvokeInstruction invoke, TrivialMethod target) {
+        if (invoke.opcode() == Opcode.INVOKESTATIC || invoke.opcode() == Opcode.INVOKESPECIAL) {
+            return true;
+        }
+        if ((target.flags() & (ClassFile.ACC_PRIVATE | ClassFile.ACC_FINAL)) != 0
+                || (classes.get(target.owner()).flags().flagsMask() & ClassFile.ACC_FINAL) != 0) {
+            return true;
+        }
+        return closedWorld && !overridden.getOrDefault(target.owner(), Set.of())
+            .contains(invoke.name().stringValue() + invoke.type().stringValue());
+    }
+
+    /**
+     * 封闭世界假设下，计算每个类中被子类覆盖的方法（名称加描述符）
+     */
+    private static Map<String, Set<String>> overriddenMethods(Map<String, ClassModel> classes) {
+        Map<String, Set<String>> overridden = new ConcurrentHashMap<>();
+        classes.values().parallelStream().forEach(model -> {
+            Set<String> declared = new HashSet<>();
+            for (MethodModel method : model.methods()) {
+                if ((method.flags().flagsMask() & (ClassFile.ACC_STATIC | ClassFile.ACC_PRIVATE)) == 0) {
+                    declared.add(method.methodName().stringValue() + method.methodType().stringValue());
+                }
+            }
+            String current = model.superclass().map(ClassEntry::asInternalName).orElse(null);
+            while (current != null && classes.containsKey(current)) {
+                overridden.computeIfAbsent(current, c -> ConcurrentHashMap.newKeySet()).addAll(declared);
+                current = classes.get(current).superclass().map(ClassEntry::asInternalName).orElse(null);
+            }
+        });
+        return overridden;
+    }
+
+    /**
+     * 判断调用方能否直接访问简单方法读写的字段
+     */
+    private static boolean accessible(Map<String, ClassModel> classes, String caller, TrivialMethod target) {
+        String owner = target.owner();
+        if (owner.equals(caller)) {
+            return true;
+        }
+        ClassModel ownerModel = classes.get(owner);
+        if (target.kind() == Kind.CONSTANT) {
+            // 直接加载常量会跳过invokestatic触发的类初始化
+            return (target.flags() & ClassFile.ACC_STATIC) == 0
+                || ownerModel.methods().stream().noneMatch(m -> m.methodName().equalsString("<clinit>"));
+        }
+        FieldModel field = ownerModel.fields().stream()
+            .filter(f -> f.fieldName().equalsString(target.field().name().stringValue())
+                && f.fieldType().equalsString(target.field().type().stringValue()))
+            .findFirst()
+            .orElse(null);
+        if (field == null) {
+            return false;
+        }
+        int fieldFlags = field.flags().flagsMask();
+        // final字段只能在声明类中写入
+        if ((fieldFlags & ClassFile.ACC_FINAL) != 0
+                && (target.kind() == Kind.SETTER || target.kind() == Kind.STATIC_SETTER)) {
+            return false;
+        }
+        boolean samePackage = packageOf(owner).equals(packageOf(caller));
+        boolean classAccessible = samePackage || (ownerModel.flags().flagsMask() & ClassFile.ACC_PUBLIC) != 0;
+        if ((fieldFlags & ClassFile.ACC_PUBLIC) != 0) {
+            return classAccessible;
+        }
+        if ((fieldFlags & ClassFile.ACC_PRIVATE) != 0) {
+            return nestHost(classes, owner).equals(nestHost(classes, caller));
+        }
+        return samePackage;
+    }
+
+    private static String nestHost(Map<String, ClassModel> classes, String className) {
+        ClassModel model = classes.get(className);
+        if (model == null) {
+            return className;
+        }
+        return model.findAttribute(Attributes.nestHost())
+            .map(NestHostAttribute::nestHost)
+            .map(ClassEntry::asInternalName)
+            .orElse(className);
+    }
+
+    private static String packageOf(String internalName) {
+        int slash = internalName.lastIndexOf('/');
+        return slash < 0 ? "" : internalName.substring(0, slash);
+    }
+
+    /**
+     * 简单方法调用自身（例如递归的常量方法）时不替换
+     */
+    private static boolean isSelfCall(String caller, MethodModel method, InvokeInstruction invoke) {
+        return invoke.owner().asInternalName().equals(caller)
+            && method.methodName().equalsString(invoke.name().stringValue())
+            && method.methodType().equalsString(invoke.type().stringValue());
+    }
+
+    private static String memberKey(String owner, String name, String descriptor) {
+        return owner + "." + name + ":" + descriptor;
+    }
+
+    // ================= Rewriting =================
+
+    private static CodeTransform inlineCode(Map<Integer, TrivialMethod> sites) {
+        return CodeTransform.ofStateful(() -> new CodeTransform() {
+            private int index = 0;
+
+            @Override
+            public void accept(CodeBuilder builder, CodeElement element) {
+                TrivialMethod target = sites.get(index++);
+                if (target == null) {
+                    builder.with(element);
+                    return;
+                }
+                FieldInstruction field = target.field();
+                switch (target.kind()) {
+                    case GETTER -> builder.getfield(field.owner().asSymbol(), field.name().stringValue(),
+                        field.typeSymbol());
+                    case SETTER -> builder.putfield(field.owner().asSymbol(), field.name().stringValue(),
+                        field.typeSymbol());
+                    case STATIC_GETTER -> builder.getstatic(field.owner().asSymbol(), field.name().stringValue(),
+                        field.typeSymbol());
+                    case STATIC_SETTER -> builder.putstatic(field.owner().asSymbol(), field.name().stringValue(),
+                        field.typeSymbol());
+                    case CONSTANT -> {
+                        if ((target.flags() & ClassFile.ACC_STATIC) == 0) {
+                            // 保留对接收者的空指针检查
+                            builder.invokestatic(CD_OBJECTS, "requireNonNull", MTD_REQUIRE_NON_NULL).pop();
+                        }
+                        builder.loadConstant(target.constant());
+                    }
+                }
+            }
+        });
+    }
+}
@@ -0,0 +1,500 @@
+package org.yanhuang.learning.jdk24.classapi;
+
+import java.io.IOException;
+import java.lang.classfile.*;
+import java.lang.classfile.instruction.*;
+import java.lang.constant.ClassDesc;
+import java.lang.constant.ConstantDescs;
+import java.nio.file.Path;
+import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * 装箱分析与包装类型字段拆箱转换
+ * <p>
+ * 分析部分查找所有 {@code W.valueOf(p)} 装箱和 {@code W.pValue()} 拆箱调用，
+ * 通过回边（跳转到前面的标签）确定循环范围，按所在循环的嵌套深度排序，循环内的装箱最容易造成年轻代GC压力。
+ * <p>
+ * 转换部分（可选）把 private 包装类型字段改为对应的基本类型，要求字段的所有使用都允许这样做：
+ * <ul>
+ *     <li>每次写入前紧接着 {@code W.valueOf(p)}，即从不写入null</li>
+ *     <li>每次读取后紧接着 {@code W.pValue()}，即从不把字段当作对象使用</li>
+ *     <li>没有其他类（例如嵌套类）直接访问该字段，字段上没有注解</li>
+ *     <li>字段被读取时，每个构造方法（静态字段为&lt;clinit&gt;）都会写入它，避免把原本的空指针异常变成读到0</li>
+ * </ul>
+ * 实现了 Serializable 的类默认跳过，因为字段类型变化会改变序列化格式。通过反射访问字段的代码无法识别。
+ */
+public class BoxingAnalyzer {
+
+    private static final Map<String, ClassDesc> WRAPPERS = Map.of(
+        "java/lang/Integer", ConstantDescs.CD_int,
+        "java/lang/Long", ConstantDescs.CD_long,
+        "java/lang/Short", ConstantDescs.CD_short,
+        "java/lang/Byte", ConstantDescs.CD_byte,
+        "java/lang/Character", ConstantDescs.CD_char,
+        "java/lang/Boolean", ConstantDescs.CD_boolean,
+        "java/lang/Float", ConstantDescs.CD_float,
+        "java/lang/Double", ConstantDescs.CD_double);
+
+    private final ClassFileToolkit toolkit = new ClassFileToolkit();
+    private boolean includeSerializable = false;
+
+    /**
+     * 装箱点的种类
+     */
+    public enum Kind {
+        BOX, UNBOX
+    }
+
+    /**
+     * 一个装箱或拆箱调用
+     *
+     * @param className 所在类的内部名称
+     * @param method 所在方法的名称和描述符
+     * @param kind 装箱或拆箱
+     * @param wrapper 包装类型的内部名称
+     * @param loopDepth 所在循环的嵌套深度，0表示不在循环内
+     * @param line 源码行号，没有行号表时为-1
+     */
+    public record BoxingSite(String className, String method, Kind kind, String wrapper, int loopDepth, int line) {
+    }
+
+    /**
+     * 装箱分析报告
+     *
+     * @param sites 所有装箱和拆箱调用，按循环深度从深到浅排序
+     */
+    public record BoxingReport(List<BoxingSite> sites) {
+        public long boxCount() {
+            return sites.stream().filter(site -> site.kind() == Kind.BOX).count();
+        }
+
+        public long unboxCount() {
+            return sites.stream().filter(site -> site.kind() == Kind.UNBOX).count();
+        }
+
+        public long inLoopCount() {
+            return sites.stream().filter(site -> site.loopDepth() > 0).count();
+        }
+
+        /**
+         * @return 每个方法中的调用数量，按循环内调用数和总数从多到少排序
+         */
+        public Map<String, Long> hotMethods() {
+            Map<String, long[]> counts = new HashMap<>();
+            for (BoxingSite site : sites) {
+                long[] count = counts.computeIfAbsent(site.className() + "." + site.method(), m -> new long[2]);
+                count[0] += site.loopDepth() > 0 ? 1 : 0;
+                count[1]++;
+            }
+            Map<String, Long> ranked = new LinkedHashMap<>();
+            counts.entrySet().stream()
+                .sorted(Comparator.comparingLong((Map.Entry<String, long[]> e) -> e.getValue()[0])
+                    .thenComparingLong(e -> e.getValue()[1])
+                    .reversed())
+                .forEach(e -> ranked.put(e.getKey(), e.getValue()[1]));
+            return ranked;
+        }
+    }
+
+    /**
+     * 一个包装类型字段的转换结果
+     *
+     * @param owner 字段所在类的内部名称
+     * @param field 字段名
+     * @param wrapper 原包装类型的内部名称
+     * @param converted 是否已改为基本类型
+     * @param reason 没有转换的原因，转换成功时为null
+     */
+    public record FieldCandidate(String owner, String field, String wrapper, boolean converted, String reason) {
+    }
+
+    /**
+     * 字段拆箱转换结果
+     *
+     * @param classes 被修改的类，内部类名到字节码的映射
+     * @param candidates 所有 private 包装类型字段及其转换结果
+     */
+    public record UnboxingResult(Map<String, byte[]> classes, List<FieldCandidate> candidates) {
+    }
+
+    /** 字段转换计划：需要删除的装箱/拆箱调用位置和需要改写的字段指令位置，按方法区分 */
+    private record FieldPlan(FieldModel field, ClassDesc primitive, Map<String, Set<Integer>> dropped,
+                             Map<String, Set<Integer>> accesses) {
+    }
+
+    /**
+     * 设置是否转换实现了 Serializable 的类中的字段，默认不转换
+     */
+    public BoxingAnalyzer setIncludeSerializable(boolean includeSerializable) {
+        this.includeSerializable = includeSerializable;
+        return this;
+    }
+
+    // ================= Analysis =================
+
+    /**
+     * 分析一组jar中的装箱和拆箱调用
+     *
+     * @param jarPaths jar路径列表
+     * @return 分析报告
+     * @throws IOException 如果文件读取失败
+     */
+    public BoxingReport analyze(List<Path> jarPaths) throws IOException {
+        return analyze(toolkit.readClasspath(jarPaths));
+    }
+
+    /**
+     * 并行分析一组类中的装箱和拆箱调用
+     *
+     * @param classes 内部类名到类模型的映射
+     * @return 分析报告
+     */
+    public BoxingReport analyze(Map<String, ClassModel> classes) {
+        List<BoxingSite> sites = classes.values().parallelStream()
+            .flatMap(model -> analyze(model).stream())
+            .sorted(Comparator.comparingInt(BoxingSite::loopDepth).reversed()
+                .thenComparing(BoxingSite::className)
+                .thenComparing(BoxingSite::method))
+            .toList();
+        return new BoxingReport(sites);
+    }
+
+    /**
+     * 分析单个类中的装箱和拆箱调用
+     *
+     * @param model 类模型
+     * @return 装箱和拆箱调用
+     */
+    public List<BoxingSite> analyze(ClassModel model) {
+        String owner = model.thisClass().asInternalName();
+        List<BoxingSite> sites = new ArrayList<>();
+        for (MethodModel method : model.methods()) {
+            if (method.code().isEmpty()) {
+                continue;
+            }
+            String methodKey = method.methodName().stringValue() + method.methodType().stringValue();
+            List<CodeElement> elements = method.code().get().elementList();
+            int[] loopDepth = toolkit.loopDepths(elements);
+            int line = -1;
+            for (int i = 0; i < elements.size(); i++) {
+                CodeElement element = elements.get(i);
+                if (element instanceof LineNumber lineNumber) {
+                    line = lineNumber.line();
+                } else if (element instanceof InvokeInstruction invoke) {
+                    Kind kind = isBox(invoke) ? Kind.BOX : isUnbox(invoke) ? Kind.UNBOX : null;
+                    if (kind != null) {
+                        sites.add(new BoxingSite(owner, methodKey, kind, invoke.owner().asInternalName(),
+                            loopDepth[i], line));
+                    }
+                }
+            }
+        }
+        return sites;
+    }
+
+    private static boolean isBox(InvokeInstruction invoke) {
+        return invoke.opcode() == Opcode.INVOKESTATIC
+            && WRAPPERS.containsKey(invoke.owner().asInternalName())
+            && invoke.name().equalsString("valueOf")
+            && invoke.typeSymbol().parameterCount() == 1
+            && invoke.typeSymbol().parameterType(0).isPrimitive();
+    }
+
+    private static boolean isUnbox(InvokeInstruction invoke) {
+        String owner = invoke.owner().asInternalName();
+        return invoke.opcode() == Opcode.INVOKEVIRTUAL
+            && (WRAPPERS.containsKey(owner) || owner.equals("java/lang/Number"))
+            && invoke.name().stringValue().endsWith("Value")
+            && invoke.typeSymbol().parameterCount() == 0
+            && invoke.typeSymbol().returnType().isPrimitive();
+    }
+
+    // ================= Field unboxing =================
+
+    /**
+     * 把jar中符合条件的 private 包装类型字段改为基本类型，非类文件条目和没有变化的类原样保留
+     *
+     * @param inputJar 输入jar路径
+     * @param outputJar 输出jar路径
+     * @return 转换结果
+     * @throws IOException 如果文件读取或写入失败
+     */
+    public UnboxingResult unboxFieldsInJar(Path inputJar, Path outputJar) throws IOException {
+        return unboxFieldsInJar(inputJar, outputJar, List.of());
+    }
+
+    /**
+     * 同 {@link #unboxFieldsInJar(Path, Path)}，并用类路径上的依赖jar解析类层次，
+     * 被转换的类继承依赖中的类时，生成栈映射帧需要这些依赖
+     *
+     * @param inputJar 输入jar路径
+     * @param outputJar 输出jar路径
+     * @param classpath 依赖jar路径，按类路径顺序排列
+     * @return 转换结果
+     * @throws IOException 如果文件读取或写入失败
+     */
+    public UnboxingResult unboxFieldsInJar(Path inputJar, Path outputJar, List<Path> classpath) throws IOException {
+        Map<String, byte[]> entries = toolkit.readJar(inputJar);
+        UnboxingResult result = unboxFields(toolkit.readClasspath(List.of(inputJar)),
+            toolkit.readClasspath(classpath).values());
+
+        Map<String, byte[]> output = new LinkedHashMap<>();
+        entries.forEach((name, bytes) -> {
+            String className = name.endsWith(".class") ? name.substring(0, name.length() - ".class".length()) : null;
+            output.put(name, className != null && result.classes().containsKey(className)
+                ? result.classes().get(className)
+                : bytes);
+        });
+        toolkit.writeJar(outputJar, output);
+        return result;
+    }
+
+    /**
+     * 并行转换一组类中符合条件的 private 包装类型字段
+     *
+     * @param classes 内部类名到类模型的映射
+     * @return 转换结果
+     */
+    public UnboxingResult unboxFields(Map<String, ClassModel> classes) {
+        return unboxFields(classes, List.of());
+    }
+
+    /**
+     * 同 {@link #unboxFields(Map)}，并用依赖中的类解析类层次
+     *
+     * @param classes 内部类名到类模型的映射
+     * @param dependencies 依赖中的类模型，只用于解析类层次，不会被转换
+     * @return 转换结果
+     */
+    public UnboxingResult unboxFields(Map<String, ClassModel> classes, Collection<ClassModel> dependencies) {
+        ClassFile classFile = ClassFile.of(ClassFile.ClassHierarchyResolverOption.of(
+            toolkit.hierarchyResolver(classes.values(), dependencies)));
+
+        // 被其他类直接访问的字段，格式为 owner.name
+        Set<String> externalAccesses = ConcurrentHashMap.newKeySet();
+        classes.values().parallelStream().forEach(model -> {
+            String self = model.thisClass().asInternalName();
+            for (MethodModel method : model.methods()) {
+                method.code().ifPresent(code -> code.forEach(element -> {
+                    if (element instanceof FieldInstruction field && !field.owner().asInternalName().equals(self)) {
+                        externalAccesses.add(field.owner().asInternalName() + "." + field.name().stringValue());
+                    }
+                }));
+            }
+        });
+
+        Map<String, byte[]> output = new ConcurrentHashMap<>();
+        List<FieldCandidate> candidates = Collections.synchronizedList(new ArrayList<>());
+        classes.values().parallelStream().forEach(model -> {
+            String owner = model.thisClass().asInternalName();
+            List<FieldPlan> plans = new ArrayList<>();
+            for (FieldModel field : model.fields()) {
+                String descriptor = field.fieldType().stringValue();
+                String wrapper = descriptor.startsWith("L") ? descriptor.substring(1, descriptor.length() - 1) : null;
+                if ((field.flags().flagsMask() & ClassFile.ACC_PRIVATE) == 0 || wrapper == null
+                        || !WRAPPERS.containsKey(wrapper)) {
+                    continue;
+                }
+                String name = field.fieldName().stringValue();
+                String reason = externalAccesses.contains(owner + "." + name) ? "被其他类直接访问"
+                    : hasAnnotations(field) ? "字段上有注解"
+                    : !includeSerializable && isSerializable(model) ? "类实现了Serializable"
+                    : null;
+                FieldPlan plan = null;
+                if (reason == null) {
+                    plan = new FieldPlan(field, WRAPPERS.get(wrapper), new HashMap<>(), new HashMap<>());
+                    reason = planField(model, plan);
+                }
+                candidates.add(new FieldCandidate(owner, name, wrapper, reason == null, reason));
+                if (reason == null) {
+                    plans.add(plan);
+                }
+            }
+            if (!plans.isEmpty()) {
+                output.put(owner, rewrite(classFile, model, plans));
+            }
+        });
+
+        List<FieldCandidate> sorted = new ArrayList<>(candidates);
+        sorted.sort(Comparator.comparing(FieldCandidate::owner).thenComparing(FieldCandidate::field));
+        return new UnboxingResult(output, sorted);
+    }
+
+    /**
+     * 检查字段的所有使用并填充转换计划
+     *
+     * @return 不能转换的原因，可以转换时返回null
+     */
+    private static String planField(ClassModel model, FieldPlan plan) {
+        String owner = model.thisClass().asInternalName();
+        String name = plan.field().fieldName().stringValue();
+        String wrapper = plan.field().fieldTypeSymbol().descriptorString();
+        boolean isStatic = (plan.field().flags().flagsMask() & ClassFile.ACC_STATIC) != 0;
+        boolean read = false;
+        boolean initializedEverywhere = true;
+
+        for (MethodModel method : model.methods()) {
+            if (method.code().isEmpty()) {
+                continue;
+            }
+            String methodKey = method.methodName().stringValue() + method.methodType().stringValue();
+            List<CodeElement> elements = method.code().get().elementList();
+            Set<Label> branchTargets = branchTargets(elements);
+            boolean written = false;
+            boolean delegates = false;
+            for (int i = 0; i < elements.size(); i++) {
+                CodeElement element = elements.get(i);
+                if (element instanceof InvokeInstruction invoke && invoke.opcode() == Opcode.INVOKESPECIAL
+                        && invoke.name().equalsString("<init>") && invoke.owner().asInternalName().equals(owner)
+                        && method.methodName().equalsString("<init>")) {
+                    delegates = true;
+                }
+                if (!(element instanceof FieldInstruction access) || !access.owner().asInternalName().equals(owner)
+                        || !access.name().equalsString(name)) {
+                    continue;
+                }
+                switch (access.opcode()) {
+                    case PUTFIELD, PUTSTATIC -> {
+                        int box = previousInstruction(elements, i, branchTargets);
+                        if (box < 0 || !(elements.get(box) instanceof InvokeInstruction invoke) || !isBox(invoke)
+                                || !invoke.typeSymbol().returnType().descriptorString().equals(wrapper)) {
+                            return "写入的值不是直接装箱的结果（可能为null）";
+                        }
+                        plan.dropped().computeIfAbsent(methodKey, m -> new HashSet<>()).add(box);
+                        written = true;
+                    }
+                    default -> {
+                        int unbox = nextInstruction(elements, i, branchTargets);
+                        if (unbox < 0 || !(elements.get(unbox) instanceof InvokeInstruction invoke)
+                                || !isUnbox(invoke) || !invoke.owner().descriptorString().equals(wrapper)
+                                || !invoke.typeSymbol().returnType().equals(plan.primitive())) {
+                            return "读取后没有立即拆箱为" + plan.primitive().displayName();
+                        }
+                        plan.dropped().computeIfAbsent(methodKey, m -> new HashSet<>()).add(unbox);
+                        read = true;
+                    }
+                }
+                plan.accesses().computeIfAbsent(methodKey, m -> new HashSet<>()).add(i);
+            }
+            boolean initializer = isStatic ? method.methodName().equalsString("<clinit>")
+                : method.methodName().equalsString("<init>") && !delegates;
+            if (initializer && !written) {
+                initializedEverywhere = false;
+            }
+        }
+        if (isStatic && model.methods().stream().noneMatch(m -> m.methodName().equalsString("<clinit>"))) {
+            initializedEverywhere = false;
+        }
+        if (read && !initializedEverywhere) {
+            return isStatic ? "静态初始化块没有写入该字段" : "存在没有写入该字段的构造方法";
+        }
+        return null;
+    }
+
+    private static boolean hasAnnotations(FieldModel field) {
+        return field.findAttribute(Attributes.runtimeVisibleAnnotations()).isPresent()
+            || field.findAttribute(Attributes.runtimeInvisibleAnnotations()).isPresent();
+    }
+
+    private static boolean isSerializable(ClassModel model) {
+        return model.interfaces().stream().anyMatch(i -> i.asInternalName().equals("java/io/Serializable"))
+            || model.fields().stream().anyMatch(f -> f.fieldName().equalsString("serialVersionUID"));
+    }
+
+    private static Set<Label> branchTargets(List<CodeElement> elements) {
+        Set<Label> targets = new HashSet<>();
+        for (CodeElement element : elements) {
+            switch (element) {
+                case BranchInstruction branch -> targets.add(branch.target());
+                case TableSwitchInstruction table -> {
+                    targets.add(table.defaultTarget());
+                    table.cases().forEach(c -> targets.add(c.target()));
+                }
+                case LookupSwitchInstruction lookup -> {
+                    targets.add(lookup.defaultTarget());
+                    lookup.cases().forEach(c -> targets.add(c.target()));
+                }
+                case ExceptionCatch handler -> targets.add(handler.handler());
+                default -> {
+                }
+            }
+        }
+        return targets;
+    }
+
+    private static int previousInstruction(List<CodeElement> elements, int index, Set<Label> branchTargets) {
+        for (int i = index - 1; i >= 0; i--) {
+            CodeElement element = elements.get(i);
+            if (element instanceof LabelTarget target && branchTargets.contains(target.label())) {
+                return -1;
+            }
+            if (element instanceof Instruction) {
+                return i;
+            }
+        }
+        return -1;
+    }
+
+    private static int nextInstruction(List<CodeElement> elements, int index, Set<Label> branchTargets) {
+        for (int i = index + 1; i < elements.size(); i++) {
+            CodeElement element = elements.get(i);
+            if (element instanceof LabelTarget target && branchTargets.contains(target.label())) {
+                return -1;
+            }
+            if (element instanceof Instruction) {
+                return i;
+            }
+        }
+        return -1;
+    }
+
+    private static byte[] rewrite(ClassFile classFile, ClassModel model, List<FieldPlan> plans) {
+        Map<String, ClassDesc> primitives = new HashMap<>();
+        Map<String, Set<Integer>> dropped = new HashMap<>();
+        Map<String, Set<Integer>> accesses = new HashMap<>();
+        for (FieldPlan plan : plans) {
+            primitives.put(plan.field().fieldName().stringValue(), plan.primitive());
+            plan.dropped().forEach((method, indexes) ->
+                dropped.computeIfAbsent(method, m -> new HashSet<>()).addAll(indexes));
+            plan.accesses().forEach((method, indexes) ->
+                accesses.computeIfAbsent(method, m -> new HashSet<>()).addAll(indexes));
+        }
+
+        return classFile.transformClass(model, (builder, element) -> {
+            switch (element) {
+                case FieldModel field when primitives.containsKey(field.fieldName().stringValue()) ->
+                    builder.withField(field.fieldName().stringValue(), primitives.get(field.fieldName().stringValue()),
+                        fieldBuilder -> fieldBuilder.transform(field, FieldTransform.ACCEPT_ALL));
+                case MethodModel method when dropped.containsKey(
+                        method.methodName().stringValue() + method.methodType().stringValue()) -> {
+                    String key = method.methodName().stringValue() + method.methodType().stringValue();
+                    builder.transformMethod(method, MethodTransform.transformingCode(
+                        rewriteCode(dropped.get(key), accesses.getOrDefault(key, Set.of()), primitives)));
+                }
+                default -> builder.with(element);
+            }
+        });
+    }
+
+    private static CodeTransform rewriteCode(Set<Integer> dropped, Set<Integer> accesses,
+                                             Map<String, ClassDesc> primitives) {
+        return CodeTransform.ofStateful(() -> new CodeTransform() {
+            private int index = 0;
+
+            @Override
+            public void accept(CodeBuilder builder, CodeElement element) {
+                int current = index++;
+                if (dropped.contains(current)) {
+                    return;
+                }
+                if (accesses.contains(current) && element instanceof FieldInstruction field) {
+                    builder.fieldAccess(field.opcode(), field.owner().asSymbol(), field.name().stringValue(),
+                        primitives.get(field.name().stringValue()));
+                    return;
+                }
+                builder.with(element);
+            }
+        });
+    }
+}
@@ -0,0 +1,347 @@
+package org.yanhuang.learning.jdk24.classapi;
+
+import java.io.IOException;
+import java.lang.classfile.*;
+import java.lang.classfile.constantpool.ClassEntry;
+import java.lang.classfile.instruction.*;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * CDS/AOT类列表生成器
+ * 不需要训练运行，直接通过静态分析生成 -XX:SharedClassListFile 可用的类列表：
+ * 从入口类的main方法出发，模拟类的加载和初始化顺序（父类先于子类、&lt;clinit&gt;、构造函数调用链），
+ * 按首次加载的顺序输出类名。同时报告无法被CDS归档的类，例如旧版本类文件或无法通过校验的字节码。
+ */
+public class CdsClassListGenerator {
+
+    private static final String MAIN_DESCRIPTOR = "([Ljava/lang/String;)V";
+
+    /** 低于此版本（JDK 6）的类文件使用旧的类型推导校验器 */
+    private static final int SPLIT_VERIFIER_VERSION = 50;
+
+    private final ClassFileToolkit toolkit = new ClassFileToolkit();
+
+    /**
+     * 无法归档的类
+     *
+     * @param className 类的内部名称
+     * @param reason 原因
+     */
+    public record ArchiveIssue(String className, String reason) {
+    }
+
+    /**
+     * 生成结果
+     *
+     * @param classList 按预计加载顺序排列的类列表（内部名称）
+     * @param issues 无法归档的类
+     */
+    public record ClassListResult(List<String> classList, List<ArchiveIssue> issues) {
+    }
+
+    /**
+     * 为类路径上的应用生成类列表
+     *
+     * @param jarPaths 按类路径顺序排列的jar文件路径
+     * @param entryClasses 入口类名，例如 "com.example.Main"
+     * @return 生成结果
+     * @throws IOException 如果文件读取失败
+     */
+    public ClassListResult generate(List<Path> jarPaths, List<String> entryClasses) throws IOException {
+        return generate(toolkit.readClasspath(jarPaths), entryClasses);
+    }
+
+    /**
+     * 为给定的类集合生成类列表
+     *
+     * @param classes 内部类名到类模型的映射
+     * @param entryClasses 入口类名，例如 "com.example.Main"
+     * @return 生成结果
+     */
+    public ClassListResult generate(Map<String, ClassModel> classes, List<String> entryClasses) {
+        LoadOrderSimulation simulation = new LoadOrderSimulation(classes);
+        for (String entryClass : entryClasses) {
+            String name = entryClass.replace('.', '/');
+            simulation.initialize(name);
+            simulation.walkMethod(name, "main", MAIN_DESCRIPTOR);
+        }
+        return new ClassListResult(List.copyOf(simulation.loaded), findArchiveIssues(classes));
+    }
+
+    /**
+     * 将类列表写入文件，每行一个类的内部名称
+     *
+     * @param result 生成结果
+     * @param classListFile 输出文件路径
+     * @throws IOException 如果文件写入失败
+     */
+    public void writeClassList(ClassListResult result, Path classListFile) throws IOException {
+        List<String> lines = new ArrayList<>();
+        lines.add("# Generated by static analysis, usable with -XX:SharedClassListFile");
+        lines.addAll(result.classList());
+        Files.write(classListFile, lines);
+    }
+
+    /**
+     * 并行检查所有类，找出CDS无法归档的类
+     */
+    private List<ArchiveIssue> findArchiveIssues(Map<String, ClassModel> classes) {
+        ClassFile verifier = ClassFile.of(ClassFile.ClassHierarchyResolverOption.of(
+            toolkit.hierarchyResolver(classes.values())));
+        List<ArchiveIssue> issues = Collections.synchronizedList(new ArrayList<>());
+
+        classes.values().parallelStream().forEach(model -> {
+            String name = model.thisClass().asInternalName();
+            if (model.majorVersion() < SPLIT_VERIFIER_VERSION) {
+                issues.add(new ArchiveIssue(name, "类文件版本 " + model.majorVersion()
+                    + " 低于 " + SPLIT_VERIFIER_VERSION + "，需要旧校验器"));
+            }
+            for (ClassEntry superType : superTypes(model)) {
+                String superName = superType.asInternalName();
+                if (!classes.containsKey(superName) && ClassLoader.getSystemResource(superName + ".class") == null) {
+                    issues.add(new ArchiveIssue(name, "找不到父类型 " + superName));
+                }
+            }
+            if (model.majorVersion() >= SPLIT_VERIFIER_VERSION) {
+                List<VerifyError> errors = verifier.verify(model);
+                if (!errors.isEmpty()) {
+                    issues.add(new ArchiveIssue(name, "字节码校验失败: " + errors.getFirst().getMessage()));
+                }
+            }
+        });
+
+        List<ArchiveIssue> sorted = new ArrayList<>(issues);
+        sorted.sort(Comparator.comparing(ArchiveIssue::className));
+        return sorted;
+    }
+
+    private static List<ClassEntry> superTypes(ClassModel model) {
+        List<ClassEntry> superTypes = new ArrayList<>(model.interfaces());
+        model.superclass().ifPresent(superTypes::add);
+        return superTypes;
+    }
+
+    /**
+     * 模拟类加载和初始化顺序
+     * 类加载时先加载父类和接口；类初始化时先初始化父类，再初始化声明了默认方法的父接口，最后执行&lt;clinit&gt;；
+     * 方法体按指令顺序遍历，new/invokestatic/getstatic/putstatic触发初始化，其他类型引用触发加载。
+     * 调用链可能很深，用显式的任务栈代替递归：触发的初始化和方法遍历压在当前方法之上，
+     * 处理完后再继续当前方法的下一条指令，与递归的顺序一致
+     */
+    private final class LoadOrderSimulation {
+        private final Map<String, ClassModel> classes;
+        private final Set<String> loaded = new LinkedHashSet<>();
+        private final Set<String> initialized = new HashSet<>();
+        private final Set<String> visitedMethods = new HashSet<>();
+        private final Map<String, Boolean> systemClasses = new ConcurrentHashMap<>();
+        private final Deque<Task> tasks = new ArrayDeque<>();
+
+        /** 待处理的任务 */
+        private sealed interface Task {
+        }
+
+        /** 初始化类或接口 */
+        private record Initialize(String name) implements Task {
+        }
+
+        /** 初始化接口及其父接口中声明了默认方法的接口 */
+        private record InitializeInterfaces(String name) implements Task {
+        }
+
+        /** 查找并遍历方法 */
+        private record WalkMethod(String owner, String name, String descriptor) implements Task {
+        }
+
+        /** 正在遍历的方法体，保存下一条要处理的指令 */
+        private record WalkCode(Iterator<CodeElement> elements) implements Task {
+        }
+
+        LoadOrderSimulation(Map<String, ClassModel> classes) {
+            this.classes = classes;
+        }
+
+        void initialize(String name) {
+            tasks.push(new Initialize(name));
+            run();
+        }
+
+        void walkMethod(String owner, String name, String descriptor) {
+            tasks.push(new WalkMethod(owner, name, descriptor));
+            run();
+        }
+
+        void load(String internalName) {
+            String name = toolkit.elementClassName(internalName);
+            if (name == null || loaded.contains(name)) {
+                return;
+            }
+            ClassModel model = classes.get(name);
+            if (model == null) {
+                // 运行时中的类同样会被归档
+                if (systemClasses.computeIfAbsent(name, n -> ClassLoader.getSystemResource(n + ".class") != null)) {
+                    loaded.add(name);
+                }
+                return;
+            }
+            for (ClassEntry superType : superTypes(model)) {
+                load(superType.asInternalName());
+            }
+            loaded.add(name);
+        }
+
+        private void run() {
+            while (!tasks.isEmpty()) {
+                switch (tasks.peek()) {
+                    case Initialize initialize -> {
+                        tasks.pop();
+                        pushInitialization(initialize.name());
+                    }
+                    case InitializeInterfaces interfaces -> {
+                        tasks.pop();
+                        pushInterfaceInitialization(interfaces.name());
+                    }
+                    case WalkMethod method -> {
+                        tasks.pop();
+                        pushMethod(method.owner(), method.name(), method.descriptor());
+                    }
+                    case WalkCode code -> {
+                        if (code.elements().hasNext()) {
+                            visit(code.elements().next());
+                        } else {
+                            tasks.pop();
+                        }
+                    }
+                }
+            }
+        }
+
+        /**
+         * 任务栈后进先出，按与执行顺序相反的顺序压栈：&lt;clinit&gt;、父接口、父类
+         */
+        private void pushInitialization(String name) {
+            if (!initialized.add(name)) {
+                return;
+            }
+            load(name);
+            ClassModel model = classes.get(name);
+            if (model == null) {
+                return;
+            }
+            tasks.push(new WalkMethod(name, "<clinit>", "()V"));
+            // 接口初始化时不初始化父接口
+            if ((model.flags().flagsMask() & ClassFile.ACC_INTERFACE) == 0) {
+                for (ClassEntry iface : model.interfaces().reversed()) {
+                    tasks.push(new InitializeInterfaces(iface.asInternalName()));
+                }
+                model.superclass().ifPresent(superClass -> tasks.push(new Initialize(superClass.asInternalName())));
+            }
+        }
+
+        /**
+         * 类初始化时，直接和间接父接口中声明了非抽象实例方法（默认方法）的接口按深度优先顺序先被初始化
+         */
+        private void pushInterfaceInitialization(String name) {
+            ClassModel model = classes.get(name);
+            if (model == null) {
+                return;
+            }
+            if (declaresDefaultMethod(model)) {
+                tasks.push(new Initialize(name));
+            }
+            for (ClassEntry superInterface : model.interfaces().reversed()) {
+                tasks.push(new InitializeInterfaces(superInterface.asInternalName()));
+            }
+        }
+
+        private void pushMethod(String owner, String name, String descriptor) {
+            ClassModel model = classes.get(owner);
+            while (model != null) {
+                Optional<MethodModel> method = findMethod(model, name, descriptor);
+                if (method.isPresent()) {
+                    pushCode(model, method.get());
+                    return;
+                }
+                // 静态方法和实例方法都可能继承自父类
+                model = model.superclass().map(superClass -> classes.get(superClass.asInternalName())).orElse(null);
+            }
+            // 父类中没有时，实例方法可能是接口的默认方法
+            Deque<String> pending = new ArrayDeque<>();
+            Set<String> seen = new HashSet<>();
+            for (ClassModel current = classes.get(owner); current != null;
+                 current = current.superclass().map(superClass -> classes.get(superClass.asInternalName())).orElse(null)) {
+                current.interfaces().forEach(iface -> pending.add(iface.asInternalName()));
+            }
+            while (!pending.isEmpty()) {
+                ClassModel iface = classes.get(pending.poll());
+                if (iface == null || !seen.add(iface.thisClass().asInternalName())) {
+                    continue;
+                }
+                Optional<MethodModel> method = findMethod(iface, name, descriptor)
+                    .filter(candidate -> (candidate.flags().flagsMask() & ClassFile.ACC_ABSTRACT) == 0);
+                if (method.isPresent()) {
+                    pushCode(iface, method.get());
+                    return;
+                }
+                iface.interfaces().forEach(superInterface -> pending.add(superInterface.asInternalName()));
+            }
+        }
+
+        private void pushCode(ClassModel model, MethodModel method) {
+            String key = model.thisClass().asInternalName() + "." + method.methodName().stringValue()
+                + method.methodType().stringValue();
+            if (visitedMethods.add(key)) {
+                method.code().ifPresent(code -> tasks.push(new WalkCode(code.elementList().iterator())));
+            }
+        }
+
+        /**
+         * 处理一条指令。触发的初始化要在方法遍历之前完成，因此后压栈
+         */
+        private void visit(CodeElement element) {
+            switch (element) {
+                case NewObjectInstruction newObject -> tasks.push(new Initialize(newObject.className().asInternalName()));
+                case InvokeInstruction invoke -> {
+                    String owner = invoke.owner().asInternalName();
+                    tasks.push(new WalkMethod(owner, invoke.name().stringValue(), invoke.type().stringValue()));
+                    if (invoke.opcode() == Opcode.INVOKESTATIC) {
+                        tasks.push(new Initialize(owner));
+                    } else {
+                        load(owner);
+                    }
+                }
+                case FieldInstruction field -> {
+                    String owner = field.owner().asInternalName();
+                    if (field.opcode() == Opcode.GETSTATIC || field.opcode() == Opcode.PUTSTATIC) {
+                        tasks.push(new Initialize(owner));
+                    } else {
+                        load(owner);
+                    }
+                }
+                case TypeCheckInstruction typeCheck -> load(typeCheck.type().asInternalName());
+                case NewReferenceArrayInstruction newArray -> load(newArray.componentType().asInternalName());
+                case NewMultiArrayInstruction newArray -> load(newArray.arrayType().asInternalName());
+                case ConstantInstruction.LoadConstantInstruction ldc -> {
+                    if (ldc.constantEntry() instanceof ClassEntry classEntry) {
+                        load(classEntry.asInternalName());
+                    }
+                }
+                default -> {
+                }
+            }
+        }
+
+        private static Optional<MethodModel> findMethod(ClassModel model, String name, String descriptor) {
+            return model.methods().stream()
+                .filter(method -> method.methodName().equalsString(name) && method.methodType().equalsString(descriptor))
+                .findFirst();
+        }
+
+        private static boolean declaresDefaultMethod(ClassModel model) {
+            return model.methods().stream().anyMatch(method ->
+                (method.flags().flagsMask() & (ClassFile.ACC_ABSTRACT | ClassFile.ACC_STATIC)) == 0);
+        }
+    }
+}
@@ -0,0 +1,456 @@
+package org.yanhuang.learning.jdk24.classapi;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.lang.classfile.*;
+import java.lang.classfile.attribute.*;
+import java.lang.classfile.constantpool.ClassEntry;
+import java.lang.classfile.instruction.*;
+import java.lang.constant.ClassDesc;
+import java.lang.constant.ConstantDesc;
+import java.lang.constant.DirectMethodHandleDesc;
+import java.lang.constant.DynamicConstantDesc;
+import java.lang.constant.MethodTypeDesc;
+import java.nio.file.Path;
+import java.util.*;
+import java.util.concurrent.CompletableFuture;
+
+/**
+ * 类和jar的结构化比较
+ * <p>
+ * 对类头、每个字段、每个方法和每个类级属性分别计算规范化的128位哈希，只比较哈希，时间与成员数量成线性关系。
+ * 规范化的含义是只哈希符号化的内容（类名、成员名、描述符、常量值、指令操作数），不哈希常量池索引，
+ * 因此重新编译导致的常量池顺序变化不会被视为修改；跳转目标按标签出现的顺序编号，与字节码偏移量无关。
+ * 默认忽略调试信息（行号表、局部变量表、SourceFile），只改动了其他方法时行号偏移不会影响未修改的方法。
+ * 方法分别计算签名哈希（访问标志、描述符、泛型签名、throws、注解等属性）和方法体哈希（Code属性），
+ * 以区分只修改了方法体的变化。
+ * <p>
+ * 比较jar时两个jar并行读取，类之间并行比较；{@link #diffAll} 可以同时比较多对jar。
+ */
+public class ClassDiff {
+
+    private final ClassFileToolkit toolkit = new ClassFileToolkit();
+    private boolean ignoreDebugInfo = true;
+
+    /**
+     * 成员种类，CLASS 表示类头（访问标志、父类、接口）
+     */
+    public enum MemberKind {
+        CLASS, FIELD, METHOD, ATTRIBUTE
+    }
+
+    /**
+     * 变化类型
+     */
+    public enum ChangeType {
+        ADDED, REMOVED, CHANGED
+    }
+
+    /**
+     * 一个成员的变化
+     *
+     * @param kind 成员种类
+     * @param name 成员标识：字段和方法为名称加描述符，属性为属性名
+     * @param change 变化类型
+     * @param bodyOnly 是否只有方法体变化，访问标志、泛型签名、throws 和注解都没变
+     */
+    public record MemberChange(MemberKind kind, String name, ChangeType change, boolean bodyOnly) {
+    }
+
+    /**
+     * 一个类的变化
+     *
+     * @param className 内部类名
+     * @param change 变化类型，新增和删除的类没有成员明细
+     * @param members 成员变化
+     */
+    public record ClassChange(String className, ChangeType change, List<MemberChange> members) {
+        /**
+         * @return 是否只有方法体发生变化（没有增删成员，字段、类头、属性和方法签名都没变），依赖方通常不需要重新编译
+         */
+        public boolean bodyOnly() {
+            return change == ChangeType.CHANGED && members.stream().allMatch(MemberChange::bodyOnly);
+        }
+    }
+
+    /**
+     * 比较结果
+     *
+     * @param changes 发生变化的类，按类名排序
+     * @param unchanged 没有变化的类的数量
+     */
+    public record DiffReport(List<ClassChange> changes, int unchanged) {
+        public List<String> changedClasses() {
+            return changes.stream().map(ClassChange::className).toList();
+        }
+
+        public boolean isEmpty() {
+            return changes.isEmpty();
+        }
+    }
+
+    /** 一个类所有成员的规范化哈希，键为 种类:名称；方法的签名哈希在 members 中，方法体哈希在 bodies 中 */
+    private record ClassHashes(String className, Map<String, ContentHasher.Hash128> members,
+                               Map<String, ContentHasher.Hash128> bodies) {
+    }
+
+    /**
+     * 设置是否忽略调试信息，默认忽略
+     */
+    public ClassDiff setIgnoreDebugInfo(boolean ignoreDebugInfo) {
+        this.ignoreDebugInfo = ignoreDebugInfo;
+        return this;
+    }
+
+    // ================= Comparing =================
+
+    /**
+     * 比较一个类的两个版本
+     *
+     * @param oldBytes 旧版本字节码
+     * @param newBytes 新版本字节码
+     * @return 变化，没有变化时返回空
+     */
+    public Optional<ClassChange> diff(byte[] oldBytes, byte[] newBytes) {
+        return diff(hash(toolkit.readClass(oldBytes)), hash(toolkit.readClass(newBytes)));
+    }
+
+    /**
+     * 比较一个jar的两个版本中的所有类，非类文件条目不参与比较
+     *
+     * @param oldJar 旧版本jar
+     * @param newJar 新版本jar
+     * @return 比较结果
+     * @throws IOException 如果文件读取失败
+     */
+    public DiffReport diff(Path oldJar, Path newJar) throws IOException {
+        CompletableFuture<Map<String, ClassHashes>> oldHashes = CompletableFuture.supplyAsync(() -> hashJar(oldJar));
+        try {
+            Map<String, ClassHashes> newHashes = hashJar(newJar);
+            return diff(toolkit.join(oldHashes), newHashes);
+        } catch (UncheckedIOException e) {
+            throw e.getCause();
+        }
+    }
+
+    /**
+     * 并行比较多对jar
+     *
+     * @param pairs 旧版本jar到新版本jar的映射
+     * @return 旧版本jar到比较结果的映射，顺序与参数相同
+     * @throws IOException 如果文件读取失败
+     */
+    public Map<Path, DiffReport> diffAll(Map<Path, Path> pairs) throws IOException {
+        Map<Path, CompletableFuture<DiffReport>> futures = new LinkedHashMap<>();
+        pairs.forEach((oldJar, newJar) -> futures.put(oldJar, CompletableFuture.supplyAsync(() -> {
+            try {
+                return diff(oldJar, newJar);
+            } catch (IOException e) {
+                throw new UncheckedIOException(e);
+            }
+        })));
+        Map<Path, DiffReport> reports = new LinkedHashMap<>();
+        for (Map.Entry<Path, CompletableFuture<DiffReport>> entry : futures.entrySet()) {
+            reports.put(entry.getKey(), toolkit.join(entry.getValue()));
+        }
+        return reports;
+    }
+
+    private Map<String, ClassHashes> hashJar(Path jar) {
+        Map<String, byte[]> entries;
+        try {
+            entries = toolkit.readJar(jar);
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+        Map<String, ClassHashes> hashes = new HashMap<>();
+        entries.entrySet().parallelStream()
+            .filter(entry -> toolkit.isClassEntry(entry.getKey()) && !entry.getKey().startsWith("META-INF/"))
+            .map(entry -> hash(toolkit.readClass(entry.getValue())))
+            .toList()
+            .forEach(classHashes -> hashes.put(classHashes.className(), classHashes));
+        return hashes;
+    }
+
+    private DiffReport diff(Map<String, ClassHashes> oldClasses, Map<String, ClassHashes> newClasses) {
+        Set<String> names = new HashSet<>(oldClasses.keySet());
+        names.addAll(newClasses.keySet());
+        List<ClassChange> changes = names.parallelStream()
+            .map(name -> {
+                ClassHashes before = oldClasses.get(name);
+                ClassHashes after = newClasses.get(name);
+                if (before == null) {
+                    return Optional.of(new ClassChange(name, ChangeType.ADDED, List.<MemberChange>of()));
+                }
+                if (after == null) {
+                    return Optional.of(new ClassChange(name, ChangeType.REMOVED, List.<MemberChange>of()));
+                }
+                return diff(before, after);
+            })
+            .flatMap(Optional::stream)
+            .sorted(Comparator.comparing(ClassChange::className))
+            .toList();
+        return new DiffReport(changes, names.size() - changes.size());
+    }
+
+    private static Optional<ClassChange> diff(ClassHashes before, ClassHashes after) {
+        List<MemberChange> members = new ArrayList<>();
+        before.members().forEach((key, hash) -> {
+            ContentHasher.Hash128 other = after.members().get(key);
+            if (other == null) {
+                members.add(memberChange(key, ChangeType.REMOVED, false));
+            } else if (!other.equals(hash)) {
+                members.add(memberChange(key, ChangeType.CHANGED, false));
+            } else if (!Objects.equals(before.bodies().get(key), after.bodies().get(key))) {
+                members.add(memberChange(key, ChangeType.CHANGED, true));
+            }
+        });
+        after.members().keySet().stream()
+            .filter(key -> !before.members().containsKey(key))
+            .forEach(key -> members.add(memberChange(key, ChangeType.ADDED, false)));
+        if (members.isEmpty()) {
+            return Optional.empty();
+        }
+        members.sort(Comparator.comparing(MemberChange::kind).thenComparing(MemberChange::name));
+        return Optional.of(new ClassChange(after.className(), ChangeType.CHANGED, members));
+    }
+
+    private static MemberChange memberChange(String key, ChangeType change, boolean bodyOnly) {
+        int colon = key.indexOf(':');
+        return new MemberChange(MemberKind.valueOf(key.substring(0, colon)), key.substring(colon + 1), change,
+            bodyOnly);
+    }
+
+    // ================= Canonical hashing =================
+
+    private ClassHashes hash(ClassModel model) {
+        Map<String, ContentHasher.Hash128> members = new HashMap<>();
+        Map<String, ContentHasher.Hash128> bodies = new HashMap<>();
+        ContentHasher hasher = new ContentHasher();
+
+        hasher.putInt(model.flags().flagsMask());
+        hasher.putString(model.superclass().map(ClassEntry::asInternalName).orElse(""));
+        hasher.putInt(model.interfaces().size());
+        model.interfaces().forEach(entry -> hasher.putString(entry.asInternalName()));
+        members.put(MemberKind.CLASS + ":" + model.thisClass().asInternalName(), hasher.finish());
+
+        for (FieldModel field : model.fields()) {
+            hasher.reset().putInt(field.flags().flagsMask()).putString(field.fieldType().stringValue());
+            field.attributes().forEach(attribute -> hashAttribute(hasher, attribute));
+            members.put(MemberKind.FIELD + ":" + field.fieldName().stringValue() + field.fieldType().stringValue(),
+                hasher.finish());
+        }
+        for (MethodModel method : model.methods()) {
+            String key = MemberKind.METHOD + ":" + method.methodName().stringValue() + method.methodType().stringValue();
+            hasher.reset().putInt(method.flags().flagsMask()).putString(method.methodType().stringValue());
+            CodeAttribute code = null;
+            for (Attribute<?> attribute : method.attributes()) {
+                if (attribute instanceof CodeAttribute codeAttribute) {
+                    code = codeAttribute;
+                } else {
+                    hashAttribute(hasher, attribute);
+                }
+            }
+            members.put(key, hasher.finish());
+            if (code != null) {
+                hasher.reset();
+                hashInstructions(hasher, code);
+                bodies.put(key, hasher.finish());
+            }
+        }
+        for (Attribute<?> attribute : model.attributes()) {
+            if (attribute instanceof BootstrapMethodsAttribute
+                    || ignoreDebugInfo && (attribute instanceof SourceFileAttribute
+                        || attribute instanceof SourceDebugExtensionAttribute)) {
+                // 引导方法已随 invokedynamic 指令一起哈希
+                continue;
+            }
+            hasher.reset();
+            hashAttribute(hasher, attribute);
+            members.merge(MemberKind.ATTRIBUTE + ":" + attribute.attributeName().stringValue(), hasher.finish(),
+                ContentHasher.Hash128::combine);
+        }
+        return new ClassHashes(model.thisClass().asInternalName(), members, bodies);
+    }
+
+    /**
+     * 哈希方法代码：指令的操作码和符号化操作数、异常表，标签按出现顺序编号
+     */
+    private void hashInstructions(ContentHasher hasher, CodeAttribute code) {
+        Map<Label, Integer> labels = new HashMap<>();
+        for (CodeElement element : code) {
+            switch (element) {
+                case Instruction instruction -> {
+                    hasher.putInt(instruction.opcode().ordinal());
+                    hashOperands(hasher, instruction, labels);
+                }
+                case LabelTarget target -> hasher.putInt(-1).putInt(label(labels, target.label()));
+                case ExceptionCatch handler -> {
+                    hasher.putInt(-2)
+                        .putInt(label(labels, handler.tryStart()))
+                        .putInt(label(labels, handler.tryEnd()))
+                        .putInt(label(labels, handler.handler()))
+                        .putString(handler.catchType().map(ClassEntry::asInternalName).orElse(""));
+                }
+                case LineNumber line when !ignoreDebugInfo -> hasher.putInt(-3).putInt(line.line());
+                case LocalVariable variable when !ignoreDebugInfo -> hasher.putInt(-4)
+                    .putInt(variable.slot())
+                    .putString(variable.name().stringValue())
+                    .putString(variable.type().stringValue());
+                default -> {
+                    // 栈映射帧由代码推导而来；其他调试信息按设置忽略
+                }
+            }
+        }
+    }
+
+    private static int label(Map<Label, Integer> labels, Label label) {
+        return labels.computeIfAbsent(label, l -> labels.size());
+    }
+
+    private static void hashOperands(ContentHasher hasher, Instruction instruction, Map<Label, Integer> labels) {
+        switch (instruction) {
+            case LoadInstruction load -> hasher.putInt(load.slot());
+            case StoreInstruction store -> hasher.putInt(store.slot());
+            case IncrementInstruction increment -> hasher.putInt(increment.slot()).putInt(increment.constant());
+            case ConstantInstruction constant -> hashConstant(hasher, constant.constantValue());
+            case BranchInstruction branch -> hasher.putInt(label(labels, branch.target()));
+            case TableSwitchInstruction table -> {
+                hasher.putInt(table.lowValue()).putInt(table.highValue())
+                    .putInt(label(labels, table.defaultTarget()));
+                table.cases().forEach(c -> hasher.putInt(c.caseValue()).putInt(label(labels, c.target())));
+            }
+            case LookupSwitchInstruction lookup -> {
+                hasher.putInt(label(labels, lookup.defaultTarget()));
+                lookup.cases().forEach(c -> hasher.putInt(c.caseValue()).putInt(label(labels, c.target())));
+            }
+            case FieldInstruction field -> hasher.putString(field.owner().asInternalName())
+                .putString(field.name().stringValue())
+                .putString(field.type().stringValue());
+            case InvokeInstruction invoke -> hasher.putString(invoke.owner().asInternalName())
+                .putString(invoke.name().stringValue())
+                .putString(invoke.type().stringValue())
+                .putBoolean(invoke.isInterface());
+            case InvokeDynamicInstruction invoke -> {
+                hasher.putString(invoke.name().stringValue()).putString(invoke.type().stringValue());
+                hashConstant(hasher, invoke.bootstrapMethod());
+                invoke.bootstrapArgs().forEach(arg -> hashConstant(hasher, arg));
+            }
+            case NewObjectInstruction newObject -> hasher.putString(newObject.className().asInternalName());
+            case NewPrimitiveArrayInstruction newArray -> hasher.putInt(newArray.typeKind().ordinal());
+            case NewReferenceArrayInstruction newArray -> hasher.putString(newArray.componentType().asInternalName());
+            case NewMultiArrayInstruction newArray -> hasher.putString(newArray.arrayType().asInternalName())
+                .putInt(newArray.dimensions());
+            case TypeCheckInstruction check -> hasher.putString(check.type().asInternalName());
+            default -> {
+                // 其他指令没有操作数，或操作数已由操作码决定
+            }
+        }
+    }
+
+    /**
+     * 哈希常量的完整符号内容。类和方法类型的 toString 只包含简单名称，不能用来区分不同包中的同名类
+     */
+    private static void hashConstant(ContentHasher hasher, ConstantDesc value) {
+        switch (value) {
+            case ClassDesc type -> hasher.putString("Class").putString(type.descriptorString());
+            case MethodTypeDesc type -> hasher.putString("MethodType").putString(type.descriptorString());
+            case DirectMethodHandleDesc handle -> hasher.putString("MethodHandle")
+                .putString(handle.kind().name())
+                .putString(handle.owner().descriptorString())
+                .putString(handle.methodName())
+                .putString(handle.lookupDescriptor());
+            case DynamicConstantDesc<?> dynamic -> {
+                hasher.putString("Dynamic")
+                    .putString(dynamic.constantName())
+                    .putString(dynamic.constantType().descriptorString());
+                hashConstant(hasher, dynamic.bootstrapMethod());
+                hasher.putInt(dynamic.bootstrapArgsList().size());
+                dynamic.bootstrapArgsList().forEach(arg -> hashConstant(hasher, arg));
+            }
+            // 类型名区分 1 和 1L、"1" 等
+            default -> hasher.putString(value.getClass().getSimpleName()).putString(String.valueOf(value));
+        }
+    }
+
+    /**
+     * 哈希属性的符号化内容。未知属性哈希原始字节，其他无法解析内容的属性只哈希名称
+     */
+    private void hashAttribute(ContentHasher hasher, Attribute<?> attribute) {
+        hasher.putString(attribute.attributeName().stringValue());
+        switch (attribute) {
+            case ConstantValueAttribute constant -> hashConstant(hasher, constant.constant().constantValue());
+            case SignatureAttribute signature -> hasher.putString(signature.signature().stringValue());
+            case ExceptionsAttribute exceptions ->
+                exceptions.exceptions().forEach(entry -> hasher.putString(entry.asInternalName()));
+            case RuntimeVisibleAnnotationsAttribute annotations ->
+                annotations.annotations().forEach(annotation -> hashAnnotation(hasher, annotation));
+            case RuntimeInvisibleAnnotationsAttribute annotations ->
+                annotations.annotations().forEach(annotation -> hashAnnotation(hasher, annotation));
+            case RuntimeVisibleParameterAnnotationsAttribute annotations ->
+                annotations.parameterAnnotations().forEach(parameter -> {
+                    hasher.putInt(parameter.size());
+                    parameter.forEach(annotation -> hashAnnotation(hasher, annotation));
+                });
+            case RuntimeInvisibleParameterAnnotationsAttribute annotations ->
+                annotations.parameterAnnotations().forEach(parameter -> {
+                    hasher.putInt(parameter.size());
+                    parameter.forEach(annotation -> hashAnnotation(hasher, annotation));
+                });
+            case AnnotationDefaultAttribute annotationDefault ->
+                hashAnnotationValue(hasher, annotationDefault.defaultValue());
+            case MethodParametersAttribute parameters -> parameters.parameters().forEach(parameter -> hasher
+                .putString(parameter.name().map(name -> name.stringValue()).orElse(""))
+                .putInt(parameter.flagsMask()));
+            case InnerClassesAttribute innerClasses -> innerClasses.classes().forEach(inner -> hasher
+                .putString(inner.innerClass().asInternalName())
+                .putString(inner.outerClass().map(ClassEntry::asInternalName).orElse(""))
+                .putString(inner.innerName().map(name -> name.stringValue()).orElse(""))
+                .putInt(inner.flagsMask()));
+            case EnclosingMethodAttribute enclosing -> hasher
+                .putString(enclosing.enclosingClass().asInternalName())
+                .putString(enclosing.enclosingMethod()
+                    .map(method -> method.name().stringValue() + method.type().stringValue()).orElse(""));
+            case NestHostAttribute nestHost -> hasher.putString(nestHost.nestHost().asInternalName());
+            case NestMembersAttribute nestMembers ->
+                nestMembers.nestMembers().forEach(entry -> hasher.putString(entry.asInternalName()));
+            case PermittedSubclassesAttribute permitted ->
+                permitted.permittedSubclasses().forEach(entry -> hasher.putString(entry.asInternalName()));
+            case RecordAttribute recordAttribute -> recordAttribute.components().forEach(component -> {
+                hasher.putString(component.name().stringValue()).putString(component.descriptor().stringValue());
+                component.attributes().forEach(nested -> hashAttribute(hasher, nested));
+            });
+            case SourceFileAttribute sourceFile -> hasher.putString(sourceFile.sourceFile().stringValue());
+            case UnknownAttribute unknown -> {
+                byte[] contents = unknown.contents();
+                hasher.putBytes(contents, 0, contents.length);
+            }
+            default -> {
+                // Deprecated、Synthetic 等没有内容；类型注解和模块属性只比较名称
+            }
+        }
+    }
+
+    private static void hashAnnotation(ContentHasher hasher, Annotation annotation) {
+        hasher.putString(annotation.className().stringValue()).putInt(annotation.elements().size());
+        for (AnnotationElement element : annotation.elements()) {
+            hasher.putString(element.name().stringValue());
+            hashAnnotationValue(hasher, element.value());
+        }
+    }
+
+    private static void hashAnnotationValue(ContentHasher hasher, AnnotationValue value) {
+        hasher.putInt(value.tag());
+        switch (value) {
+            case AnnotationValue.OfConstant constant -> hashConstant(hasher, constant.resolvedValue());
+            case AnnotationValue.OfClass type -> hasher.putString(type.className().stringValue());
+            case AnnotationValue.OfEnum enumValue -> hasher.putString(enumValue.className().stringValue())
+                .putString(enumValue.constantName().stringValue());
+            case AnnotationValue.OfAnnotation nested -> hashAnnotation(hasher, nested.annotation());
+            case AnnotationValue.OfArray array -> {
+                hasher.putInt(array.values().size());
+                array.values().forEach(element -> hashAnnotationValue(hasher, element));
+            }
+        }
+    }
+}
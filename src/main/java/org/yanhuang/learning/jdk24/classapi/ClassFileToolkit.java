@@ -1,18 +1,33 @@
 package org.yanhuang.learning.jdk24.classapi;
 
 import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.UncheckedIOException;
+import java.lang.ref.SoftReference;
 import java.lang.classfile.*;
 import java.lang.classfile.attribute.*;
 import java.lang.classfile.constantpool.*;
 import java.lang.classfile.instruction.*;
 import java.lang.constant.ClassDesc;
 import java.lang.constant.MethodTypeDesc;
+import java.net.URI;
+import java.nio.file.FileSystem;
+import java.nio.file.FileSystems;
 import java.nio.file.Files;
 import java.nio.file.Path;
 import java.util.*;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ConcurrentHashMap;
 import java.util.function.Consumer;
+import java.util.function.UnaryOperator;
+import java.util.regex.Pattern;
 import java.util.stream.Collectors;
 import java.util.stream.Stream;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipInputStream;
+import java.util.zip.ZipOutputStream;
 
 /**
  * 提供Class文件读取、写入和转换的工具类
@@ -27,7 +42,7 @@ public class ClassFileToolkit {
     /**
      * 读取类文件并返回ClassModel
      * 
-     * @param classPath 类文件路径
+     * @param classPath 类文件路径，可以是任意文件系统中的路径，例如 jrt:/ 中的 /modules/java.base/java/lang/Object.class
      * @return 类文件模型
      * @throws IOException 如果文件读取失败
      */
@@ -193,6 +208,726 @@ public class ClassFileToolkit {
         return localVars;
     }
 
+    /**
+     * 读取jar文件中的所有条目
+     * 返回的映射保持jar中原有的条目顺序，目录条目对应空字节数组
+     * 
+     * @param jarPath jar文件路径
+     * @return 条目名称到条目内容的映射
+     * @throws IOException 如果文件读取失败
+     */
+    public Map<String, byte[]> readJar(Path jarPath) throws IOException {
+        Map<String, byte[]> entries = new LinkedHashMap<>();
+        try (InputStream in = Files.newInputStream(jarPath);
+             ZipInputStream zin = new ZipInputStream(in)) {
+            ZipEntry entry;
+            while ((entry = zin.getNextEntry()) != null) {
+                entries.put(entry.getName(), entry.isDirectory() ? new byte[0] : zin.readAllBytes());
+            }
+        }
+        return entries;
+    }
+    
+    /**
+     * 并行读取类路径上所有jar中的类
+     * 与类加载器的语义一致，同名类以类路径中靠前的jar为准，multi-release的版本化条目被忽略
+     * 
+     * @param jarPaths 按类路径顺序排列的jar文件路径
+     * @return 内部类名到类模型的映射
+     * @throws IOException 如果文件读取失败
+     */
+    public Map<String, ClassModel> readClasspath(List<Path> jarPaths) throws IOException {
+        List<Map<String, byte[]>> jars = new ArrayList<>();
+        for (Path jarPath : jarPaths) {
+            jars.add(readJar(jarPath));
+        }
+        Map<String, ClassModel> classes = new LinkedHashMap<>();
+        for (Map<String, byte[]> jar : jars) {
+            List<ClassModel> models = jar.entrySet().parallelStream()
+                .filter(entry -> isClassEntry(entry.getKey()) && !entry.getKey().startsWith("META-INF/"))
+                .map(entry -> readClass(entry.getValue()))
+                .toList();
+            for (ClassModel model : models) {
+                classes.putIfAbsent(model.thisClass().asInternalName(), model);
+            }
+        }
+        return classes;
+    }
+    
+    /**
+     * 判断jar条目是否为普通类文件（不包括module-info）
+     * 
+     * @param entryName 条目名称
+     * @return 是否为类文件条目
+     */
+    public boolean isClassEntry(String entryName) {
+        return entryName.endsWith(".class") && !entryName.endsWith("module-info.class");
+    }
+    
+    /**
+     * 取数组类型的元素类名，非数组类型原样返回
+     * 
+     * @param internalName 内部类名，数组类型为描述符形式，例如 "[[Ljava/lang/String;"
+     * @return 元素类的内部名称，基本类型数组为 null
+     */
+    public String elementClassName(String internalName) {
+        if (!internalName.startsWith("[")) {
+            return internalName;
+        }
+        int start = internalName.lastIndexOf('[') + 1;
+        if (internalName.charAt(start) != 'L') {
+            return null;
+        }
+        return internalName.substring(start + 1, internalName.length() - 1);
+    }
+    
+    /**
+     * 把类名通配符模式转换为正则表达式
+     * "*" 匹配一级包名内的任意字符，"**" 匹配任意字符
+     * 
+     * @param glob 类名模式，例如 "com.example.dto.**"
+     * @return 匹配点分类名的正则表达式
+     */
+    public Pattern toPattern(String glob) {
+        StringBuilder regex = new StringBuilder();
+        for (int i = 0; i < glob.length(); i++) {
+            char c = glob.charAt(i);
+            if (c == '*') {
+                if (i + 1 < glob.length() && glob.charAt(i + 1) == '*') {
+                    regex.append(".*");
+                    i++;
+                } else {
+                    regex.append("[^.]*");
+                }
+            } else if (Character.isLetterOrDigit(c)) {
+                regex.append(c);
+            } else {
+                regex.append('\\').append(c);
+            }
+        }
+        return Pattern.compile(regex.toString());
+    }
+    
+    /**
+     * 等待异步任务完成，把包装在 UncheckedIOException 中的 IOException 还原后抛出
+     * 
+     * @param future 异步任务
+     * @return 任务结果
+     * @throws IOException 如果任务因为 IOException 失败
+     */
+    public <T> T join(CompletableFuture<T> future) throws IOException {
+        try {
+            return future.join();
+        } catch (CompletionException e) {
+            if (e.getCause() instanceof UncheckedIOException io) {
+                throw io.getCause();
+            }
+            throw e;
+        }
+    }
+    
+    /**
+     * 基于一组类模型创建类层次解析器
+     * 生成栈映射帧或校验字节码时需要判断类型之间的继承关系，
+     * 先在给定的类中查找，找不到时回退到默认解析器（运行时中的系统类）
+     * 
+     * @param classModels 类模型集合
+     * @return 类层次解析器
+     */
+    public ClassHierarchyResolver hierarchyResolver(Collection<ClassModel> classModels) {
+        return hierarchyResolver(classModels, List.of());
+    }
+    
+    /**
+     * 基于一组类模型及其依赖创建类层次解析器
+     * 被转换的类常常继承依赖jar中的类，只看被转换的类时默认解析器找不到这些父类，
+     * 生成栈映射帧会失败或把公共父类错误地算成 Object
+     * 
+     * @param classModels 类模型集合，同名时优先于依赖
+     * @param dependencies 依赖中的类模型集合，通常来自 {@link #readClasspath(List)}
+     * @return 类层次解析器
+     */
+    public ClassHierarchyResolver hierarchyResolver(Collection<ClassModel> classModels,
+                                                    Collection<ClassModel> dependencies) {
+        return hierarchyResolver(classModels, dependencies, UnaryOperator.identity());
+    }
+    
+    /**
+     * 同 {@link #hierarchyResolver(Collection, Collection)}，类和父类按重命名后的名称解析，
+     * 用于为改名后的类（例如包重定位）生成栈映射帧
+     * 
+     * @param classModels 类模型集合，同名时优先于依赖
+     * @param dependencies 依赖中的类模型集合
+     * @param rename 类名映射，不改名的类原样返回
+     * @return 类层次解析器
+     */
+    public ClassHierarchyResolver hierarchyResolver(Collection<ClassModel> classModels,
+                                                    Collection<ClassModel> dependencies,
+                                                    UnaryOperator<ClassDesc> rename) {
+        Set<ClassDesc> interfaces = new HashSet<>();
+        Map<ClassDesc, ClassDesc> superClasses = new HashMap<>();
+        for (ClassModel model : Stream.concat(dependencies.stream(), classModels.stream()).toList()) {
+            ClassDesc thisClass = rename.apply(model.thisClass().asSymbol());
+            interfaces.remove(thisClass);
+            superClasses.remove(thisClass);
+            if ((model.flags().flagsMask() & ClassFile.ACC_INTERFACE) != 0) {
+                interfaces.add(thisClass);
+            } else {
+                model.superclass().ifPresent(superClass ->
+                    superClasses.put(thisClass, rename.apply(superClass.asSymbol())));
+            }
+        }
+        return ClassHierarchyResolver.of(interfaces, superClasses)
+            .orElse(ClassHierarchyResolver.defaultResolver())
+            .cached();
+    }
+    
+    // ================= Runtime image =================
+    
+    /**
+     * 已扫描的运行时镜像，按JDK构建缓存。镜像不可变，同一构建只需扫描一次。
+     * 一个镜像包含数万个类模型，占用上百MB，使用软引用，内存紧张时可以被回收，之后重新扫描
+     */
+    private static final Map<String, SoftReference<RuntimeImage>> RUNTIME_IMAGES = new ConcurrentHashMap<>();
+    
+    /**
+     * JDK运行时镜像（jrt:/ 文件系统）中的类
+     * 
+     * @param build JDK构建标识（实现者和运行时版本）
+     * @param classes 内部类名到类模型的映射
+     * @param classModules 内部类名到所在模块名的映射
+     * @param moduleInfos 模块名到 module-info 类模型的映射
+     */
+    public record RuntimeImage(String build, Map<String, ClassModel> classes, Map<String, String> classModules,
+                               Map<String, ClassModel> moduleInfos) {
+        /**
+         * @return 类所在的模块，不在镜像中时为空
+         */
+        public Optional<String> moduleOf(String className) {
+            return Optional.ofNullable(classModules.get(className));
+        }
+        
+        public Set<String> modules() {
+            return moduleInfos.keySet();
+        }
+    }
+    
+    /**
+     * 读取当前JDK的运行时镜像
+     * 
+     * @return 运行时镜像中的所有类
+     * @throws IOException 如果镜像读取失败
+     * @see #readRuntimeImage(Path)
+     */
+    public RuntimeImage readRuntimeImage() throws IOException {
+        return readRuntimeImage(Path.of(System.getProperty("java.home")));
+    }
+    
+    /**
+     * 读取指定JDK的运行时镜像
+     * 通过 jrt:/ 文件系统按模块枚举 /modules 下的类，并行读取和解析。
+     * 结果按JDK构建（release 文件中的实现者和运行时版本）以软引用缓存在进程内，
+     * 之后对同一构建的调用在缓存未被回收时直接返回缓存的结果，并发调用只扫描一次。读取其他JDK时需要目标JDK的 lib/jrt-fs.jar。
+     * 镜像中的类可以作为依赖传给 {@link #hierarchyResolver(Collection, Collection)}，按目标JDK而不是当前JDK解析类层次
+     * 
+     * @param javaHome JDK安装目录
+     * @return 运行时镜像中的所有类
+     * @throws IOException 如果镜像读取失败
+     */
+    public RuntimeImage readRuntimeImage(Path javaHome) throws IOException {
+        String build = runtimeBuild(javaHome);
+        // 在 compute 中扫描，同一构建的并发调用等待第一次扫描的结果，不会重复扫描；局部变量持有强引用
+        RuntimeImage[] image = new RuntimeImage[1];
+        try {
+            RUNTIME_IMAGES.compute(build, (key, reference) -> {
+                image[0] = reference != null ? reference.get() : null;
+                if (image[0] != null) {
+                    return reference;
+                }
+                try {
+                    image[0] = scanRuntimeImage(javaHome, build);
+                } catch (IOException e) {
+                    throw new UncheckedIOException(e);
+                }
+                return new SoftReference<>(image[0]);
+            });
+        } catch (UncheckedIOException e) {
+            throw e.getCause();
+        }
+        return image[0];
+    }
+    
+    private RuntimeImage scanRuntimeImage(Path javaHome, String build) throws IOException {
+        if (javaHome.toRealPath().equals(Path.of(System.getProperty("java.home")).toRealPath())) {
+            // 当前JDK的 jrt 文件系统由运行时持有，不能关闭
+            return scanRuntimeImage(FileSystems.getFileSystem(URI.create("jrt:/")), build);
+        }
+        try (FileSystem jrt = FileSystems.newFileSystem(URI.create("jrt:/"), Map.of("java.home", javaHome.toString()))) {
+            return scanRuntimeImage(jrt, build);
+        }
+    }
+    
+    private RuntimeImage scanRuntimeImage(FileSystem jrt, String build) throws IOException {
+        List<Path> moduleDirs;
+        try (Stream<Path> modules = Files.list(jrt.getPath("/modules"))) {
+            moduleDirs = modules.sorted().toList();
+        }
+        try {
+            List<Path> classFiles = moduleDirs.parallelStream()
+                .flatMap(moduleDir -> {
+                    try (Stream<Path> files = Files.walk(moduleDir)) {
+                        return files.filter(file -> file.toString().endsWith(".class")).toList().stream();
+                    } catch (IOException e) {
+                        throw new UncheckedIOException(e);
+                    }
+                })
+                .toList();
+            List<ClassModel> models = classFiles.parallelStream()
+                .map(file -> {
+                    try {
+                        return readClass(file);
+                    } catch (IOException e) {
+                        throw new UncheckedIOException(e);
+                    }
+                })
+                .toList();
+            
+            Map<String, ClassModel> classes = new HashMap<>();
+            Map<String, String> classModules = new HashMap<>();
+            Map<String, ClassModel> moduleInfos = new TreeMap<>();
+            for (int i = 0; i < models.size(); i++) {
+                // 路径形如 /modules/java.base/java/lang/Object.class
+                String module = classFiles.get(i).getName(1).toString();
+                ClassModel model = models.get(i);
+                if ((model.flags().flagsMask() & ClassFile.ACC_MODULE) != 0) {
+                    moduleInfos.put(module, model);
+                } else {
+                    String className = model.thisClass().asInternalName();
+                    classes.put(className, model);
+                    classModules.put(className, module);
+                }
+            }
+            return new RuntimeImage(build, Collections.unmodifiableMap(classes),
+                Collections.unmodifiableMap(classModules), Collections.unmodifiableMap(moduleInfos));
+        } catch (UncheckedIOException e) {
+            throw e.getCause();
+        }
+    }
+    
+    /**
+     * 根据 release 文件确定JDK构建标识，没有 release 文件时使用安装目录
+     */
+    private static String runtimeBuild(Path javaHome) throws IOException {
+        Path release = javaHome.resolve("release");
+        if (!Files.exists(release)) {
+            return javaHome.toRealPath().toString();
+        }
+        Properties properties = new Properties();
+        try (InputStream in = Files.newInputStream(release)) {
+            properties.load(in);
+        }
+        String version = properties.getProperty("JAVA_RUNTIME_VERSION", properties.getProperty("JAVA_VERSION", ""));
+        return (properties.getProperty("IMPLEMENTOR", "") + " " + version).replace("\"", "").trim()
+            + " " + javaHome.toRealPath();
+    }
+    
+    // ================= Control flow =================
+    
+    /**
+     * 根据回边计算方法中每个代码元素所在循环的嵌套深度
+     * 跳转到前面标签的指令（回边）与该标签之间的范围视为一个循环，
+     * 同一个循环头的多条回边只计一个循环，范围延伸到最远的回边
+     * 
+     * @param elements 方法的代码元素列表，即 CodeModel.elementList()
+     * @return 与元素列表等长的数组，0表示不在循环内
+     */
+    public int[] loopDepths(List<CodeElement> elements) {
+        Map<Label, Integer> labelIndex = new HashMap<>();
+        for (int i = 0; i < elements.size(); i++) {
+            if (elements.get(i) instanceof LabelTarget target) {
+                labelIndex.put(target.label(), i);
+            }
+        }
+        // 循环头到最远回边的索引。continue 等语句会为同一个循环头产生多条回边，它们属于同一个循环
+        Map<Integer, Integer> loopEnds = new HashMap<>();
+        for (int i = 0; i < elements.size(); i++) {
+            List<Label> targets = switch (elements.get(i)) {
+                case BranchInstruction branch -> List.of(branch.target());
+                case TableSwitchInstruction table -> table.cases().stream().map(SwitchCase::target).toList();
+                case LookupSwitchInstruction lookup -> lookup.cases().stream().map(SwitchCase::target).toList();
+                default -> List.of();
+            };
+            for (Label target : targets) {
+                int header = labelIndex.getOrDefault(target, Integer.MAX_VALUE);
+                if (header <= i) {
+                    loopEnds.merge(header, i, Math::max);
+                }
+            }
+        }
+        int[] depth = new int[elements.size()];
+        loopEnds.forEach((header, end) -> {
+            for (int j = header; j <= end; j++) {
+                depth[j]++;
+            }
+        });
+        return depth;
+    }
+
+    // ================= Fingerprints =================
+    
+    /**
+     * 类的内容指纹，用于构建缓存和热替换判断
+     * 
+     * @param className 内部类名
+     * @param api 对外接口的指纹：类头、泛型签名、permits、记录组件、运行时可见注解，非private字段和方法的签名、
+     *            标志、异常声明、编译期常量值、运行时可见注解和参数注解、注解元素的默认值
+     * @param body 整个类的指纹：api 加上所有字段和所有方法（包括方法体）、运行时不可见注解、MethodParameters、
+     *             InnerClasses 和嵌套（NestHost、NestMembers）
+     * @param methods 每个方法的指纹，键为方法名加描述符
+     */
+    public record ClassFingerprint(String className, ContentHasher.Hash128 api, ContentHasher.Hash128 body,
+                                   Map<String, ContentHasher.Hash128> methods) {
+        /**
+         * @return 对外接口是否相同，相同时依赖该类的代码不需要重新编译
+         */
+        public boolean sameApi(ClassFingerprint other) {
+            return api.equals(other.api);
+        }
+        
+        /**
+         * @return 与另一个版本相比新增、删除或修改过的方法
+         */
+        public Set<String> changedMethods(ClassFingerprint other) {
+            Set<String> changed = new TreeSet<>();
+            methods.forEach((method, hash) -> {
+                if (!hash.equals(other.methods.get(method))) {
+                    changed.add(method);
+                }
+            });
+            other.methods.keySet().stream().filter(method -> !methods.containsKey(method)).forEach(changed::add);
+            return changed;
+        }
+    }
+    
+    /**
+     * 计算类的指纹
+     * 一次遍历同时得到每个方法、对外接口和整个类的128位指纹。常量池条目直接从类文件字节中哈希，
+     * UTF8 常量哈希其原始字节，每个条目只计算一次，不创建字符串（方法名只用作结果的键）；
+     * 方法体按原始字节码哈希，其中的常量池索引替换为条目的哈希，因此常量池顺序变化不影响指纹。
+     * 行号表、局部变量表、StackMapTable 等调试和推导信息不参与计算，类型注解和其他属性也不参与计算
+     * 
+     * @param classBytes 类文件字节数组
+     * @return 类的指纹
+     */
+    public ClassFingerprint fingerprint(byte[] classBytes) {
+        ClassModel model = readClass(classBytes);
+        PoolHasher pool = new PoolHasher(model, classBytes);
+        ContentHasher hasher = new ContentHasher();
+        List<ContentHasher.Hash128> apiMembers = new ArrayList<>();
+        List<ContentHasher.Hash128> allMembers = new ArrayList<>();
+        
+        for (FieldModel field : model.fields()) {
+            hasher.reset()
+                .putInt(field.flags().flagsMask())
+                .putHash(pool.hash(field.fieldName().index()))
+                .putHash(pool.hash(field.fieldType().index()));
+            field.findAttribute(Attributes.signature())
+                .ifPresent(signature -> hasher.putHash(pool.hash(signature.signature().index())));
+            // 编译期常量会被内联到使用方，属于对外接口
+            field.findAttribute(Attributes.constantValue())
+                .ifPresent(constant -> hasher.putHash(pool.hash(constant.constant().index())));
+            pool.hashAnnotations(hasher, field, true);
+            ContentHasher.Hash128 hash = hasher.finish();
+            if ((field.flags().flagsMask() & ClassFile.ACC_PRIVATE) == 0) {
+                apiMembers.add(hash);
+            }
+            hasher.reset().putHash(hash);
+            pool.hashAnnotations(hasher, field, false);
+            allMembers.add(hasher.finish());
+        }
+        
+        Map<String, ContentHasher.Hash128> methods = new LinkedHashMap<>();
+        for (MethodModel method : model.methods()) {
+            hasher.reset()
+                .putInt(method.flags().flagsMask())
+                .putHash(pool.hash(method.methodName().index()))
+                .putHash(pool.hash(method.methodType().index()));
+            method.findAttribute(Attributes.signature())
+                .ifPresent(signature -> hasher.putHash(pool.hash(signature.signature().index())));
+            method.findAttribute(Attributes.exceptions()).ifPresent(exceptions ->
+                exceptions.exceptions().forEach(entry -> hasher.putHash(pool.hash(entry.index()))));
+            pool.hashAnnotations(hasher, method, true);
+            method.findAttribute(Attributes.annotationDefault())
+                .ifPresent(annotationDefault -> pool.hashAnnotationValue(hasher, annotationDefault.defaultValue()));
+            ContentHasher.Hash128 signatureHash = hasher.finish();
+            if ((method.flags().flagsMask() & ClassFile.ACC_PRIVATE) == 0) {
+                apiMembers.add(signatureHash);
+            }
+            
+            hasher.reset().putHash(signatureHash);
+            pool.hashAnnotations(hasher, method, false);
+            method.findAttribute(Attributes.methodParameters()).ifPresent(parameters ->
+                parameters.parameters().forEach(parameter -> hasher
+                    .putHash(parameter.name().map(name -> pool.hash(name.index())).orElse(new ContentHasher.Hash128(0, 0)))
+                    .putInt(parameter.flagsMask())));
+            method.findAttribute(Attributes.code()).ifPresent(code -> pool.hashCode(hasher, code));
+            ContentHasher.Hash128 methodHash = hasher.finish();
+            allMembers.add(methodHash);
+            methods.put(method.methodName().stringValue() + method.methodType().stringValue(), methodHash);
+        }
+        
+        hasher.reset()
+            .putInt(model.flags().flagsMask())
+            .putHash(pool.hash(model.thisClass().index()))
+            .putHash(model.superclass().map(entry -> pool.hash(entry.index())).orElse(new ContentHasher.Hash128(0, 0)));
+        model.interfaces().forEach(entry -> hasher.putHash(pool.hash(entry.index())));
+        model.findAttribute(Attributes.signature())
+            .ifPresent(signature -> hasher.putHash(pool.hash(signature.signature().index())));
+        pool.hashAnnotations(hasher, model, true);
+        model.findAttribute(Attributes.permittedSubclasses()).ifPresent(permitted ->
+            permitted.permittedSubclasses().forEach(entry -> hasher.putHash(pool.hash(entry.index()))));
+        model.findAttribute(Attributes.record()).ifPresent(recordAttribute ->
+            recordAttribute.components().forEach(component -> {
+                hasher.putHash(pool.hash(component.name().index())).putHash(pool.hash(component.descriptor().index()));
+                component.findAttribute(Attributes.signature())
+                    .ifPresent(signature -> hasher.putHash(pool.hash(signature.signature().index())));
+                pool.hashAnnotations(hasher, component, true);
+            }));
+        putUnordered(hasher, apiMembers);
+        ContentHasher.Hash128 api = hasher.finish();
+        
+        hasher.reset().putHash(api);
+        putUnordered(hasher, allMembers);
+        pool.hashAnnotations(hasher, model, false);
+        model.findAttribute(Attributes.record()).ifPresent(recordAttribute ->
+            recordAttribute.components().forEach(component -> pool.hashAnnotations(hasher, component, false)));
+        // 嵌套类的访问标志（static、private 等）只记录在 InnerClasses 中
+        model.findAttribute(Attributes.innerClasses()).ifPresent(innerClasses ->
+            innerClasses.classes().forEach(inner -> hasher
+                .putHash(pool.hash(inner.innerClass().index()))
+                .putHash(inner.outerClass().map(entry -> pool.hash(entry.index())).orElse(new ContentHasher.Hash128(0, 0)))
+                .putHash(inner.innerName().map(entry -> pool.hash(entry.index())).orElse(new ContentHasher.Hash128(0, 0)))
+                .putInt(inner.flagsMask())));
+        model.findAttribute(Attributes.nestHost())
+            .ifPresent(nestHost -> hasher.putHash(pool.hash(nestHost.nestHost().index())));
+        model.findAttribute(Attributes.nestMembers()).ifPresent(nestMembers ->
+            nestMembers.nestMembers().forEach(entry -> hasher.putHash(pool.hash(entry.index()))));
+        return new ClassFingerprint(model.thisClass().asInternalName(), api, hasher.finish(), methods);
+    }
+    
+    /**
+     * 并行计算jar中所有类的指纹
+     * 
+     * @param jarPath jar文件路径
+     * @return 内部类名到指纹的映射，按类名排序
+     * @throws IOException 如果文件读取失败
+     */
+    public Map<String, ClassFingerprint> fingerprintJar(Path jarPath) throws IOException {
+        Map<String, ClassFingerprint> fingerprints = new TreeMap<>();
+        readJar(jarPath).entrySet().parallelStream()
+            .filter(entry -> isClassEntry(entry.getKey()) && !entry.getKey().startsWith("META-INF/"))
+            .map(entry -> fingerprint(entry.getValue()))
+            .toList()
+            .forEach(fingerprint -> fingerprints.put(fingerprint.className(), fingerprint));
+        return fingerprints;
+    }
+    
+    /**
+     * 按哈希值排序后写入，使结果与成员的声明顺序无关
+     */
+    private static void putUnordered(ContentHasher hasher, List<ContentHasher.Hash128> hashes) {
+        hashes.sort(Comparator.comparingLong(ContentHasher.Hash128::high).thenComparingLong(ContentHasher.Hash128::low));
+        hasher.putInt(hashes.size());
+        hashes.forEach(hasher::putHash);
+    }
+    
+    /**
+     * 直接从类文件字节计算常量池条目的哈希，每个条目只计算一次
+     */
+    private static final class PoolHasher {
+        private final ClassModel model;
+        private final byte[] bytes;
+        private final int[] offsets;
+        private final long[] high;
+        private final long[] low;
+        private final BitSet done;
+        
+        PoolHasher(ClassModel model, byte[] bytes) {
+            this.model = model;
+            this.bytes = bytes;
+            int count = u2(8);
+            this.offsets = new int[count];
+            this.high = new long[count];
+            this.low = new long[count];
+            this.done = new BitSet(count);
+            int offset = 10;
+            for (int i = 1; i < count; i++) {
+                offsets[i] = offset;
+                int tag = bytes[offset] & 0xFF;
+                offset += switch (tag) {
+                    case 1 -> 3 + u2(offset + 1);
+                    case 3, 4 -> 5;
+                    case 5, 6 -> 9;
+                    case 7, 8, 16, 19, 20 -> 3;
+                    case 9, 10, 11, 12, 17, 18 -> 5;
+                    case 15 -> 4;
+                    default -> throw new IllegalArgumentException("无效的常量池标记: " + tag + "，索引 " + i);
+                };
+                if (tag == 5 || tag == 6) {
+                    // long 和 double 占两个索引
+                    i++;
+                }
+            }
+        }
+        
+        private int u2(int offset) {
+            return (bytes[offset] & 0xFF) << 8 | bytes[offset + 1] & 0xFF;
+        }
+        
+        ContentHasher.Hash128 hash(int index) {
+            if (done.get(index)) {
+                return new ContentHasher.Hash128(high[index], low[index]);
+            }
+            int offset = offsets[index];
+            int tag = bytes[offset] & 0xFF;
+            ContentHasher hasher = new ContentHasher().putInt(tag);
+            switch (tag) {
+                case 1 -> hasher.putBytes(bytes, offset + 3, u2(offset + 1));
+                case 3, 4 -> hasher.putBytes(bytes, offset + 1, 4);
+                case 5, 6 -> hasher.putBytes(bytes, offset + 1, 8);
+                case 7, 8, 16, 19, 20 -> hasher.putHash(hash(u2(offset + 1)));
+                case 9, 10, 11, 12 -> hasher.putHash(hash(u2(offset + 1))).putHash(hash(u2(offset + 3)));
+                case 15 -> hasher.putInt(bytes[offset + 1]).putHash(hash(u2(offset + 2)));
+                case 17, 18 -> {
+                    // 引导方法索引指向 BootstrapMethods 属性，改为哈希引导方法及其参数
+                    var entry = (DynamicConstantPoolEntry)
+                        model.constantPool().entryByIndex(index);
+                    hasher.putHash(hash(entry.bootstrap().bootstrapMethod().index()));
+                    entry.bootstrap().arguments().forEach(argument -> hasher.putHash(hash(argument.index())));
+                    hasher.putHash(hash(u2(offset + 3)));
+                }
+                default -> throw new IllegalArgumentException("无效的常量池标记: " + tag);
+            }
+            ContentHasher.Hash128 result = hasher.finish();
+            high[index] = result.high();
+            low[index] = result.low();
+            done.set(index);
+            return result;
+        }
+        
+        /**
+         * 哈希运行时可见或不可见的注解和参数注解
+         */
+        void hashAnnotations(ContentHasher hasher, AttributedElement element, boolean visible) {
+            if (visible) {
+                element.findAttribute(Attributes.runtimeVisibleAnnotations())
+                    .ifPresent(annotations -> hashAnnotations(hasher, annotations.annotations()));
+                element.findAttribute(Attributes.runtimeVisibleParameterAnnotations()).ifPresent(annotations ->
+                    annotations.parameterAnnotations().forEach(parameter -> hashAnnotations(hasher, parameter)));
+            } else {
+                element.findAttribute(Attributes.runtimeInvisibleAnnotations())
+                    .ifPresent(annotations -> hashAnnotations(hasher, annotations.annotations()));
+                element.findAttribute(Attributes.runtimeInvisibleParameterAnnotations()).ifPresent(annotations ->
+                    annotations.parameterAnnotations().forEach(parameter -> hashAnnotations(hasher, parameter)));
+            }
+        }
+        
+        private void hashAnnotations(ContentHasher hasher, List<Annotation> annotations) {
+            hasher.putInt(annotations.size());
+            annotations.forEach(annotation -> hashAnnotation(hasher, annotation));
+        }
+        
+        private void hashAnnotation(ContentHasher hasher, Annotation annotation) {
+            hasher.putHash(hash(annotation.className().index())).putInt(annotation.elements().size());
+            for (AnnotationElement element : annotation.elements()) {
+                hasher.putHash(hash(element.name().index()));
+                hashAnnotationValue(hasher, element.value());
+            }
+        }
+        
+        void hashAnnotationValue(ContentHasher hasher, AnnotationValue value) {
+            hasher.putInt(value.tag());
+            switch (value) {
+                case AnnotationValue.OfConstant constant -> hasher.putHash(hash(constant.constant().index()));
+                case AnnotationValue.OfClass type -> hasher.putHash(hash(type.className().index()));
+                case AnnotationValue.OfEnum enumValue -> hasher.putHash(hash(enumValue.className().index()))
+                    .putHash(hash(enumValue.constantName().index()));
+                case AnnotationValue.OfAnnotation nested -> hashAnnotation(hasher, nested.annotation());
+                case AnnotationValue.OfArray array -> {
+                    hasher.putInt(array.values().size());
+                    array.values().forEach(element -> hashAnnotationValue(hasher, element));
+                }
+            }
+        }
+        
+        /**
+         * 哈希方法的字节码和异常表，常量池索引替换为条目的哈希，其他操作数按原始字节哈希
+         */
+        void hashCode(ContentHasher hasher, CodeAttribute code) {
+            byte[] bytecode = code.codeArray();
+            int bci = 0;
+            while (bci < bytecode.length) {
+                int opcode = bytecode[bci] & 0xFF;
+                int length = instructionLength(bytecode, bci);
+                hasher.putInt(opcode);
+                switch (opcode) {
+                    // ldc
+                    case 0x12 -> hasher.putHash(hash(bytecode[bci + 1] & 0xFF));
+                    // ldc_w、ldc2_w、字段和方法调用、new、anewarray、checkcast、instanceof
+                    case 0x13, 0x14, 0xb2, 0xb3, 0xb4, 0xb5, 0xb6, 0xb7, 0xb8, 0xbb, 0xbd, 0xc0, 0xc1 ->
+                        hasher.putHash(hash((bytecode[bci + 1] & 0xFF) << 8 | bytecode[bci + 2] & 0xFF));
+                    // invokeinterface、invokedynamic 后两个字节是固定的计数
+                    case 0xb9, 0xba -> hasher.putHash(hash((bytecode[bci + 1] & 0xFF) << 8 | bytecode[bci + 2] & 0xFF));
+                    // multianewarray
+                    case 0xc5 -> hasher.putHash(hash((bytecode[bci + 1] & 0xFF) << 8 | bytecode[bci + 2] & 0xFF))
+                        .putInt(bytecode[bci + 3]);
+                    default -> {
+                        if (length > 1) {
+                            hasher.putBytes(bytecode, bci + 1, length - 1);
+                        }
+                    }
+                }
+                bci += length;
+            }
+            for (ExceptionCatch handler : code.exceptionHandlers()) {
+                hasher.putInt(code.labelToBci(handler.tryStart()))
+                    .putInt(code.labelToBci(handler.tryEnd()))
+                    .putInt(code.labelToBci(handler.handler()))
+                    .putHash(handler.catchType().map(entry -> hash(entry.index())).orElse(new ContentHasher.Hash128(0, 0)));
+            }
+        }
+        
+        private static int instructionLength(byte[] code, int bci) {
+            int opcode = code[bci] & 0xFF;
+            return switch (opcode) {
+                case 0x10, 0x12, 0x15, 0x16, 0x17, 0x18, 0x19, 0x36, 0x37, 0x38, 0x39, 0x3a, 0xa9, 0xbc -> 2;
+                case 0x11, 0x13, 0x14, 0x84, 0xa7, 0xa8, 0xb2, 0xb3, 0xb4, 0xb5, 0xb6, 0xb7, 0xb8, 0xbb, 0xbd,
+                     0xc0, 0xc1, 0xc6, 0xc7 -> 3;
+                case 0x99, 0x9a, 0x9b, 0x9c, 0x9d, 0x9e, 0x9f, 0xa0, 0xa1, 0xa2, 0xa3, 0xa4, 0xa5, 0xa6 -> 3;
+                case 0xc5 -> 4;
+                case 0xb9, 0xba, 0xc8, 0xc9 -> 5;
+                // wide：iinc 为6字节，其他为4字节
+                case 0xc4 -> (code[bci + 1] & 0xFF) == 0x84 ? 6 : 4;
+                case 0xaa -> {
+                    int pad = 3 - bci % 4;
+                    int low = readInt(code, bci + 1 + pad + 4);
+                    int high = readInt(code, bci + 1 + pad + 8);
+                    yield 1 + pad + 12 + 4 * (high - low + 1);
+                }
+                case 0xab -> {
+                    int pad = 3 - bci % 4;
+                    yield 1 + pad + 8 + 8 * readInt(code, bci + 1 + pad + 4);
+                }
+                default -> 1;
+            };
+        }
+        
+        private static int readInt(byte[] code, int offset) {
+            return (code[offset] & 0xFF) << 24 | (code[offset + 1] & 0xFF) << 16
+                | (code[offset + 2] & 0xFF) << 8 | code[offset + 3] & 0xFF;
+        }
+    }
+    
     // ================= Writing classfiles =================
     
     /**
@@ -351,6 +1086,27 @@ public class ClassFileToolkit {
         Files.write(classPath, classBytes);
     }
 
+    /**
+     * 将条目写入新的jar文件
+     * 条目按照映射的迭代顺序写入，名称以"/"结尾的条目作为目录写入
+     * 
+     * @param jarPath jar文件路径
+     * @param entries 条目名称到条目内容的映射
+     * @throws IOException 如果文件写入失败
+     */
+    public void writeJar(Path jarPath, Map<String, byte[]> entries) throws IOException {
+        try (OutputStream out = Files.newOutputStream(jarPath);
+             ZipOutputStream zout = new ZipOutputStream(out)) {
+            for (Map.Entry<String, byte[]> entry : entries.entrySet()) {
+                zout.putNextEntry(new ZipEntry(entry.getKey()));
+                if (!entry.getKey().endsWith("/")) {
+                    zout.write(entry.getValue());
+                }
+                zout.closeEntry();
+            }
+        }
+    }
+
     // ================= Transforming classfiles =================
     
     /**
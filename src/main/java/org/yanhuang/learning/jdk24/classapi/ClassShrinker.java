@@ -0,0 +1,581 @@
+package org.yanhuang.learning.jdk24.classapi;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.lang.classfile.*;
+import java.lang.classfile.attribute.RuntimeVisibleAnnotationsAttribute;
+import java.lang.classfile.constantpool.*;
+import java.lang.classfile.instruction.*;
+import java.lang.invoke.MethodHandleInfo;
+import java.nio.file.Path;
+import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.regex.Pattern;
+
+/**
+ * 基于可达性分析的类裁剪器（tree-shaker）
+ * 从配置的入口点（main方法、指定的入口类、带指定注解的类或方法）出发，
+ * 并行计算可达的类、方法和字段，然后重写jar，删除不可达的类和成员。
+ * 通过反射访问的类需要用保留规则声明，例如 "com.example.model.**"。
+ */
+public class ClassShrinker {
+
+    private static final String MAIN_DESCRIPTOR = "([Ljava/lang/String;)V";
+
+    /** 序列化机制通过反射访问的成员，类可达时总是保留 */
+    private static final Set<String> SERIALIZATION_MEMBERS = Set.of(
+        "serialVersionUID", "writeObject", "readObject", "readObjectNoData", "writeReplace", "readResolve");
+
+    /** 枚举类通过反射访问的成员 */
+    private static final Set<String> ENUM_MEMBERS = Set.of("values", "valueOf", "$VALUES");
+
+    private final ClassFileToolkit toolkit = new ClassFileToolkit();
+    private final Set<String> entryClasses = new LinkedHashSet<>();
+    private final Set<String> entryAnnotations = new LinkedHashSet<>();
+    private final List<Pattern> keepPatterns = new ArrayList<>();
+    private boolean keepMains = true;
+
+    /**
+     * 可达性分析结果
+     *
+     * @param classes 可达类的内部名称集合
+     * @param members 可达成员集合，格式为 "owner.name:descriptor"
+     */
+    public record Reachability(Set<String> classes, Set<String> members) {
+        public boolean isReachable(String owner, String name, String descriptor) {
+            return members.contains(memberKey(owner, name, descriptor));
+        }
+    }
+
+    /**
+     * jar裁剪报告
+     *
+     * @param reachability 可达性分析结果
+     * @param removedClasses 删除的类数量
+     * @param removedMembers 删除的方法和字段数量
+     * @param inputBytes 原始类文件总字节数
+     * @param outputBytes 裁剪后类文件总字节数
+     */
+    public record ShrinkReport(Reachability reachability, int removedClasses, int removedMembers,
+                               long inputBytes, long outputBytes) {
+    }
+
+    private record MemberRef(String owner, String name, String descriptor) {
+    }
+
+    // ================= Configuration =================
+
+    /**
+     * 添加入口类，入口类及其所有方法都会被保留
+     *
+     * @param className 类名，例如 "com.example.Main"
+     * @return 当前裁剪器
+     */
+    public ClassShrinker addEntryClass(String className) {
+        entryClasses.add(className.replace('.', '/'));
+        return this;
+    }
+
+    /**
+     * 添加入口注解，带有该注解的类（保留全部方法）或方法都作为入口点
+     *
+     * @param annotationClassName 注解类名，例如 "org.springframework.stereotype.Component"
+     * @return 当前裁剪器
+     */
+    public ClassShrinker addEntryAnnotation(String annotationClassName) {
+        entryAnnotations.add("L" + annotationClassName.replace('.', '/') + ";");
+        return this;
+    }
+
+    /**
+     * 添加保留规则，匹配的类及其全部成员都会被保留，用于反射访问的类
+     * 支持通配符："*" 匹配一级包名内的任意字符，"**" 匹配任意字符
+     *
+     * @param classPattern 类名模式，例如 "com.example.dto.**"
+     * @return 当前裁剪器
+     */
+    public ClassShrinker addKeepRule(String classPattern) {
+        keepPatterns.add(toolkit.toPattern(classPattern));
+        return this;
+    }
+
+    /**
+     * 设置是否把所有 public static void main(String[]) 方法作为入口点，默认为true
+     *
+     * @param keepMains 是否保留main方法
+     * @return 当前裁剪器
+     */
+    public ClassShrinker setKeepMains(boolean keepMains) {
+        this.keepMains = keepMains;
+        return this;
+    }
+
+    // ================= Analysis =================
+
+    /**
+     * 计算类集合中从入口点可达的类和成员
+     *
+     * @param classes 内部类名到类模型的映射
+     * @return 可达性分析结果
+     */
+    public Reachability analyze(Map<String, ClassModel> classes) {
+        return new Analysis(classes).run();
+    }
+
+    /**
+     * 裁剪jar文件：删除不可达的类和成员，非类文件条目原样保留
+     *
+     * @param inputJar 输入jar路径
+     * @param outputJar 输出jar路径
+     * @return 裁剪报告
+     * @throws IOException 如果文件读取或写入失败
+     */
+    public ShrinkReport shrinkJar(Path inputJar, Path outputJar) throws IOException {
+        Map<String, byte[]> entries = toolkit.readJar(inputJar);
+
+        // 并行解析所有类文件，multi-release的版本化条目不参与分析
+        Map<String, ClassModel> models = new ConcurrentHashMap<>();
+        Map<String, ClassModel> entryModels = new ConcurrentHashMap<>();
+        entries.entrySet().parallelStream()
+            .filter(entry -> toolkit.isClassEntry(entry.getKey()))
+            .forEach(entry -> {
+                ClassModel model = toolkit.readClass(entry.getValue());
+                entryModels.put(entry.getKey(), model);
+                if (!entry.getKey().startsWith("META-INF/versions/")) {
+                    models.put(model.thisClass().asInternalName(), model);
+                }
+            });
+
+        Reachability reachability = analyze(models);
+
+        // 并行重写可达的类
+        AtomicInteger removedClasses = new AtomicInteger();
+        AtomicInteger removedMembers = new AtomicInteger();
+        AtomicLong inputBytes = new AtomicLong();
+        AtomicLong outputBytes = new AtomicLong();
+        Map<String, byte[]> rewritten = new ConcurrentHashMap<>();
+        entryModels.entrySet().parallelStream().forEach(entry -> {
+            ClassModel model = entry.getValue();
+            String owner = model.thisClass().asInternalName();
+            inputBytes.addAndGet(entries.get(entry.getKey()).length);
+            if (!reachability.classes().contains(owner)) {
+                removedClasses.incrementAndGet();
+                return;
+            }
+            int unreachable = countUnreachableMembers(model, reachability);
+            byte[] bytes = entries.get(entry.getKey());
+            if (unreachable > 0) {
+                bytes = ClassFile.of().transformClass(model, ClassTransform.dropping(element ->
+                    element instanceof MethodModel method
+                        && !reachability.isReachable(owner, method.methodName().stringValue(),
+                            method.methodType().stringValue())
+                    || element instanceof FieldModel field
+                        && !reachability.isReachable(owner, field.fieldName().stringValue(),
+                            field.fieldType().stringValue())));
+                removedMembers.addAndGet(unreachable);
+            }
+            outputBytes.addAndGet(bytes.length);
+            rewritten.put(entry.getKey(), bytes);
+        });
+
+        // 按原始顺序输出
+        Map<String, byte[]> output = new LinkedHashMap<>();
+        entries.forEach((name, bytes) -> {
+            if (!toolkit.isClassEntry(name)) {
+                output.put(name, bytes);
+            } else if (rewritten.containsKey(name)) {
+                output.put(name, rewritten.get(name));
+            }
+        });
+        toolkit.writeJar(outputJar, output);
+
+        return new ShrinkReport(reachability, removedClasses.get(), removedMembers.get(),
+            inputBytes.get(), outputBytes.get());
+    }
+
+    private static int countUnreachableMembers(ClassModel model, Reachability reachability) {
+        String owner = model.thisClass().asInternalName();
+        int count = 0;
+        for (MethodModel method : model.methods()) {
+            if (!reachability.isReachable(owner, method.methodName().stringValue(), method.methodType().stringValue())) {
+                count++;
+            }
+        }
+        for (FieldModel field : model.fields()) {
+            if (!reachability.isReachable(owner, field.fieldName().stringValue(), field.fieldType().stringValue())) {
+                count++;
+            }
+        }
+        return count;
+    }
+
+    private static String memberKey(String owner, String name, String descriptor) {
+        return owner + "." + name + ":" + descriptor;
+    }
+
+    /**
+     * 一次可达性分析的状态
+     * 按轮次并行处理工作队列：每轮并行访问新发现的类和成员，
+     * 队列清空后再解析虚方法分派，直到不再发现新的可达成员为止
+     */
+    private final class Analysis {
+        private final Map<String, ClassModel> classes;
+        private final Set<String> reachableClasses = ConcurrentHashMap.newKeySet();
+        private final Set<String> reachableMembers = ConcurrentHashMap.newKeySet();
+        private final Set<String> virtualSignatures = ConcurrentHashMap.newKeySet();
+        private final Queue<String> classQueue = new ConcurrentLinkedQueue<>();
+        private final Queue<MemberRef> memberQueue = new ConcurrentLinkedQueue<>();
+        private final Map<String, Set<String>> librarySignatures = new ConcurrentHashMap<>();
+
+        Analysis(Map<String, ClassModel> classes) {
+            this.classes = classes;
+        }
+
+        Reachability run() {
+            seedEntryPoints();
+            do {
+                while (!classQueue.isEmpty() || !memberQueue.isEmpty()) {
+                    List<String> classBatch = drain(classQueue);
+                    List<MemberRef> memberBatch = drain(memberQueue);
+                    classBatch.parallelStream().forEach(this::visitClass);
+                    memberBatch.parallelStream().forEach(this::visitMember);
+                }
+                // 虚方法分派：可达类中与已调用签名相同或覆盖库父类方法的方法
+                List.copyOf(reachableClasses).parallelStream().forEach(this::resolveOverrides);
+            } while (!classQueue.isEmpty() || !memberQueue.isEmpty());
+            return new Reachability(Set.copyOf(reachableClasses), Set.copyOf(reachableMembers));
+        }
+
+        private void seedEntryPoints() {
+            classes.values().forEach(model -> {
+                String name = model.thisClass().asInternalName();
+                if (entryClasses.contains(name) || isKept(name) || hasEntryAnnotation(model)) {
+                    markClass(name);
+                    model.methods().forEach(method -> markMember(name,
+                        method.methodName().stringValue(), method.methodType().stringValue()));
+                    if (isKept(name)) {
+                        model.fields().forEach(field -> markMember(name,
+                            field.fieldName().stringValue(), field.fieldType().stringValue()));
+                    }
+                    return;
+                }
+                for (MethodModel method : model.methods()) {
+                    int flags = method.flags().flagsMask();
+                    boolean isMain = keepMains && method.methodName().equalsString("main")
+                        && method.methodType().equalsString(MAIN_DESCRIPTOR)
+                        && (flags & ClassFile.ACC_STATIC) != 0 && (flags & ClassFile.ACC_PUBLIC) != 0;
+                    if (isMain || hasEntryAnnotation(method)) {
+                        markMember(name, method.methodName().stringValue(), method.methodType().stringValue());
+                    }
+                }
+            });
+        }
+
+        private boolean isKept(String internalName) {
+            String className = internalName.replace('/', '.');
+            for (Pattern pattern : keepPatterns) {
+                if (pattern.matcher(className).matches()) {
+                    return true;
+                }
+            }
+            return false;
+        }
+
+        private boolean hasEntryAnnotation(AttributedElement element) {
+            if (entryAnnotations.isEmpty()) {
+                return false;
+            }
+            return element.findAttribute(Attributes.runtimeVisibleAnnotations())
+                .map(RuntimeVisibleAnnotationsAttribute::annotations)
+                .stream()
+                .flatMap(List::stream)
+                .anyMatch(annotation -> entryAnnotations.contains(annotation.className().stringValue()));
+        }
+
+        private void markClass(String internalName) {
+            String name = toolkit.elementClassName(internalName);
+            if (name != null && classes.containsKey(name) && reachableClasses.add(name)) {
+                classQueue.add(name);
+            }
+        }
+
+        private void markDescriptor(String descriptor) {
+            for (int i = 0; i < descriptor.length(); i++) {
+                if (descriptor.charAt(i) == 'L') {
+                    int end = descriptor.indexOf(';', i);
+                    markClass(descriptor.substring(i + 1, end));
+                    i = end;
+                }
+            }
+        }
+
+        private void markMember(String owner, String name, String descriptor) {
+            markClass(owner);
+            String declaring = resolveDeclaringClass(owner, name, descriptor);
+            if (declaring != null && reachableMembers.add(memberKey(declaring, name, descriptor))) {
+                markClass(declaring);
+                memberQueue.add(new MemberRef(declaring, name, descriptor));
+            }
+        }
+
+        /**
+         * 沿继承关系（父类和接口）查找声明该成员的类，只在分析的类集合中查找
+         */
+        private String resolveDeclaringClass(String owner, String name, String descriptor) {
+            Deque<String> pending = new ArrayDeque<>();
+            Set<String> seen = new HashSet<>();
+            pending.add(owner);
+            while (!pending.isEmpty()) {
+                String current = pending.poll();
+                ClassModel model = classes.get(current);
+                if (model == null || !seen.add(current)) {
+                    continue;
+                }
+                if (declares(model, name, descriptor)) {
+                    return current;
+                }
+                model.superclass().ifPresent(superClass -> pending.add(superClass.asInternalName()));
+                model.interfaces().forEach(iface -> pending.add(iface.asInternalName()));
+            }
+            return null;
+        }
+
+        private static boolean declares(ClassModel model, String name, String descriptor) {
+            if (descriptor.startsWith("(")) {
+                for (MethodModel method : model.methods()) {
+                    if (method.methodName().equalsString(name) && method.methodType().equalsString(descriptor)) {
+                        return true;
+                    }
+                }
+            } else {
+                for (FieldModel field : model.fields()) {
+                    if (field.fieldName().equalsString(name) && field.fieldType().equalsString(descriptor)) {
+                        return true;
+                    }
+                }
+            }
+            return false;
+        }
+
+        private void visitClass(String name) {
+            ClassModel model = classes.get(name);
+            model.superclass().ifPresent(superClass -> markClass(superClass.asInternalName()));
+            model.interfaces().forEach(iface -> markClass(iface.asInternalName()));
+            markAnnotations(model);
+
+            boolean isEnum = (model.flags().flagsMask() & ClassFile.ACC_ENUM) != 0;
+            // 注解的解析通过反射读取注解接口的全部元素方法及其默认值
+            boolean isAnnotation = (model.flags().flagsMask() & ClassFile.ACC_ANNOTATION) != 0;
+            for (MethodModel method : model.methods()) {
+                String methodName = method.methodName().stringValue();
+                if (isAnnotation || methodName.equals("<clinit>") || SERIALIZATION_MEMBERS.contains(methodName)
+                        || isEnum && ENUM_MEMBERS.contains(methodName)) {
+                    markMember(name, methodName, method.methodType().stringValue());
+                }
+            }
+            for (FieldModel field : model.fields()) {
+                String fieldName = field.fieldName().stringValue();
+                if (SERIALIZATION_MEMBERS.contains(fieldName) || isEnum && ENUM_MEMBERS.contains(fieldName)) {
+                    markMember(name, fieldName, field.fieldType().stringValue());
+                }
+            }
+        }
+
+        private void visitMember(MemberRef ref) {
+            markDescriptor(ref.descriptor());
+            ClassModel model = classes.get(ref.owner());
+            if (!ref.descriptor().startsWith("(")) {
+                for (FieldModel field : model.fields()) {
+                    if (field.fieldName().equalsString(ref.name()) && field.fieldType().equalsString(ref.descriptor())) {
+                        markAnnotations(field);
+                    }
+                }
+                return;
+            }
+            for (MethodModel method : model.methods()) {
+                if (method.methodName().equalsString(ref.name()) && method.methodType().equalsString(ref.descriptor())) {
+                    markAnnotations(method);
+                    method.code().ifPresent(this::visitCode);
+                }
+            }
+        }
+
+        /**
+         * 标记类、字段或方法（包括参数）上的注解类型，以及注解元素值和默认值中引用的类和枚举常量
+         */
+        private void markAnnotations(AttributedElement element) {
+            element.findAttribute(Attributes.runtimeVisibleAnnotations())
+                .ifPresent(attr -> attr.annotations().forEach(this::markAnnotation));
+            element.findAttribute(Attributes.runtimeInvisibleAnnotations())
+                .ifPresent(attr -> attr.annotations().forEach(this::markAnnotation));
+            element.findAttribute(Attributes.runtimeVisibleParameterAnnotations()).ifPresent(attr ->
+                attr.parameterAnnotations().forEach(parameter -> parameter.forEach(this::markAnnotation)));
+            element.findAttribute(Attributes.runtimeInvisibleParameterAnnotations()).ifPresent(attr ->
+                attr.parameterAnnotations().forEach(parameter -> parameter.forEach(this::markAnnotation)));
+            element.findAttribute(Attributes.annotationDefault())
+                .ifPresent(attr -> markAnnotationValue(attr.defaultValue()));
+        }
+
+        private void markAnnotation(Annotation annotation) {
+            markDescriptor(annotation.className().stringValue());
+            annotation.elements().forEach(element -> markAnnotationValue(element.value()));
+        }
+
+        private void markAnnotationValue(AnnotationValue value) {
+            switch (value) {
+                case AnnotationValue.OfClass type -> markDescriptor(type.className().stringValue());
+                case AnnotationValue.OfEnum enumValue -> {
+                    String descriptor = enumValue.className().stringValue();
+                    markMember(descriptor.substring(1, descriptor.length() - 1),
+                        enumValue.constantName().stringValue(), descriptor);
+                }
+                case AnnotationValue.OfAnnotation nested -> markAnnotation(nested.annotation());
+                case AnnotationValue.OfArray array -> array.values().forEach(this::markAnnotationValue);
+                case AnnotationValue.OfConstant constant -> {
+                }
+            }
+        }
+
+        private void visitCode(CodeModel code) {
+            code.forEach(element -> {
+                switch (element) {
+                    case InvokeInstruction invoke -> {
+                        String name = invoke.name().stringValue();
+                        String type = invoke.type().stringValue();
+                        if (invoke.opcode() == Opcode.INVOKEVIRTUAL || invoke.opcode() == Opcode.INVOKEINTERFACE) {
+                            virtualSignatures.add(name + type);
+                        }
+                        markMember(invoke.owner().asInternalName(), name, type);
+                    }
+                    case FieldInstruction field -> markMember(field.owner().asInternalName(),
+                        field.name().stringValue(), field.type().stringValue());
+                    case NewObjectInstruction newObject -> markClass(newObject.className().asInternalName());
+                    case NewReferenceArrayInstruction newArray -> markClass(newArray.componentType().asInternalName());
+                    case NewMultiArrayInstruction newArray -> markClass(newArray.arrayType().asInternalName());
+                    case TypeCheckInstruction typeCheck -> markClass(typeCheck.type().asInternalName());
+                    case ConstantInstruction.LoadConstantInstruction ldc -> markConstant(ldc.constantEntry());
+                    case InvokeDynamicInstruction indy -> visitInvokeDynamic(indy);
+                    case ExceptionCatch handler -> handler.catchType()
+                        .ifPresent(catchType -> markClass(catchType.asInternalName()));
+                    default -> {
+                    }
+                }
+            });
+        }
+
+        private void visitInvokeDynamic(InvokeDynamicInstruction indy) {
+            markDescriptor(indy.type().stringValue());
+            BootstrapMethodEntry bootstrap = indy.invokedynamic().bootstrap();
+            markConstant(bootstrap.bootstrapMethod());
+            List<LoadableConstantEntry> arguments = bootstrap.arguments();
+            arguments.forEach(this::markConstant);
+            // LambdaMetafactory：第一个参数是函数式接口方法的擦除类型
+            if (!arguments.isEmpty() && arguments.getFirst() instanceof MethodTypeEntry samType) {
+                virtualSignatures.add(indy.name().stringValue() + samType.descriptor().stringValue());
+            }
+        }
+
+        private void markConstant(PoolEntry entry) {
+            switch (entry) {
+                case ClassEntry classEntry -> markClass(classEntry.asInternalName());
+                case MethodTypeEntry methodType -> markDescriptor(methodType.descriptor().stringValue());
+                case MethodHandleEntry handle -> {
+                    MemberRefEntry ref = handle.reference();
+                    String name = ref.name().stringValue();
+                    String type = ref.type().stringValue();
+                    if (handle.kind() == MethodHandleInfo.REF_invokeVirtual
+                            || handle.kind() == MethodHandleInfo.REF_invokeInterface) {
+                        virtualSignatures.add(name + type);
+                    }
+                    markMember(ref.owner().asInternalName(), name, type);
+                }
+                default -> {
+                }
+            }
+        }
+
+        private void resolveOverrides(String className) {
+            ClassModel model = classes.get(className);
+            Set<String> inherited = null;
+            for (MethodModel method : model.methods()) {
+                int flags = method.flags().flagsMask();
+                String name = method.methodName().stringValue();
+                if ((flags & (ClassFile.ACC_STATIC | ClassFile.ACC_PRIVATE)) != 0 || name.startsWith("<")) {
+                    continue;
+                }
+                String signature = name + method.methodType().stringValue();
+                if (!virtualSignatures.contains(signature)) {
+                    if (inherited == null) {
+                        inherited = librarySignaturesOf(model);
+                    }
+                    if (!inherited.contains(signature)) {
+                        continue;
+                    }
+                }
+                markMember(className, name, method.methodType().stringValue());
+            }
+        }
+
+        /**
+         * 收集类的所有库父类型（不在分析集合中的父类和接口）声明的可覆盖方法签名，
+         * 这些方法可能被库代码回调，例如 Runnable.run、Object.toString
+         */
+        private Set<String> librarySignaturesOf(ClassModel model) {
+            Set<String> signatures = new HashSet<>();
+            Deque<String> pending = new ArrayDeque<>();
+            model.superclass().ifPresent(superClass -> pending.add(superClass.asInternalName()));
+            model.interfaces().forEach(iface -> pending.add(iface.asInternalName()));
+            Set<String> seen = new HashSet<>();
+            while (!pending.isEmpty()) {
+                String current = pending.poll();
+                if (!seen.add(current)) {
+                    continue;
+                }
+                ClassModel superModel = classes.get(current);
+                if (superModel != null) {
+                    superModel.superclass().ifPresent(superClass -> pending.add(superClass.asInternalName()));
+                    superModel.interfaces().forEach(iface -> pending.add(iface.asInternalName()));
+                } else {
+                    signatures.addAll(librarySignatures.computeIfAbsent(current, this::loadLibrarySignatures));
+                }
+            }
+            return signatures;
+        }
+
+        private Set<String> loadLibrarySignatures(String internalName) {
+            Set<String> signatures = new HashSet<>();
+            Deque<String> pending = new ArrayDeque<>(List.of(internalName));
+            while (!pending.isEmpty()) {
+                String current = pending.poll();
+                try (InputStream in = ClassLoader.getSystemResourceAsStream(current + ".class")) {
+                    if (in == null) {
+                        continue;
+                    }
+                    ClassModel model = ClassFile.of().parse(in.readAllBytes());
+                    for (MethodModel method : model.methods()) {
+                        if ((method.flags().flagsMask() & (ClassFile.ACC_STATIC | ClassFile.ACC_PRIVATE)) == 0) {
+                            signatures.add(method.methodName().stringValue() + method.methodType().stringValue());
+                        }
+                    }
+                    model.superclass().ifPresent(superClass -> pending.add(superClass.asInternalName()));
+                    model.interfaces().forEach(iface -> pending.add(iface.asInternalName()));
+                } catch (IOException | IllegalArgumentException e) {
+                    // 无法读取的库类型按没有可覆盖方法处理
+                }
+            }
+            return signatures;
+        }
+
+        private static <T> List<T> drain(Queue<T> queue) {
+            List<T> batch = new ArrayList<>();
+            T item;
+            while ((item = queue.poll()) != null) {
+                batch.add(item);
+            }
+            return batch;
+        }
+    }
+}
@@ -0,0 +1,670 @@
+package org.yanhuang.learning.jdk24.classapi;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.lang.classfile.ClassFile;
+import java.lang.classfile.ClassHierarchyResolver;
+import java.lang.classfile.ClassModel;
+import java.lang.classfile.CodeBuilder;
+import java.lang.classfile.FieldModel;
+import java.lang.constant.ClassDesc;
+import java.lang.constant.ConstantDescs;
+import java.lang.constant.DynamicConstantDesc;
+import java.lang.constant.MethodTypeDesc;
+import java.lang.invoke.MethodHandle;
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.MethodType;
+import java.lang.reflect.Array;
+import java.lang.reflect.Field;
+import java.lang.reflect.Modifier;
+import java.math.BigDecimal;
+import java.math.BigInteger;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.time.Duration;
+import java.time.Instant;
+import java.time.LocalDate;
+import java.time.LocalDateTime;
+import java.time.LocalTime;
+import java.time.OffsetDateTime;
+import java.time.ZonedDateTime;
+import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentSkipListMap;
+import java.util.function.Function;
+import java.util.function.Predicate;
+
+/**
+ * 基于字节码生成的二进制编解码器
+ * 通过ClassModel读取目标类声明的实例字段（跳过static和transient字段），为每个类生成专用的
+ * {@code write(T, ByteBuffer)} / {@code read(ByteBuffer)} 实现：基本类型字段直接调用ByteBuffer的putXxx/getXxx，
+ * String字段使用长度前缀的UTF-8编码，其他引用类型字段按运行时类型标签编码：基本类型的包装类、枚举（按名称）、
+ * 数组、List/Set/Map、常用的值类型（java.time 中的日期时间、BigDecimal、BigInteger、UUID，按字符串形式）
+ * 以及语料范围内的类（递归使用对应的生成编解码器）。
+ * 编解码器在第一次使用时生成，并按目标类缓存。
+ * <p>
+ * 只为语料范围内的类生成编解码器，默认是由应用类加载器加载的具体类（不包括JDK中的类），
+ * 可以通过 {@link #setCorpus(Predicate)} 在首次使用前修改。生成时会检查整个继承层次中所有字段的声明类型，
+ * 不支持的类型直接抛出 IllegalArgumentException，而不是等到编码时才失败。
+ * <p>
+ * 目标类需要有无参构造函数（可以是私有的）；父类中声明的字段先于子类字段编码，
+ * 父类字段和final实例字段通过类数据（class data）中的MethodHandle读写。
+ * 父类不在语料范围内时（例如继承JDK中的类），父类不能有实例字段；语料范围内的抽象父类的字段正常编码。
+ * <p>
+ * 集合和映射字段读取时按声明类型创建实例：具体类型（需要有公共无参构造函数）直接创建；List、Set、Map 等接口
+ * 还原为ArrayList、LinkedHashSet、LinkedHashMap；Queue/Deque、SortedSet/NavigableSet、SortedMap/NavigableMap、
+ * ConcurrentMap、ConcurrentNavigableMap 分别还原为ArrayDeque、TreeSet、TreeMap、ConcurrentHashMap、
+ * ConcurrentSkipListMap（有序集合按自然顺序，不保留比较器）。无法还原的集合类型在生成时拒绝。
+ */
+public class CodecGenerator {
+
+    private static final ClassDesc CD_CODEC = ClassDesc.of(Codec.class.getName());
+    private static final ClassDesc CD_GENERATOR = ClassDesc.of(CodecGenerator.class.getName());
+    private static final ClassDesc CD_BYTE_BUFFER = ClassDesc.of("java.nio.ByteBuffer");
+    private static final MethodTypeDesc MTD_WRITE = MethodTypeDesc.of(
+        ConstantDescs.CD_void, ConstantDescs.CD_Object, CD_BYTE_BUFFER);
+    private static final MethodTypeDesc MTD_READ = MethodTypeDesc.of(ConstantDescs.CD_Object, CD_BYTE_BUFFER);
+
+    // 动态编码的类型标签
+    private static final byte TAG_NULL = 0;
+    private static final byte TAG_STRING = 1;
+    private static final byte TAG_INTEGER = 2;
+    private static final byte TAG_LONG = 3;
+    private static final byte TAG_DOUBLE = 4;
+    private static final byte TAG_BOOLEAN = 5;
+    private static final byte TAG_LIST = 6;
+    private static final byte TAG_MAP = 7;
+    private static final byte TAG_OBJECT = 8;
+    private static final byte TAG_SET = 9;
+    private static final byte TAG_FLOAT = 10;
+    private static final byte TAG_SHORT = 11;
+    private static final byte TAG_BYTE = 12;
+    private static final byte TAG_CHARACTER = 13;
+    private static final byte TAG_ENUM = 14;
+    private static final byte TAG_ARRAY = 15;
+    private static final byte TAG_VALUE = 16;
+
+    /** 按字符串形式编码的值类型，toString() 的结果可以通过对应的函数还原 */
+    private static final Map<String, Function<String, Object>> VALUE_TYPES = Map.of(
+        LocalDate.class.getName(), LocalDate::parse,
+        LocalTime.class.getName(), LocalTime::parse,
+        LocalDateTime.class.getName(), LocalDateTime::parse,
+        OffsetDateTime.class.getName(), OffsetDateTime::parse,
+        ZonedDateTime.class.getName(), ZonedDateTime::parse,
+        Instant.class.getName(), Instant::parse,
+        Duration.class.getName(), Duration::parse,
+        BigDecimal.class.getName(), BigDecimal::new,
+        BigInteger.class.getName(), BigInteger::new,
+        UUID.class.getName(), UUID::fromString);
+
+    private static final Set<Class<?>> WRAPPERS = Set.of(Integer.class, Long.class, Double.class, Float.class,
+        Short.class, Byte.class, Character.class, Boolean.class);
+
+    /** 集合接口字段的实现类型，按顺序选择第一个可以赋值给字段的类型 */
+    private static final List<Class<?>> CONTAINER_IMPLEMENTATIONS = List.of(ArrayDeque.class, TreeSet.class,
+        TreeMap.class, ConcurrentHashMap.class, ConcurrentSkipListMap.class);
+
+    private static volatile Predicate<Class<?>> corpus = CodecGenerator::isApplicationClass;
+
+    private static final ClassValue<Codec<?>> CACHE = new ClassValue<>() {
+        @Override
+        protected Codec<?> computeValue(Class<?> type) {
+            return new CodecGenerator().generate(type);
+        }
+    };
+
+    private final ClassFileToolkit toolkit = new ClassFileToolkit();
+
+    /**
+     * 生成的编解码器实现的接口
+     *
+     * @param <T> 目标类型
+     */
+    public interface Codec<T> {
+        void write(T value, ByteBuffer buffer);
+
+        T read(ByteBuffer buffer);
+    }
+
+    /**
+     * 编码的一个实例字段
+     *
+     * @param declaring 声明字段的类
+     * @param name 字段名
+     * @param type 字段类型
+     * @param getter 读取句柄在类数据中的下标，-1表示直接使用getfield
+     * @param setter 写入句柄在类数据中的下标，-1表示直接使用putfield
+     * @param container 需要先创建实例再读入内容的集合类型，null表示直接按运行时类型标签读取
+     */
+    private record FieldSlot(ClassDesc declaring, String name, ClassDesc type, int getter, int setter,
+                             ClassDesc container) {
+    }
+
+    /**
+     * 获取目标类的编解码器，首次调用时生成并缓存
+     *
+     * @param type 目标类
+     * @return 编解码器
+     * @throws IllegalArgumentException 如果目标类不在语料范围内或者有不支持的字段类型
+     */
+    @SuppressWarnings("unchecked")
+    public static <T> Codec<T> codecFor(Class<T> type) {
+        return (Codec<T>) CACHE.get(type);
+    }
+
+    /**
+     * 设置可以生成编解码器的类的范围，需要在第一次生成编解码器之前调用，已生成的编解码器不受影响
+     *
+     * @param corpus 判断类是否在语料范围内
+     */
+    public static void setCorpus(Predicate<Class<?>> corpus) {
+        CodecGenerator.corpus = Objects.requireNonNull(corpus);
+    }
+
+    private static boolean isApplicationClass(Class<?> type) {
+        ClassLoader loader = type.getClassLoader();
+        return loader != null && loader != ClassLoader.getPlatformClassLoader();
+    }
+
+    /**
+     * 语料范围内可以实例化的类，可以为其生成编解码器
+     */
+    private static boolean isCorpusClass(Class<?> type) {
+        return isCorpusType(type) && !Modifier.isAbstract(type.getModifiers());
+    }
+
+    /**
+     * 语料范围内的类，包括抽象类，用于判断父类中的字段能否编码
+     */
+    private static boolean isCorpusType(Class<?> type) {
+        return !type.isPrimitive() && !type.isArray() && !type.isInterface() && !type.isEnum() && corpus.test(type);
+    }
+
+    /**
+     * 判断字段的声明类型能否编码，Object、接口和抽象类型在编码时按运行时类型检查，
+     * 集合和映射类型还要由 {@link #containerType} 检查能否还原
+     */
+    private static boolean isSupportedFieldType(Class<?> type) {
+        if (type.isPrimitive() || type == String.class || WRAPPERS.contains(type) || type.isEnum()
+                || VALUE_TYPES.containsKey(type.getName())
+                || Collection.class.isAssignableFrom(type) || Map.class.isAssignableFrom(type)) {
+            return true;
+        }
+        if (type.isArray()) {
+            return isSupportedFieldType(type.getComponentType());
+        }
+        if (type == Object.class || type.isInterface() || Modifier.isAbstract(type.getModifiers())) {
+            return true;
+        }
+        return isCorpusClass(type);
+    }
+
+    private Codec<?> generate(Class<?> type) {
+        if (!isCorpusClass(type)) {
+            throw new IllegalArgumentException("不能为 " + type.getName()
+                + " 生成编解码器: 只支持语料范围内有无参构造函数的具体类");
+        }
+        MethodHandles.Lookup typeLookup = checkInstantiable(type);
+        ClassModel classModel = readClassModel(type);
+        ClassDesc owner = classModel.thisClass().asSymbol();
+
+        // 从最上层的父类开始收集字段，父类字段先编码
+        Deque<Class<?>> hierarchy = new ArrayDeque<>();
+        for (Class<?> current = type; current != null && current != Object.class; current = current.getSuperclass()) {
+            hierarchy.push(current);
+        }
+
+        try {
+            // final字段的写入句柄、父类字段的读写句柄作为类数据传给生成的类
+            List<MethodHandle> handles = new ArrayList<>();
+            List<FieldSlot> fields = new ArrayList<>();
+            for (Class<?> declaring : hierarchy) {
+                if (!isCorpusType(declaring)) {
+                    for (Field field : declaring.getDeclaredFields()) {
+                        if (!Modifier.isStatic(field.getModifiers()) && !Modifier.isTransient(field.getModifiers())) {
+                            throw new IllegalArgumentException("不能为 " + type.getName() + " 生成编解码器: 父类 "
+                                + declaring.getName() + " 不在语料范围内，但声明了实例字段 " + field.getName());
+                        }
+                    }
+                    continue;
+                }
+                ClassModel declaringModel = declaring == type ? classModel : readClassModel(declaring);
+                boolean inherited = declaring != type;
+                for (FieldModel field : declaringModel.fields()) {
+                    if ((field.flags().flagsMask() & (ClassFile.ACC_STATIC | ClassFile.ACC_TRANSIENT)) != 0) {
+                        continue;
+                    }
+                    String name = field.fieldName().stringValue();
+                    Field reflected = declaring.getDeclaredField(name);
+                    if (!isSupportedFieldType(reflected.getType())) {
+                        throw new IllegalArgumentException("不能为 " + type.getName() + " 生成编解码器: 字段 "
+                            + declaring.getName() + "." + name + " 的类型 " + reflected.getType().getName() + " 不支持编码");
+                    }
+                    int getter = -1;
+                    int setter = -1;
+                    if (inherited || (field.flags().flagsMask() & ClassFile.ACC_FINAL) != 0) {
+                        reflected.setAccessible(true);
+                        setter = handles.size();
+                        handles.add(MethodHandles.lookup().unreflectSetter(reflected));
+                    }
+                    if (inherited) {
+                        getter = handles.size();
+                        handles.add(MethodHandles.lookup().unreflectGetter(reflected));
+                    }
+                    Class<?> container = containerType(type, reflected);
+                    fields.add(new FieldSlot(declaringModel.thisClass().asSymbol(), name, field.fieldTypeSymbol(),
+                        getter, setter, container == null ? null : ClassDesc.of(container.getName())));
+                }
+            }
+
+            ClassLoader loader = Objects.requireNonNullElse(type.getClassLoader(), ClassLoader.getPlatformClassLoader());
+            byte[] bytes = ClassFile.of(ClassFile.ClassHierarchyResolverOption.of(
+                    ClassHierarchyResolver.defaultResolver().orElse(ClassHierarchyResolver.ofClassLoading(loader))))
+                .build(ClassDesc.of(type.getName() + "$$Codec"), classBuilder -> {
+                    classBuilder.withFlags(ClassFile.ACC_FINAL | ClassFile.ACC_SUPER | ClassFile.ACC_SYNTHETIC);
+                    classBuilder.withInterfaceSymbols(CD_CODEC);
+                    classBuilder.withMethodBody(ConstantDescs.INIT_NAME, ConstantDescs.MTD_void, ClassFile.ACC_PUBLIC,
+                        cb -> cb.aload(0)
+                            .invokespecial(ConstantDescs.CD_Object, ConstantDescs.INIT_NAME, ConstantDescs.MTD_void)
+                            .return_());
+                    classBuilder.withMethodBody("write", MTD_WRITE, ClassFile.ACC_PUBLIC,
+                        cb -> emitWrite(cb, owner, fields));
+                    classBuilder.withMethodBody("read", MTD_READ, ClassFile.ACC_PUBLIC,
+                        cb -> emitRead(cb, owner, fields));
+                });
+
+            MethodHandles.Lookup lookup = typeLookup.defineHiddenClassWithClassData(bytes, List.copyOf(handles), true,
+                    MethodHandles.Lookup.ClassOption.NESTMATE);
+            return (Codec<?>) lookup.findConstructor(lookup.lookupClass(), MethodType.methodType(void.class)).invoke();
+        } catch (IllegalArgumentException e) {
+            throw e;
+        } catch (Throwable e) {
+            throw new IllegalStateException("生成编解码器失败: " + type.getName(), e);
+        }
+    }
+
+    /**
+     * 检查目标类有无参构造函数，并且可以在其中定义访问私有成员的编解码器
+     *
+     * @return 目标类的私有查找对象
+     */
+    private static MethodHandles.Lookup checkInstantiable(Class<?> type) {
+        try {
+            type.getDeclaredConstructor();
+        } catch (NoSuchMethodException e) {
+            String reason = type.isMemberClass() && !Modifier.isStatic(type.getModifiers())
+                ? "非静态内部类的构造函数需要外部类实例"
+                : "没有无参构造函数";
+            throw new IllegalArgumentException("不能为 " + type.getName() + " 生成编解码器: " + reason);
+        }
+        try {
+            return MethodHandles.privateLookupIn(type, MethodHandles.lookup());
+        } catch (IllegalAccessException e) {
+            throw new IllegalArgumentException("不能为 " + type.getName() + " 生成编解码器: 无法访问其私有成员，"
+                + "所在模块需要向 " + CodecGenerator.class.getModule() + " 开放包 " + type.getPackageName(), e);
+        }
+    }
+
+    /**
+     * 确定集合或映射字段读取时要创建的实例类型
+     *
+     * @return 要创建的类型，字段不是集合或映射、或者按运行时类型标签读取的结果可以直接赋值时返回null
+     * @throws IllegalArgumentException 如果无法创建与字段类型匹配的实例
+     */
+    private static Class<?> containerType(Class<?> type, Field field) {
+        Class<?> fieldType = field.getType();
+        boolean collection = Collection.class.isAssignableFrom(fieldType);
+        if (!collection && !Map.class.isAssignableFrom(fieldType)) {
+            return null;
+        }
+        if (!fieldType.isInterface() && !Modifier.isAbstract(fieldType.getModifiers())) {
+            try {
+                if (Modifier.isPublic(fieldType.getModifiers())
+                        && Modifier.isPublic(fieldType.getConstructor().getModifiers())) {
+                    return fieldType;
+                }
+            } catch (NoSuchMethodException e) {
+                // 下面统一报错
+            }
+        } else {
+            // readValue 按写入时的类型标签把 Set 还原为 LinkedHashSet、其他集合还原为 ArrayList、映射还原为 LinkedHashMap
+            boolean readable;
+            if (!collection) {
+                readable = fieldType.isAssignableFrom(LinkedHashMap.class);
+            } else if (Set.class.isAssignableFrom(fieldType)) {
+                readable = fieldType.isAssignableFrom(LinkedHashSet.class);
+            } else {
+                readable = fieldType.isAssignableFrom(ArrayList.class)
+                    && (List.class.isAssignableFrom(fieldType) || fieldType.isAssignableFrom(LinkedHashSet.class));
+            }
+            if (readable) {
+                return null;
+            }
+            for (Class<?> implementation : CONTAINER_IMPLEMENTATIONS) {
+                if (fieldType.isAssignableFrom(implementation)) {
+                    return implementation;
+                }
+            }
+        }
+        throw new IllegalArgumentException("不能为 " + type.getName() + " 生成编解码器: 字段 "
+            + field.getDeclaringClass().getName() + "." + field.getName() + " 的类型 " + fieldType.getName()
+            + " 无法还原，请声明为有公共无参构造函数的具体集合类型");
+    }
+
+    private ClassModel readClassModel(Class<?> type) {
+        String resource = "/" + type.getName().replace('.', '/') + ".class";
+        try (InputStream in = type.getResourceAsStream(resource)) {
+            if (in == null) {
+                throw new IllegalArgumentException("找不到类文件: " + resource);
+            }
+            return toolkit.readClass(in.readAllBytes());
+        } catch (IOException e) {
+            throw new IllegalStateException("读取类文件失败: " + resource, e);
+        }
+    }
+
+    /**
+     * write(Object value, ByteBuffer buffer)：按字段声明顺序依次写入
+     */
+    private static void emitWrite(CodeBuilder cb, ClassDesc owner, List<FieldSlot> fields) {
+        cb.aload(1).checkcast(owner).astore(3);
+        for (FieldSlot field : fields) {
+            ClassDesc type = field.type();
+            cb.aload(2);
+            if (field.getter() >= 0) {
+                cb.ldc(classData(field.getter()))
+                    .aload(3)
+                    .invokevirtual(ConstantDescs.CD_MethodHandle, "invokeExact",
+                        MethodTypeDesc.of(type, field.declaring()));
+            } else {
+                cb.aload(3).getfield(owner, field.name(), type);
+            }
+            if (type.isPrimitive()) {
+                String method = switch (type.descriptorString()) {
+                    case "Z", "B" -> "put";
+                    case "C" -> "putChar";
+                    case "S" -> "putShort";
+                    case "I" -> "putInt";
+                    case "J" -> "putLong";
+                    case "F" -> "putFloat";
+                    default -> "putDouble";
+                };
+                ClassDesc parameter = type.descriptorString().equals("Z") ? ConstantDescs.CD_byte : type;
+                cb.invokevirtual(CD_BYTE_BUFFER, method, MethodTypeDesc.of(CD_BYTE_BUFFER, parameter)).pop();
+            } else if (type.equals(ConstantDescs.CD_String)) {
+                cb.invokestatic(CD_GENERATOR, "writeString",
+                    MethodTypeDesc.of(ConstantDescs.CD_void, CD_BYTE_BUFFER, ConstantDescs.CD_String));
+            } else {
+                cb.invokestatic(CD_GENERATOR, "writeValue",
+                    MethodTypeDesc.of(ConstantDescs.CD_void, CD_BYTE_BUFFER, ConstantDescs.CD_Object));
+            }
+        }
+        cb.return_();
+    }
+
+    /**
+     * read(ByteBuffer buffer)：调用无参构造函数创建实例，再按字段声明顺序依次读取
+     */
+    private static void emitRead(CodeBuilder cb, ClassDesc owner, List<FieldSlot> fields) {
+        cb.new_(owner).dup()
+            .invokespecial(owner, ConstantDescs.INIT_NAME, ConstantDescs.MTD_void)
+            .astore(2);
+        for (FieldSlot field : fields) {
+            String name = field.name();
+            ClassDesc type = field.type();
+            if (field.setter() >= 0) {
+                cb.ldc(classData(field.setter()));
+            }
+            cb.aload(2).aload(1);
+            if (type.isPrimitive()) {
+                String method = switch (type.descriptorString()) {
+                    case "Z", "B" -> "get";
+                    case "C" -> "getChar";
+                    case "S" -> "getShort";
+                    case "I" -> "getInt";
+                    case "J" -> "getLong";
+                    case "F" -> "getFloat";
+                    default -> "getDouble";
+                };
+                ClassDesc result = type.descriptorString().equals("Z") ? ConstantDescs.CD_byte : type;
+                cb.invokevirtual(CD_BYTE_BUFFER, method, MethodTypeDesc.of(result));
+            } else if (type.equals(ConstantDescs.CD_String)) {
+                cb.invokestatic(CD_GENERATOR, "readString", MethodTypeDesc.of(ConstantDescs.CD_String, CD_BYTE_BUFFER));
+            } else if (field.container() != null) {
+                cb.new_(field.container()).dup()
+                    .invokespecial(field.container(), ConstantDescs.INIT_NAME, ConstantDescs.MTD_void)
+                    .invokestatic(CD_GENERATOR, "readInto",
+                        MethodTypeDesc.of(ConstantDescs.CD_Object, CD_BYTE_BUFFER, ConstantDescs.CD_Object))
+                    .checkcast(type);
+            } else {
+                cb.invokestatic(CD_GENERATOR, "readValue", MethodTypeDesc.of(ConstantDescs.CD_Object, CD_BYTE_BUFFER));
+                if (!type.equals(ConstantDescs.CD_Object)) {
+                    cb.checkcast(type);
+                }
+            }
+            if (field.setter() >= 0) {
+                cb.invokevirtual(ConstantDescs.CD_MethodHandle, "invokeExact",
+                    MethodTypeDesc.of(ConstantDescs.CD_void, field.declaring(), type));
+            } else {
+                cb.putfield(owner, name, type);
+            }
+        }
+        cb.aload(2).areturn();
+    }
+
+    /**
+     * 类数据中第index个方法句柄
+     */
+    private static DynamicConstantDesc<MethodHandle> classData(int index) {
+        return DynamicConstantDesc.ofNamed(ConstantDescs.BSM_CLASS_DATA_AT, ConstantDescs.DEFAULT_NAME,
+            ConstantDescs.CD_MethodHandle, index);
+    }
+
+    // ================= Runtime support =================
+    // 以下方法由生成的编解码器调用
+
+    /**
+     * 写入字符串：长度前缀（-1表示null）加UTF-8字节
+     */
+    public static void writeString(ByteBuffer buffer, String value) {
+        if (value == null) {
+            buffer.putInt(-1);
+            return;
+        }
+        byte[] bytes = value.getBytes(StandardCharsets.UTF_8);
+        buffer.putInt(bytes.length).put(bytes);
+    }
+
+    /**
+     * 读取由 {@link #writeString} 写入的字符串
+     */
+    public static String readString(ByteBuffer buffer) {
+        int length = buffer.getInt();
+        if (length < 0) {
+            return null;
+        }
+        byte[] bytes = new byte[length];
+        buffer.get(bytes);
+        return new String(bytes, StandardCharsets.UTF_8);
+    }
+
+    /**
+     * 按运行时类型写入任意值：类型标签加内容，语料范围内的对象递归使用对应的生成编解码器
+     *
+     * @throws IllegalArgumentException 如果值的类型不支持编码
+     */
+    @SuppressWarnings("unchecked")
+    public static void writeValue(ByteBuffer buffer, Object value) {
+        switch (value) {
+            case null -> buffer.put(TAG_NULL);
+            case String s -> {
+                buffer.put(TAG_STRING);
+                writeString(buffer, s);
+            }
+            case Integer i -> buffer.put(TAG_INTEGER).putInt(i);
+            case Long l -> buffer.put(TAG_LONG).putLong(l);
+            case Double d -> buffer.put(TAG_DOUBLE).putDouble(d);
+            case Boolean b -> buffer.put(TAG_BOOLEAN).put((byte) (b ? 1 : 0));
+            case Float f -> buffer.put(TAG_FLOAT).putFloat(f);
+            case Short s -> buffer.put(TAG_SHORT).putShort(s);
+            case Byte b -> buffer.put(TAG_BYTE).put(b);
+            case Character c -> buffer.put(TAG_CHARACTER).putChar(c);
+            case Enum<?> e -> {
+                buffer.put(TAG_ENUM);
+                writeString(buffer, e.getDeclaringClass().getName());
+                writeString(buffer, e.name());
+            }
+            case Collection<?> collection -> {
+                buffer.put(collection instanceof Set<?> ? TAG_SET : TAG_LIST).putInt(collection.size());
+                for (Object element : collection) {
+                    writeValue(buffer, element);
+                }
+            }
+            case Map<?, ?> map -> {
+                buffer.put(TAG_MAP).putInt(map.size());
+                for (Map.Entry<?, ?> entry : map.entrySet()) {
+                    writeValue(buffer, entry.getKey());
+                    writeValue(buffer, entry.getValue());
+                }
+            }
+            default -> {
+                Class<?> type = value.getClass();
+                if (type.isArray()) {
+                    int length = Array.getLength(value);
+                    buffer.put(TAG_ARRAY);
+                    writeString(buffer, type.getComponentType().getName());
+                    buffer.putInt(length);
+                    for (int i = 0; i < length; i++) {
+                        writeValue(buffer, Array.get(value, i));
+                    }
+                } else if (VALUE_TYPES.containsKey(type.getName())) {
+                    buffer.put(TAG_VALUE);
+                    writeString(buffer, type.getName());
+                    writeString(buffer, value.toString());
+                } else if (isCorpusClass(type)) {
+                    buffer.put(TAG_OBJECT);
+                    writeString(buffer, type.getName());
+                    ((Codec<Object>) codecFor(type)).write(value, buffer);
+                } else {
+                    throw new IllegalArgumentException("不支持编码类型: " + type.getName());
+                }
+            }
+        }
+    }
+
+    /**
+     * 读取由 {@link #writeValue} 写入的值，List、Set和Map分别还原为ArrayList、LinkedHashSet和LinkedHashMap
+     */
+    public static Object readValue(ByteBuffer buffer) {
+        byte tag = buffer.get();
+        return switch (tag) {
+            case TAG_NULL -> null;
+            case TAG_STRING -> readString(buffer);
+            case TAG_INTEGER -> buffer.getInt();
+            case TAG_LONG -> buffer.getLong();
+            case TAG_DOUBLE -> buffer.getDouble();
+            case TAG_BOOLEAN -> buffer.get() != 0;
+            case TAG_FLOAT -> buffer.getFloat();
+            case TAG_SHORT -> buffer.getShort();
+            case TAG_BYTE -> buffer.get();
+            case TAG_CHARACTER -> buffer.getChar();
+            case TAG_ENUM -> {
+                Class<?> type = loadClass(readString(buffer));
+                yield enumConstant(type, readString(buffer));
+            }
+            case TAG_ARRAY -> {
+                String componentName = readString(buffer);
+                Class<?> component = Class.forPrimitiveName(componentName);
+                Object array = Array.newInstance(component != null ? component : loadClass(componentName),
+                    buffer.getInt());
+                for (int i = 0; i < Array.getLength(array); i++) {
+                    Array.set(array, i, readValue(buffer));
+                }
+                yield array;
+            }
+            case TAG_VALUE -> {
+                String className = readString(buffer);
+                Function<String, Object> parser = VALUE_TYPES.get(className);
+                if (parser == null) {
+                    throw new IllegalStateException("未知的值类型: " + className);
+                }
+                yield parser.apply(readString(buffer));
+            }
+            case TAG_LIST -> {
+                int size = buffer.getInt();
+                List<Object> list = new ArrayList<>(size);
+                for (int i = 0; i < size; i++) {
+                    list.add(readValue(buffer));
+                }
+                yield list;
+            }
+            case TAG_SET -> {
+                int size = buffer.getInt();
+                Set<Object> set = LinkedHashSet.newLinkedHashSet(size);
+                for (int i = 0; i < size; i++) {
+                    set.add(readValue(buffer));
+                }
+                yield set;
+            }
+            case TAG_MAP -> {
+                int size = buffer.getInt();
+                Map<Object, Object> map = LinkedHashMap.newLinkedHashMap(size);
+                for (int i = 0; i < size; i++) {
+                    map.put(readValue(buffer), readValue(buffer));
+                }
+                yield map;
+            }
+            case TAG_OBJECT -> codecFor(loadClass(readString(buffer))).read(buffer);
+            default -> throw new IllegalStateException("未知的类型标签: " + tag);
+        };
+    }
+
+    private static Class<?> loadClass(String className) {
+        try {
+            return Class.forName(className, false, Thread.currentThread().getContextClassLoader());
+        } catch (ClassNotFoundException e) {
+            throw new IllegalStateException("找不到类: " + className, e);
+        }
+    }
+
+    @SuppressWarnings({"unchecked", "rawtypes"})
+    private static Object enumConstant(Class<?> type, String name) {
+        if (!type.isEnum()) {
+            throw new IllegalStateException("不是枚举类型: " + type.getName());
+        }
+        return Enum.valueOf((Class) type, name);
+    }
+
+    /**
+     * 把集合或映射的内容读入给定的容器，用于声明为具体集合类型（例如ConcurrentHashMap）
+     * 或者需要特定实现的集合接口（例如Deque、SortedMap）的字段
+     *
+     * @return 填充后的容器，写入的值为null时返回null
+     */
+    @SuppressWarnings("unchecked")
+    public static Object readInto(ByteBuffer buffer, Object container) {
+        byte tag = buffer.get();
+        switch (tag) {
+            case TAG_NULL -> {
+                return null;
+            }
+            case TAG_LIST, TAG_SET -> {
+                int size = buffer.getInt();
+                Collection<Object> collection = (Collection<Object>) container;
+                for (int i = 0; i < size; i++) {
+                    collection.add(readValue(buffer));
+                }
+                return collection;
+            }
+            case TAG_MAP -> {
+                int size = buffer.getInt();
+                Map<Object, Object> map = (Map<Object, Object>) container;
+                for (int i = 0; i < size; i++) {
+                    map.put(readValue(buffer), readValue(buffer));
+                }
+                return map;
+            }
+            default -> throw new IllegalStateException("类型标签 " + tag + " 不能读入容器");
+        }
+    }
+}
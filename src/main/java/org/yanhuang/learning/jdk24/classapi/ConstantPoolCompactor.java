@@ -0,0 +1,217 @@
+package org.yanhuang.learning.jdk24.classapi;
+
+import java.io.IOException;
+import java.lang.classfile.ClassFile;
+import java.lang.classfile.ClassModel;
+import java.lang.classfile.ClassTransform;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Comparator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * 常量池压缩工具
+ * 使用全新的常量池（ClassFile.ConstantPoolSharingOption.NEW_POOL）重建类文件，
+ * 只写入仍被引用的条目，并由ConstantPoolBuilder对条目去重，
+ * 从而删除类重写后遗留的无用UTF8、NameAndType和Class条目。
+ * 注意：无法识别的自定义属性在更换常量池时无法重映射索引，会被丢弃。
+ * 更换常量池后方法体需要重新写出并生成栈映射帧，压缩jar时用jar和类路径中的类解析类层次。
+ */
+public class ConstantPoolCompactor {
+
+    private final ClassFileToolkit toolkit = new ClassFileToolkit();
+    private final ClassFile classFile = ClassFile.of(ClassFile.ConstantPoolSharingOption.NEW_POOL);
+
+    /**
+     * 单个类的压缩结果
+     *
+     * @param className 类的内部名称
+     * @param poolSizeBefore 压缩前常量池大小
+     * @param poolSizeAfter 压缩后常量池大小
+     * @param bytesBefore 压缩前类文件字节数
+     * @param bytesAfter 压缩后类文件字节数
+     */
+    public record ClassCompaction(String className, int poolSizeBefore, int poolSizeAfter,
+                                  int bytesBefore, int bytesAfter) {
+        public int removedEntries() {
+            return poolSizeBefore - poolSizeAfter;
+        }
+    }
+
+    /**
+     * jar的压缩报告，按节省字节数从大到小排列
+     *
+     * @param classes 每个类的压缩结果
+     * @param failures 无法重建而保留原始字节的类，内部类名到失败原因的映射
+     */
+    public record CompactionReport(List<ClassCompaction> classes, Map<String, String> failures) {
+        public long poolSizeBefore() {
+            return classes.stream().mapToLong(ClassCompaction::poolSizeBefore).sum();
+        }
+
+        public long poolSizeAfter() {
+            return classes.stream().mapToLong(ClassCompaction::poolSizeAfter).sum();
+        }
+
+        public long bytesBefore() {
+            return classes.stream().mapToLong(ClassCompaction::bytesBefore).sum();
+        }
+
+        public long bytesAfter() {
+            return classes.stream().mapToLong(ClassCompaction::bytesAfter).sum();
+        }
+    }
+
+    /**
+     * 压缩后的类文件
+     *
+     * @param bytes 最终的类字节码
+     * @param compaction 压缩结果
+     */
+    public record CompactedClass(byte[] bytes, ClassCompaction compaction) {
+    }
+
+    /**
+     * 一组类的压缩结果
+     *
+     * @param classes 内部类名到最终字节码的映射，包含所有输入类，没有变小或无法重建的类为原始字节
+     * @param report 压缩报告
+     */
+    public record CompactionResult(Map<String, byte[]> classes, CompactionReport report) {
+    }
+
+    /**
+     * 使用最小的去重常量池重建类
+     *
+     * @param classModel 类模型
+     * @return 重建后的类字节码
+     */
+    public byte[] compact(ClassModel classModel) {
+        return compact(classFile, classModel);
+    }
+
+    private static byte[] compact(ClassFile classFile, ClassModel classModel) {
+        return classFile.transformClass(classModel, ClassTransform.ACCEPT_ALL);
+    }
+
+    /**
+     * 压缩单个类文件并统计结果，重建后没有变小的类保留原始字节
+     *
+     * @param classBytes 类文件字节数组
+     * @return 最终字节码和压缩结果
+     */
+    public CompactedClass compact(byte[] classBytes) {
+        return compact(classFile, classFile.parse(classBytes), classBytes);
+    }
+
+    private static CompactedClass compact(ClassFile classFile, ClassModel before, byte[] classBytes) {
+        String className = before.thisClass().asInternalName();
+        int poolSizeBefore = before.constantPool().size();
+        byte[] compacted = compact(classFile, before);
+        if (compacted.length >= classBytes.length) {
+            return new CompactedClass(classBytes, new ClassCompaction(className,
+                poolSizeBefore, poolSizeBefore, classBytes.length, classBytes.length));
+        }
+        int poolSizeAfter = classFile.parse(compacted).constantPool().size();
+        return new CompactedClass(compacted, new ClassCompaction(className,
+            poolSizeBefore, poolSizeAfter, classBytes.length, compacted.length));
+    }
+
+    /**
+     * 并行压缩jar中所有类文件的常量池，非类文件条目原样保留
+     *
+     * @param inputJar 输入jar路径
+     * @param outputJar 输出jar路径
+     * @return 压缩报告
+     * @throws IOException 如果文件读取或写入失败
+     */
+    public CompactionReport compactJar(Path inputJar, Path outputJar) throws IOException {
+        return compactJar(inputJar, outputJar, List.of());
+    }
+
+    /**
+     * 同 {@link #compactJar(Path, Path)}，并用类路径上的依赖jar解析类层次，
+     * 类继承依赖中的类时，重新生成栈映射帧需要这些依赖
+     *
+     * @param inputJar 输入jar路径
+     * @param outputJar 输出jar路径
+     * @param classpath 依赖jar路径，按类路径顺序排列
+     * @return 压缩报告
+     * @throws IOException 如果文件读取或写入失败
+     */
+    public CompactionReport compactJar(Path inputJar, Path outputJar, List<Path> classpath) throws IOException {
+        Map<String, byte[]> entries = toolkit.readJar(inputJar);
+        Map<String, byte[]> classBytes = new LinkedHashMap<>();
+        entries.forEach((name, bytes) -> {
+            if (name.endsWith(".class")) {
+                classBytes.put(name.substring(0, name.length() - ".class".length()), bytes);
+            }
+        });
+        CompactionResult result = compact(classBytes, toolkit.readClasspath(classpath).values());
+
+        Map<String, byte[]> outputEntries = new LinkedHashMap<>();
+        entries.forEach((name, bytes) -> outputEntries.put(name, name.endsWith(".class")
+            ? result.classes().get(name.substring(0, name.length() - ".class".length()))
+            : bytes));
+        toolkit.writeJar(outputJar, outputEntries);
+        return result.report();
+    }
+
+    /**
+     * 并行压缩一组类文件的常量池
+     *
+     * @param classes 内部类名到类文件字节的映射
+     * @return 压缩结果
+     */
+    public CompactionResult compact(Map<String, byte[]> classes) {
+        return compact(classes, List.of());
+    }
+
+    /**
+     * 同 {@link #compact(Map)}，并用依赖中的类解析类层次。
+     * 单个类无法解析或重建时保留原始字节并记录在报告中，不影响其他类
+     *
+     * @param classes 内部类名到类文件字节的映射
+     * @param dependencies 依赖中的类模型，只用于解析类层次，不会被压缩
+     * @return 压缩结果
+     */
+    public CompactionResult compact(Map<String, byte[]> classes, Collection<ClassModel> dependencies) {
+        Map<String, ClassModel> models = new ConcurrentHashMap<>();
+        Map<String, String> failures = new ConcurrentHashMap<>();
+        classes.entrySet().parallelStream().forEach(entry -> {
+            try {
+                models.put(entry.getKey(), toolkit.readClass(entry.getValue()));
+            } catch (IllegalArgumentException e) {
+                failures.put(entry.getKey(), "解析失败: " + e.getMessage());
+            }
+        });
+        ClassFile compactingFile = ClassFile.of(ClassFile.ConstantPoolSharingOption.NEW_POOL,
+            ClassFile.ClassHierarchyResolverOption.of(toolkit.hierarchyResolver(models.values(), dependencies)));
+
+        Map<String, byte[]> output = new ConcurrentHashMap<>();
+        Map<String, ClassCompaction> results = new ConcurrentHashMap<>();
+        classes.entrySet().parallelStream().forEach(entry -> {
+            ClassModel model = models.get(entry.getKey());
+            if (model != null) {
+                try {
+                    CompactedClass compacted = compact(compactingFile, model, entry.getValue());
+                    results.put(entry.getKey(), compacted.compaction());
+                    output.put(entry.getKey(), compacted.bytes());
+                    return;
+                } catch (IllegalArgumentException | IllegalStateException e) {
+                    failures.put(entry.getKey(), "重建失败: " + e.getMessage());
+                }
+            }
+            output.put(entry.getKey(), entry.getValue());
+        });
+
+        List<ClassCompaction> compactions = new ArrayList<>(results.values());
+        compactions.sort(Comparator.comparingInt((ClassCompaction c) -> c.bytesBefore() - c.bytesAfter()).reversed());
+        return new CompactionResult(output, new CompactionReport(compactions, new TreeMap<>(failures)));
+    }
+}
@@ -0,0 +1,199 @@
+package org.yanhuang.learning.jdk24.classapi;
+
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.VarHandle;
+import java.nio.ByteOrder;
+
+/**
+ * 128位非加密内容哈希（MurmurHash3 x64_128 的流式实现）
+ * <p>
+ * 输入按8字节的块累加，每两个块做一次混合。字节数组一次读取8字节（{@link VarHandle} 按小端读取 long），
+ * 字符串每4个字符打包成一个块，整数和长整数各占一个块。变长输入前先写入长度，
+ * 因此 ("ab", "c") 和 ("a", "bc") 的哈希不同。
+ * <p>
+ * 实例不是线程安全的，可以通过 {@link #reset()} 复用，避免每次哈希都创建对象。
+ */
+public final class ContentHasher {
+
+    private static final long C1 = 0x87c37b91114253d5L;
+    private static final long C2 = 0x4cf5ad432745937fL;
+    private static final VarHandle LONGS = MethodHandles.byteArrayViewVarHandle(long[].class, ByteOrder.LITTLE_ENDIAN);
+
+    private long h1;
+    private long h2;
+    private long pending;
+    private boolean hasPending;
+    private long blocks;
+
+    /**
+     * 128位哈希值
+     *
+     * @param high 高64位
+     * @param low 低64位
+     */
+    public record Hash128(long high, long low) {
+        /**
+         * 把两个哈希组合为一个，结果与顺序有关
+         */
+        public Hash128 combine(Hash128 other) {
+            return new ContentHasher().putHash(this).putHash(other).finish();
+        }
+
+        /**
+         * 解析 {@link #toString()} 的结果
+         */
+        public static Hash128 parse(String hex) {
+            if (hex.length() != 32) {
+                throw new IllegalArgumentException("哈希值应为32个十六进制字符: " + hex);
+            }
+            return new Hash128(Long.parseUnsignedLong(hex.substring(0, 16), 16),
+                Long.parseUnsignedLong(hex.substring(16), 16));
+        }
+
+        @Override
+        public String toString() {
+            return String.format("%016x%016x", high, low);
+        }
+    }
+
+    public ContentHasher() {
+        reset();
+    }
+
+    /**
+     * 计算字节数组的哈希
+     */
+    public static Hash128 hash(byte[] data) {
+        return new ContentHasher().putBytes(data, 0, data.length).finish();
+    }
+
+    /**
+     * 清空状态以便复用
+     */
+    public ContentHasher reset() {
+        h1 = 0;
+        h2 = 0;
+        pending = 0;
+        hasPending = false;
+        blocks = 0;
+        return this;
+    }
+
+    public ContentHasher putLong(long value) {
+        if (!hasPending) {
+            pending = value;
+            hasPending = true;
+        } else {
+            mix(pending, value);
+            hasPending = false;
+        }
+        blocks++;
+        return this;
+    }
+
+    public ContentHasher putInt(int value) {
+        return putLong(value & 0xFFFFFFFFL);
+    }
+
+    public ContentHasher putBoolean(boolean value) {
+        return putLong(value ? 1 : 0);
+    }
+
+    public ContentHasher putHash(Hash128 hash) {
+        return putLong(hash.high()).putLong(hash.low());
+    }
+
+    /**
+     * 写入字符序列，先写长度，再每4个字符打包为一个块
+     */
+    public ContentHasher putString(CharSequence value) {
+        int length = value.length();
+        putInt(length);
+        int i = 0;
+        for (; i + 4 <= length; i += 4) {
+            putLong(value.charAt(i)
+                | (long) value.charAt(i + 1) << 16
+                | (long) value.charAt(i + 2) << 32
+                | (long) value.charAt(i + 3) << 48);
+        }
+        if (i < length) {
+            long tail = 0;
+            for (int shift = 0; i < length; i++, shift += 16) {
+                tail |= (long) value.charAt(i) << shift;
+            }
+            putLong(tail);
+        }
+        return this;
+    }
+
+    /**
+     * 写入字节数组的一段，先写长度，再每次读取8字节
+     */
+    public ContentHasher putBytes(byte[] data, int offset, int length) {
+        putInt(length);
+        int end = offset + length;
+        int i = offset;
+        for (; i + 8 <= end; i += 8) {
+            putLong((long) LONGS.get(data, i));
+        }
+        if (i < end) {
+            long tail = 0;
+            for (int shift = 0; i < end; i++, shift += 8) {
+                tail |= (data[i] & 0xFFL) << shift;
+            }
+            putLong(tail);
+        }
+        return this;
+    }
+
+    /**
+     * 结束计算并返回哈希值，之后应调用 {@link #reset()} 才能开始新的计算
+     */
+    public Hash128 finish() {
+        long a = h1;
+        long b = h2;
+        if (hasPending) {
+            long k1 = pending * C1;
+            k1 = Long.rotateLeft(k1, 31);
+            k1 *= C2;
+            a ^= k1;
+        }
+        long length = blocks * 8;
+        a ^= length;
+        b ^= length;
+        a += b;
+        b += a;
+        a = fmix(a);
+        b = fmix(b);
+        a += b;
+        b += a;
+        return new Hash128(a, b);
+    }
+
+    private void mix(long k1, long k2) {
+        k1 *= C1;
+        k1 = Long.rotateLeft(k1, 31);
+        k1 *= C2;
+        h1 ^= k1;
+        h1 = Long.rotateLeft(h1, 27);
+        h1 += h2;
+        h1 = h1 * 5 + 0x52dce729;
+
+        k2 *= C2;
+        k2 = Long.rotateLeft(k2, 33);
+        k2 *= C1;
+        h2 ^= k2;
+        h2 = Long.rotateLeft(h2, 31);
+        h2 += h1;
+        h2 = h2 * 5 + 0x38495ab5;
+    }
+
+    private static long fmix(long k) {
+        k ^= k >>> 33;
+        k *= 0xff51afd7ed558ccdL;
+        k ^= k >>> 33;
+        k *= 0xc4ceb9fe1a85ec53L;
+        k ^= k >>> 33;
+        return k;
+    }
+}
@@ -0,0 +1,472 @@
+package org.yanhuang.learning.jdk24.classapi;
+
+import java.io.*;
+import java.lang.classfile.*;
+import java.lang.classfile.attribute.CodeAttribute;
+import java.lang.classfile.instruction.*;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.*;
+import java.util.zip.GZIPInputStream;
+import java.util.zip.GZIPOutputStream;
+
+/**
+ * 方法控制流图与复杂度指标
+ * <p>
+ * 根据跳转、switch、返回、抛出指令和异常表把方法划分为基本块，构建控制流图，并计算：
+ * <ul>
+ *     <li>圈复杂度：在所有返回和抛出块之后加一个虚拟出口，按 E - N + 2 计算，每个异常处理器贡献一条从try块入口出发的边</li>
+ *     <li>循环嵌套深度和循环数量：根据回边计算，见 {@link ClassFileToolkit#loopDepths(List)}</li>
+ *     <li>基本块数量、异常处理器数量、字节码长度、最大栈深度和局部变量数</li>
+ * </ul>
+ * 字节码超过 {@value #HUGE_METHOD_LIMIT} 字节的方法默认不会被 JIT 编译（-XX:-DontCompileHugeMethods 除外），
+ * 基本块多、嵌套深的大方法也是 C2 内联和寄存器分配的难点，适合跨版本跟踪。
+ * <p>
+ * 结果可以导出为紧凑的列式文件：字符串列使用字典编码，整数列使用变长编码，整体用gzip压缩。
+ */
+public class ControlFlowAnalyzer {
+
+    /** HotSpot 的 HugeMethodLimit，超过此长度的方法不会被编译 */
+    public static final int HUGE_METHOD_LIMIT = 8000;
+
+    private static final int MAGIC = 0x4346474D; // "CFGM"
+    private static final int FORMAT_VERSION = 1;
+    /** MethodMetrics 中整数列的数量 */
+    private static final int INT_COLUMNS = 10;
+
+    private final ClassFileToolkit toolkit = new ClassFileToolkit();
+
+    /**
+     * 基本块
+     *
+     * @param id 块编号，按代码顺序从0开始
+     * @param start 第一个代码元素在 elementList() 中的位置
+     * @param end 最后一个代码元素之后的位置
+     * @param successors 正常控制流的后继块编号，返回或抛出的块为空
+     * @param handlers 覆盖该块的异常处理器入口块编号
+     */
+    public record BasicBlock(int id, int start, int end, List<Integer> successors, List<Integer> handlers) {
+        public boolean isExit() {
+            return successors.isEmpty();
+        }
+    }
+
+    /**
+     * 方法的控制流图
+     *
+     * @param elements 方法的代码元素
+     * @param blocks 基本块，第0块为入口
+     * @param blockOf 每个代码元素所在的基本块编号
+     */
+    public record ControlFlowGraph(List<CodeElement> elements, List<BasicBlock> blocks, int[] blockOf) {
+        /**
+         * @return 每个块的前驱块编号，包括异常边
+         */
+        public List<List<Integer>> predecessors() {
+            List<List<Integer>> predecessors = new ArrayList<>();
+            blocks.forEach(block -> predecessors.add(new ArrayList<>()));
+            for (BasicBlock block : blocks) {
+                block.successors().forEach(successor -> predecessors.get(successor).add(block.id()));
+                block.handlers().forEach(handler -> predecessors.get(handler).add(block.id()));
+            }
+            return predecessors;
+        }
+    }
+
+    /**
+     * 一个方法的指标
+     *
+     * @param className 内部类名
+     * @param method 方法名称和描述符
+     * @param codeSize 字节码长度
+     * @param instructions 指令数量
+     * @param basicBlocks 基本块数量
+     * @param edges 控制流边数量，包括到虚拟出口的边和异常处理器边
+     * @param cyclomaticComplexity 圈复杂度
+     * @param maxLoopDepth 最大循环嵌套深度
+     * @param loops 循环数量（不同的回边目标）
+     * @param handlers 异常处理器数量
+     * @param maxStack 最大操作数栈深度
+     * @param maxLocals 局部变量表大小
+     */
+    public record MethodMetrics(String className, String method, int codeSize, int instructions, int basicBlocks,
+                                int edges, int cyclomaticComplexity, int maxLoopDepth, int loops, int handlers,
+                                int maxStack, int maxLocals) {
+        public boolean isHuge() {
+            return codeSize > HUGE_METHOD_LIMIT;
+        }
+    }
+
+    /**
+     * 指标报告
+     *
+     * @param methods 所有方法的指标，按圈复杂度从高到低排序
+     */
+    public record MetricsReport(List<MethodMetrics> methods) {
+        /**
+         * @return 超过 HugeMethodLimit 的方法
+         */
+        public List<MethodMetrics> hugeMethods() {
+            return methods.stream().filter(MethodMetrics::isHuge).toList();
+        }
+
+        /**
+         * @param limit 数量
+         * @return 圈复杂度最高的方法
+         */
+        public List<MethodMetrics> top(int limit) {
+            return methods.stream().limit(limit).toList();
+        }
+
+        public Optional<MethodMetrics> find(String className, String method) {
+            return methods.stream()
+                .filter(metrics -> metrics.className().equals(className) && metrics.method().equals(method))
+                .findFirst();
+        }
+    }
+
+    // ================= Control flow graph =================
+
+    /**
+     * 构建方法的控制流图
+     *
+     * @param code 方法代码
+     * @return 控制流图
+     */
+    public ControlFlowGraph buildGraph(CodeModel code) {
+        List<CodeElement> elements = code.elementList();
+        Map<Label, Integer> labelIndex = new HashMap<>();
+        Set<Label> leaders = new HashSet<>();
+        for (int i = 0; i < elements.size(); i++) {
+            switch (elements.get(i)) {
+                case LabelTarget target -> labelIndex.put(target.label(), i);
+                case BranchInstruction branch -> leaders.add(branch.target());
+                case TableSwitchInstruction table -> {
+                    leaders.add(table.defaultTarget());
+                    table.cases().forEach(c -> leaders.add(c.target()));
+                }
+                case LookupSwitchInstruction lookup -> {
+                    leaders.add(lookup.defaultTarget());
+                    lookup.cases().forEach(c -> leaders.add(c.target()));
+                }
+                case ExceptionCatch handler -> {
+                    leaders.add(handler.handler());
+                    leaders.add(handler.tryStart());
+                    leaders.add(handler.tryEnd());
+                }
+                default -> {
+                }
+            }
+        }
+
+        // 划分基本块：被引用的标签处和控制转移指令之后开始新块，不含指令的片段并入下一块
+        List<int[]> ranges = new ArrayList<>();
+        int[] blockOf = new int[elements.size()];
+        int start = 0;
+        boolean hasInstruction = false;
+        boolean splitNext = false;
+        for (int i = 0; i < elements.size(); i++) {
+            CodeElement element = elements.get(i);
+            boolean split = splitNext
+                || element instanceof LabelTarget target && leaders.contains(target.label());
+            if (split && hasInstruction) {
+                ranges.add(new int[]{start, i});
+                start = i;
+                hasInstruction = false;
+            }
+            splitNext = false;
+            if (element instanceof Instruction instruction) {
+                hasInstruction = true;
+                splitNext = endsBlock(instruction);
+            }
+        }
+        if (hasInstruction || ranges.isEmpty()) {
+            ranges.add(new int[]{start, elements.size()});
+        } else {
+            ranges.getLast()[1] = elements.size();
+        }
+        for (int b = 0; b < ranges.size(); b++) {
+            Arrays.fill(blockOf, ranges.get(b)[0], ranges.get(b)[1], b);
+        }
+
+        List<BasicBlock> blocks = new ArrayList<>(ranges.size());
+        for (int b = 0; b < ranges.size(); b++) {
+            int[] range = ranges.get(b);
+            Instruction last = lastInstruction(elements, range);
+            Set<Integer> successors = new LinkedHashSet<>();
+            boolean fallsThrough = switch (last) {
+                case null -> true;
+                case BranchInstruction branch -> {
+                    successors.add(blockOf[labelIndex.get(branch.target())]);
+                    yield branch.opcode() != Opcode.GOTO && branch.opcode() != Opcode.GOTO_W;
+                }
+                case TableSwitchInstruction table -> {
+                    successors.add(blockOf[labelIndex.get(table.defaultTarget())]);
+                    table.cases().forEach(c -> successors.add(blockOf[labelIndex.get(c.target())]));
+                    yield false;
+                }
+                case LookupSwitchInstruction lookup -> {
+                    successors.add(blockOf[labelIndex.get(lookup.defaultTarget())]);
+                    lookup.cases().forEach(c -> successors.add(blockOf[labelIndex.get(c.target())]));
+                    yield false;
+                }
+                default -> !endsBlock(last);
+            };
+            if (fallsThrough && b + 1 < ranges.size()) {
+                successors.add(b + 1);
+            }
+
+            Set<Integer> handlers = new LinkedHashSet<>();
+            for (ExceptionCatch handler : code.exceptionHandlers()) {
+                int tryStart = labelIndex.get(handler.tryStart());
+                int tryEnd = labelIndex.get(handler.tryEnd());
+                if (range[0] < tryEnd && range[1] > tryStart) {
+                    handlers.add(blockOf[labelIndex.get(handler.handler())]);
+                }
+            }
+            blocks.add(new BasicBlock(b, range[0], range[1], List.copyOf(successors), List.copyOf(handlers)));
+        }
+        return new ControlFlowGraph(elements, blocks, blockOf);
+    }
+
+    private static boolean endsBlock(Instruction instruction) {
+        return instruction instanceof BranchInstruction
+            || instruction instanceof TableSwitchInstruction
+            || instruction instanceof LookupSwitchInstruction
+            || instruction instanceof ReturnInstruction
+            || instruction instanceof ThrowInstruction
+            || instruction.opcode() == Opcode.RET;
+    }
+
+    private static Instruction lastInstruction(List<CodeElement> elements, int[] range) {
+        for (int i = range[1] - 1; i >= range[0]; i--) {
+            if (elements.get(i) instanceof Instruction instruction) {
+                return instruction;
+            }
+        }
+        return null;
+    }
+
+    // ================= Metrics =================
+
+    /**
+     * 计算一组jar中所有方法的指标
+     *
+     * @param jarPaths jar路径列表
+     * @return 指标报告
+     * @throws IOException 如果文件读取失败
+     */
+    public MetricsReport analyze(List<Path> jarPaths) throws IOException {
+        return analyze(toolkit.readClasspath(jarPaths));
+    }
+
+    /**
+     * 并行计算一组类中所有方法的指标
+     *
+     * @param classes 内部类名到类模型的映射
+     * @return 指标报告
+     */
+    public MetricsReport analyze(Map<String, ClassModel> classes) {
+        List<MethodMetrics> methods = classes.values().parallelStream()
+            .flatMap(model -> analyze(model).stream())
+            .sorted(Comparator.comparingInt(MethodMetrics::cyclomaticComplexity).reversed()
+                .thenComparing(MethodMetrics::className)
+                .thenComparing(MethodMetrics::method))
+            .toList();
+        return new MetricsReport(methods);
+    }
+
+    /**
+     * 计算单个类中所有方法的指标
+     *
+     * @param model 类模型
+     * @return 每个有代码的方法的指标
+     */
+    public List<MethodMetrics> analyze(ClassModel model) {
+        String className = model.thisClass().asInternalName();
+        List<MethodMetrics> metrics = new ArrayList<>();
+        for (MethodModel method : model.methods()) {
+            method.code().ifPresent(code -> metrics.add(
+                metrics(className, method.methodName().stringValue() + method.methodType().stringValue(), code)));
+        }
+        return metrics;
+    }
+
+    private MethodMetrics metrics(String className, String method, CodeModel code) {
+        ControlFlowGraph graph = buildGraph(code);
+        List<CodeElement> elements = graph.elements();
+
+        // 每个异常处理器贡献一条从try块入口到处理器的边，返回和抛出块各有一条到虚拟出口的边
+        int edges = 0;
+        for (BasicBlock block : graph.blocks()) {
+            edges += block.isExit() ? 1 : block.successors().size();
+        }
+        Set<Long> handlerEdges = new HashSet<>();
+        for (ExceptionCatch handler : code.exceptionHandlers()) {
+            int from = -1;
+            int to = -1;
+            for (int i = 0; i < elements.size() && (from < 0 || to < 0); i++) {
+                if (elements.get(i) instanceof LabelTarget target) {
+                    if (target.label().equals(handler.tryStart())) {
+                        from = graph.blockOf()[i];
+                    }
+                    if (target.label().equals(handler.handler())) {
+                        to = graph.blockOf()[i];
+                    }
+                }
+            }
+            handlerEdges.add(((long) from << 32) | to);
+        }
+        edges += handlerEdges.size();
+        int nodes = graph.blocks().size() + 1;
+        int complexity = edges - nodes + 2;
+
+        int[] depth = toolkit.loopDepths(elements);
+        int maxDepth = Arrays.stream(depth).max().orElse(0);
+        Set<Integer> loopHeaders = new HashSet<>();
+        for (BasicBlock block : graph.blocks()) {
+            block.successors().stream().filter(successor -> successor <= block.id()).forEach(loopHeaders::add);
+        }
+        int instructions = (int) elements.stream().filter(Instruction.class::isInstance).count();
+
+        int codeSize = 0;
+        int maxStack = 0;
+        int maxLocals = 0;
+        if (code instanceof CodeAttribute attribute) {
+            codeSize = attribute.codeLength();
+            maxStack = attribute.maxStack();
+            maxLocals = attribute.maxLocals();
+        }
+        return new MethodMetrics(className, method, codeSize, instructions, graph.blocks().size(), edges,
+            complexity, maxDepth, loopHeaders.size(), code.exceptionHandlers().size(), maxStack, maxLocals);
+    }
+
+    // ================= Columnar export =================
+
+    /**
+     * 把指标写入列式文件。类名和方法名使用字典编码，整数列使用变长编码，整体用gzip压缩
+     *
+     * @param metrics 方法指标
+     * @param path 输出文件路径
+     * @throws IOException 如果文件写入失败
+     */
+    public void writeColumnar(List<MethodMetrics> metrics, Path path) throws IOException {
+        Map<String, Integer> dictionary = new LinkedHashMap<>();
+        int[] classIds = new int[metrics.size()];
+        int[] methodIds = new int[metrics.size()];
+        for (int i = 0; i < metrics.size(); i++) {
+            classIds[i] = dictionary.computeIfAbsent(metrics.get(i).className(), s -> dictionary.size());
+            methodIds[i] = dictionary.computeIfAbsent(metrics.get(i).method(), s -> dictionary.size());
+        }
+
+        try (DataOutputStream out = new DataOutputStream(new BufferedOutputStream(
+                new GZIPOutputStream(Files.newOutputStream(path))))) {
+            out.writeInt(MAGIC);
+            out.writeInt(FORMAT_VERSION);
+            writeVarInt(out, metrics.size());
+            writeVarInt(out, dictionary.size());
+            for (String value : dictionary.keySet()) {
+                out.writeUTF(value);
+            }
+            writeColumn(out, classIds);
+            writeColumn(out, methodIds);
+            for (int column = 0; column < INT_COLUMNS; column++) {
+                int[] values = new int[metrics.size()];
+                for (int i = 0; i < metrics.size(); i++) {
+                    values[i] = intColumn(metrics.get(i), column);
+                }
+                writeColumn(out, values);
+            }
+        }
+    }
+
+    /**
+     * 读取 {@link #writeColumnar} 写出的列式文件
+     *
+     * @param path 文件路径
+     * @return 方法指标，顺序与写入时相同
+     * @throws IOException 如果文件读取失败或格式不正确
+     */
+    public List<MethodMetrics> readColumnar(Path path) throws IOException {
+        try (DataInputStream in = new DataInputStream(new BufferedInputStream(
+                new GZIPInputStream(Files.newInputStream(path))))) {
+            if (in.readInt() != MAGIC) {
+                throw new IOException("不是控制流指标文件: " + path);
+            }
+            int version = in.readInt();
+            if (version != FORMAT_VERSION) {
+                throw new IOException("不支持的指标文件版本: " + version);
+            }
+            int rows = readVarInt(in);
+            String[] dictionary = new String[readVarInt(in)];
+            for (int i = 0; i < dictionary.length; i++) {
+                dictionary[i] = in.readUTF();
+            }
+            int[] classIds = readColumn(in, rows);
+            int[] methodIds = readColumn(in, rows);
+            int[][] columns = new int[INT_COLUMNS][];
+            for (int column = 0; column < INT_COLUMNS; column++) {
+                columns[column] = readColumn(in, rows);
+            }
+
+            List<MethodMetrics> metrics = new ArrayList<>(rows);
+            for (int i = 0; i < rows; i++) {
+                metrics.add(new MethodMetrics(dictionary[classIds[i]], dictionary[methodIds[i]],
+                    columns[0][i], columns[1][i], columns[2][i], columns[3][i], columns[4][i],
+                    columns[5][i], columns[6][i], columns[7][i], columns[8][i], columns[9][i]));
+            }
+            return metrics;
+        }
+    }
+
+    private static int intColumn(MethodMetrics metrics, int column) {
+        return switch (column) {
+            case 0 -> metrics.codeSize();
+            case 1 -> metrics.instructions();
+            case 2 -> metrics.basicBlocks();
+            case 3 -> metrics.edges();
+            case 4 -> metrics.cyclomaticComplexity();
+            case 5 -> metrics.maxLoopDepth();
+            case 6 -> metrics.loops();
+            case 7 -> metrics.handlers();
+            case 8 -> metrics.maxStack();
+            case 9 -> metrics.maxLocals();
+            default -> throw new IllegalArgumentException("无效的列: " + column);
+        };
+    }
+
+    private static void writeColumn(DataOutputStream out, int[] values) throws IOException {
+        for (int value : values) {
+            writeVarInt(out, value);
+        }
+    }
+
+    private static int[] readColumn(DataInputStream in, int rows) throws IOException {
+        int[] values = new int[rows];
+        for (int i = 0; i < rows; i++) {
+            values[i] = readVarInt(in);
+        }
+        return values;
+    }
+
+    /** 无符号变长整数，每字节7位，最高位表示后面还有字节 */
+    private static void writeVarInt(DataOutputStream out, int value) throws IOException {
+        while ((value & ~0x7F) != 0) {
+            out.writeByte((value & 0x7F) | 0x80);
+            value >>>= 7;
+        }
+        out.writeByte(value);
+    }
+
+    private static int readVarInt(DataInputStream in) throws IOException {
+        int value = 0;
+        for (int shift = 0; shift < 35; shift += 7) {
+            int b = in.readUnsignedByte();
+            value |= (b & 0x7F) << shift;
+            if ((b & 0x80) == 0) {
+                return value;
+            }
+        }
+        throw new IOException("变长整数格式错误");
+    }
+}
@@ -0,0 +1,153 @@
+package org.yanhuang.learning.jdk24.classapi;
+
+import java.io.IOException;
+import java.lang.classfile.*;
+import java.lang.classfile.attribute.SignatureAttribute;
+import java.lang.classfile.attribute.SourceDebugExtensionAttribute;
+import java.lang.classfile.attribute.SourceFileAttribute;
+import java.nio.file.Path;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * 调试属性剥离工具
+ * 删除LocalVariableTable、LocalVariableTypeTable，可选删除LineNumberTable、SourceFile
+ * 以及私有/合成方法上的Signature属性，得到更小、加载和校验更快的类文件。
+ * 代码属性的剥离通过ClassFile.DebugElementsOption和ClassFile.LineNumbersOption实现。
+ */
+public class DebugInfoStripper {
+
+    private final ClassFileToolkit toolkit = new ClassFileToolkit();
+    private boolean dropLocalVariables = true;
+    private boolean dropLineNumbers = false;
+    private boolean dropSourceFile = false;
+    private boolean dropPrivateSignatures = false;
+
+    /**
+     * 剥离报告
+     *
+     * @param classes 处理的类数量
+     * @param inputBytes 原始类文件总字节数
+     * @param outputBytes 剥离后类文件总字节数
+     */
+    public record StripReport(int classes, long inputBytes, long outputBytes) {
+        public long savedBytes() {
+            return inputBytes - outputBytes;
+        }
+    }
+
+    // ================= Configuration =================
+
+    /**
+     * 设置是否删除LocalVariableTable和LocalVariableTypeTable，默认为true
+     */
+    public DebugInfoStripper setDropLocalVariables(boolean dropLocalVariables) {
+        this.dropLocalVariables = dropLocalVariables;
+        return this;
+    }
+
+    /**
+     * 设置是否删除LineNumberTable，默认为false（异常栈将不再包含行号）
+     */
+    public DebugInfoStripper setDropLineNumbers(boolean dropLineNumbers) {
+        this.dropLineNumbers = dropLineNumbers;
+        return this;
+    }
+
+    /**
+     * 设置是否删除SourceFile和SourceDebugExtension属性，默认为false
+     */
+    public DebugInfoStripper setDropSourceFile(boolean dropSourceFile) {
+        this.dropSourceFile = dropSourceFile;
+        return this;
+    }
+
+    /**
+     * 设置是否删除私有或合成方法上的Signature属性，默认为false
+     * 字段上的泛型签名始终保留：Jackson、Gson、JPA 等框架通过 Field.getGenericType()
+     * 读取私有字段的泛型类型来决定集合元素的类型，删除后反序列化会得到错误的类型
+     */
+    public DebugInfoStripper setDropPrivateSignatures(boolean dropPrivateSignatures) {
+        this.dropPrivateSignatures = dropPrivateSignatures;
+        return this;
+    }
+
+    // ================= Stripping =================
+
+    /**
+     * 剥离单个类文件的调试属性
+     *
+     * @param classBytes 类文件字节数组
+     * @return 剥离后的类字节码
+     */
+    public byte[] strip(byte[] classBytes) {
+        ClassFile classFile = ClassFile.of(
+            dropLocalVariables ? ClassFile.DebugElementsOption.DROP_DEBUG : ClassFile.DebugElementsOption.PASS_DEBUG,
+            dropLineNumbers ? ClassFile.LineNumbersOption.DROP_LINE_NUMBERS : ClassFile.LineNumbersOption.PASS_LINE_NUMBERS);
+        ClassModel classModel = classFile.parse(classBytes);
+        return classFile.transformClass(classModel, stripTransform());
+    }
+
+    /**
+     * 并行剥离jar中所有类文件的调试属性，非类文件条目原样保留
+     *
+     * @param inputJar 输入jar路径
+     * @param outputJar 输出jar路径
+     * @return 剥离报告
+     * @throws IOException 如果文件读取或写入失败
+     */
+    public StripReport stripJar(Path inputJar, Path outputJar) throws IOException {
+        Map<String, byte[]> entries = toolkit.readJar(inputJar);
+        Map<String, byte[]> stripped = new ConcurrentHashMap<>();
+        AtomicInteger classes = new AtomicInteger();
+        AtomicLong inputBytes = new AtomicLong();
+        AtomicLong outputBytes = new AtomicLong();
+
+        entries.entrySet().parallelStream()
+            .filter(entry -> entry.getKey().endsWith(".class"))
+            .forEach(entry -> {
+                byte[] bytes = strip(entry.getValue());
+                stripped.put(entry.getKey(), bytes);
+                classes.incrementAndGet();
+                inputBytes.addAndGet(entry.getValue().length);
+                outputBytes.addAndGet(bytes.length);
+            });
+
+        Map<String, byte[]> output = new LinkedHashMap<>();
+        entries.forEach((name, bytes) -> output.put(name, stripped.getOrDefault(name, bytes)));
+        toolkit.writeJar(outputJar, output);
+
+        return new StripReport(classes.get(), inputBytes.get(), outputBytes.get());
+    }
+
+    private ClassTransform stripTransform() {
+        // 解析时已按选项过滤掉调试伪指令，只需让代码重新经过CodeBuilder
+        boolean rebuildCode = dropLocalVariables || dropLineNumbers;
+        MethodTransform codeTransform = rebuildCode
+            ? MethodTransform.transformingCode(CodeTransform.ACCEPT_ALL)
+            : MethodTransform.ACCEPT_ALL;
+        MethodTransform signatureTransform = MethodTransform.dropping(element -> element instanceof SignatureAttribute)
+            .andThen(codeTransform);
+
+        return (classBuilder, element) -> {
+            switch (element) {
+                case SourceFileAttribute _ when dropSourceFile -> {
+                }
+                case SourceDebugExtensionAttribute _ when dropSourceFile -> {
+                }
+                case MethodModel method -> classBuilder.transformMethod(method,
+                    dropPrivateSignatures && isPrivateOrSynthetic(method.flags().flagsMask())
+                        ? signatureTransform
+                        : codeTransform);
+                default -> classBuilder.with(element);
+            }
+        };
+    }
+
+    private static boolean isPrivateOrSynthetic(int flags) {
+        return (flags & (ClassFile.ACC_PRIVATE | ClassFile.ACC_SYNTHETIC)) != 0;
+    }
+}
@@ -0,0 +1,349 @@
+package org.yanhuang.learning.jdk24.classapi;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.UncheckedIOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.*;
+import java.util.concurrent.CompletableFuture;
+import java.util.jar.Manifest;
+import java.util.stream.Collectors;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipInputStream;
+
+/**
+ * 类路径重复类扫描器
+ * 并行读取类路径上的所有jar并哈希每个类文件，找出三类问题：
+ * 多个jar中内容完全相同的类（浪费元空间和CDS归档空间）、
+ * 多个jar中同名但内容不同的类（版本冲突，实际加载哪个取决于类路径顺序），
+ * 以及multi-release jar中对基础版本的版本化覆盖。同时报告分散在多个jar中的包（split package）。
+ * <p>
+ * 类文件按原始字节哈希（{@link ContentHasher}，每次读取8字节），扫描时只保留哈希而不保留字节，
+ * 只有内容不同的重复类才会从jar中重新读取并解析，
+ * 通过 {@link ClassFileToolkit#fingerprint(byte[])} 判断差异是否只在调试信息或常量池顺序。
+ */
+public class DuplicateClassScanner {
+
+    private static final String VERSIONS_PREFIX = "META-INF/versions/";
+
+    private final ClassFileToolkit toolkit = new ClassFileToolkit();
+
+    /** 运行时的Java版本，决定multi-release jar中哪个版本生效 */
+    private int targetRelease = Runtime.version().feature();
+
+    /**
+     * 问题类型
+     */
+    public enum Kind {
+        /** 多个位置的类文件内容完全相同 */
+        IDENTICAL_DUPLICATE,
+        /** 多个jar中的同名类内容不同 */
+        CONFLICT,
+        /** multi-release jar中的版本化类与基础版本不同 */
+        RELEASE_OVERLAY
+    }
+
+    /**
+     * 类文件的一个副本
+     *
+     * @param jar 所在jar
+     * @param entryName jar中的条目名称
+     * @param release multi-release的版本号，基础版本为0
+     * @param hash 类文件字节的哈希
+     * @param size 类文件大小
+     */
+    public record ClassCopy(Path jar, String entryName, int release, ContentHasher.Hash128 hash, int size) {
+    }
+
+    /**
+     * 同名类的一组副本
+     *
+     * @param className 内部类名
+     * @param kind 问题类型
+     * @param copies 副本，按类路径顺序排列，第一个为实际加载的副本
+     * @param sameApi 所有副本的对外接口是否相同
+     * @param sameBody 所有副本除调试信息外是否相同
+     * @param wastedBytes 与前面的副本内容重复的字节数
+     */
+    public record DuplicateGroup(String className, Kind kind, List<ClassCopy> copies,
+                                 boolean sameApi, boolean sameBody, long wastedBytes) {
+        public ClassCopy loaded() {
+            return copies.getFirst();
+        }
+    }
+
+    /**
+     * 分散在多个jar中的包
+     *
+     * @param packageName 包的内部名称
+     * @param jars 包含该包中类的jar，按类路径顺序排列
+     */
+    public record SplitPackage(String packageName, List<Path> jars) {
+    }
+
+    /**
+     * 扫描结果
+     *
+     * @param classCount 扫描的类文件数量
+     * @param groups 发现的重复类，按类名排序
+     * @param splitPackages 分散在多个jar中的包，按包名排序
+     */
+    public record ScanReport(int classCount, List<DuplicateGroup> groups, List<SplitPackage> splitPackages) {
+        public List<DuplicateGroup> groups(Kind kind) {
+            return groups.stream().filter(group -> group.kind() == kind).toList();
+        }
+
+        public long wastedBytes() {
+            return groups.stream().mapToLong(DuplicateGroup::wastedBytes).sum();
+        }
+
+        public boolean hasConflicts() {
+            return groups.stream().anyMatch(group -> group.kind() == Kind.CONFLICT);
+        }
+    }
+
+    /** 一个jar的扫描结果 */
+    private record JarScan(Path jar, boolean multiRelease, List<ClassCopy> copies) {
+    }
+
+    /** 尚未比较指纹的重复类 */
+    private record PendingGroup(String className, Kind kind, List<ClassCopy> copies) {
+    }
+
+    public DuplicateClassScanner setTargetRelease(int targetRelease) {
+        this.targetRelease = targetRelease;
+        return this;
+    }
+
+    /**
+     * 扫描类路径
+     *
+     * @param jarPaths 按类路径顺序排列的jar文件路径
+     * @return 扫描结果
+     * @throws IOException 如果文件读取失败
+     */
+    public ScanReport scan(List<Path> jarPaths) throws IOException {
+        List<CompletableFuture<JarScan>> futures = jarPaths.stream()
+            .map(jarPath -> CompletableFuture.supplyAsync(() -> scanJar(jarPath)))
+            .toList();
+        List<JarScan> jars = new ArrayList<>();
+        for (CompletableFuture<JarScan> future : futures) {
+            jars.add(toolkit.join(future));
+        }
+
+        List<PendingGroup> pending = new ArrayList<>();
+        // 类名 -> 每个jar中生效的副本，按类路径顺序
+        Map<String, List<ClassCopy>> effective = new HashMap<>();
+        int classCount = 0;
+        for (JarScan jar : jars) {
+            classCount += jar.copies().size();
+            Map<String, List<ClassCopy>> byName = new LinkedHashMap<>();
+            for (ClassCopy copy : jar.copies()) {
+                // 非multi-release jar中的版本化条目不会被加载，高于目标版本的同样不会
+                if (copy.release() > 0 && (!jar.multiRelease() || copy.release() > targetRelease)) {
+                    continue;
+                }
+                byName.computeIfAbsent(className(copy.entryName()), name -> new ArrayList<>()).add(copy);
+            }
+            byName.forEach((className, copies) -> {
+                copies.sort(Comparator.comparingInt(ClassCopy::release));
+                if (copies.size() > 1) {
+                    // 所有版本化副本都与基础版本相同时，覆盖只是浪费空间
+                    pending.add(new PendingGroup(className,
+                        isIdentical(copies) ? Kind.IDENTICAL_DUPLICATE : Kind.RELEASE_OVERLAY, copies));
+                }
+                effective.computeIfAbsent(className, name -> new ArrayList<>()).add(copies.getLast());
+            });
+        }
+
+        Map<String, Set<Path>> packages = new TreeMap<>();
+        effective.forEach((className, copies) -> {
+            int slash = className.lastIndexOf('/');
+            Set<Path> packageJars = packages.computeIfAbsent(slash < 0 ? "" : className.substring(0, slash),
+                name -> new LinkedHashSet<>());
+            copies.forEach(copy -> packageJars.add(copy.jar()));
+            if (copies.size() > 1) {
+                pending.add(new PendingGroup(className,
+                    isIdentical(copies) ? Kind.IDENTICAL_DUPLICATE : Kind.CONFLICT, copies));
+            }
+        });
+
+        Map<ClassCopy, byte[]> contents = readContents(pending.stream()
+            .filter(group -> group.kind() != Kind.IDENTICAL_DUPLICATE)
+            .flatMap(group -> distinctCopies(group.copies()).stream())
+            .collect(Collectors.toSet()));
+        List<DuplicateGroup> groups = new ArrayList<>();
+        for (PendingGroup group : pending) {
+            groups.add(group(group.className(), group.kind(), group.copies(), contents));
+        }
+        groups.sort(Comparator.comparing(DuplicateGroup::className).thenComparing(DuplicateGroup::kind));
+        List<SplitPackage> splitPackages = new ArrayList<>();
+        packages.forEach((packageName, packageJars) -> {
+            if (packageJars.size() > 1) {
+                splitPackages.add(new SplitPackage(packageName, List.copyOf(packageJars)));
+            }
+        });
+        return new ScanReport(classCount, groups, splitPackages);
+    }
+
+    /**
+     * 打印扫描结果
+     *
+     * @param report 扫描结果
+     */
+    public void printReport(ScanReport report) {
+        System.out.println("扫描类文件: " + report.classCount()
+            + "，相同副本: " + report.groups(Kind.IDENTICAL_DUPLICATE).size()
+            + "，冲突: " + report.groups(Kind.CONFLICT).size()
+            + "，版本化覆盖: " + report.groups(Kind.RELEASE_OVERLAY).size()
+            + "，重复字节: " + report.wastedBytes());
+        for (DuplicateGroup group : report.groups()) {
+            String detail = group.kind() != Kind.CONFLICT ? ""
+                : group.sameBody() ? "（仅调试信息不同）"
+                : group.sameApi() ? "（接口相同，实现不同）"
+                : "（接口不同）";
+            System.out.println("  [" + group.kind() + "] " + group.className() + detail);
+            for (ClassCopy copy : group.copies()) {
+                System.out.println("      " + copy.jar() + "!/" + copy.entryName() + " " + copy.hash());
+            }
+        }
+        for (SplitPackage splitPackage : report.splitPackages()) {
+            System.out.println("  [SPLIT_PACKAGE] " + splitPackage.packageName() + " " + splitPackage.jars());
+        }
+    }
+
+    // ================= Grouping =================
+
+    private static boolean isIdentical(List<ClassCopy> copies) {
+        return copies.stream().map(ClassCopy::hash).distinct().count() == 1;
+    }
+
+    /**
+     * @return 每种内容的第一个副本
+     */
+    private static List<ClassCopy> distinctCopies(List<ClassCopy> copies) {
+        Set<ContentHasher.Hash128> seen = new HashSet<>();
+        return copies.stream().filter(copy -> seen.add(copy.hash())).toList();
+    }
+
+    private DuplicateGroup group(String className, Kind kind, List<ClassCopy> copies, Map<ClassCopy, byte[]> contents) {
+        long wasted = wastedBytes(copies);
+        if (kind == Kind.IDENTICAL_DUPLICATE) {
+            return new DuplicateGroup(className, kind, List.copyOf(copies), true, true, wasted);
+        }
+        Set<ContentHasher.Hash128> apis = new HashSet<>();
+        Set<ContentHasher.Hash128> bodies = new HashSet<>();
+        for (ClassCopy copy : distinctCopies(copies)) {
+            ClassFileToolkit.ClassFingerprint fingerprint = toolkit.fingerprint(contents.get(copy));
+            apis.add(fingerprint.api());
+            bodies.add(fingerprint.body());
+        }
+        return new DuplicateGroup(className, kind, List.copyOf(copies), apis.size() == 1, bodies.size() == 1, wasted);
+    }
+
+    private static long wastedBytes(List<ClassCopy> copies) {
+        Set<ContentHasher.Hash128> seen = new HashSet<>();
+        long wasted = 0;
+        for (ClassCopy copy : copies) {
+            if (!seen.add(copy.hash())) {
+                wasted += copy.size();
+            }
+        }
+        return wasted;
+    }
+
+    // ================= Reading =================
+
+    /**
+     * 流式读取jar并哈希每个类文件，类文件的字节读取后即丢弃
+     */
+    private JarScan scanJar(Path jarPath) {
+        List<ClassCopy> copies = new ArrayList<>();
+        boolean multiRelease = false;
+        try (InputStream in = Files.newInputStream(jarPath);
+             ZipInputStream zin = new ZipInputStream(in)) {
+            ZipEntry entry;
+            while ((entry = zin.getNextEntry()) != null) {
+                String name = entry.getName();
+                if (name.equals("META-INF/MANIFEST.MF")) {
+                    multiRelease = isMultiRelease(zin.readAllBytes());
+                } else if (toolkit.isClassEntry(name) && release(name) >= 0) {
+                    byte[] bytes = zin.readAllBytes();
+                    copies.add(new ClassCopy(jarPath, name, release(name), ContentHasher.hash(bytes), bytes.length));
+                }
+            }
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+        return new JarScan(jarPath, multiRelease, copies);
+    }
+
+    /**
+     * 并行地从各自的jar中重新读取需要比较指纹的副本
+     */
+    private Map<ClassCopy, byte[]> readContents(Set<ClassCopy> copies) throws IOException {
+        Map<Path, Map<String, ClassCopy>> byJar = new LinkedHashMap<>();
+        copies.forEach(copy -> byJar.computeIfAbsent(copy.jar(), jar -> new HashMap<>()).put(copy.entryName(), copy));
+        List<CompletableFuture<Map<ClassCopy, byte[]>>> futures = byJar.entrySet().stream()
+            .map(jar -> CompletableFuture.supplyAsync(() -> readEntries(jar.getKey(), jar.getValue())))
+            .toList();
+        Map<ClassCopy, byte[]> contents = new HashMap<>();
+        for (CompletableFuture<Map<ClassCopy, byte[]>> future : futures) {
+            contents.putAll(toolkit.join(future));
+        }
+        return contents;
+    }
+
+    private static Map<ClassCopy, byte[]> readEntries(Path jarPath, Map<String, ClassCopy> wanted) {
+        Map<ClassCopy, byte[]> contents = new HashMap<>();
+        try (InputStream in = Files.newInputStream(jarPath);
+             ZipInputStream zin = new ZipInputStream(in)) {
+            ZipEntry entry;
+            while (contents.size() < wanted.size() && (entry = zin.getNextEntry()) != null) {
+                ClassCopy copy = wanted.get(entry.getName());
+                if (copy != null) {
+                    contents.put(copy, zin.readAllBytes());
+                }
+            }
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+        return contents;
+    }
+
+    private static boolean isMultiRelease(byte[] manifest) {
+        try {
+            return "true".equalsIgnoreCase(new Manifest(new ByteArrayInputStream(manifest))
+                .getMainAttributes().getValue("Multi-Release"));
+        } catch (IOException e) {
+            return false;
+        }
+    }
+
+    /**
+     * @return 条目的multi-release版本号，基础版本为0，META-INF下的其他条目为-1
+     */
+    private static int release(String entryName) {
+        if (!entryName.startsWith("META-INF/")) {
+            return 0;
+        }
+        if (!entryName.startsWith(VERSIONS_PREFIX)) {
+            return -1;
+        }
+        int slash = entryName.indexOf('/', VERSIONS_PREFIX.length());
+        try {
+            return slash < 0 ? -1 : Integer.parseInt(entryName.substring(VERSIONS_PREFIX.length(), slash));
+        } catch (NumberFormatException e) {
+            return -1;
+        }
+    }
+
+    private static String className(String entryName) {
+        String name = entryName.startsWith(VERSIONS_PREFIX)
+            ? entryName.substring(entryName.indexOf('/', VERSIONS_PREFIX.length()) + 1)
+            : entryName;
+        return name.substring(0, name.length() - ".class".length());
+    }
+}
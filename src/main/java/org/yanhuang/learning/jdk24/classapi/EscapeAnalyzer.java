@@ -0,0 +1,591 @@
+package org.yanhuang.learning.jdk24.classapi;
+
+import java.io.IOException;
+import java.lang.classfile.*;
+import java.lang.classfile.attribute.CodeAttribute;
+import java.lang.classfile.instruction.*;
+import java.lang.constant.ClassDesc;
+import java.nio.file.Path;
+import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.stream.Stream;
+
+/**
+ * 分配点的方法内逃逸分析
+ * <p>
+ * 在 {@link AbstractInterpreter} 的分配点跟踪结果上，按 C2 的分类判断每个 new/newarray 创建的对象：
+ * <ul>
+ *     <li>{@link EscapeState#NO_ESCAPE}：只在方法内使用，C2 可以做标量替换，不在堆上分配</li>
+ *     <li>{@link EscapeState#ARG_ESCAPE}：作为参数（包括接收者）传给其他方法，被调用方法内联后才可能不逃逸</li>
+ *     <li>{@link EscapeState#GLOBAL_ESCAPE}：存入静态字段、未跟踪对象的字段或数组、作为返回值或被抛出</li>
+ * </ul>
+ * 存入另一个方法内分配的对象时，逃逸状态随容器对象传递。即使不逃逸，以下情况标量替换也会失败：
+ * 对象在合并点与其他值混合（例如循环或条件分支中赋值给同一个变量）、数组长度不是常量或超过
+ * EliminateAllocationArraySizeLimit（64）、数组用非常量下标访问。
+ * 对于参数逃逸，被调用方法在分析范围内时根据其字节码长度判断是否可能内联（MaxInlineSize 35、FreqInlineSize 325）。
+ * 静态绑定且不超过 MaxInlineSize 的被调用方法会计算参数逃逸摘要：只有证明被调用方法不会把参数存入字段或数组、
+ * 返回、抛出或继续传给其他方法时，该参数才不算逃逸。
+ * <p>
+ * 分析是方法内的，结论是对 C2 行为的估计：实际结果取决于运行时的内联决策和调用频率。
+ */
+public class EscapeAnalyzer {
+
+    /** C2 标量替换的数组长度上限（-XX:EliminateAllocationArraySizeLimit） */
+    public static final int ARRAY_SIZE_LIMIT = 64;
+    /** 冷调用点内联的字节码长度上限（-XX:MaxInlineSize） */
+    public static final int MAX_INLINE_SIZE = 35;
+    /** 热调用点内联的字节码长度上限（-XX:FreqInlineSize） */
+    public static final int FREQ_INLINE_SIZE = 325;
+
+    /** 无法分析的被调用方法：所有参数槽位都可能逃逸 */
+    private static final BitSet LEAKS_ALL = new BitSet();
+
+    static {
+        LEAKS_ALL.set(0, 256);
+    }
+
+    private final ClassFileToolkit toolkit = new ClassFileToolkit();
+    private final AbstractInterpreter interpreter = new AbstractInterpreter();
+    /** 被调用方法的参数逃逸摘要缓存，键为 类名.方法名描述符 */
+    private final Map<String, BitSet> summaries = new ConcurrentHashMap<>();
+
+    /**
+     * 逃逸状态，从低到高排列
+     */
+    public enum EscapeState {
+        NO_ESCAPE, ARG_ESCAPE, GLOBAL_ESCAPE
+    }
+
+    /**
+     * 一个分配点的分析结果
+     *
+     * @param className 所在类的内部名称
+     * @param method 所在方法的名称和描述符
+     * @param line 源码行号，没有行号表时为-1
+     * @param type 分配的类型描述符
+     * @param state 逃逸状态
+     * @param scalarReplaceable 是否可能被标量替换（不在堆上分配）
+     * @param reasons 逃逸或无法标量替换的原因
+     */
+    public record AllocationSite(String className, String method, int line, String type, EscapeState state,
+                                 boolean scalarReplaceable, List<String> reasons) {
+    }
+
+    /**
+     * 逃逸分析报告
+     *
+     * @param sites 所有可达的分配点，按类名、方法、行号排序
+     * @param skippedMethods 无法解释而跳过的方法数（例如含 jsr/ret 的旧类文件）
+     */
+    public record EscapeReport(List<AllocationSite> sites, int skippedMethods) {
+        public long count(EscapeState state) {
+            return sites.stream().filter(site -> site.state() == state).count();
+        }
+
+        /**
+         * @return 估计会在堆上分配的分配点
+         */
+        public List<AllocationSite> heapAllocations() {
+            return sites.stream().filter(site -> !site.scalarReplaceable()).toList();
+        }
+
+        /**
+         * @return 不逃逸但因为合并或数组访问方式无法标量替换的分配点，通常改动很小就能消除分配
+         */
+        public List<AllocationSite> missedScalarReplacements() {
+            return sites.stream()
+                .filter(site -> site.state() == EscapeState.NO_ESCAPE && !site.scalarReplaceable())
+                .toList();
+        }
+    }
+
+    /** 单个方法分析时的可变状态，按分配指令位置索引 */
+    private static final class SiteState {
+        final EscapeState[] states;
+        final List<List<String>> reasons;
+        final List<int[]> containedIn = new ArrayList<>();
+
+        SiteState(int size) {
+            states = new EscapeState[size];
+            reasons = new ArrayList<>(Collections.nCopies(size, null));
+        }
+
+        void escape(int site, EscapeState state, String reason) {
+            if (states[site] == null) {
+                return;
+            }
+            if (state.compareTo(states[site]) > 0) {
+                states[site] = state;
+            }
+            List<String> list = reasons.get(site);
+            if (list.size() < 8 && !list.contains(reason)) {
+                list.add(reason);
+            }
+        }
+    }
+
+    // ================= Analysis =================
+
+    /**
+     * 分析一组jar中所有分配点
+     *
+     * @param jarPaths jar路径列表
+     * @return 逃逸分析报告
+     * @throws IOException 如果文件读取失败
+     */
+    public EscapeReport analyze(List<Path> jarPaths) throws IOException {
+        return analyze(toolkit.readClasspath(jarPaths));
+    }
+
+    /**
+     * 并行分析一组类中所有分配点，并行粒度为方法
+     *
+     * @param classes 内部类名到类模型的映射，也用于判断被调用方法能否内联
+     * @return 逃逸分析报告
+     */
+    public EscapeReport analyze(Map<String, ClassModel> classes) {
+        AtomicInteger skipped = new AtomicInteger();
+        List<AllocationSite> sites = classes.values().stream()
+            .flatMap(model -> model.methods().stream()
+                .filter(method -> method.code().isPresent())
+                .map(method -> Map.entry(model, method)))
+            .toList()
+            .parallelStream()
+            .flatMap(entry -> {
+                try {
+                    return analyze(entry.getKey(), entry.getValue(), classes).stream();
+                } catch (IllegalArgumentException | IllegalStateException e) {
+                    skipped.incrementAndGet();
+                    return Stream.empty();
+                }
+            })
+            .sorted(Comparator.comparing(AllocationSite::className)
+                .thenComparing(AllocationSite::method)
+                .thenComparingInt(AllocationSite::line))
+            .toList();
+        return new EscapeReport(sites, skipped.get());
+    }
+
+    /**
+     * 分析单个方法中的分配点
+     *
+     * @param owner 方法所在的类
+     * @param method 方法模型，必须有代码
+     * @param classes 用于查找被调用方法的类模型，可以为空
+     * @return 可达的分配点
+     */
+    public List<AllocationSite> analyze(ClassModel owner, MethodModel method, Map<String, ClassModel> classes) {
+        AbstractInterpreter.Frames frames = interpreter.interpret(owner, method,
+            new AbstractInterpreter.AllocationLattice());
+        AbstractInterpreter.AllocationLattice lattice = (AbstractInterpreter.AllocationLattice) frames.lattice();
+        List<CodeElement> elements = frames.elements();
+        SiteState sites = new SiteState(elements.size());
+        boolean hasArrays = false;
+        for (int i = 0; i < elements.size(); i++) {
+            if (frames.reached(i) && isAllocation(elements.get(i))) {
+                sites.states[i] = EscapeState.NO_ESCAPE;
+                sites.reasons.set(i, new ArrayList<>());
+                hasArrays |= !(elements.get(i) instanceof NewObjectInstruction);
+            }
+        }
+        BitSet merged = lattice.mergedSites();
+        // 数组长度和下标需要常量传播的结果
+        AbstractInterpreter.Frames constants = hasArrays
+            ? interpreter.interpret(owner, method, new AbstractInterpreter.ConstantLattice())
+            : null;
+        BitSet notReplaceable = new BitSet();
+        for (int site = merged.nextSetBit(0); site >= 0; site = merged.nextSetBit(site + 1)) {
+            if (sites.states[site] != null) {
+                notReplaceable.set(site);
+                sites.reasons.get(site).add("在合并点与其他值混合（分支或循环中赋给同一变量），无法标量替换");
+            }
+        }
+
+        for (int i = 0; i < elements.size(); i++) {
+            if (!frames.reached(i) || !(elements.get(i) instanceof Instruction instruction)) {
+                continue;
+            }
+            switch (instruction) {
+                case FieldInstruction field when field.opcode() == Opcode.PUTSTATIC -> {
+                    if (isReference(field.typeSymbol())) {
+                        escape(sites, merged, frames.peek(i, 0), EscapeState.GLOBAL_ESCAPE,
+                            "存入静态字段 " + field.owner().asInternalName() + "." + field.name().stringValue());
+                    }
+                }
+                case FieldInstruction field when field.opcode() == Opcode.PUTFIELD -> {
+                    if (isReference(field.typeSymbol())) {
+                        store(sites, merged, frames.peek(i, 0), frames.peek(i, 1),
+                            "存入字段 " + field.owner().asInternalName() + "." + field.name().stringValue());
+                    }
+                }
+                case ArrayStoreInstruction store when store.opcode() == Opcode.AASTORE -> {
+                    store(sites, merged, frames.peek(i, 0), frames.peek(i, 2), "存入数组元素");
+                    if (constants != null) {
+                        arrayAccess(sites, notReplaceable, frames.peek(i, 2), constants.peek(i, 1), constants);
+                    }
+                }
+                case ReturnInstruction ret when ret.opcode() == Opcode.ARETURN ->
+                    escape(sites, merged, frames.peek(i, 0), EscapeState.GLOBAL_ESCAPE, "作为返回值");
+                case ThrowInstruction thr ->
+                    escape(sites, merged, frames.peek(i, 0), EscapeState.GLOBAL_ESCAPE, "被抛出");
+                case InvokeInstruction invoke -> invoke(sites, merged, frames, i, invoke, classes);
+                case InvokeDynamicInstruction invoke -> {
+                    List<ClassDesc> parameters = invoke.typeSymbol().parameterList();
+                    int depth = 0;
+                    for (int p = parameters.size() - 1; p >= 0; p--) {
+                        int size = TypeKind.from(parameters.get(p)).slotSize();
+                        if (isReference(parameters.get(p))) {
+                            escape(sites, merged, frames.peek(i, depth), EscapeState.ARG_ESCAPE,
+                                "被 invokedynamic " + invoke.name().stringValue() + " 捕获");
+                        }
+                        depth += size;
+                    }
+                }
+                case ArrayLoadInstruction load when constants != null ->
+                    arrayAccess(sites, notReplaceable, frames.peek(i, 1), constants.peek(i, 0), constants);
+                case ArrayStoreInstruction store when constants != null -> {
+                    int size = store.typeKind().slotSize();
+                    arrayAccess(sites, notReplaceable, frames.peek(i, size + 1), constants.peek(i, size), constants);
+                }
+                default -> {
+                }
+            }
+        }
+        propagate(sites);
+
+        String className = owner.thisClass().asInternalName();
+        String methodKey = method.methodName().stringValue() + method.methodType().stringValue();
+        List<AllocationSite> result = new ArrayList<>();
+        int line = -1;
+        for (int i = 0; i < elements.size(); i++) {
+            if (elements.get(i) instanceof LineNumber lineNumber) {
+                line = lineNumber.line();
+            }
+            if (sites.states[i] == null) {
+                continue;
+            }
+            List<String> reasons = sites.reasons.get(i);
+            if (constants != null && !(elements.get(i) instanceof NewObjectInstruction)) {
+                String arrayReason = arrayLengthReason(elements.get(i), constants, i);
+                if (arrayReason != null) {
+                    notReplaceable.set(i);
+                    reasons.add(arrayReason);
+                }
+            }
+            boolean replaceable = sites.states[i] == EscapeState.NO_ESCAPE && !notReplaceable.get(i);
+            result.add(new AllocationSite(className, methodKey, line, allocatedType(elements.get(i)),
+                sites.states[i], replaceable, List.copyOf(reasons)));
+        }
+        return result;
+    }
+
+    private static boolean isAllocation(CodeElement element) {
+        return element instanceof NewObjectInstruction
+            || element instanceof NewPrimitiveArrayInstruction
+            || element instanceof NewReferenceArrayInstruction
+            || element instanceof NewMultiArrayInstruction;
+    }
+
+    private static boolean isReference(ClassDesc type) {
+        return !type.isPrimitive();
+    }
+
+    private static String allocatedType(CodeElement element) {
+        return switch (element) {
+            case NewObjectInstruction n -> n.className().asSymbol().descriptorString();
+            case NewPrimitiveArrayInstruction n -> n.typeKind().upperBound().arrayType().descriptorString();
+            case NewReferenceArrayInstruction n -> n.componentType().asSymbol().arrayType().descriptorString();
+            case NewMultiArrayInstruction n -> n.arrayType().asSymbol().descriptorString();
+            default -> throw new IllegalArgumentException("不是分配指令: " + element);
+        };
+    }
+
+    /**
+     * 标记抽象值对应的分配点逃逸。合并后的值可能来自任意被合并过的分配点，保守地全部标记
+     */
+    private static void escape(SiteState sites, BitSet merged, int value, EscapeState state, String reason) {
+        if (value > 0) {
+            sites.escape(AbstractInterpreter.AllocationLattice.site(value), state, reason);
+        } else if (value == AbstractInterpreter.AllocationLattice.MERGED) {
+            for (int site = merged.nextSetBit(0); site >= 0; site = merged.nextSetBit(site + 1)) {
+                sites.escape(site, state, reason + "（经过合并）");
+            }
+        }
+    }
+
+    /**
+     * 对象存入另一个对象：容器是方法内分配的对象时逃逸状态随容器传递，否则全局逃逸
+     */
+    private static void store(SiteState sites, BitSet merged, int value, int container, String reason) {
+        if (value > 0 && container > 0) {
+            sites.containedIn.add(new int[]{AbstractInterpreter.AllocationLattice.site(value),
+                AbstractInterpreter.AllocationLattice.site(container)});
+        } else {
+            escape(sites, merged, value, EscapeState.GLOBAL_ESCAPE, reason);
+        }
+    }
+
+    private void invoke(SiteState sites, BitSet merged, AbstractInterpreter.Frames frames, int index,
+                        InvokeInstruction invoke, Map<String, ClassModel> classes) {
+        String owner = invoke.owner().asInternalName();
+        String name = invoke.name().stringValue();
+        // Object 的构造方法是空的，总会被内联
+        if (owner.equals("java/lang/Object") && name.equals("<init>")) {
+            return;
+        }
+        String target = owner + "." + name + inlineHint(invoke, classes);
+        BitSet leaks = resolve(invoke, classes)
+            .filter(method -> isStaticallyBound(invoke, method))
+            .map(this::leakingSlots)
+            .orElse(LEAKS_ALL);
+        boolean isStatic = invoke.opcode() == Opcode.INVOKESTATIC;
+        List<ClassDesc> parameters = invoke.typeSymbol().parameterList();
+        // 参数在被调用方法中的局部变量槽位
+        int[] slots = new int[parameters.size()];
+        int slot = isStatic ? 0 : 1;
+        for (int p = 0; p < parameters.size(); p++) {
+            slots[p] = slot;
+            slot += TypeKind.from(parameters.get(p)).slotSize();
+        }
+        int depth = 0;
+        for (int p = parameters.size() - 1; p >= 0; p--) {
+            if (isReference(parameters.get(p)) && leaks.get(slots[p])) {
+                escape(sites, merged, frames.peek(index, depth), EscapeState.ARG_ESCAPE, "作为参数传给 " + target);
+            }
+            depth += TypeKind.from(parameters.get(p)).slotSize();
+        }
+        if (!isStatic && leaks.get(0)) {
+            escape(sites, merged, frames.peek(index, depth), EscapeState.ARG_ESCAPE, "作为接收者调用 " + target);
+        }
+    }
+
+    /**
+     * 在分析范围内查找被调用的方法，沿父类向上查找，构造方法不继承
+     */
+    private static Optional<MethodModel> resolve(InvokeInstruction invoke, Map<String, ClassModel> classes) {
+        String name = invoke.name().stringValue();
+        String type = invoke.type().stringValue();
+        ClassModel model = classes.get(invoke.owner().asInternalName());
+        while (model != null) {
+            for (MethodModel method : model.methods()) {
+                if (method.methodName().equalsString(name) && method.methodType().equalsString(type)) {
+                    return Optional.of(method);
+                }
+            }
+            if (name.equals("<init>") || model.superclass().isEmpty()) {
+                return Optional.empty();
+            }
+            model = classes.get(model.superclass().get().asInternalName());
+        }
+        return Optional.empty();
+    }
+
+    /**
+     * 调用目标在编译时就能确定（静态、构造、私有、final 方法或 final 类中的方法）
+     */
+    private static boolean isStaticallyBound(InvokeInstruction invoke, MethodModel method) {
+        if (invoke.opcode() == Opcode.INVOKESTATIC || invoke.opcode() == Opcode.INVOKESPECIAL) {
+            return true;
+        }
+        int flags = method.flags().flagsMask();
+        if ((flags & (ClassFile.ACC_PRIVATE | ClassFile.ACC_FINAL)) != 0) {
+            return true;
+        }
+        return method.parent()
+            .map(parent -> (parent.flags().flagsMask() & ClassFile.ACC_FINAL) != 0)
+            .orElse(false);
+    }
+
+    /**
+     * 计算被调用方法中可能逃逸的参数槽位。参数存入字段或数组、作为返回值、被抛出、继续作为参数传给其他方法，
+     * 或者从中读出引用时逃逸，这些值在合并点与其他值混合后也保守地视为逃逸。超过 MaxInlineSize 或无法解释的方法视为所有参数都逃逸
+     */
+    private BitSet leakingSlots(MethodModel method) {
+        ClassModel owner = method.parent().orElse(null);
+        if (owner == null || !(method.code().orElse(null) instanceof CodeAttribute code)
+                || code.codeLength() > MAX_INLINE_SIZE) {
+            return LEAKS_ALL;
+        }
+        String key = owner.thisClass().asInternalName() + "." + method.methodName().stringValue()
+            + method.methodType().stringValue();
+        return summaries.computeIfAbsent(key, k -> {
+            try {
+                return summarize(owner, method);
+            } catch (IllegalArgumentException | IllegalStateException e) {
+                return LEAKS_ALL;
+            }
+        });
+    }
+
+    private BitSet summarize(ClassModel owner, MethodModel method) {
+        ParameterLattice lattice = new ParameterLattice();
+        AbstractInterpreter.Frames frames = interpreter.interpret(owner, method, lattice);
+        List<CodeElement> elements = frames.elements();
+        BitSet leaks = new BitSet();
+        for (int i = 0; i < elements.size(); i++) {
+            if (!frames.reached(i) || !(elements.get(i) instanceof Instruction instruction)) {
+                continue;
+            }
+            switch (instruction) {
+                case FieldInstruction field when field.opcode() == Opcode.PUTSTATIC
+                        || field.opcode() == Opcode.PUTFIELD -> {
+                    if (isReference(field.typeSymbol())) {
+                        lattice.leak(leaks, frames.peek(i, 0));
+                    }
+                }
+                case ArrayStoreInstruction store when store.opcode() == Opcode.AASTORE ->
+                    lattice.leak(leaks, frames.peek(i, 0));
+                // 读出参数字段或元素中的对象后，调用方存入参数的对象就不再受跟踪，保守地视为参数逃逸
+                case FieldInstruction field when field.opcode() == Opcode.GETFIELD -> {
+                    if (isReference(field.typeSymbol())) {
+                        lattice.leak(leaks, frames.peek(i, 0));
+                    }
+                }
+                case ArrayLoadInstruction load when load.opcode() == Opcode.AALOAD ->
+                    lattice.leak(leaks, frames.peek(i, 1));
+                case ReturnInstruction ret when ret.opcode() == Opcode.ARETURN -> lattice.leak(leaks, frames.peek(i, 0));
+                case ThrowInstruction thr -> lattice.leak(leaks, frames.peek(i, 0));
+                case InvokeInstruction invoke -> {
+                    List<ClassDesc> parameters = invoke.typeSymbol().parameterList();
+                    int depth = 0;
+                    for (int p = parameters.size() - 1; p >= 0; p--) {
+                        if (isReference(parameters.get(p))) {
+                            lattice.leak(leaks, frames.peek(i, depth));
+                        }
+                        depth += TypeKind.from(parameters.get(p)).slotSize();
+                    }
+                    boolean objectInit = invoke.owner().asInternalName().equals("java/lang/Object")
+                        && invoke.name().equalsString("<init>");
+                    if (invoke.opcode() != Opcode.INVOKESTATIC && !objectInit) {
+                        lattice.leak(leaks, frames.peek(i, depth));
+                    }
+                }
+                case InvokeDynamicInstruction invoke -> {
+                    List<ClassDesc> parameters = invoke.typeSymbol().parameterList();
+                    int depth = 0;
+                    for (int p = parameters.size() - 1; p >= 0; p--) {
+                        if (isReference(parameters.get(p))) {
+                            lattice.leak(leaks, frames.peek(i, depth));
+                        }
+                        depth += TypeKind.from(parameters.get(p)).slotSize();
+                    }
+                }
+                default -> {
+                }
+            }
+        }
+        return leaks;
+    }
+
+    /**
+     * 跟踪参数的格：值为参数槽位+1，0 表示与参数无关，-1 表示多个参数或参数与其他值合并
+     */
+    private static final class ParameterLattice implements AbstractInterpreter.Lattice {
+        private final BitSet merged = new BitSet();
+
+        @Override
+        public int top() {
+            return 0;
+        }
+
+        @Override
+        public int join(int a, int b) {
+            if (a == b) {
+                return a;
+            }
+            if (a > 0) {
+                merged.set(a - 1);
+            }
+            if (b > 0) {
+                merged.set(b - 1);
+            }
+            return a == 0 && b == 0 ? 0 : -1;
+        }
+
+        @Override
+        public int parameter(int slot, ClassDesc type, boolean receiver) {
+            return type.isPrimitive() ? 0 : slot + 1;
+        }
+
+        void leak(BitSet leaks, int value) {
+            if (value > 0) {
+                leaks.set(value - 1);
+            } else if (value == -1) {
+                leaks.or(merged);
+            }
+        }
+    }
+
+    /**
+     * 根据被调用方法的字节码长度估计能否内联，被调用方法不在分析范围内时返回空字符串
+     */
+    private static String inlineHint(InvokeInstruction invoke, Map<String, ClassModel> classes) {
+        ClassModel target = classes.get(invoke.owner().asInternalName());
+        if (target == null) {
+            return "";
+        }
+        for (MethodModel method : target.methods()) {
+            if (method.methodName().equalsString(invoke.name().stringValue())
+                    && method.methodType().equalsString(invoke.type().stringValue())) {
+                if (!(method.code().orElse(null) instanceof CodeAttribute code)) {
+                    return "（抽象或本地方法，需要类型推断后才能内联）";
+                }
+                int size = code.codeLength();
+                return size > FREQ_INLINE_SIZE ? "（" + size + " 字节，超过 FreqInlineSize，通常不会内联）"
+                    : size > MAX_INLINE_SIZE ? "（" + size + " 字节，只在热点调用处内联）"
+                    : "（" + size + " 字节，很可能被内联）";
+            }
+        }
+        return "";
+    }
+
+    /**
+     * 数组元素用非常量下标访问时无法标量替换
+     */
+    private static void arrayAccess(SiteState sites, BitSet notReplaceable, int array, int arrayIndex,
+                                    AbstractInterpreter.Frames constants) {
+        if (array <= 0) {
+            return;
+        }
+        int site = AbstractInterpreter.AllocationLattice.site(array);
+        AbstractInterpreter.ConstantLattice lattice = (AbstractInterpreter.ConstantLattice) constants.lattice();
+        if (sites.states[site] != null && lattice.value(arrayIndex).isEmpty() && !notReplaceable.get(site)) {
+            notReplaceable.set(site);
+            sites.reasons.get(site).add("数组元素用非常量下标访问，无法标量替换");
+        }
+    }
+
+    /**
+     * @return 数组长度导致无法标量替换的原因，可以替换时返回null
+     */
+    private static String arrayLengthReason(CodeElement element, AbstractInterpreter.Frames constants, int index) {
+        if (element instanceof NewMultiArrayInstruction) {
+            return "多维数组无法标量替换";
+        }
+        AbstractInterpreter.ConstantLattice lattice = (AbstractInterpreter.ConstantLattice) constants.lattice();
+        Optional<Object> length = lattice.value(constants.peek(index, 0));
+        if (length.isEmpty() || !(length.get() instanceof Integer value)) {
+            return "数组长度不是常量，无法标量替换";
+        }
+        return value > ARRAY_SIZE_LIMIT ? "数组长度 " + value + " 超过 " + ARRAY_SIZE_LIMIT + "，无法标量替换" : null;
+    }
+
+    /**
+     * 存入容器的对象至少和容器一样逃逸，迭代到不动点
+     */
+    private static void propagate(SiteState sites) {
+        boolean changed = true;
+        while (changed) {
+            changed = false;
+            for (int[] edge : sites.containedIn) {
+                EscapeState inner = sites.states[edge[0]];
+                EscapeState outer = sites.states[edge[1]];
+                if (inner != null && outer != null && outer.compareTo(inner) > 0) {
+                    sites.escape(edge[0], outer, "存入的容器对象逃逸");
+                    changed = true;
+                }
+            }
+        }
+    }
+}
@@ -0,0 +1,581 @@
+package org.yanhuang.learning.jdk24.classapi;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.lang.classfile.ClassFile;
+import java.lang.classfile.ClassModel;
+import java.lang.classfile.ClassTransform;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.*;
+import java.util.concurrent.*;
+import java.util.function.Predicate;
+import java.util.function.UnaryOperator;
+import java.util.zip.CRC32;
+import java.util.zip.DataFormatException;
+import java.util.zip.Deflater;
+import java.util.zip.Inflater;
+
+/**
+ * 流式jar重写引擎
+ * 按中央目录顺序流式处理条目：需要转换的条目（默认是类文件）在有界线程池上并行解压、转换和压缩，
+ * 其他条目以及转换后内容没有变化的条目直接复制原始压缩数据，不经过解压和重新压缩。
+ * 输出jar保持原始条目顺序，同时处理中的条目数量有上限，内存占用与jar大小无关。
+ * <p>
+ * 转换后的条目按配置的压缩级别重新压缩，级别为0时以STORED方式写入。
+ * 支持读取zip64格式；输出条目数超过65535时写入zip64目录结尾记录，单个条目的大小达到4GB时写入zip64扩展字段，
+ * 单个偏移超过4GB时报错。
+ */
+public class JarRewriter {
+
+    private static final int LOCAL_HEADER_SIGNATURE = 0x04034b50;
+    private static final int CENTRAL_HEADER_SIGNATURE = 0x02014b50;
+    private static final int END_SIGNATURE = 0x06054b50;
+    private static final int ZIP64_END_SIGNATURE = 0x06064b50;
+    private static final int ZIP64_LOCATOR_SIGNATURE = 0x07064b50;
+    private static final int ZIP64_EXTRA_ID = 0x0001;
+    private static final int FLAG_DATA_DESCRIPTOR = 0x0008;
+    private static final int FLAG_UTF8 = 0x0800;
+    private static final int STORED = 0;
+    private static final int DEFLATED = 8;
+    private static final long MAX_32 = 0xFFFFFFFFL;
+    /** 使用zip64扩展时需要的解压版本（4.5） */
+    private static final int ZIP64_VERSION = 45;
+    private static final int MAX_16 = 0xFFFF;
+
+    private final EntryTransformer transformer;
+    private Predicate<String> contentFilter = name -> name.endsWith(".class");
+    private UnaryOperator<String> nameMapper = UnaryOperator.identity();
+    private int parallelism = Runtime.getRuntime().availableProcessors();
+    private int compressionLevel = Deflater.DEFAULT_COMPRESSION;
+
+    /**
+     * 条目内容转换
+     */
+    @FunctionalInterface
+    public interface EntryTransformer {
+        /**
+         * @param name 条目名称
+         * @param content 解压后的条目内容
+         * @return 转换后的条目，内容没有变化时返回null
+         */
+        TransformedEntry transform(String name, byte[] content);
+    }
+
+    /**
+     * 转换后的条目
+     *
+     * @param name 新的条目名称
+     * @param content 新的条目内容
+     */
+    public record TransformedEntry(String name, byte[] content) {
+    }
+
+    /**
+     * 重写报告
+     *
+     * @param entries 条目总数
+     * @param transformed 内容被转换的条目数
+     * @param rawCopied 直接复制压缩数据的条目数
+     * @param inputBytes 输入jar字节数
+     * @param outputBytes 输出jar字节数
+     */
+    public record RewriteReport(int entries, int transformed, int rawCopied, long inputBytes, long outputBytes) {
+    }
+
+    /** 中央目录中的条目信息 */
+    private record ZipEntryInfo(byte[] rawName, String name, int versionMadeBy, int versionNeeded, int flags,
+                                int method, int dosTime, int dosDate, long crc, long compressedSize, long size,
+                                long localHeaderOffset, byte[] extra, byte[] comment, int internalAttributes,
+                                long externalAttributes) {
+    }
+
+    /** 待写出的条目，data为null时直接复制原始压缩数据 */
+    private record PendingEntry(ZipEntryInfo source, String name, byte[] data, int method, long crc, long size) {
+    }
+
+    /** 已写出的条目，用于生成中央目录 */
+    private record WrittenEntry(ZipEntryInfo source, byte[] rawName, int versionNeeded, int flags, int method, long crc,
+                                long compressedSize, long size, long offset) {
+    }
+
+    /**
+     * @param transformer 条目内容转换
+     */
+    public JarRewriter(EntryTransformer transformer) {
+        this.transformer = transformer;
+    }
+
+    /**
+     * 创建对类文件应用ClassTransform的重写器
+     *
+     * @param classFile 解析和构建类文件使用的上下文
+     * @param transform 类转换
+     * @return jar重写器
+     */
+    public static JarRewriter of(ClassFile classFile, ClassTransform transform) {
+        return new JarRewriter((name, content) -> {
+            ClassModel model = classFile.parse(content);
+            byte[] transformed = classFile.transformClass(model, transform);
+            return Arrays.equals(content, transformed) ? null : new TransformedEntry(name, transformed);
+        });
+    }
+
+    // ================= Configuration =================
+
+    /**
+     * 设置需要解压并转换内容的条目，默认为所有.class条目
+     */
+    public JarRewriter setContentFilter(Predicate<String> contentFilter) {
+        this.contentFilter = contentFilter;
+        return this;
+    }
+
+    /**
+     * 设置条目重命名规则，作用于所有直接复制的条目，例如shading时移动资源路径
+     */
+    public JarRewriter setNameMapper(UnaryOperator<String> nameMapper) {
+        this.nameMapper = nameMapper;
+        return this;
+    }
+
+    /**
+     * 设置转换线程数，默认为CPU核数
+     */
+    public JarRewriter setParallelism(int parallelism) {
+        this.parallelism = Math.max(1, parallelism);
+        return this;
+    }
+
+    /**
+     * 设置转换后条目的压缩级别（0-9，-1为默认级别）
+     */
+    public JarRewriter setCompressionLevel(int compressionLevel) {
+        this.compressionLevel = compressionLevel;
+        return this;
+    }
+
+    // ================= Rewriting =================
+
+    /**
+     * 重写jar
+     *
+     * @param inputJar 输入jar路径
+     * @param outputJar 输出jar路径
+     * @return 重写报告
+     * @throws IOException 如果文件读取、写入失败或jar格式错误
+     */
+    public RewriteReport rewrite(Path inputJar, Path outputJar) throws IOException {
+        ExecutorService executor = Executors.newFixedThreadPool(parallelism, runnable -> {
+            Thread thread = new Thread(runnable, "jar-rewriter");
+            thread.setDaemon(true);
+            return thread;
+        });
+        try (FileChannel in = FileChannel.open(inputJar, StandardOpenOption.READ);
+             FileChannel out = FileChannel.open(outputJar, StandardOpenOption.CREATE, StandardOpenOption.WRITE,
+                 StandardOpenOption.TRUNCATE_EXISTING)) {
+            List<ZipEntryInfo> entries = readCentralDirectory(in);
+            List<WrittenEntry> written = new ArrayList<>(entries.size());
+            Deque<Future<PendingEntry>> window = new ArrayDeque<>();
+            int maxInFlight = parallelism * 4;
+            int transformed = 0;
+
+            for (ZipEntryInfo entry : entries) {
+                if (window.size() >= maxInFlight) {
+                    transformed += writeEntry(in, out, await(window.poll()), written);
+                }
+                if (contentFilter.test(entry.name()) && (entry.method() == STORED || entry.method() == DEFLATED)) {
+                    window.add(executor.submit(() -> process(in, entry)));
+                } else {
+                    window.add(CompletableFuture.completedFuture(
+                        new PendingEntry(entry, nameMapper.apply(entry.name()), null, entry.method(), entry.crc(), entry.size())));
+                }
+            }
+            while (!window.isEmpty()) {
+                transformed += writeEntry(in, out, await(window.poll()), written);
+            }
+            writeCentralDirectory(out, written);
+            return new RewriteReport(entries.size(), transformed, entries.size() - transformed, in.size(), out.size());
+        } finally {
+            executor.shutdownNow();
+        }
+    }
+
+    private static PendingEntry await(Future<PendingEntry> future) throws IOException {
+        try {
+            return future.get();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IOException("重写jar时被中断", e);
+        } catch (ExecutionException e) {
+            throw new IOException("转换条目失败: " + e.getCause().getMessage(), e.getCause());
+        }
+    }
+
+    /**
+     * 在工作线程中读取、解压、转换并重新压缩一个条目
+     */
+    private PendingEntry process(FileChannel in, ZipEntryInfo entry) throws IOException {
+        byte[] compressed = readFully(in, dataOffset(in, entry), entry.compressedSize());
+        byte[] content = entry.method() == STORED ? compressed : inflate(compressed, entry.size());
+        TransformedEntry result = transformer.transform(entry.name(), content);
+        if (result == null) {
+            return new PendingEntry(entry, nameMapper.apply(entry.name()), null, entry.method(), entry.crc(), entry.size());
+        }
+        CRC32 crc = new CRC32();
+        crc.update(result.content());
+        if (compressionLevel == Deflater.NO_COMPRESSION) {
+            return new PendingEntry(entry, result.name(), result.content(), STORED, crc.getValue(), result.content().length);
+        }
+        return new PendingEntry(entry, result.name(), deflate(result.content()), DEFLATED, crc.getValue(),
+            result.content().length);
+    }
+
+    private byte[] deflate(byte[] content) {
+        Deflater deflater = new Deflater(compressionLevel, true);
+        try {
+            deflater.setInput(content);
+            deflater.finish();
+            ByteArrayOutputStream out = new ByteArrayOutputStream(Math.max(64, content.length / 2));
+            byte[] buffer = new byte[8192];
+            while (!deflater.finished()) {
+                int count = deflater.deflate(buffer);
+                out.write(buffer, 0, count);
+            }
+            return out.toByteArray();
+        } finally {
+            deflater.end();
+        }
+    }
+
+    private static byte[] inflate(byte[] compressed, long size) throws IOException {
+        Inflater inflater = new Inflater(true);
+        try {
+            inflater.setInput(compressed);
+            byte[] content = new byte[Math.toIntExact(size)];
+            int offset = 0;
+            while (offset < content.length) {
+                int count = inflater.inflate(content, offset, content.length - offset);
+                if (count == 0 && (inflater.finished() || inflater.needsInput())) {
+                    throw new IOException("压缩数据不完整");
+                }
+                offset += count;
+            }
+            return content;
+        } catch (DataFormatException e) {
+            throw new IOException("压缩数据格式错误", e);
+        } finally {
+            inflater.end();
+        }
+    }
+
+    /**
+     * 写出一个条目的本地文件头和数据
+     *
+     * @return 内容被转换时返回1，否则返回0
+     */
+    private static int writeEntry(FileChannel in, FileChannel out, PendingEntry pending,
+                                  List<WrittenEntry> written) throws IOException {
+        ZipEntryInfo source = pending.source();
+        long offset = out.position();
+        if (offset > MAX_32) {
+            throw new IOException("输出jar超过4GB，暂不支持");
+        }
+        byte[] rawName = pending.name().equals(source.name())
+            ? source.rawName()
+            : pending.name().getBytes(StandardCharsets.UTF_8);
+        int flags = source.flags() & ~FLAG_DATA_DESCRIPTOR;
+        if (rawName != source.rawName()) {
+            flags |= FLAG_UTF8;
+        }
+        int versionNeeded = pending.method() == DEFLATED ? Math.max(20, source.versionNeeded()) : source.versionNeeded();
+        long compressedSize = pending.data() != null ? pending.data().length : source.compressedSize();
+        boolean zip64 = needsZip64(pending.size(), compressedSize);
+        if (zip64) {
+            versionNeeded = Math.max(ZIP64_VERSION, versionNeeded);
+        }
+        byte[] localExtra = withZip64(readLocalExtra(in, source), pending.size(), compressedSize);
+
+        ByteBuffer header = ByteBuffer.allocate(30 + rawName.length + localExtra.length).order(ByteOrder.LITTLE_ENDIAN);
+        header.putInt(LOCAL_HEADER_SIGNATURE)
+            .putShort((short) versionNeeded)
+            .putShort((short) flags)
+            .putShort((short) pending.method())
+            .putShort((short) source.dosTime())
+            .putShort((short) source.dosDate())
+            .putInt((int) pending.crc())
+            .putInt(zip64 ? (int) MAX_32 : (int) compressedSize)
+            .putInt(zip64 ? (int) MAX_32 : (int) pending.size())
+            .putShort((short) rawName.length)
+            .putShort((short) localExtra.length)
+            .put(rawName)
+            .put(localExtra)
+            .flip();
+        writeFully(out, header);
+
+        if (pending.data() != null) {
+            writeFully(out, ByteBuffer.wrap(pending.data()));
+        } else {
+            // 直接复制原始压缩数据
+            long position = dataOffset(in, source);
+            long remaining = source.compressedSize();
+            while (remaining > 0) {
+                long count = in.transferTo(position, remaining, out);
+                position += count;
+                remaining -= count;
+            }
+        }
+        written.add(new WrittenEntry(source, rawName, versionNeeded, flags, pending.method(), pending.crc(), compressedSize,
+            pending.size(), offset));
+        return pending.data() != null ? 1 : 0;
+    }
+
+    private static void writeCentralDirectory(FileChannel out, List<WrittenEntry> written) throws IOException {
+        long start = out.position();
+        for (WrittenEntry entry : written) {
+            ZipEntryInfo source = entry.source();
+            boolean zip64 = needsZip64(entry.size(), entry.compressedSize());
+            byte[] extra = withZip64(source.extra(), entry.size(), entry.compressedSize());
+            ByteBuffer header = ByteBuffer.allocate(46 + entry.rawName().length + extra.length + source.comment().length)
+                .order(ByteOrder.LITTLE_ENDIAN);
+            header.putInt(CENTRAL_HEADER_SIGNATURE)
+                .putShort((short) source.versionMadeBy())
+                .putShort((short) entry.versionNeeded())
+                .putShort((short) entry.flags())
+                .putShort((short) entry.method())
+                .putShort((short) source.dosTime())
+                .putShort((short) source.dosDate())
+                .putInt((int) entry.crc())
+                .putInt(zip64 ? (int) MAX_32 : (int) entry.compressedSize())
+                .putInt(zip64 ? (int) MAX_32 : (int) entry.size())
+                .putShort((short) entry.rawName().length)
+                .putShort((short) extra.length)
+                .putShort((short) source.comment().length)
+                .putShort((short) 0)
+                .putShort((short) source.internalAttributes())
+                .putInt((int) source.externalAttributes())
+                .putInt((int) entry.offset())
+                .put(entry.rawName())
+                .put(extra)
+                .put(source.comment())
+                .flip();
+            writeFully(out, header);
+        }
+        long end = out.position();
+        long size = end - start;
+        int count = written.size();
+
+        if (count >= MAX_16 || start >= MAX_32 || size >= MAX_32) {
+            ByteBuffer zip64 = ByteBuffer.allocate(56 + 20).order(ByteOrder.LITTLE_ENDIAN);
+            zip64.putInt(ZIP64_END_SIGNATURE)
+                .putLong(44)
+                .putShort((short) 45)
+                .putShort((short) 45)
+                .putInt(0)
+                .putInt(0)
+                .putLong(count)
+                .putLong(count)
+                .putLong(size)
+                .putLong(start)
+                .putInt(ZIP64_LOCATOR_SIGNATURE)
+                .putInt(0)
+                .putLong(end)
+                .putInt(1)
+                .flip();
+            writeFully(out, zip64);
+        }
+        ByteBuffer eocd = ByteBuffer.allocate(22).order(ByteOrder.LITTLE_ENDIAN);
+        eocd.putInt(END_SIGNATURE)
+            .putShort((short) 0)
+            .putShort((short) 0)
+            .putShort((short) Math.min(count, MAX_16))
+            .putShort((short) Math.min(count, MAX_16))
+            .putInt((int) Math.min(size, MAX_32))
+            .putInt((int) Math.min(start, MAX_32))
+            .putShort((short) 0)
+            .flip();
+        writeFully(out, eocd);
+    }
+
+    // ================= Zip structure reading =================
+
+    private static List<ZipEntryInfo> readCentralDirectory(FileChannel in) throws IOException {
+        long fileSize = in.size();
+        int tailLength = (int) Math.min(fileSize, 22 + MAX_16);
+        ByteBuffer tail = ByteBuffer.wrap(readFully(in, fileSize - tailLength, tailLength)).order(ByteOrder.LITTLE_ENDIAN);
+        int endPosition = -1;
+        for (int i = tailLength - 22; i >= 0; i--) {
+            if (tail.getInt(i) == END_SIGNATURE) {
+                endPosition = i;
+                break;
+            }
+        }
+        if (endPosition < 0) {
+            throw new IOException("找不到zip中央目录结尾记录");
+        }
+        long entryCount = tail.getShort(endPosition + 10) & MAX_16;
+        long directorySize = tail.getInt(endPosition + 12) & MAX_32;
+        long directoryOffset = tail.getInt(endPosition + 16) & MAX_32;
+
+        if (entryCount == MAX_16 || directorySize == MAX_32 || directoryOffset == MAX_32) {
+            long locator = fileSize - tailLength + endPosition - 20;
+            ByteBuffer locatorBuffer = ByteBuffer.wrap(readFully(in, locator, 20)).order(ByteOrder.LITTLE_ENDIAN);
+            if (locatorBuffer.getInt(0) == ZIP64_LOCATOR_SIGNATURE) {
+                long zip64End = locatorBuffer.getLong(8);
+                ByteBuffer zip64 = ByteBuffer.wrap(readFully(in, zip64End, 56)).order(ByteOrder.LITTLE_ENDIAN);
+                if (zip64.getInt(0) != ZIP64_END_SIGNATURE) {
+                    throw new IOException("zip64目录结尾记录损坏");
+                }
+                entryCount = zip64.getLong(32);
+                directorySize = zip64.getLong(40);
+                directoryOffset = zip64.getLong(48);
+            }
+        }
+
+        ByteBuffer directory = ByteBuffer.wrap(readFully(in, directoryOffset, directorySize)).order(ByteOrder.LITTLE_ENDIAN);
+        List<ZipEntryInfo> entries = new ArrayList<>((int) Math.min(entryCount, Integer.MAX_VALUE));
+        for (long i = 0; i < entryCount; i++) {
+            if (directory.getInt() != CENTRAL_HEADER_SIGNATURE) {
+                throw new IOException("zip中央目录损坏");
+            }
+            int versionMadeBy = directory.getShort() & MAX_16;
+            int versionNeeded = directory.getShort() & MAX_16;
+            int flags = directory.getShort() & MAX_16;
+            int method = directory.getShort() & MAX_16;
+            int dosTime = directory.getShort() & MAX_16;
+            int dosDate = directory.getShort() & MAX_16;
+            long crc = directory.getInt() & MAX_32;
+            long compressedSize = directory.getInt() & MAX_32;
+            long size = directory.getInt() & MAX_32;
+            int nameLength = directory.getShort() & MAX_16;
+            int extraLength = directory.getShort() & MAX_16;
+            int commentLength = directory.getShort() & MAX_16;
+            directory.getShort(); // 起始磁盘号
+            int internalAttributes = directory.getShort() & MAX_16;
+            long externalAttributes = directory.getInt() & MAX_32;
+            long localHeaderOffset = directory.getInt() & MAX_32;
+            byte[] rawName = new byte[nameLength];
+            directory.get(rawName);
+            byte[] extra = new byte[extraLength];
+            directory.get(extra);
+            byte[] comment = new byte[commentLength];
+            directory.get(comment);
+
+            // zip64扩展字段只包含值为0xFFFFFFFF的字段，顺序为原始大小、压缩大小、本地头偏移
+            ByteBuffer zip64 = findExtra(extra, ZIP64_EXTRA_ID);
+            if (zip64 != null) {
+                if (size == MAX_32) {
+                    size = zip64.getLong();
+                }
+                if (compressedSize == MAX_32) {
+                    compressedSize = zip64.getLong();
+                }
+                if (localHeaderOffset == MAX_32) {
+                    localHeaderOffset = zip64.getLong();
+                }
+            }
+            entries.add(new ZipEntryInfo(rawName, new String(rawName, StandardCharsets.UTF_8), versionMadeBy,
+                versionNeeded, flags, method, dosTime, dosDate, crc, compressedSize, size, localHeaderOffset,
+                extra, comment, internalAttributes, externalAttributes));
+        }
+        return entries;
+    }
+
+    private static long dataOffset(FileChannel in, ZipEntryInfo entry) throws IOException {
+        ByteBuffer header = ByteBuffer.wrap(readFully(in, entry.localHeaderOffset(), 30)).order(ByteOrder.LITTLE_ENDIAN);
+        if (header.getInt(0) != LOCAL_HEADER_SIGNATURE) {
+            throw new IOException("本地文件头损坏: " + entry.name());
+        }
+        return entry.localHeaderOffset() + 30 + (header.getShort(26) & MAX_16) + (header.getShort(28) & MAX_16);
+    }
+
+    private static byte[] readLocalExtra(FileChannel in, ZipEntryInfo entry) throws IOException {
+        ByteBuffer header = ByteBuffer.wrap(readFully(in, entry.localHeaderOffset(), 30)).order(ByteOrder.LITTLE_ENDIAN);
+        int nameLength = header.getShort(26) & MAX_16;
+        int extraLength = header.getShort(28) & MAX_16;
+        return readFully(in, entry.localHeaderOffset() + 30 + nameLength, extraLength);
+    }
+
+    private static ByteBuffer findExtra(byte[] extra, int id) {
+        ByteBuffer buffer = ByteBuffer.wrap(extra).order(ByteOrder.LITTLE_ENDIAN);
+        while (buffer.remaining() >= 4) {
+            int blockId = buffer.getShort() & MAX_16;
+            int blockSize = buffer.getShort() & MAX_16;
+            if (blockSize > buffer.remaining()) {
+                return null;
+            }
+            if (blockId == id) {
+                return buffer.slice(buffer.position(), blockSize).order(ByteOrder.LITTLE_ENDIAN);
+            }
+            buffer.position(buffer.position() + blockSize);
+        }
+        return null;
+    }
+
+    private static boolean needsZip64(long size, long compressedSize) {
+        return size >= MAX_32 || compressedSize >= MAX_32;
+    }
+
+    /**
+     * 替换原有的zip64扩展字段。大小达到4GB时头部的两个大小字段都写为0xFFFFFFFF，
+     * 实际值按原始大小、压缩大小的顺序写在新的zip64扩展字段中；否则大小直接写在头部字段中
+     */
+    private static byte[] withZip64(byte[] extra, long size, long compressedSize) throws IOException {
+        byte[] stripped = stripZip64(extra);
+        if (!needsZip64(size, compressedSize)) {
+            return stripped;
+        }
+        if (stripped.length + 20 > MAX_16) {
+            throw new IOException("扩展字段过长，无法添加zip64扩展字段");
+        }
+        return ByteBuffer.allocate(20 + stripped.length).order(ByteOrder.LITTLE_ENDIAN)
+            .putShort((short) ZIP64_EXTRA_ID)
+            .putShort((short) 16)
+            .putLong(size)
+            .putLong(compressedSize)
+            .put(stripped)
+            .array();
+    }
+
+    /**
+     * 删除zip64扩展字段
+     */
+    private static byte[] stripZip64(byte[] extra) {
+        if (findExtra(extra, ZIP64_EXTRA_ID) == null) {
+            return extra;
+        }
+        ByteBuffer buffer = ByteBuffer.wrap(extra).order(ByteOrder.LITTLE_ENDIAN);
+        ByteArrayOutputStream out = new ByteArrayOutputStream(extra.length);
+        while (buffer.remaining() >= 4) {
+            int start = buffer.position();
+            int blockId = buffer.getShort() & MAX_16;
+            int blockSize = Math.min(buffer.getShort() & MAX_16, buffer.remaining());
+            buffer.position(buffer.position() + blockSize);
+            if (blockId != ZIP64_EXTRA_ID) {
+                out.write(extra, start, 4 + blockSize);
+            }
+        }
+        return out.toByteArray();
+    }
+
+    private static byte[] readFully(FileChannel in, long position, long length) throws IOException {
+        ByteBuffer buffer = ByteBuffer.allocate(Math.toIntExact(length));
+        while (buffer.hasRemaining()) {
+            int count = in.read(buffer, position + buffer.position());
+            if (count < 0) {
+                throw new IOException("jar文件意外结束");
+            }
+        }
+        return buffer.array();
+    }
+
+    private static void writeFully(FileChannel out, ByteBuffer buffer) throws IOException {
+        while (buffer.hasRemaining()) {
+            out.write(buffer);
+        }
+    }
+}
@@ -0,0 +1,590 @@
+package org.yanhuang.learning.jdk24.classapi;
+
+import java.io.IOException;
+import java.lang.classfile.*;
+import java.lang.classfile.constantpool.ClassEntry;
+import java.lang.classfile.constantpool.ConstantDynamicEntry;
+import java.lang.classfile.constantpool.LoadableConstantEntry;
+import java.lang.classfile.constantpool.MethodHandleEntry;
+import java.lang.classfile.instruction.*;
+import java.lang.constant.ClassDesc;
+import java.lang.constant.MethodTypeDesc;
+import java.lang.invoke.MethodType;
+import java.lang.reflect.Constructor;
+import java.lang.reflect.Field;
+import java.lang.reflect.Method;
+import java.nio.file.Path;
+import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * 延迟持有类（lazy holder）转换，默认不启用，需要显式调用
+ * 把 private static final 字段在&lt;clinit&gt;中的初始化代码整段移动到生成的持有类
+ * {@code Owner$Lazy$field} 的&lt;clinit&gt;中，原类中对该字段的读取改为读取持有类的VALUE字段，
+ * 这样初始化只会在第一次访问字段时执行。
+ * <p>
+ * 符合条件的初始化代码段必须是直线代码：不读写局部变量、不跨越分支目标或异常处理范围、
+ * 不引用原类自身的成员，并且只由常量、new/dup、方法调用、其他类的静态字段读取、类型转换和数组创建/存储组成。
+ * 持有类不是原类的嵌套成员（nestmate），因此代码段也不能引用任何类的私有成员（例如嵌套类的私有构造函数，
+ * JDK 11 起javac不再为它生成桥接方法），或者其他包中的protected成员，否则第一次访问字段时会抛出 IllegalAccessError。
+ */
+public class LazyHolderTransformer {
+
+    private static final String HOLDER_FIELD = "VALUE";
+    private static final MethodTypeDesc CLINIT_TYPE = MethodTypeDesc.ofDescriptor("()V");
+
+    /** 序列化机制通过反射直接读取的静态字段，必须留在原类中 */
+    private static final Set<String> SERIALIZATION_FIELDS = Set.of("serialVersionUID", "serialPersistentFields");
+
+    private final ClassFileToolkit toolkit = new ClassFileToolkit();
+
+    /**
+     * 一个被推迟的字段初始化
+     *
+     * @param owner 原类的内部名称
+     * @param fieldName 字段名
+     * @param holder 生成的持有类内部名称
+     * @param movedInstructions 移动的指令数量
+     */
+    public record DeferredField(String owner, String fieldName, String holder, int movedInstructions) {
+    }
+
+    /**
+     * 转换结果
+     *
+     * @param classes 修改后的类和新生成的持有类，内部类名到字节码的映射
+     * @param deferred 被推迟的字段初始化
+     */
+    public record TransformResult(Map<String, byte[]> classes, List<DeferredField> deferred) {
+    }
+
+    /** &lt;clinit&gt;中一个可移动的字段初始化代码段，[start, end) 不包含末尾的putstatic */
+    private record Segment(FieldModel field, int start, int end, int putstatic) {
+    }
+
+    /** 成员的声明类和访问标志 */
+    private record Member(String declaringClass, int flags) {
+    }
+
+    /**
+     * 转换jar中所有符合条件的字段，非类文件条目原样保留，新生成的持有类写在原类之后
+     *
+     * @param inputJar 输入jar路径
+     * @param outputJar 输出jar路径
+     * @return 被推迟的字段初始化
+     * @throws IOException 如果文件读取或写入失败
+     */
+    public List<DeferredField> transformJar(Path inputJar, Path outputJar) throws IOException {
+        return transformJar(inputJar, outputJar, List.of());
+    }
+
+    /**
+     * 同 {@link #transformJar(Path, Path)}，并用类路径上的依赖jar解析类层次，
+     * 被转换的类继承依赖中的类时，生成栈映射帧需要这些依赖
+     *
+     * @param inputJar 输入jar路径
+     * @param outputJar 输出jar路径
+     * @param classpath 依赖jar路径，按类路径顺序排列
+     * @return 被推迟的字段初始化
+     * @throws IOException 如果文件读取或写入失败
+     */
+    public List<DeferredField> transformJar(Path inputJar, Path outputJar, List<Path> classpath) throws IOException {
+        Map<String, byte[]> entries = toolkit.readJar(inputJar);
+        Map<String, ClassModel> classes = toolkit.readClasspath(List.of(inputJar));
+        TransformResult result = transform(classes, toolkit.readClasspath(classpath).values());
+
+        Map<String, byte[]> output = new LinkedHashMap<>();
+        entries.forEach((name, bytes) -> {
+            String className = name.endsWith(".class") ? name.substring(0, name.length() - ".class".length()) : null;
+            if (className == null || !result.classes().containsKey(className)) {
+                output.put(name, bytes);
+                return;
+            }
+            output.put(name, result.classes().get(className));
+            for (DeferredField deferred : result.deferred()) {
+                if (deferred.owner().equals(className)) {
+                    output.put(deferred.holder() + ".class", result.classes().get(deferred.holder()));
+                }
+            }
+        });
+        toolkit.writeJar(outputJar, output);
+        return result.deferred();
+    }
+
+    /**
+     * 并行转换一组类
+     *
+     * @param classes 内部类名到类模型的映射
+     * @return 转换结果，只包含被修改的类和新生成的持有类
+     */
+    public TransformResult transform(Map<String, ClassModel> classes) {
+        return transform(classes, List.of());
+    }
+
+    /**
+     * 同 {@link #transform(Map)}，并用依赖中的类解析类层次
+     *
+     * @param classes 内部类名到类模型的映射
+     * @param dependencies 依赖中的类模型，只用于解析类层次，不会被转换
+     * @return 转换结果，只包含被修改的类和新生成的持有类
+     */
+    public TransformResult transform(Map<String, ClassModel> classes, Collection<ClassModel> dependencies) {
+        ClassFile classFile = ClassFile.of(ClassFile.ClassHierarchyResolverOption.of(
+            toolkit.hierarchyResolver(classes.values(), dependencies)));
+        Map<String, byte[]> output = new ConcurrentHashMap<>();
+        List<DeferredField> deferred = Collections.synchronizedList(new ArrayList<>());
+
+        // 嵌套类等其他类直接访问的私有字段不能推迟
+        Set<String> externalAccesses = ConcurrentHashMap.newKeySet();
+        classes.values().parallelStream().forEach(model -> collectExternalAccesses(model, externalAccesses));
+        // 访问检查同样要能找到依赖中声明的成员
+        Map<String, ClassModel> visible = new HashMap<>();
+        dependencies.forEach(model -> visible.put(model.thisClass().asInternalName(), model));
+        visible.putAll(classes);
+        MemberAccess access = new MemberAccess(visible);
+
+        classes.values().parallelStream().forEach(model -> {
+            String owner = model.thisClass().asInternalName();
+            List<Segment> segments = findSegments(model, access).stream()
+                .filter(segment -> !externalAccesses.contains(owner + "." + segment.field().fieldName().stringValue()))
+                .toList();
+            if (segments.isEmpty()) {
+                return;
+            }
+            Map<String, ClassDesc> holders = new HashMap<>();
+            List<CodeElement> elements = clinitCode(model).orElseThrow().elementList();
+            for (Segment segment : segments) {
+                String fieldName = segment.field().fieldName().stringValue();
+                String holderName = owner + "$Lazy$" + fieldName;
+                ClassDesc holder = ClassDesc.ofInternalName(holderName);
+                holders.put(fieldName, holder);
+                output.put(holderName, buildHolder(classFile, model, holder, segment.field().fieldTypeSymbol(),
+                    elements.subList(segment.start(), segment.end())));
+                deferred.add(new DeferredField(owner, fieldName, holderName, segment.end() - segment.start()));
+            }
+            output.put(owner, rewriteOwner(classFile, model, segments, holders));
+        });
+
+        List<DeferredField> sorted = new ArrayList<>(deferred);
+        sorted.sort(Comparator.comparing(DeferredField::owner).thenComparing(DeferredField::fieldName));
+        return new TransformResult(output, sorted);
+    }
+
+    private static void collectExternalAccesses(ClassModel model, Set<String> externalAccesses) {
+        String self = model.thisClass().asInternalName();
+        for (MethodModel method : model.methods()) {
+            method.code().ifPresent(code -> code.forEach(element -> {
+                if (element instanceof FieldInstruction field && !field.owner().asInternalName().equals(self)) {
+                    externalAccesses.add(field.owner().asInternalName() + "." + field.name().stringValue());
+                }
+            }));
+        }
+    }
+
+    private static Optional<CodeModel> clinitCode(ClassModel model) {
+        for (MethodModel method : model.methods()) {
+            if (method.methodName().equalsString("<clinit>")) {
+                return method.code();
+            }
+        }
+        return Optional.empty();
+    }
+
+    /**
+     * 查找&lt;clinit&gt;中可以移动到持有类的字段初始化代码段
+     */
+    private List<Segment> findSegments(ClassModel model, MemberAccess access) {
+        Optional<CodeModel> clinit = clinitCode(model);
+        if (clinit.isEmpty()) {
+            return List.of();
+        }
+        String owner = model.thisClass().asInternalName();
+        List<CodeElement> elements = clinit.get().elementList();
+
+        // 被分支、switch或异常处理引用的标签，代码段不能跨越它们
+        Set<Label> referencedLabels = new HashSet<>();
+        for (CodeElement element : elements) {
+            switch (element) {
+                case BranchInstruction branch -> referencedLabels.add(branch.target());
+                case TableSwitchInstruction table -> {
+                    referencedLabels.add(table.defaultTarget());
+                    table.cases().forEach(c -> referencedLabels.add(c.target()));
+                }
+                case LookupSwitchInstruction lookup -> {
+                    referencedLabels.add(lookup.defaultTarget());
+                    lookup.cases().forEach(c -> referencedLabels.add(c.target()));
+                }
+                case ExceptionCatch handler -> {
+                    referencedLabels.add(handler.tryStart());
+                    referencedLabels.add(handler.tryEnd());
+                    referencedLabels.add(handler.handler());
+                }
+                default -> {
+                }
+            }
+        }
+        // 异常处理范围内的代码不能移动
+        boolean[] protectedRange = new boolean[elements.size()];
+        for (CodeElement element : elements) {
+            if (element instanceof ExceptionCatch handler) {
+                int start = indexOfLabel(elements, handler.tryStart());
+                int end = indexOfLabel(elements, handler.tryEnd());
+                for (int i = Math.max(start, 0); i < end && i < protectedRange.length; i++) {
+                    protectedRange[i] = true;
+                }
+            }
+        }
+
+        Map<String, Integer> staticWrites = new HashMap<>();
+        for (CodeElement element : elements) {
+            if (element instanceof FieldInstruction field && field.opcode() == Opcode.PUTSTATIC
+                    && field.owner().asInternalName().equals(owner)) {
+                staticWrites.merge(field.name().stringValue(), 1, Integer::sum);
+            }
+        }
+
+        List<Segment> segments = new ArrayList<>();
+        for (int i = 0; i < elements.size(); i++) {
+            if (!(elements.get(i) instanceof FieldInstruction put) || put.opcode() != Opcode.PUTSTATIC
+                    || !put.owner().asInternalName().equals(owner)
+                    || staticWrites.get(put.name().stringValue()) != 1) {
+                continue;
+            }
+            Optional<FieldModel> field = eligibleField(model, put.name().stringValue());
+            if (field.isEmpty()) {
+                continue;
+            }
+            int start = segmentStart(owner, elements, i, TypeKind.from(put.typeSymbol()).slotSize(),
+                referencedLabels, protectedRange, access);
+            if (start >= 0 && start < i) {
+                segments.add(new Segment(field.get(), start, i, i));
+            }
+        }
+        return segments;
+    }
+
+    private static Optional<FieldModel> eligibleField(ClassModel model, String name) {
+        int required = ClassFile.ACC_PRIVATE | ClassFile.ACC_STATIC | ClassFile.ACC_FINAL;
+        if (SERIALIZATION_FIELDS.contains(name)) {
+            return Optional.empty();
+        }
+        for (FieldModel field : model.fields()) {
+            if (field.fieldName().equalsString(name) && (field.flags().flagsMask() & required) == required
+                    && field.findAttribute(Attributes.constantValue()).isEmpty()) {
+                return Optional.of(field);
+            }
+        }
+        return Optional.empty();
+    }
+
+    private static int indexOfLabel(List<CodeElement> elements, Label label) {
+        for (int i = 0; i < elements.size(); i++) {
+            if (elements.get(i) instanceof LabelTarget target && target.label().equals(label)) {
+                return i;
+            }
+        }
+        return elements.size();
+    }
+
+    /**
+     * 从putstatic向前扫描，计算恰好产生字段值的最短直线代码段的起点
+     * required表示后续代码还需要从栈上消耗的槽位数，降为0时即找到代码段起点
+     *
+     * @return 代码段起点，不可移动时返回-1
+     */
+    private static int segmentStart(String owner, List<CodeElement> elements, int putstatic, int fieldSlots,
+                                    Set<Label> referencedLabels, boolean[] protectedRange, MemberAccess access) {
+        int required = fieldSlots;
+        for (int i = putstatic - 1; i >= 0; i--) {
+            if (protectedRange[i]) {
+                return -1;
+            }
+            CodeElement element = elements.get(i);
+            int push;
+            int pop;
+            switch (element) {
+                case LabelTarget target -> {
+                    if (referencedLabels.contains(target.label())) {
+                        return -1;
+                    }
+                    continue;
+                }
+                case LineNumber _, LocalVariable _, LocalVariableType _ -> {
+                    continue;
+                }
+                case ConstantInstruction constant -> {
+                    if (constant instanceof ConstantInstruction.LoadConstantInstruction load
+                            && !access.accessible(owner, load.constantEntry())) {
+                        return -1;
+                    }
+                    push = constant.typeKind().slotSize();
+                    pop = 0;
+                }
+                case NewObjectInstruction newObject -> {
+                    if (newObject.className().asInternalName().equals(owner)) {
+                        return -1;
+                    }
+                    push = 1;
+                    pop = 0;
+                }
+                case StackInstruction stack when stack.opcode() == Opcode.DUP -> {
+                    push = 2;
+                    pop = 1;
+                }
+                case InvokeInstruction invoke -> {
+                    if (invoke.owner().asInternalName().equals(owner) || !access.accessible(owner,
+                            invoke.owner().asInternalName(), invoke.name().stringValue(), invoke.type().stringValue())) {
+                        return -1;
+                    }
+                    MethodTypeDesc type = invoke.typeSymbol();
+                    push = TypeKind.from(type.returnType()).slotSize();
+                    pop = parameterSlots(type) + (invoke.opcode() == Opcode.INVOKESTATIC ? 0 : 1);
+                }
+                case InvokeDynamicInstruction indy -> {
+                    if (!bootstrapAccessible(owner, indy, access)) {
+                        return -1;
+                    }
+                    MethodTypeDesc type = indy.typeSymbol();
+                    push = TypeKind.from(type.returnType()).slotSize();
+                    pop = parameterSlots(type);
+                }
+                case FieldInstruction field when field.opcode() == Opcode.GETSTATIC
+                        && !field.owner().asInternalName().equals(owner) -> {
+                    if (!access.accessible(owner, field.owner().asInternalName(), field.name().stringValue(),
+                            field.type().stringValue())) {
+                        return -1;
+                    }
+                    push = TypeKind.from(field.typeSymbol()).slotSize();
+                    pop = 0;
+                }
+                case TypeCheckInstruction check when check.opcode() == Opcode.CHECKCAST -> {
+                    push = 1;
+                    pop = 1;
+                }
+                case NewPrimitiveArrayInstruction _, NewReferenceArrayInstruction _ -> {
+                    push = 1;
+                    pop = 1;
+                }
+                case ArrayStoreInstruction store -> {
+                    push = 0;
+                    pop = 2 + store.typeKind().slotSize();
+                }
+                default -> {
+                    return -1;
+                }
+            }
+            if (push > required) {
+                // 指令产生的值不会被后续代码消耗，代码段不是自包含的
+                return -1;
+            }
+            required = required - push + pop;
+            if (required == 0) {
+                return i;
+            }
+        }
+        return -1;
+    }
+
+    private static int parameterSlots(MethodTypeDesc type) {
+        int slots = 0;
+        for (ClassDesc parameter : type.parameterList()) {
+            slots += TypeKind.from(parameter).slotSize();
+        }
+        return slots;
+    }
+
+    /**
+     * 引导方法和作为参数的方法句柄都不能指向原类，并且必须能从持有类访问（例如lambda的实现方法）
+     */
+    private static boolean bootstrapAccessible(String owner, InvokeDynamicInstruction indy, MemberAccess access) {
+        var bootstrap = indy.invokedynamic().bootstrap();
+        if (bootstrap.bootstrapMethod().reference().owner().asInternalName().equals(owner)
+                || !access.accessible(owner, bootstrap.bootstrapMethod())) {
+            return false;
+        }
+        for (LoadableConstantEntry argument : bootstrap.arguments()) {
+            if (argument instanceof MethodHandleEntry handle
+                    && handle.reference().owner().asInternalName().equals(owner)) {
+                return false;
+            }
+            if (!access.accessible(owner, argument)) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * 判断移动到持有类的代码能否访问引用的成员
+     * 持有类与原类在同一个包中，但不属于原类的嵌套成员，因此不能访问任何类的私有成员，
+     * 也不能访问其他包中的protected成员。成员先在给定的类中沿父类查找，找不到时通过反射查找，
+     * 都找不到时视为不可访问
+     */
+    private static final class MemberAccess {
+        private final Map<String, ClassModel> classes;
+        private final Map<String, Optional<Member>> reflectiveMembers = new ConcurrentHashMap<>();
+
+        MemberAccess(Map<String, ClassModel> classes) {
+            this.classes = classes;
+        }
+
+        boolean accessible(String from, LoadableConstantEntry constant) {
+            return switch (constant) {
+                case MethodHandleEntry handle -> accessible(from, handle);
+                // 动态常量的引导方法可能指向任意成员，不做移动
+                case ConstantDynamicEntry _ -> false;
+                default -> true;
+            };
+        }
+
+        boolean accessible(String from, MethodHandleEntry handle) {
+            var reference = handle.reference();
+            return accessible(from, reference.owner().asInternalName(), reference.name().stringValue(),
+                reference.type().stringValue());
+        }
+
+        boolean accessible(String from, String owner, String name, String descriptor) {
+            if (owner.startsWith("[")) {
+                // 数组类型只有public的 clone 和 Object 的方法
+                return true;
+            }
+            Optional<Member> member = find(owner, name, descriptor);
+            if (member.isEmpty() || (member.get().flags() & ClassFile.ACC_PRIVATE) != 0) {
+                return false;
+            }
+            return (member.get().flags() & ClassFile.ACC_PROTECTED) == 0
+                || packageOf(member.get().declaringClass()).equals(packageOf(from));
+        }
+
+        private Optional<Member> find(String owner, String name, String descriptor) {
+            String current = owner;
+            while (current != null) {
+                ClassModel model = classes.get(current);
+                if (model == null) {
+                    return reflectiveMember(current, name, descriptor);
+                }
+                if (descriptor.startsWith("(")) {
+                    for (MethodModel method : model.methods()) {
+                        if (method.methodName().equalsString(name) && method.methodType().equalsString(descriptor)) {
+                            return Optional.of(new Member(current, method.flags().flagsMask()));
+                        }
+                    }
+                    if (name.equals("<init>")) {
+                        // 构造函数不会被继承
+                        return Optional.empty();
+                    }
+                } else {
+                    for (FieldModel field : model.fields()) {
+                        if (field.fieldName().equalsString(name) && field.fieldType().equalsString(descriptor)) {
+                            return Optional.of(new Member(current, field.flags().flagsMask()));
+                        }
+                    }
+                }
+                current = model.superclass().map(ClassEntry::asInternalName).orElse(null);
+            }
+            return Optional.empty();
+        }
+
+        private Optional<Member> reflectiveMember(String className, String name, String descriptor) {
+            return reflectiveMembers.computeIfAbsent(className + "." + name + descriptor, key -> {
+                try {
+                    Class<?> type = Class.forName(className.replace('/', '.'), false,
+                        ClassLoader.getSystemClassLoader());
+                    for (Class<?> current = type; current != null; current = current.getSuperclass()) {
+                        String declaring = current.getName().replace('.', '/');
+                        if (name.equals("<init>")) {
+                            for (Constructor<?> constructor : current.getDeclaredConstructors()) {
+                                if (MethodType.methodType(void.class, constructor.getParameterTypes())
+                                        .descriptorString().equals(descriptor)) {
+                                    return Optional.of(new Member(declaring, constructor.getModifiers()));
+                                }
+                            }
+                            return Optional.empty();
+                        } else if (descriptor.startsWith("(")) {
+                            for (Method method : current.getDeclaredMethods()) {
+                                if (method.getName().equals(name) && MethodType.methodType(method.getReturnType(),
+                                        method.getParameterTypes()).descriptorString().equals(descriptor)) {
+                                    return Optional.of(new Member(declaring, method.getModifiers()));
+                                }
+                            }
+                        } else {
+                            for (Field field : current.getDeclaredFields()) {
+                                if (field.getName().equals(name) && field.getType().descriptorString().equals(descriptor)) {
+                                    return Optional.of(new Member(declaring, field.getModifiers()));
+                                }
+                            }
+                        }
+                    }
+                } catch (ClassNotFoundException | LinkageError e) {
+                    // 找不到的类按不可访问处理
+                }
+                return Optional.empty();
+            });
+        }
+
+        private static String packageOf(String internalName) {
+            int slash = internalName.lastIndexOf('/');
+            return slash < 0 ? "" : internalName.substring(0, slash);
+        }
+    }
+
+    private static byte[] buildHolder(ClassFile classFile, ClassModel owner, ClassDesc holder, ClassDesc fieldType,
+                                      List<CodeElement> initializer) {
+        return classFile.build(holder, classBuilder -> {
+            classBuilder.withVersion(owner.majorVersion(), owner.minorVersion());
+            classBuilder.withFlags(ClassFile.ACC_FINAL | ClassFile.ACC_SUPER | ClassFile.ACC_SYNTHETIC);
+            classBuilder.withSuperclass(ClassDesc.of("java.lang.Object"));
+            classBuilder.withField(HOLDER_FIELD, fieldType, ClassFile.ACC_STATIC | ClassFile.ACC_FINAL);
+            classBuilder.withMethodBody("<clinit>", CLINIT_TYPE, ClassFile.ACC_STATIC, codeBuilder -> {
+                for (CodeElement element : initializer) {
+                    if (element instanceof Instruction) {
+                        codeBuilder.with(element);
+                    }
+                }
+                codeBuilder.putstatic(holder, HOLDER_FIELD, fieldType);
+                codeBuilder.return_();
+            });
+        });
+    }
+
+    private static byte[] rewriteOwner(ClassFile classFile, ClassModel model, List<Segment> segments,
+                                       Map<String, ClassDesc> holders) {
+        String owner = model.thisClass().asInternalName();
+        Set<String> deferredFields = holders.keySet();
+
+        // <clinit>中删除被移走的代码段（包括末尾的putstatic）
+        CodeTransform dropSegments = CodeTransform.ofStateful(() -> new CodeTransform() {
+            private int index = 0;
+
+            @Override
+            public void accept(CodeBuilder builder, CodeElement element) {
+                int current = index++;
+                for (Segment segment : segments) {
+                    if (current >= segment.start() && current <= segment.putstatic()
+                            && !(element instanceof PseudoInstruction)) {
+                        return;
+                    }
+                }
+                builder.with(element);
+            }
+        });
+
+        // 所有方法中对被推迟字段的读取改为读取持有类
+        CodeTransform redirectReads = (builder, element) -> {
+            if (element instanceof FieldInstruction field && field.opcode() == Opcode.GETSTATIC
+                    && field.owner().asInternalName().equals(owner)
+                    && deferredFields.contains(field.name().stringValue())) {
+                builder.getstatic(holders.get(field.name().stringValue()), HOLDER_FIELD, field.typeSymbol());
+            } else {
+                builder.with(element);
+            }
+        };
+
+        ClassTransform transform = ClassTransform.dropping(element -> element instanceof FieldModel field
+                && deferredFields.contains(field.fieldName().stringValue()))
+            .andThen(ClassTransform.transformingMethodBodies(
+                method -> method.methodName().equalsString("<clinit>"), dropSegments))
+            .andThen(ClassTransform.transformingMethodBodies(redirectReads));
+        return classFile.transformClass(model, transform);
+    }
+}
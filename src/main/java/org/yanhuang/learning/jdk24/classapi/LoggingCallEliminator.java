@@ -0,0 +1,567 @@
+package org.yanhuang.learning.jdk24.classapi;
+
+import java.io.IOException;
+import java.lang.classfile.*;
+import java.lang.classfile.instruction.*;
+import java.lang.constant.ClassDesc;
+import java.lang.constant.ConstantDescs;
+import java.lang.constant.MethodTypeDesc;
+import java.nio.file.Path;
+import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.regex.Pattern;
+
+/**
+ * 日志和打印调用的消除与守卫转换
+ * 查找匹配配置模式的调用（例如 {@code java.io.PrintStream.println}、{@code org.slf4j.Logger.debug}），
+ * 连同接收者和参数的计算代码一起处理：
+ * <ul>
+ *     <li>REMOVE：参数计算没有副作用（常量、局部变量和字段读取、字符串拼接、装箱等）时整段删除，
+ *     否则退化为守卫</li>
+ *     <li>GUARD：用 static final boolean 标志包裹整段调用，标志为false时JIT会把整段代码当作死代码消除</li>
+ * </ul>
+ * 守卫标志默认是在每个被修改的类中生成的私有静态常量，在&lt;clinit&gt;中由
+ * {@code Boolean.getBoolean(guardProperty)} 初始化；也可以用 {@link #setGuardFlag} 指定已有的标志字段。
+ * <p>
+ * 只处理直线代码段：调用的接收者和参数必须在同一个基本块内计算完成，且中间不写局部变量。
+ */
+public class LoggingCallEliminator {
+
+    private static final String GUARD_FIELD = "$$loggingEnabled";
+    private static final ClassDesc CD_BOOLEAN = ClassDesc.of("java.lang.Boolean");
+    private static final MethodTypeDesc MTD_GET_BOOLEAN = MethodTypeDesc.of(ConstantDescs.CD_boolean, ConstantDescs.CD_String);
+    private static final Set<String> WRAPPERS = Set.of("java/lang/Integer", "java/lang/Long", "java/lang/Short",
+        "java/lang/Byte", "java/lang/Character", "java/lang/Boolean", "java/lang/Float", "java/lang/Double");
+
+    private final ClassFileToolkit toolkit = new ClassFileToolkit();
+    private final List<CallPattern> patterns = new ArrayList<>();
+    private Mode mode = Mode.REMOVE;
+    private String guardProperty = "logging.enabled";
+    private ClassDesc guardOwner;
+    private String guardField;
+
+    /**
+     * 处理方式
+     */
+    public enum Mode {
+        /** 删除无副作用的调用段，其余加守卫 */
+        REMOVE,
+        /** 所有调用段都加守卫 */
+        GUARD
+    }
+
+    private record CallPattern(String owner, Pattern methodName) {
+    }
+
+    /** 方法中一个调用段，[start, end] 包含末尾的调用指令（以及丢弃返回值的pop） */
+    private record Site(int start, int end, String target, boolean guard) {
+    }
+
+    /**
+     * 一个被处理的调用
+     *
+     * @param className 所在类的内部名称
+     * @param method 所在方法的名称和描述符
+     * @param target 被调用方法，格式为 owner.name
+     * @param instructions 调用段包含的指令数量
+     * @param guarded 是否加守卫（否则为删除）
+     */
+    public record EliminatedCall(String className, String method, String target, int instructions, boolean guarded) {
+    }
+
+    /**
+     * 转换结果
+     *
+     * @param classes 被修改的类，内部类名到字节码的映射
+     * @param calls 被处理的调用
+     */
+    public record EliminationResult(Map<String, byte[]> classes, List<EliminatedCall> calls) {
+    }
+
+    // ================= Configuration =================
+
+    /**
+     * 添加调用模式
+     *
+     * @param pattern 格式为 "类名.方法名"，方法名可以使用 '*' 通配，例如 "java.io.PrintStream.print*"、
+     *                "org.slf4j.Logger.debug"
+     * @return 当前转换器
+     */
+    public LoggingCallEliminator addCallPattern(String pattern) {
+        int dot = pattern.lastIndexOf('.');
+        if (dot <= 0) {
+            throw new IllegalArgumentException("调用模式格式应为 类名.方法名: " + pattern);
+        }
+        String owner = pattern.substring(0, dot).replace('.', '/');
+        String methodName = Pattern.quote(pattern.substring(dot + 1)).replace("*", "\\E.*\\Q");
+        patterns.add(new CallPattern(owner, Pattern.compile(methodName)));
+        return this;
+    }
+
+    /**
+     * 设置处理方式，默认为REMOVE
+     */
+    public LoggingCallEliminator setMode(Mode mode) {
+        this.mode = mode;
+        return this;
+    }
+
+    /**
+     * 设置生成的守卫标志读取的系统属性，默认为 "logging.enabled"
+     */
+    public LoggingCallEliminator setGuardProperty(String guardProperty) {
+        this.guardProperty = guardProperty;
+        return this;
+    }
+
+    /**
+     * 使用已有的 static final boolean 字段作为守卫标志，不再在类中生成标志字段
+     *
+     * @param ownerClass 字段所在类，例如 "com.example.Debug"
+     * @param fieldName 字段名，例如 "ENABLED"
+     */
+    public LoggingCallEliminator setGuardFlag(String ownerClass, String fieldName) {
+        this.guardOwner = ClassDesc.of(ownerClass);
+        this.guardField = fieldName;
+        return this;
+    }
+
+    // ================= Transformation =================
+
+    /**
+     * 转换jar中的所有类，非类文件条目和没有匹配调用的类原样保留
+     *
+     * @param inputJar 输入jar路径
+     * @param outputJar 输出jar路径
+     * @return 被处理的调用
+     * @throws IOException 如果文件读取或写入失败
+     */
+    public List<EliminatedCall> transformJar(Path inputJar, Path outputJar) throws IOException {
+        return transformJar(inputJar, outputJar, List.of());
+    }
+
+    /**
+     * 同 {@link #transformJar(Path, Path)}，并用类路径上的依赖jar解析类层次，
+     * 被转换的类继承依赖中的类时，生成栈映射帧需要这些依赖
+     *
+     * @param inputJar 输入jar路径
+     * @param outputJar 输出jar路径
+     * @param classpath 依赖jar路径，按类路径顺序排列
+     * @return 被处理的调用
+     * @throws IOException 如果文件读取或写入失败
+     */
+    public List<EliminatedCall> transformJar(Path inputJar, Path outputJar, List<Path> classpath) throws IOException {
+        Map<String, byte[]> entries = toolkit.readJar(inputJar);
+        EliminationResult result = transform(toolkit.readClasspath(List.of(inputJar)),
+            toolkit.readClasspath(classpath).values());
+
+        Map<String, byte[]> output = new LinkedHashMap<>();
+        entries.forEach((name, bytes) -> {
+            String className = name.endsWith(".class") ? name.substring(0, name.length() - ".class".length()) : null;
+            output.put(name, className != null && result.classes().containsKey(className)
+                ? result.classes().get(className)
+                : bytes);
+        });
+        toolkit.writeJar(outputJar, output);
+        return result.calls();
+    }
+
+    /**
+     * 并行转换一组类
+     *
+     * @param classes 内部类名到类模型的映射
+     * @return 转换结果，只包含被修改的类
+     */
+    public EliminationResult transform(Map<String, ClassModel> classes) {
+        return transform(classes, List.of());
+    }
+
+    /**
+     * 同 {@link #transform(Map)}，并用依赖中的类解析类层次
+     *
+     * @param classes 内部类名到类模型的映射
+     * @param dependencies 依赖中的类模型，只用于解析类层次，不会被转换
+     * @return 转换结果，只包含被修改的类
+     */
+    public EliminationResult transform(Map<String, ClassModel> classes, Collection<ClassModel> dependencies) {
+        ClassFile classFile = ClassFile.of(ClassFile.ClassHierarchyResolverOption.of(
+            toolkit.hierarchyResolver(classes.values(), dependencies)));
+        Map<String, byte[]> output = new ConcurrentHashMap<>();
+        List<EliminatedCall> calls = Collections.synchronizedList(new ArrayList<>());
+
+        classes.values().parallelStream().forEach(model -> {
+            String owner = model.thisClass().asInternalName();
+            Map<String, List<Site>> sites = new HashMap<>();
+            for (MethodModel method : model.methods()) {
+                method.code().ifPresent(code -> {
+                    List<Site> found = findSites(code.elementList());
+                    if (!found.isEmpty()) {
+                        String methodKey = methodKey(method);
+                        sites.put(methodKey, found);
+                        found.forEach(site -> calls.add(new EliminatedCall(owner, methodKey, site.target(),
+                            countInstructions(code.elementList(), site), site.guard())));
+                    }
+                });
+            }
+            if (!sites.isEmpty()) {
+                output.put(owner, rewrite(classFile, model, sites));
+            }
+        });
+
+        List<EliminatedCall> sorted = new ArrayList<>(calls);
+        sorted.sort(Comparator.comparing(EliminatedCall::className).thenComparing(EliminatedCall::method));
+        return new EliminationResult(output, sorted);
+    }
+
+    /**
+     * 查找方法中所有可以处理的调用段
+     */
+    private List<Site> findSites(List<CodeElement> elements) {
+        Set<Label> referencedLabels = new HashSet<>();
+        boolean[] protectedRange = new boolean[elements.size()];
+        for (CodeElement element : elements) {
+            switch (element) {
+                case BranchInstruction branch -> referencedLabels.add(branch.target());
+                case TableSwitchInstruction table -> {
+                    referencedLabels.add(table.defaultTarget());
+                    table.cases().forEach(c -> referencedLabels.add(c.target()));
+                }
+                case LookupSwitchInstruction lookup -> {
+                    referencedLabels.add(lookup.defaultTarget());
+                    lookup.cases().forEach(c -> referencedLabels.add(c.target()));
+                }
+                case ExceptionCatch handler -> {
+                    referencedLabels.add(handler.tryStart());
+                    referencedLabels.add(handler.tryEnd());
+                    referencedLabels.add(handler.handler());
+                    int start = indexOfLabel(elements, handler.tryStart());
+                    int end = indexOfLabel(elements, handler.tryEnd());
+                    for (int i = Math.max(start, 0); i < end && i < protectedRange.length; i++) {
+                        protectedRange[i] = true;
+                    }
+                }
+                default -> {
+                }
+            }
+        }
+
+        List<Site> sites = new ArrayList<>();
+        for (int i = 0; i < elements.size(); i++) {
+            if (!(elements.get(i) instanceof InvokeInstruction invoke) || !matches(invoke)) {
+                continue;
+            }
+            int end = i;
+            MethodTypeDesc type = invoke.typeSymbol();
+            if (!type.returnType().equals(ConstantDescs.CD_void)) {
+                // 返回值必须被立即丢弃，例如 printf 返回的 PrintStream
+                int next = nextInstruction(elements, i);
+                if (next < 0 || !(elements.get(next) instanceof StackInstruction pop)
+                        || pop.opcode() != (TypeKind.from(type.returnType()).slotSize() == 2 ? Opcode.POP2 : Opcode.POP)) {
+                    continue;
+                }
+                end = next;
+            }
+            int required = parameterSlots(type) + (invoke.opcode() == Opcode.INVOKESTATIC ? 0 : 1);
+            int pureStart = mode == Mode.REMOVE ? segmentStart(elements, i, required, referencedLabels, true) : -1;
+            boolean removable = pureStart >= 0 && !isProtected(protectedRange, pureStart, end);
+            int start = removable ? pureStart : segmentStart(elements, i, required, referencedLabels, false);
+            if (start < 0 || (!sites.isEmpty() && start <= sites.getLast().end())) {
+                continue;
+            }
+            sites.add(new Site(start, end, invoke.owner().asInternalName().replace('/', '.') + "."
+                + invoke.name().stringValue(), !removable));
+            i = end;
+        }
+        return sites;
+    }
+
+    private boolean matches(InvokeInstruction invoke) {
+        String owner = invoke.owner().asInternalName();
+        for (CallPattern pattern : patterns) {
+            if (pattern.owner().equals(owner) && pattern.methodName().matcher(invoke.name().stringValue()).matches()) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * 从调用指令向前扫描，计算恰好产生接收者和全部参数的最短直线代码段的起点
+     *
+     * @param pureOnly 是否只允许没有副作用的指令
+     * @return 代码段起点，不存在时返回-1
+     */
+    private static int segmentStart(List<CodeElement> elements, int invokeIndex, int required,
+                                    Set<Label> referencedLabels, boolean pureOnly) {
+        if (required == 0) {
+            return invokeIndex;
+        }
+        for (int i = invokeIndex - 1; i >= 0; i--) {
+            CodeElement element = elements.get(i);
+            int push;
+            int pop;
+            switch (element) {
+                case LabelTarget target -> {
+                    if (referencedLabels.contains(target.label())) {
+                        return -1;
+                    }
+                    continue;
+                }
+                case LineNumber _, LocalVariable _, LocalVariableType _ -> {
+                    continue;
+                }
+                case ConstantInstruction constant -> {
+                    push = constant.typeKind().slotSize();
+                    pop = 0;
+                }
+                case LoadInstruction load -> {
+                    push = load.typeKind().slotSize();
+                    pop = 0;
+                }
+                case FieldInstruction field when field.opcode() == Opcode.GETSTATIC -> {
+                    push = TypeKind.from(field.typeSymbol()).slotSize();
+                    pop = 0;
+                }
+                case FieldInstruction field when field.opcode() == Opcode.GETFIELD -> {
+                    push = TypeKind.from(field.typeSymbol()).slotSize();
+                    pop = 1;
+                }
+                case NewObjectInstruction _ -> {
+                    push = 1;
+                    pop = 0;
+                }
+                case StackInstruction stack when stack.opcode() == Opcode.DUP -> {
+                    push = 2;
+                    pop = 1;
+                }
+                case OperatorInstruction operator -> {
+                    int slots = operator.typeKind().slotSize();
+                    switch (operator.opcode()) {
+                        case INEG, LNEG, FNEG, DNEG, ARRAYLENGTH -> {
+                            push = slots;
+                            pop = slots;
+                        }
+                        case LSHL, LSHR, LUSHR -> {
+                            push = 2;
+                            pop = 3;
+                        }
+                        case LCMP, DCMPL, DCMPG -> {
+                            push = 1;
+                            pop = 4;
+                        }
+                        case FCMPL, FCMPG -> {
+                            push = 1;
+                            pop = 2;
+                        }
+                        default -> {
+                            push = slots;
+                            pop = slots * 2;
+                        }
+                    }
+                }
+                case ConvertInstruction convert -> {
+                    push = convert.toType().slotSize();
+                    pop = convert.fromType().slotSize();
+                }
+                case ArrayLoadInstruction load -> {
+                    push = load.typeKind().slotSize();
+                    pop = 2;
+                }
+                case TypeCheckInstruction check when check.opcode() == Opcode.CHECKCAST -> {
+                    push = 1;
+                    pop = 1;
+                }
+                case InvokeInstruction invoke -> {
+                    MethodTypeDesc type = invoke.typeSymbol();
+                    boolean constructor = invoke.name().equalsString("<init>");
+                    if (type.returnType().equals(ConstantDescs.CD_void) && !constructor
+                            || pureOnly && !isPure(invoke)) {
+                        return -1;
+                    }
+                    push = TypeKind.from(type.returnType()).slotSize();
+                    pop = parameterSlots(type) + (invoke.opcode() == Opcode.INVOKESTATIC ? 0 : 1);
+                }
+                case InvokeDynamicInstruction indy -> {
+                    if (pureOnly && !indy.bootstrapMethod().owner().descriptorString()
+                            .equals("Ljava/lang/invoke/StringConcatFactory;")) {
+                        return -1;
+                    }
+                    MethodTypeDesc type = indy.typeSymbol();
+                    push = TypeKind.from(type.returnType()).slotSize();
+                    pop = parameterSlots(type);
+                }
+                case NewPrimitiveArrayInstruction _, NewReferenceArrayInstruction _ -> {
+                    push = 1;
+                    pop = 1;
+                }
+                case ArrayStoreInstruction store -> {
+                    push = 0;
+                    pop = 2 + store.typeKind().slotSize();
+                }
+                default -> {
+                    return -1;
+                }
+            }
+            if (push > required) {
+                // 指令产生的值不会被调用消耗，代码段不是自包含的
+                return -1;
+            }
+            required = required - push + pop;
+            if (required == 0) {
+                return i;
+            }
+        }
+        return -1;
+    }
+
+    /**
+     * 字符串拼接、装箱和字符串转换被视为没有副作用
+     */
+    private static boolean isPure(InvokeInstruction invoke) {
+        String owner = invoke.owner().asInternalName();
+        String name = invoke.name().stringValue();
+        return switch (owner) {
+            case "java/lang/StringBuilder" -> name.equals("<init>") || name.equals("append") || name.equals("toString");
+            case "java/lang/String" -> name.equals("valueOf") || name.equals("concat");
+            default -> WRAPPERS.contains(owner) && name.equals("valueOf");
+        };
+    }
+
+    private static boolean isProtected(boolean[] protectedRange, int start, int end) {
+        for (int i = start; i <= end; i++) {
+            if (protectedRange[i]) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    private static int nextInstruction(List<CodeElement> elements, int index) {
+        for (int i = index + 1; i < elements.size(); i++) {
+            if (elements.get(i) instanceof Instruction) {
+                return i;
+            }
+        }
+        return -1;
+    }
+
+    private static int indexOfLabel(List<CodeElement> elements, Label label) {
+        for (int i = 0; i < elements.size(); i++) {
+            if (elements.get(i) instanceof LabelTarget target && target.label().equals(label)) {
+                return i;
+            }
+        }
+        return elements.size();
+    }
+
+    private static int parameterSlots(MethodTypeDesc type) {
+        int slots = 0;
+        for (ClassDesc parameter : type.parameterList()) {
+            slots += TypeKind.from(parameter).slotSize();
+        }
+        return slots;
+    }
+
+    private static String methodKey(MethodModel method) {
+        return method.methodName().stringValue() + method.methodType().stringValue();
+    }
+
+    private static int countInstructions(List<CodeElement> elements, Site site) {
+        int count = 0;
+        for (int i = site.start(); i <= site.end(); i++) {
+            if (elements.get(i) instanceof Instruction) {
+                count++;
+            }
+        }
+        return count;
+    }
+
+    // ================= Rewriting =================
+
+    private byte[] rewrite(ClassFile classFile, ClassModel model, Map<String, List<Site>> sites) {
+        boolean needsFlag = sites.values().stream().flatMap(List::stream).anyMatch(Site::guard);
+        boolean generateFlag = needsFlag && guardOwner == null;
+        ClassDesc flagOwner = guardOwner != null ? guardOwner : model.thisClass().asSymbol();
+        String flagField = guardOwner != null ? guardField : GUARD_FIELD;
+        boolean hasClinit = model.methods().stream().anyMatch(method -> method.methodName().equalsString("<clinit>"));
+        boolean isInterface = (model.flags().flagsMask() & ClassFile.ACC_INTERFACE) != 0;
+
+        ClassTransform transform = new ClassTransform() {
+            @Override
+            public void accept(ClassBuilder builder, ClassElement element) {
+                if (element instanceof MethodModel method) {
+                    List<Site> methodSites = sites.getOrDefault(methodKey(method), List.of());
+                    boolean initFlag = generateFlag && method.methodName().equalsString("<clinit>");
+                    if (!methodSites.isEmpty() || initFlag) {
+                        builder.transformMethod(method, MethodTransform.transformingCode(
+                            siteTransform(methodSites, flagOwner, flagField, initFlag)));
+                        return;
+                    }
+                }
+                builder.with(element);
+            }
+
+            @Override
+            public void atEnd(ClassBuilder builder) {
+                if (!generateFlag) {
+                    return;
+                }
+                int access = (isInterface ? ClassFile.ACC_PUBLIC : ClassFile.ACC_PRIVATE)
+                    | ClassFile.ACC_STATIC | ClassFile.ACC_FINAL | ClassFile.ACC_SYNTHETIC;
+                builder.withField(GUARD_FIELD, ConstantDescs.CD_boolean, access);
+                if (!hasClinit) {
+                    builder.withMethodBody("<clinit>", MethodTypeDesc.of(ConstantDescs.CD_void), ClassFile.ACC_STATIC,
+                        code -> {
+                            initializeFlag(code, flagOwner);
+                            code.return_();
+                        });
+                }
+            }
+        };
+        return classFile.transformClass(model, transform);
+    }
+
+    private CodeTransform siteTransform(List<Site> sites, ClassDesc flagOwner, String flagField, boolean initFlag) {
+        return CodeTransform.ofStateful(() -> new CodeTransform() {
+            private int index = 0;
+            private Label skip;
+
+            @Override
+            public void atStart(CodeBuilder builder) {
+                if (initFlag) {
+                    initializeFlag(builder, flagOwner);
+                }
+            }
+
+            @Override
+            public void accept(CodeBuilder builder, CodeElement element) {
+                int current = index++;
+                for (Site site : sites) {
+                    if (current < site.start() || current > site.end()) {
+                        continue;
+                    }
+                    if (site.guard()) {
+                        if (current == site.start()) {
+                            skip = builder.newLabel();
+                            builder.getstatic(flagOwner, flagField, ConstantDescs.CD_boolean).ifeq(skip);
+                        }
+                        builder.with(element);
+                        if (current == site.end()) {
+                            builder.labelBinding(skip);
+                        }
+                    } else if (element instanceof PseudoInstruction) {
+                        builder.with(element);
+                    }
+                    return;
+                }
+                builder.with(element);
+            }
+        });
+    }
+
+    private void initializeFlag(CodeBuilder builder, ClassDesc owner) {
+        builder.ldc(guardProperty)
+            .invokestatic(CD_BOOLEAN, "getBoolean", MTD_GET_BOOLEAN)
+            .putstatic(owner, GUARD_FIELD, ConstantDescs.CD_boolean);
+    }
+}
@@ -0,0 +1,352 @@
+package org.yanhuang.learning.jdk24.classapi;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.lang.classfile.*;
+import java.lang.classfile.attribute.ModuleAttribute;
+import java.lang.classfile.attribute.ModuleRequireInfo;
+import java.lang.classfile.constantpool.*;
+import java.lang.module.ModuleDescriptor;
+import java.lang.module.ModuleFinder;
+import java.lang.module.ModuleReference;
+import java.nio.file.Path;
+import java.util.*;
+import java.util.jar.Manifest;
+
+/**
+ * 模块级依赖汇总（类似 jdeps --summary）
+ * 把类之间的依赖汇总到包和模块：每个jar作为一个模块，有 module-info 时使用声明的模块名，
+ * 否则使用 Automatic-Module-Name 或由jar文件名推导的自动模块名；JDK中的类按包通过
+ * {@link ModuleFinder#ofSystem()} 的模块描述符定位到所在模块，不需要解析运行时镜像中的类文件。
+ * 对显式模块报告未使用的 requires 和缺失的 requires，对所有模块报告使用的JDK内部包，
+ * 最后给出 jlink --add-modules 所需的最小根模块集合。
+ * <p>
+ * 依赖只来自常量池中的类引用和描述符，与类加载时实际需要的类一致。
+ * 通过 ServiceLoader 加载的服务提供者模块（例如 jdk.crypto.ec、jdk.localedata）和反射访问的类
+ * 无法静态发现，需要手动加入 jlink 的模块列表。
+ */
+public class ModuleDependencyAnalyzer {
+
+    private static final String JAVA_BASE = "java.base";
+
+    private final ClassFileToolkit toolkit = new ClassFileToolkit();
+
+    /**
+     * 一个模块的依赖汇总
+     *
+     * @param name 模块名
+     * @param jar 所在jar
+     * @param explicit 是否为带 module-info 的显式模块
+     * @param packages 模块包含的包
+     * @param packageDependencies 本模块的包到其他模块中被依赖的包的映射
+     * @param requiredModules 实际依赖的模块（不包括自身）
+     * @param declaredRequires module-info 中声明的 requires
+     * @param unusedRequires 声明了但没有使用的 requires（不包括 java.base）
+     * @param missingRequires 使用了但既没有声明也不能通过 requires transitive 读取的模块
+     * @param internalApiUses 使用的JDK未导出包，形如 "java.base/jdk.internal.misc"
+     * @param unresolvedClasses 在类路径中找不到、所在包也不属于任何JDK模块的类
+     */
+    public record ModuleSummary(String name, Path jar, boolean explicit, Set<String> packages,
+                                Map<String, Set<String>> packageDependencies, Set<String> requiredModules,
+                                Set<String> declaredRequires, Set<String> unusedRequires, Set<String> missingRequires,
+                                Set<String> internalApiUses, Set<String> unresolvedClasses) {
+    }
+
+    /**
+     * 汇总结果
+     *
+     * @param modules 应用模块，按类路径顺序排列
+     * @param jdkModules 运行应用需要的所有JDK模块（包括依赖传递进来的模块）
+     * @param jlinkRoots jlink 所需的最小根模块集合，其余模块由 jlink 通过 requires 自动解析
+     */
+    public record DependencyReport(List<ModuleSummary> modules, Set<String> jdkModules, Set<String> jlinkRoots) {
+        public String addModulesOption() {
+            return "--add-modules " + String.join(",", jlinkRoots);
+        }
+    }
+
+    /** 一个jar读取的结果 */
+    private record Unit(Path jar, String name, ModuleAttribute descriptor, List<ClassModel> classes) {
+    }
+
+    /** 一个类引用的所有类 */
+    private record ClassReferences(String className, Set<String> references) {
+    }
+
+    /**
+     * 分析类路径上的应用
+     *
+     * @param jarPaths 按类路径顺序排列的jar文件路径
+     * @return 汇总结果
+     * @throws IOException 如果文件读取失败
+     */
+    public DependencyReport analyze(List<Path> jarPaths) throws IOException {
+        Map<String, ModuleDescriptor> jdkDescriptors = new HashMap<>();
+        Map<String, String> jdkPackages = new HashMap<>();
+        Map<String, Set<String>> jdkExports = new HashMap<>();
+        for (ModuleReference reference : ModuleFinder.ofSystem().findAll()) {
+            ModuleDescriptor descriptor = reference.descriptor();
+            jdkDescriptors.put(descriptor.name(), descriptor);
+            descriptor.packages().forEach(packageName -> jdkPackages.put(packageName, descriptor.name()));
+            Set<String> exported = new HashSet<>();
+            for (ModuleDescriptor.Exports export : descriptor.exports()) {
+                if (!export.isQualified()) {
+                    exported.add(export.source());
+                }
+            }
+            jdkExports.put(descriptor.name(), exported);
+        }
+
+        List<Unit> units = new ArrayList<>();
+        for (Path jarPath : jarPaths) {
+            units.add(readUnit(jarPath));
+        }
+        // 与类加载器一致，同名类以类路径中靠前的jar为准
+        Map<String, Unit> owners = new HashMap<>();
+        for (Unit unit : units) {
+            unit.classes().forEach(model -> owners.putIfAbsent(model.thisClass().asInternalName(), unit));
+        }
+        Map<String, ModuleAttribute> appDescriptors = new HashMap<>();
+        units.stream().filter(unit -> unit.descriptor() != null)
+            .forEach(unit -> appDescriptors.put(unit.name(), unit.descriptor()));
+
+        List<ModuleSummary> modules = new ArrayList<>();
+        Set<String> usedJdkModules = new TreeSet<>();
+        for (Unit unit : units) {
+            List<ClassReferences> classReferences = unit.classes().parallelStream()
+                .map(model -> new ClassReferences(model.thisClass().asInternalName(), referencedClasses(model)))
+                .toList();
+
+            Set<String> packages = new TreeSet<>();
+            Map<String, Set<String>> packageDependencies = new TreeMap<>();
+            Set<String> requiredModules = new TreeSet<>();
+            Set<String> internalApiUses = new TreeSet<>();
+            Set<String> unresolved = new TreeSet<>();
+            for (ClassReferences references : classReferences) {
+                String fromPackage = packageName(references.className());
+                packages.add(fromPackage);
+                for (String reference : references.references()) {
+                    Unit owner = owners.get(reference);
+                    String module;
+                    if (owner != null) {
+                        module = owner.name();
+                    } else {
+                        String referencedPackage = packageName(reference);
+                        module = jdkPackages.get(referencedPackage);
+                        if (module == null) {
+                            unresolved.add(reference.replace('/', '.'));
+                            continue;
+                        }
+                        usedJdkModules.add(module);
+                        if (!jdkExports.getOrDefault(module, Set.of()).contains(referencedPackage)) {
+                            internalApiUses.add(module + "/" + referencedPackage);
+                        }
+                    }
+                    if (owner != unit) {
+                        requiredModules.add(module);
+                        packageDependencies.computeIfAbsent(fromPackage, name -> new TreeSet<>())
+                            .add(packageName(reference));
+                    }
+                }
+            }
+
+            Set<String> declared = new TreeSet<>();
+            Set<String> unused = new TreeSet<>();
+            Set<String> missing = new TreeSet<>();
+            if (unit.descriptor() != null) {
+                for (ModuleRequireInfo require : unit.descriptor().requires()) {
+                    declared.add(require.requires().name().stringValue());
+                }
+                declared.stream()
+                    .filter(module -> !module.equals(JAVA_BASE) && !requiredModules.contains(module))
+                    .forEach(unused::add);
+                Set<String> readable = readableModules(declared, jdkDescriptors, appDescriptors);
+                requiredModules.stream().filter(module -> !readable.contains(module)).forEach(missing::add);
+                // 声明的JDK模块即使没有使用，启动时也必须能解析
+                for (ModuleRequireInfo require : unit.descriptor().requires()) {
+                    String module = require.requires().name().stringValue();
+                    if ((require.requiresFlagsMask() & ClassFile.ACC_STATIC_PHASE) == 0
+                        && jdkDescriptors.containsKey(module)) {
+                        usedJdkModules.add(module);
+                    }
+                }
+            }
+            modules.add(new ModuleSummary(unit.name(), unit.jar(), unit.descriptor() != null, packages,
+                packageDependencies, requiredModules, declared, unused, missing, internalApiUses, unresolved));
+        }
+
+        usedJdkModules.add(JAVA_BASE);
+        Set<String> jdkModules = new TreeSet<>();
+        Set<String> jlinkRoots = new TreeSet<>(usedJdkModules);
+        for (String module : usedJdkModules) {
+            Set<String> reachable = requiredClosure(module, jdkDescriptors);
+            jdkModules.addAll(reachable);
+            reachable.stream().filter(other -> !other.equals(module)).forEach(jlinkRoots::remove);
+        }
+        return new DependencyReport(modules, jdkModules, jlinkRoots);
+    }
+
+    /**
+     * 打印汇总结果
+     *
+     * @param report 汇总结果
+     */
+    public void printReport(DependencyReport report) {
+        for (ModuleSummary module : report.modules()) {
+            System.out.println(module.name() + (module.explicit() ? "" : "（自动模块）") + " <- " + module.jar());
+            module.requiredModules().forEach(required -> System.out.println("   -> " + required));
+            module.unusedRequires().forEach(required -> System.out.println("   未使用的 requires: " + required));
+            module.missingRequires().forEach(required -> System.out.println("   缺少 requires: " + required));
+            module.internalApiUses().forEach(internal -> System.out.println("   使用JDK内部包: " + internal));
+            if (!module.unresolvedClasses().isEmpty()) {
+                System.out.println("   找不到的类: " + module.unresolvedClasses().size());
+            }
+            module.packageDependencies().forEach((fromPackage, toPackages) ->
+                toPackages.forEach(toPackage -> System.out.println("      " + fromPackage + " -> " + toPackage)));
+        }
+        System.out.println("JDK模块: " + report.jdkModules());
+        System.out.println("jlink " + report.addModulesOption());
+    }
+
+    // ================= Reading =================
+
+    private Unit readUnit(Path jarPath) throws IOException {
+        Map<String, byte[]> entries = toolkit.readJar(jarPath);
+        List<ClassModel> classes = entries.entrySet().parallelStream()
+            .filter(entry -> toolkit.isClassEntry(entry.getKey()) && !entry.getKey().startsWith("META-INF/"))
+            .map(entry -> toolkit.readClass(entry.getValue()))
+            .toList();
+        byte[] moduleInfo = entries.get("module-info.class");
+        if (moduleInfo != null) {
+            Optional<ModuleAttribute> descriptor = toolkit.readClass(moduleInfo).findAttribute(Attributes.module());
+            if (descriptor.isPresent()) {
+                return new Unit(jarPath, descriptor.get().moduleName().name().stringValue(), descriptor.get(), classes);
+            }
+        }
+        byte[] manifest = entries.get("META-INF/MANIFEST.MF");
+        String name = manifest == null ? null
+            : new Manifest(new ByteArrayInputStream(manifest)).getMainAttributes().getValue("Automatic-Module-Name");
+        return new Unit(jarPath, name != null ? name : automaticModuleName(jarPath), null, classes);
+    }
+
+    /**
+     * 按 ModuleFinder 的规则由jar文件名推导自动模块名：去掉版本号，非字母数字字符替换为点
+     */
+    private static String automaticModuleName(Path jarPath) {
+        String name = jarPath.getFileName().toString();
+        if (name.endsWith(".jar")) {
+            name = name.substring(0, name.length() - ".jar".length());
+        }
+        name = name.replaceFirst("-(\\d+(\\.|$)).*", "");
+        return name.replaceAll("[^A-Za-z0-9]", ".")
+            .replaceAll("\\.{2,}", ".")
+            .replaceAll("^\\.|\\.$", "");
+    }
+
+    // ================= Dependencies =================
+
+    /**
+     * 收集类引用的所有类：常量池中的类、名称和类型以及方法类型中的描述符，和字段、方法的描述符
+     */
+    private static Set<String> referencedClasses(ClassModel model) {
+        Set<String> references = new HashSet<>();
+        for (PoolEntry entry : model.constantPool()) {
+            switch (entry) {
+                case ClassEntry classEntry -> addClassName(classEntry.asInternalName(), references);
+                case NameAndTypeEntry nameAndType -> addDescriptor(nameAndType.type().stringValue(), references);
+                case MethodTypeEntry methodType -> addDescriptor(methodType.descriptor().stringValue(), references);
+                default -> {
+                }
+            }
+        }
+        model.fields().forEach(field -> addDescriptor(field.fieldType().stringValue(), references));
+        model.methods().forEach(method -> addDescriptor(method.methodType().stringValue(), references));
+        references.remove(model.thisClass().asInternalName());
+        return references;
+    }
+
+    private static void addClassName(String internalName, Set<String> references) {
+        if (internalName.startsWith("[")) {
+            addDescriptor(internalName, references);
+        } else {
+            references.add(internalName);
+        }
+    }
+
+    private static void addDescriptor(String descriptor, Set<String> references) {
+        for (int i = 0; i < descriptor.length(); i++) {
+            if (descriptor.charAt(i) == 'L') {
+                int end = descriptor.indexOf(';', i);
+                if (end < 0) {
+                    return;
+                }
+                references.add(descriptor.substring(i + 1, end));
+                i = end;
+            }
+        }
+    }
+
+    /**
+     * 声明的模块以及通过它们的 requires transitive 可以读取的模块
+     */
+    private static Set<String> readableModules(Set<String> declared, Map<String, ModuleDescriptor> jdkDescriptors,
+                                               Map<String, ModuleAttribute> appDescriptors) {
+        Set<String> readable = new HashSet<>(declared);
+        readable.add(JAVA_BASE);
+        Deque<String> pending = new ArrayDeque<>(declared);
+        while (!pending.isEmpty()) {
+            String current = pending.poll();
+            List<String> transitive = new ArrayList<>();
+            if (jdkDescriptors.containsKey(current)) {
+                for (ModuleDescriptor.Requires require : jdkDescriptors.get(current).requires()) {
+                    if (require.modifiers().contains(ModuleDescriptor.Requires.Modifier.TRANSITIVE)) {
+                        transitive.add(require.name());
+                    }
+                }
+            } else if (appDescriptors.containsKey(current)) {
+                for (ModuleRequireInfo require : appDescriptors.get(current).requires()) {
+                    if ((require.requiresFlagsMask() & ClassFile.ACC_TRANSITIVE) != 0) {
+                        transitive.add(require.requires().name().stringValue());
+                    }
+                }
+            }
+            for (String module : transitive) {
+                if (readable.add(module)) {
+                    pending.add(module);
+                }
+            }
+        }
+        return readable;
+    }
+
+    /**
+     * 模块以及它通过非static的 requires 依赖的所有JDK模块
+     */
+    private static Set<String> requiredClosure(String root, Map<String, ModuleDescriptor> jdkDescriptors) {
+        Set<String> closure = new HashSet<>();
+        closure.add(root);
+        Deque<String> pending = new ArrayDeque<>(closure);
+        while (!pending.isEmpty()) {
+            ModuleDescriptor descriptor = jdkDescriptors.get(pending.poll());
+            if (descriptor == null) {
+                continue;
+            }
+            for (ModuleDescriptor.Requires require : descriptor.requires()) {
+                if (!require.modifiers().contains(ModuleDescriptor.Requires.Modifier.STATIC)
+                    && closure.add(require.name())) {
+                    pending.add(require.name());
+                }
+            }
+        }
+        return closure;
+    }
+
+    private static String internalPackage(String className) {
+        int slash = className.lastIndexOf('/');
+        return slash < 0 ? "" : className.substring(0, slash);
+    }
+
+    private static String packageName(String className) {
+        return internalPackage(className).replace('/', '.');
+    }
+}
@@ -0,0 +1,589 @@
+package org.yanhuang.learning.jdk24.classapi;
+
+import java.io.IOException;
+import java.lang.classfile.*;
+import java.lang.classfile.constantpool.ClassEntry;
+import java.lang.classfile.constantpool.MethodHandleEntry;
+import java.lang.classfile.attribute.NestMembersAttribute;
+import java.lang.classfile.instruction.*;
+import java.lang.invoke.MethodHandleInfo;
+import java.lang.reflect.Field;
+import java.lang.reflect.Modifier;
+import java.nio.file.Path;
+import java.util.*;
+
+/**
+ * 对象内存占用估算与字段布局分析
+ * <p>
+ * 按 HotSpot（JDK 15 之后的 FieldLayoutBuilder）的规则模拟实例字段布局：
+ * <ul>
+ *     <li>对象头之后，从父类到子类逐个类布局，子类字段可以填入父类布局留下的空洞</li>
+ *     <li>每个类内部先放基本类型字段（按大小从大到小），再放引用字段，每个字段对齐到自身大小，放在第一个放得下的位置</li>
+ *     <li>开启压缩类指针时对象头为12字节，klass 指针之后的4字节可以放入 int/float 及更小的字段</li>
+ *     <li>JDK 24 的紧凑对象头（-XX:+UseCompactObjectHeaders）把对象头压缩为8字节</li>
+ *     <li>实例大小按对象对齐（默认8字节）向上取整</li>
+ * </ul>
+ * 父类不在分析范围内时通过系统类加载器反射读取其字段（不初始化）。
+ * <p>
+ * 同时给出缩小字段的建议：包装类型字段改为基本类型，以及根据所有写入点的取值范围把 private 的 long/int
+ * 字段缩小为 int/short/byte。取值范围只根据写入前紧邻的指令判断（常量、类型转换、较窄字段或数组的读取、
+ * 方法返回类型），无法判断时按字段类型的完整范围处理。写入点在字段所在类及其嵌套成员（NestHost/NestMembers）
+ * 中查找，JDK 11 起嵌套类直接写外部类的私有字段；嵌套成员不全在分析范围内，或者字段可能通过反射、
+ * VarHandle、方法句柄或字段更新器写入（方法句柄常量，或者调用 getDeclaredField、findVarHandle 等方法的代码中
+ * 出现了与字段同名的字符串常量）时，不给出缩小或删除的建议。
+ * 布局是估算值，@Contended 字段和值类型不在模型范围内。
+ */
+public class ObjectFootprintEstimator {
+
+    /** 包装类型描述符到对应基本类型描述符 */
+    private static final Map<String, String> BOXED = Map.of(
+        "Ljava/lang/Integer;", "I",
+        "Ljava/lang/Long;", "J",
+        "Ljava/lang/Short;", "S",
+        "Ljava/lang/Byte;", "B",
+        "Ljava/lang/Character;", "C",
+        "Ljava/lang/Boolean;", "Z",
+        "Ljava/lang/Float;", "F",
+        "Ljava/lang/Double;", "D");
+
+    /** 按名称查找字段的反射方法，调用这些方法的代码中的字符串常量视为可能被反射访问的字段名 */
+    private static final Set<String> REFLECTIVE_METHODS = Set.of("getDeclaredField", "getField", "findVarHandle",
+        "findStaticVarHandle", "findGetter", "findSetter", "newUpdater", "objectFieldOffset");
+
+    private final ClassFileToolkit toolkit = new ClassFileToolkit();
+    private JvmLayout layout = JvmLayout.DEFAULT;
+
+    /**
+     * JVM 的对象布局参数
+     *
+     * @param compressedOops 是否开启压缩普通对象指针（-XX:+UseCompressedOops，堆小于32G时默认开启）
+     * @param compressedClassPointers 是否开启压缩类指针（-XX:+UseCompressedClassPointers，默认开启）
+     * @param compactHeaders 是否开启紧凑对象头（JDK 24 的 -XX:+UseCompactObjectHeaders）
+     * @param objectAlignment 对象对齐字节数（-XX:ObjectAlignmentInBytes，默认8）
+     */
+    public record JvmLayout(boolean compressedOops, boolean compressedClassPointers, boolean compactHeaders,
+                            int objectAlignment) {
+        /** 64位 JVM 的默认配置：压缩指针和压缩类指针 */
+        public static final JvmLayout DEFAULT = new JvmLayout(true, true, false, 8);
+        /** 关闭所有压缩，例如堆大于32G时 */
+        public static final JvmLayout UNCOMPRESSED = new JvmLayout(false, false, false, 8);
+        /** JDK 24 紧凑对象头 */
+        public static final JvmLayout COMPACT_HEADERS = new JvmLayout(true, true, true, 8);
+
+        public int headerSize() {
+            return compactHeaders ? 8 : compressedClassPointers ? 12 : 16;
+        }
+
+        public int referenceSize() {
+            return compressedOops ? 4 : 8;
+        }
+
+        /**
+         * @param descriptor 字段描述符
+         * @return 字段占用的字节数
+         */
+        public int fieldSize(String descriptor) {
+            return switch (descriptor.charAt(0)) {
+                case 'J', 'D' -> 8;
+                case 'I', 'F' -> 4;
+                case 'S', 'C' -> 2;
+                case 'B', 'Z' -> 1;
+                default -> referenceSize();
+            };
+        }
+    }
+
+    /**
+     * 实例中的一个字段
+     *
+     * @param owner 声明字段的类的内部名称
+     * @param name 字段名
+     * @param descriptor 字段描述符
+     * @param offset 在对象中的偏移量
+     * @param size 占用的字节数
+     */
+    public record FieldSlot(String owner, String name, String descriptor, int offset, int size) {
+    }
+
+    /**
+     * 缩小字段的建议
+     *
+     * @param field 字段名
+     * @param from 当前的字段描述符
+     * @param to 建议的字段描述符，建议删除字段时为null
+     * @param fieldBytesSaved 每个实例中该字段节省的字节数，包装类型包括被引用的包装对象本身
+     * @param instanceBytesSaved 重新布局后实例大小的变化，因为对齐可能为0
+     * @param reason 建议的依据
+     */
+    public record Suggestion(String field, String from, String to, int fieldBytesSaved, int instanceBytesSaved,
+                             String reason) {
+    }
+
+    /**
+     * 一个类的实例内存占用
+     *
+     * @param className 内部类名
+     * @param headerSize 对象头字节数
+     * @param instanceSize 实例大小（已对齐）
+     * @param fieldBytes 所有实例字段（包括父类字段）占用的字节数
+     * @param gapBytes 字段之间空洞的字节数
+     * @param tailPadding 末尾对齐填充的字节数
+     * @param exact 所有父类的字段是否都能读取，为false时结果偏小
+     * @param layout 按偏移量排序的字段布局
+     * @param suggestions 缩小字段的建议，按实例节省字节数从多到少排序
+     */
+    public record ClassFootprint(String className, int headerSize, int instanceSize, int fieldBytes, int gapBytes,
+                                 int tailPadding, boolean exact, List<FieldSlot> layout,
+                                 List<Suggestion> suggestions) {
+        /**
+         * @return 空洞和末尾填充的总字节数
+         */
+        public int paddingBytes() {
+            return gapBytes + tailPadding;
+        }
+
+        /**
+         * @return 采纳所有建议后每个实例能节省的字节数（逐条估算的和，仅作参考）
+         */
+        public int potentialSavings() {
+            return suggestions.stream().mapToInt(Suggestion::instanceBytesSaved).sum();
+        }
+    }
+
+    /**
+     * 内存占用报告
+     *
+     * @param layout 使用的布局参数
+     * @param classes 每个类的结果，按填充字节数从多到少排序
+     */
+    public record FootprintReport(JvmLayout layout, List<ClassFootprint> classes) {
+        public Optional<ClassFootprint> find(String className) {
+            return classes.stream().filter(footprint -> footprint.className().equals(className)).findFirst();
+        }
+
+        /**
+         * 按各类的存活实例数估算整个堆上的浪费和可节省的字节数
+         *
+         * @param liveInstances 内部类名到存活实例数的映射，例如来自堆直方图
+         * @return 长度为2的数组：[0] 填充浪费的字节数，[1] 采纳建议后可节省的字节数
+         */
+        public long[] projectHeap(Map<String, Long> liveInstances) {
+            long[] total = new long[2];
+            for (ClassFootprint footprint : classes) {
+                long count = liveInstances.getOrDefault(footprint.className(), 0L);
+                total[0] += count * footprint.paddingBytes();
+                total[1] += count * footprint.potentialSavings();
+            }
+            return total;
+        }
+    }
+
+    /** 参与布局的字段声明 */
+    private record FieldDecl(String owner, String name, String descriptor) {
+    }
+
+    /** 一个类及其所有父类的实例字段，从根类到该类排列 */
+    private record Hierarchy(List<List<FieldDecl>> levels, boolean exact) {
+    }
+
+    /**
+     * 设置布局参数，默认为 {@link JvmLayout#DEFAULT}
+     */
+    public ObjectFootprintEstimator setLayout(JvmLayout layout) {
+        this.layout = Objects.requireNonNull(layout);
+        return this;
+    }
+
+    // ================= Estimation =================
+
+    /**
+     * 估算一组jar中所有类的实例大小
+     *
+     * @param jarPaths jar路径列表
+     * @return 内存占用报告
+     * @throws IOException 如果文件读取失败
+     */
+    public FootprintReport estimate(List<Path> jarPaths) throws IOException {
+        return estimate(toolkit.readClasspath(jarPaths));
+    }
+
+    /**
+     * 并行估算一组类的实例大小，接口和模块描述跳过
+     *
+     * @param classes 内部类名到类模型的映射，也用于查找父类
+     * @return 内存占用报告
+     */
+    public FootprintReport estimate(Map<String, ClassModel> classes) {
+        Set<String> reflected = reflectedFields(classes.values());
+        List<ClassFootprint> footprints = classes.values().parallelStream()
+            .filter(model -> (model.flags().flagsMask() & (ClassFile.ACC_INTERFACE | ClassFile.ACC_MODULE)) == 0)
+            .map(model -> estimate(model, classes, reflected))
+            .sorted(Comparator.comparingInt(ClassFootprint::paddingBytes).reversed()
+                .thenComparing(ClassFootprint::className))
+            .toList();
+        return new FootprintReport(layout, footprints);
+    }
+
+    /**
+     * 估算单个类的实例大小
+     *
+     * @param model 类模型
+     * @param classes 用于查找父类和嵌套成员的类模型，内部类名到类模型的映射
+     * @return 该类的实例内存占用
+     */
+    public ClassFootprint estimate(ClassModel model, Map<String, ClassModel> classes) {
+        return estimate(model, classes, nest(model, classes).map(ObjectFootprintEstimator::reflectedFields)
+            .orElse(Set.of()));
+    }
+
+    private ClassFootprint estimate(ClassModel model, Map<String, ClassModel> classes, Set<String> reflected) {
+        String className = model.thisClass().asInternalName();
+        // 私有字段的写入点只可能在嵌套成员中
+        Optional<List<ClassModel>> nest = nest(model, classes);
+        Hierarchy hierarchy = hierarchy(model, classes);
+        List<FieldSlot> slots = layoutFields(hierarchy.levels());
+        int end = slots.stream().mapToInt(slot -> slot.offset() + slot.size()).max().orElse(layout.headerSize());
+        int instanceSize = align(end, layout.objectAlignment());
+        int fieldBytes = slots.stream().mapToInt(FieldSlot::size).sum();
+        int gapBytes = end - layout.headerSize() - fieldBytes;
+
+        List<Suggestion> suggestions = new ArrayList<>();
+        for (FieldModel field : model.fields()) {
+            if ((field.flags().flagsMask() & ClassFile.ACC_STATIC) != 0) {
+                continue;
+            }
+            String name = field.fieldName().stringValue();
+            String descriptor = field.fieldType().stringValue();
+            String narrower = null;
+            boolean unused = false;
+            String reason = null;
+            int fieldBytesSaved = 0;
+            if (BOXED.containsKey(descriptor)) {
+                narrower = BOXED.get(descriptor);
+                // 包装对象本身：对象头加一个值字段，按对象对齐
+                int boxSize = align(layout.headerSize() + layout.fieldSize(narrower), layout.objectAlignment());
+                fieldBytesSaved = layout.referenceSize() + boxSize - layout.fieldSize(narrower);
+                reason = "包装类型字段每个值都要额外的包装对象（缓存范围内的值除外），可用 BoxingAnalyzer.unboxFields 检查并转换";
+            } else if ((field.flags().flagsMask() & ClassFile.ACC_PRIVATE) != 0
+                    && (descriptor.equals("J") || descriptor.equals("I")) && nest.isPresent()
+                    && !reflected.contains(className + "." + name) && !reflected.contains("*." + name)) {
+                long[] range = writtenRange(nest.get(), className, name);
+                if (range == null) {
+                    unused = true;
+                    fieldBytesSaved = layout.fieldSize(descriptor);
+                    reason = "字段从未被写入，值始终为0，可以删除";
+                } else {
+                    narrower = narrowestFor(range, descriptor);
+                    if (narrower != null) {
+                        fieldBytesSaved = layout.fieldSize(descriptor) - layout.fieldSize(narrower);
+                        reason = "所有写入的值都在 [" + range[0] + ", " + range[1] + "] 范围内";
+                    }
+                }
+            }
+            if (reason == null) {
+                continue;
+            }
+            int resized = sizeWith(hierarchy.levels(), className, name, unused ? null : narrower);
+            suggestions.add(new Suggestion(name, descriptor, narrower, fieldBytesSaved, instanceSize - resized, reason));
+        }
+        suggestions.sort(Comparator.comparingInt(Suggestion::instanceBytesSaved)
+            .thenComparingInt(Suggestion::fieldBytesSaved).reversed());
+
+        return new ClassFootprint(className, layout.headerSize(), instanceSize, fieldBytes, gapBytes,
+            instanceSize - end, hierarchy.exact(), slots, suggestions);
+    }
+
+    /**
+     * 把字段换成另一个类型（为null时删除该字段）后重新布局，返回实例大小
+     */
+    private int sizeWith(List<List<FieldDecl>> levels, String owner, String name, String descriptor) {
+        List<List<FieldDecl>> changed = new ArrayList<>(levels.size());
+        for (List<FieldDecl> level : levels) {
+            List<FieldDecl> fields = new ArrayList<>(level.size());
+            for (FieldDecl field : level) {
+                if (!field.owner().equals(owner) || !field.name().equals(name)) {
+                    fields.add(field);
+                } else if (descriptor != null) {
+                    fields.add(new FieldDecl(owner, name, descriptor));
+                }
+            }
+            changed.add(fields);
+        }
+        int end = layoutFields(changed).stream().mapToInt(slot -> slot.offset() + slot.size())
+            .max().orElse(layout.headerSize());
+        return align(end, layout.objectAlignment());
+    }
+
+    // ================= Field layout =================
+
+    /**
+     * 模拟 HotSpot 的字段布局：逐个类按首次适配放置字段，空洞可以被子类字段使用
+     *
+     * @param levels 从根类到目标类的实例字段
+     * @return 按偏移量排序的字段布局
+     */
+    private List<FieldSlot> layoutFields(List<List<FieldDecl>> levels) {
+        // 空洞列表，按偏移量排序，每项为 {offset, size}
+        List<int[]> holes = new ArrayList<>();
+        int end = layout.headerSize();
+        List<FieldSlot> slots = new ArrayList<>();
+        for (List<FieldDecl> level : levels) {
+            List<FieldDecl> primitives = new ArrayList<>();
+            List<FieldDecl> references = new ArrayList<>();
+            for (FieldDecl field : level) {
+                (isReference(field.descriptor()) ? references : primitives).add(field);
+            }
+            // 稳定排序，相同大小的字段保持声明顺序
+            primitives.sort(Comparator.comparingInt((FieldDecl field) -> layout.fieldSize(field.descriptor())).reversed());
+            primitives.addAll(references);
+
+            for (FieldDecl field : primitives) {
+                int size = layout.fieldSize(field.descriptor());
+                int offset = -1;
+                for (int i = 0; i < holes.size() && offset < 0; i++) {
+                    int[] hole = holes.get(i);
+                    int aligned = align(hole[0], size);
+                    if (aligned + size <= hole[0] + hole[1]) {
+                        offset = aligned;
+                        holes.remove(i);
+                        int after = hole[0] + hole[1] - (aligned + size);
+                        if (after > 0) {
+                            holes.add(i, new int[]{aligned + size, after});
+                        }
+                        if (aligned > hole[0]) {
+                            holes.add(i, new int[]{hole[0], aligned - hole[0]});
+                        }
+                    }
+                }
+                if (offset < 0) {
+                    offset = align(end, size);
+                    if (offset > end) {
+                        holes.add(new int[]{end, offset - end});
+                    }
+                    end = offset + size;
+                }
+                slots.add(new FieldSlot(field.owner(), field.name(), field.descriptor(), offset, size));
+            }
+        }
+        slots.sort(Comparator.comparingInt(FieldSlot::offset));
+        return slots;
+    }
+
+    private static boolean isReference(String descriptor) {
+        return descriptor.charAt(0) == 'L' || descriptor.charAt(0) == '[';
+    }
+
+    private static int align(int value, int alignment) {
+        return (value + alignment - 1) / alignment * alignment;
+    }
+
+    /**
+     * 收集类及其所有父类的实例字段。父类优先从分析范围内查找，否则通过反射读取
+     */
+    private Hierarchy hierarchy(ClassModel model, Map<String, ClassModel> classes) {
+        Deque<List<FieldDecl>> levels = new ArrayDeque<>();
+        boolean exact = true;
+        levels.addFirst(instanceFields(model));
+        Optional<String> superName = model.superclass().map(ClassEntry::asInternalName);
+        while (superName.isPresent()) {
+            ClassModel superModel = classes.get(superName.get());
+            if (superModel != null) {
+                levels.addFirst(instanceFields(superModel));
+                superName = superModel.superclass().map(ClassEntry::asInternalName);
+                continue;
+            }
+            try {
+                Class<?> type = Class.forName(superName.get().replace('/', '.'), false,
+                    ClassLoader.getSystemClassLoader());
+                for (; type != null; type = type.getSuperclass()) {
+                    List<FieldDecl> fields = new ArrayList<>();
+                    for (Field field : type.getDeclaredFields()) {
+                        if (!Modifier.isStatic(field.getModifiers())) {
+                            fields.add(new FieldDecl(type.getName().replace('.', '/'), field.getName(),
+                                field.getType().descriptorString()));
+                        }
+                    }
+                    levels.addFirst(fields);
+                }
+            } catch (ClassNotFoundException | LinkageError e) {
+                exact = false;
+            }
+            break;
+        }
+        return new Hierarchy(new ArrayList<>(levels), exact);
+    }
+
+    private static List<FieldDecl> instanceFields(ClassModel model) {
+        String owner = model.thisClass().asInternalName();
+        List<FieldDecl> fields = new ArrayList<>();
+        for (FieldModel field : model.fields()) {
+            if ((field.flags().flagsMask() & ClassFile.ACC_STATIC) == 0) {
+                fields.add(new FieldDecl(owner, field.fieldName().stringValue(), field.fieldType().stringValue()));
+            }
+        }
+        return fields;
+    }
+
+    // ================= Value ranges =================
+
+    /**
+     * 类所在的嵌套（nest）中的所有类，第一个为类本身。嵌套宿主或成员不在分析范围内时返回空
+     */
+    private static Optional<List<ClassModel>> nest(ClassModel model, Map<String, ClassModel> classes) {
+        String self = model.thisClass().asInternalName();
+        String hostName = model.findAttribute(Attributes.nestHost())
+            .map(host -> host.nestHost().asInternalName())
+            .orElse(self);
+        ClassModel host = hostName.equals(self) ? model : classes.get(hostName);
+        if (host == null) {
+            return Optional.empty();
+        }
+        List<ClassModel> nest = new ArrayList<>();
+        nest.add(model);
+        if (host != model) {
+            nest.add(host);
+        }
+        Optional<NestMembersAttribute> members = host.findAttribute(Attributes.nestMembers());
+        if (members.isPresent()) {
+            for (ClassEntry entry : members.get().nestMembers()) {
+                ClassModel member = classes.get(entry.asInternalName());
+                if (member == null) {
+                    return Optional.empty();
+                }
+                if (member != model) {
+                    nest.add(member);
+                }
+            }
+        }
+        return Optional.of(nest);
+    }
+
+    /**
+     * 收集可能不经过 putfield 写入的字段：字段方法句柄常量指向的字段记为 "类.字段"，
+     * 调用了按名称查找字段的反射方法的代码中出现的字符串常量记为 "*.字段"
+     */
+    private static Set<String> reflectedFields(Collection<ClassModel> models) {
+        Set<String> reflected = new HashSet<>();
+        for (ClassModel model : models) {
+            for (MethodModel method : model.methods()) {
+                if (method.code().isEmpty()) {
+                    continue;
+                }
+                List<String> strings = new ArrayList<>();
+                boolean lookup = false;
+                for (CodeElement element : method.code().get()) {
+                    switch (element) {
+                        case ConstantInstruction.LoadConstantInstruction load -> {
+                            if (load.constantEntry() instanceof MethodHandleEntry handle
+                                    && handle.kind() <= MethodHandleInfo.REF_putStatic) {
+                                reflected.add(handle.reference().owner().asInternalName() + "."
+                                    + handle.reference().name().stringValue());
+                            } else if (load.constantValue() instanceof String string) {
+                                strings.add(string);
+                            }
+                        }
+                        case InvokeInstruction invoke when REFLECTIVE_METHODS.contains(invoke.name().stringValue()) ->
+                            lookup = true;
+                        default -> {
+                        }
+                    }
+                }
+                if (lookup) {
+                    strings.forEach(string -> reflected.add("*." + string));
+                }
+            }
+        }
+        return reflected;
+    }
+
+    /**
+     * 根据嵌套中所有 putfield 写入点推断字段的取值范围
+     *
+     * @return {min, max}，字段从未被写入时返回null
+     */
+    private static long[] writtenRange(List<ClassModel> nest, String owner, String name) {
+        long[] range = null;
+        for (MethodModel method : nest.stream().flatMap(model -> model.methods().stream()).toList()) {
+            if (method.code().isEmpty()) {
+                continue;
+            }
+            List<CodeElement> elements = method.code().get().elementList();
+            for (int i = 0; i < elements.size(); i++) {
+                if (!(elements.get(i) instanceof FieldInstruction access) || access.opcode() != Opcode.PUTFIELD
+                        || !access.owner().asInternalName().equals(owner) || !access.name().equalsString(name)) {
+                    continue;
+                }
+                long[] value = valueRange(elements, i, access.type().stringValue());
+                range = range == null ? value
+                    : new long[]{Math.min(range[0], value[0]), Math.max(range[1], value[1])};
+            }
+        }
+        return range;
+    }
+
+    /**
+     * 根据写入前紧邻的指令判断写入值的范围。中间有标签时值可能来自其他分支，按字段类型的完整范围处理
+     */
+    private static long[] valueRange(List<CodeElement> elements, int store, String descriptor) {
+        long[] full = rangeOf(descriptor);
+        for (int i = store - 1; i >= 0; i--) {
+            CodeElement element = elements.get(i);
+            if (element instanceof LabelTarget) {
+                return full;
+            }
+            if (!(element instanceof Instruction)) {
+                continue;
+            }
+            long[] range = switch (element) {
+                case ConstantInstruction constant when constant.constantValue() instanceof Integer value ->
+                    new long[]{value, value};
+                case ConstantInstruction constant when constant.constantValue() instanceof Long value ->
+                    new long[]{value, value};
+                case ConvertInstruction convert -> switch (convert.opcode()) {
+                    case I2L -> rangeOf("I");
+                    case I2B -> rangeOf("B");
+                    case I2S -> rangeOf("S");
+                    case I2C -> rangeOf("C");
+                    default -> full;
+                };
+                case ArrayLoadInstruction load -> switch (load.opcode()) {
+                    case BALOAD -> rangeOf("B");
+                    case SALOAD -> rangeOf("S");
+                    case CALOAD -> rangeOf("C");
+                    default -> full;
+                };
+                case FieldInstruction field when field.opcode() == Opcode.GETFIELD
+                        || field.opcode() == Opcode.GETSTATIC -> rangeOf(field.type().stringValue());
+                case InvokeInstruction invoke -> rangeOf(invoke.typeSymbol().returnType().descriptorString());
+                default -> full;
+            };
+            // 不会比字段类型更宽，例如 long 字段从 long 方法读取
+            return range[1] - range[0] > full[1] - full[0] ? full : range;
+        }
+        return full;
+    }
+
+    private static long[] rangeOf(String descriptor) {
+        return switch (descriptor) {
+            case "Z" -> new long[]{0, 1};
+            case "B" -> new long[]{Byte.MIN_VALUE, Byte.MAX_VALUE};
+            case "S" -> new long[]{Short.MIN_VALUE, Short.MAX_VALUE};
+            case "C" -> new long[]{Character.MIN_VALUE, Character.MAX_VALUE};
+            case "I" -> new long[]{Integer.MIN_VALUE, Integer.MAX_VALUE};
+            default -> new long[]{Long.MIN_VALUE, Long.MAX_VALUE};
+        };
+    }
+
+    /**
+     * @return 能容纳取值范围的最窄类型，不比当前类型窄时返回null
+     */
+    private static String narrowestFor(long[] range, String descriptor) {
+        for (String candidate : List.of("B", "S", "I")) {
+            long[] bounds = rangeOf(candidate);
+            if (range[0] >= bounds[0] && range[1] <= bounds[1]) {
+                return candidate.equals(descriptor) ? null : candidate;
+            }
+        }
+        return null;
+    }
+}
@@ -0,0 +1,508 @@
+package org.yanhuang.learning.jdk24.classapi;
+
+import java.io.IOException;
+import java.lang.classfile.*;
+import java.lang.classfile.attribute.*;
+import java.lang.classfile.constantpool.PoolEntry;
+import java.lang.classfile.constantpool.Utf8Entry;
+import java.lang.classfile.instruction.*;
+import java.lang.constant.*;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.regex.Pattern;
+import java.util.stream.Collectors;
+
+/**
+ * 包重定位（shading）引擎
+ * 把指定包下的类移动到新的包中，并重写所有引用这些类的位置：常量池中的类引用、字段和方法描述符、
+ * 泛型签名、注解（包括类型注解和注解默认值）、invokedynamic引导参数，以及形如类名的字符串常量。
+ * 类名映射结果缓存在并发Map中，同一个类名在整个jar中只计算一次。
+ * <p>
+ * 处理jar时基于 {@link JarRewriter} 并行转换类文件，同时移动资源文件路径并重写
+ * META-INF/services下的服务声明文件；栈映射帧由按重定位后名称索引jar和类路径中的类的类层次解析器重新生成。
+ * 常量池中没有任何要重定位的包前缀的类不需要改写，原样复制。
+ * <p>
+ * 使用示例：
+ * <pre>{@code
+ * new PackageRelocator()
+ *     .addRelocation("com.google.common", "shaded.com.google.common")
+ *     .addExclude("com.google.common.annotations.**")
+ *     .relocateJar(input, output);
+ * }</pre>
+ */
+public class PackageRelocator {
+
+    private static final String SERVICES_PREFIX = "META-INF/services/";
+
+    private final ClassFileToolkit toolkit = new ClassFileToolkit();
+    private final List<Relocation> relocations = new ArrayList<>();
+    private final List<Pattern> excludes = new ArrayList<>();
+    private final Map<String, String> nameCache = new ConcurrentHashMap<>();
+    private boolean relocateStrings = true;
+    private int parallelism = Runtime.getRuntime().availableProcessors();
+
+    /** 内部名形式的包前缀，均以 '/' 结尾 */
+    private record Relocation(String fromPrefix, String toPrefix) {
+    }
+
+    // ================= Configuration =================
+
+    /**
+     * 添加重定位规则
+     *
+     * @param fromPackage 原包名，例如 "com.google.common"，子包一并重定位
+     * @param toPackage 新包名，例如 "shaded.com.google.common"
+     * @return 当前重定位器
+     */
+    public PackageRelocator addRelocation(String fromPackage, String toPackage) {
+        relocations.add(new Relocation(fromPackage.replace('.', '/') + "/", toPackage.replace('.', '/') + "/"));
+        nameCache.clear();
+        return this;
+    }
+
+    /**
+     * 排除不需要重定位的类
+     *
+     * @param classPattern 类名模式，例如 "com.example.api.**"；'*' 匹配一级包内的名称，'**' 匹配任意层级
+     * @return 当前重定位器
+     */
+    public PackageRelocator addExclude(String classPattern) {
+        excludes.add(toolkit.toPattern(classPattern));
+        nameCache.clear();
+        return this;
+    }
+
+    /**
+     * 设置是否重写形如类名或资源路径的字符串常量，默认开启
+     * 开启后 Class.forName("com.example.Foo") 等反射调用仍能找到重定位后的类
+     */
+    public PackageRelocator setRelocateStrings(boolean relocateStrings) {
+        this.relocateStrings = relocateStrings;
+        return this;
+    }
+
+    /**
+     * 设置处理jar时的并行线程数，默认为CPU核数
+     */
+    public PackageRelocator setParallelism(int parallelism) {
+        this.parallelism = parallelism;
+        return this;
+    }
+
+    // ================= Name mapping =================
+
+    /**
+     * 映射类的内部名
+     *
+     * @param internalName 内部名，例如 "com/example/Foo"
+     * @return 重定位后的内部名，不需要重定位时返回原值
+     */
+    public String map(String internalName) {
+        return nameCache.computeIfAbsent(internalName, this::computeMapping);
+    }
+
+    private String computeMapping(String internalName) {
+        String className = internalName.replace('/', '.');
+        for (Pattern exclude : excludes) {
+            if (exclude.matcher(className).matches()) {
+                return internalName;
+            }
+        }
+        for (Relocation relocation : relocations) {
+            if (internalName.startsWith(relocation.fromPrefix())) {
+                return relocation.toPrefix() + internalName.substring(relocation.fromPrefix().length());
+            }
+        }
+        return internalName;
+    }
+
+    /**
+     * 映射类型描述，数组按元素类型映射，基本类型原样返回
+     */
+    public ClassDesc map(ClassDesc desc) {
+        if (desc.isArray()) {
+            return map(desc.componentType()).arrayType();
+        }
+        if (desc.isPrimitive()) {
+            return desc;
+        }
+        String internalName = desc.descriptorString().substring(1, desc.descriptorString().length() - 1);
+        String mapped = map(internalName);
+        return mapped.equals(internalName) ? desc : ClassDesc.ofInternalName(mapped);
+    }
+
+    /**
+     * 映射方法描述符中的参数和返回类型
+     */
+    public MethodTypeDesc map(MethodTypeDesc desc) {
+        return MethodTypeDesc.of(map(desc.returnType()),
+            desc.parameterList().stream().map(this::map).toArray(ClassDesc[]::new));
+    }
+
+    /**
+     * 映射形如类名（点分隔或斜杠分隔）或资源路径的字符串，其他字符串原样返回
+     */
+    public String mapString(String value) {
+        if (value.isEmpty() || value.length() > 512) {
+            return value;
+        }
+        if (value.indexOf('/') >= 0) {
+            return mapResource(value);
+        }
+        if (value.indexOf('.') >= 0) {
+            String mapped = map(value.replace('.', '/'));
+            return mapped.equals(value.replace('.', '/')) ? value : mapped.replace('/', '.');
+        }
+        return value;
+    }
+
+    /**
+     * 映射jar中的资源路径，例如 "com/example/messages.properties"
+     */
+    public String mapResource(String path) {
+        boolean absolute = path.startsWith("/");
+        String relative = absolute ? path.substring(1) : path;
+        int slash = relative.lastIndexOf('/');
+        if (slash < 0) {
+            return path;
+        }
+        // 把资源当作同包下的类名进行映射，保留原文件名
+        String resourceName = relative.substring(slash + 1);
+        int dot = resourceName.indexOf('.');
+        String asClass = relative.substring(0, slash + 1) + (dot > 0 ? resourceName.substring(0, dot) : resourceName);
+        String mapped = map(asClass);
+        if (mapped.equals(asClass)) {
+            return path;
+        }
+        String result = mapped.substring(0, mapped.lastIndexOf('/') + 1) + resourceName;
+        return absolute ? "/" + result : result;
+    }
+
+    // ================= Class relocation =================
+
+    /**
+     * 重定位单个类
+     *
+     * @param classFile 解析和构建使用的上下文，需要重新生成栈映射帧时应配置能解析重定位后名称的类层次解析器
+     * @param model 类模型
+     * @return 重定位后的类字节
+     */
+    public byte[] relocate(ClassFile classFile, ClassModel model) {
+        return classFile.build(map(model.thisClass().asSymbol()), builder -> builder.transform(model, classTransform()));
+    }
+
+    /**
+     * 判断类是否引用了要重定位的包：常量池中所有类名、描述符、签名和字符串都以UTF8条目保存，
+     * 没有UTF8条目包含重定位的包前缀时，重定位不会改变类的内容
+     */
+    public boolean needsRelocation(ClassModel model) {
+        for (PoolEntry entry : model.constantPool()) {
+            if (entry instanceof Utf8Entry utf8) {
+                String value = utf8.stringValue();
+                for (Relocation relocation : relocations) {
+                    if (value.contains(relocation.fromPrefix())
+                            || relocateStrings && value.contains(relocation.fromPrefix().replace('/', '.'))) {
+                        return true;
+                    }
+                }
+            }
+        }
+        return false;
+    }
+
+    /**
+     * 重定位jar
+     * 类文件条目移动到重定位后的路径，资源文件按所在包移动，服务声明文件的文件名和内容一并重写
+     *
+     * @param inputJar 输入jar路径
+     * @param outputJar 输出jar路径
+     * @return jar重写报告
+     * @throws IOException 如果文件读取或写入失败
+     */
+    public JarRewriter.RewriteReport relocateJar(Path inputJar, Path outputJar) throws IOException {
+        return relocateJar(inputJar, outputJar, List.of());
+    }
+
+    /**
+     * 同 {@link #relocateJar(Path, Path)}，并用类路径上的依赖jar解析类层次，
+     * 类继承依赖中的类时，重新生成栈映射帧需要这些依赖
+     *
+     * @param inputJar 输入jar路径
+     * @param outputJar 输出jar路径
+     * @param classpath 依赖jar路径，按类路径顺序排列
+     * @return jar重写报告
+     * @throws IOException 如果文件读取或写入失败
+     */
+    public JarRewriter.RewriteReport relocateJar(Path inputJar, Path outputJar, List<Path> classpath)
+            throws IOException {
+        ClassFile classFile = ClassFile.of(ClassFile.ClassHierarchyResolverOption.of(toolkit.hierarchyResolver(
+            toolkit.readClasspath(List.of(inputJar)).values(), toolkit.readClasspath(classpath).values(), this::map)));
+
+        JarRewriter rewriter = new JarRewriter((name, content) -> {
+            if (name.startsWith(SERVICES_PREFIX)) {
+                return relocateServiceFile(name, content);
+            }
+            if (!toolkit.isClassEntry(name)) {
+                return null;
+            }
+            ClassModel model = classFile.parse(content);
+            if (!needsRelocation(model)) {
+                return null;
+            }
+            String internalName = model.thisClass().asInternalName();
+            String suffix = internalName + ".class";
+            String prefix = name.endsWith(suffix) ? name.substring(0, name.length() - suffix.length()) : "";
+            return new JarRewriter.TransformedEntry(prefix + map(internalName) + ".class", relocate(classFile, model));
+        })
+            .setContentFilter(name -> name.endsWith(".class") || name.startsWith(SERVICES_PREFIX) && !name.endsWith("/"))
+            .setNameMapper(name -> name.startsWith("META-INF/") ? name : mapResource(name))
+            .setParallelism(parallelism);
+        return rewriter.rewrite(inputJar, outputJar);
+    }
+
+    private JarRewriter.TransformedEntry relocateServiceFile(String name, byte[] content) {
+        String service = name.substring(SERVICES_PREFIX.length());
+        String mappedService = mapString(service);
+        String text = new String(content, StandardCharsets.UTF_8);
+        String mappedText = text.lines()
+            .map(line -> {
+                String trimmed = line.strip();
+                return trimmed.isEmpty() || trimmed.startsWith("#") ? line : mapString(trimmed);
+            })
+            .collect(Collectors.joining("\n", "", text.endsWith("\n") ? "\n" : ""));
+        if (mappedService.equals(service) && mappedText.equals(text)) {
+            return null;
+        }
+        return new JarRewriter.TransformedEntry(SERVICES_PREFIX + mappedService,
+            mappedText.getBytes(StandardCharsets.UTF_8));
+    }
+
+    // ================= Transforms =================
+
+    private ClassTransform classTransform() {
+        return (builder, element) -> {
+            switch (element) {
+                case FieldModel field -> builder.withField(field.fieldName().stringValue(),
+                    map(field.fieldTypeSymbol()), fieldBuilder -> fieldBuilder.transform(field, fieldTransform()));
+                case MethodModel method -> builder.withMethod(method.methodName().stringValue(),
+                    map(method.methodTypeSymbol()), method.flags().flagsMask(),
+                    methodBuilder -> methodBuilder.transform(method, methodTransform()));
+                case Superclass superclass -> builder.withSuperclass(map(superclass.superclassEntry().asSymbol()));
+                case Interfaces interfaces -> builder.withInterfaceSymbols(
+                    interfaces.interfaces().stream().map(entry -> map(entry.asSymbol())).toList());
+                case SignatureAttribute signature -> builder.with(
+                    SignatureAttribute.of(mapClassSignature(signature.asClassSignature())));
+                case InnerClassesAttribute innerClasses -> builder.with(InnerClassesAttribute.of(
+                    innerClasses.classes().stream().map(info -> InnerClassInfo.of(
+                        map(info.innerClass().asSymbol()),
+                        info.outerClass().map(outer -> map(outer.asSymbol())),
+                        info.innerName().map(name -> name.stringValue()),
+                        info.flagsMask())).toList()));
+                case EnclosingMethodAttribute enclosing -> builder.with(EnclosingMethodAttribute.of(
+                    map(enclosing.enclosingClass().asSymbol()),
+                    enclosing.enclosingMethodName().map(name -> name.stringValue()),
+                    enclosing.enclosingMethodTypeSymbol().map(this::map)));
+                case NestHostAttribute nestHost -> builder.with(
+                    NestHostAttribute.of(map(nestHost.nestHost().asSymbol())));
+                case NestMembersAttribute nestMembers -> builder.with(NestMembersAttribute.ofSymbols(
+                    nestMembers.nestMembers().stream().map(entry -> map(entry.asSymbol())).toList()));
+                case PermittedSubclassesAttribute permitted -> builder.with(PermittedSubclassesAttribute.ofSymbols(
+                    permitted.permittedSubclasses().stream().map(entry -> map(entry.asSymbol())).toList()));
+                case RecordAttribute recordAttribute -> builder.with(RecordAttribute.of(recordAttribute.components().stream()
+                    .map(component -> RecordComponentInfo.of(component.name().stringValue(),
+                        map(component.descriptorSymbol()),
+                        component.attributes().stream().map(this::mapAttribute).toList()))
+                    .toList()));
+                case Attribute<?> attribute -> builder.with((ClassElement) mapAttribute(attribute));
+                default -> builder.with(element);
+            }
+        };
+    }
+
+    private FieldTransform fieldTransform() {
+        return (builder, element) -> {
+            switch (element) {
+                case ConstantValueAttribute constant when relocateStrings
+                        && constant.constant().constantValue() instanceof String value ->
+                    builder.with(ConstantValueAttribute.of(mapString(value)));
+                case Attribute<?> attribute -> builder.with((FieldElement) mapAttribute(attribute));
+                default -> builder.with(element);
+            }
+        };
+    }
+
+    private MethodTransform methodTransform() {
+        return (builder, element) -> {
+            switch (element) {
+                case CodeModel code -> builder.transformCode(code, codeTransform());
+                case ExceptionsAttribute exceptions -> builder.with(ExceptionsAttribute.ofSymbols(
+                    exceptions.exceptions().stream().map(entry -> map(entry.asSymbol())).toList()));
+                case AnnotationDefaultAttribute annotationDefault -> builder.with(
+                    AnnotationDefaultAttribute.of(mapValue(annotationDefault.defaultValue())));
+                case RuntimeVisibleParameterAnnotationsAttribute annotations -> builder.with(
+                    RuntimeVisibleParameterAnnotationsAttribute.of(annotations.parameterAnnotations().stream()
+                        .map(this::mapAnnotations).toList()));
+                case RuntimeInvisibleParameterAnnotationsAttribute annotations -> builder.with(
+                    RuntimeInvisibleParameterAnnotationsAttribute.of(annotations.parameterAnnotations().stream()
+                        .map(this::mapAnnotations).toList()));
+                case SignatureAttribute signature -> builder.with(
+                    SignatureAttribute.of(mapMethodSignature(signature.asMethodSignature())));
+                case Attribute<?> attribute -> builder.with((MethodElement) mapAttribute(attribute));
+                default -> builder.with(element);
+            }
+        };
+    }
+
+    private CodeTransform codeTransform() {
+        return (builder, element) -> {
+            switch (element) {
+                case FieldInstruction field -> builder.fieldAccess(field.opcode(), map(field.owner().asSymbol()),
+                    field.name().stringValue(), map(field.typeSymbol()));
+                case InvokeInstruction invoke -> builder.invoke(invoke.opcode(), map(invoke.owner().asSymbol()),
+                    invoke.name().stringValue(), map(invoke.typeSymbol()), invoke.isInterface());
+                case InvokeDynamicInstruction invokeDynamic -> builder.invokedynamic(DynamicCallSiteDesc.of(
+                    mapMethodHandle(invokeDynamic.bootstrapMethod()),
+                    invokeDynamic.name().stringValue(),
+                    map(invokeDynamic.typeSymbol()),
+                    invokeDynamic.bootstrapArgs().stream().map(this::mapConstant).toArray(ConstantDesc[]::new)));
+                case NewObjectInstruction newObject -> builder.new_(map(newObject.className().asSymbol()));
+                case NewReferenceArrayInstruction newArray -> builder.anewarray(map(newArray.componentType().asSymbol()));
+                case NewMultiArrayInstruction newArray -> builder.multianewarray(
+                    map(newArray.arrayType().asSymbol()), newArray.dimensions());
+                case TypeCheckInstruction typeCheck -> builder.with(
+                    TypeCheckInstruction.of(typeCheck.opcode(), map(typeCheck.type().asSymbol())));
+                case ConstantInstruction.LoadConstantInstruction load -> builder.ldc(mapConstant(load.constantValue()));
+                case ExceptionCatch handler -> builder.exceptionCatch(handler.tryStart(), handler.tryEnd(),
+                    handler.handler(),
+                    handler.catchType().map(type -> builder.constantPool().classEntry(map(type.asSymbol()))));
+                case LocalVariable variable -> builder.localVariable(variable.slot(), variable.name().stringValue(),
+                    map(variable.typeSymbol()), variable.startScope(), variable.endScope());
+                case LocalVariableType variable -> builder.localVariableType(variable.slot(),
+                    variable.name().stringValue(), mapSignature(variable.signatureSymbol()),
+                    variable.startScope(), variable.endScope());
+                case RuntimeVisibleTypeAnnotationsAttribute annotations -> builder.with(
+                    RuntimeVisibleTypeAnnotationsAttribute.of(mapTypeAnnotations(annotations.annotations())));
+                case RuntimeInvisibleTypeAnnotationsAttribute annotations -> builder.with(
+                    RuntimeInvisibleTypeAnnotationsAttribute.of(mapTypeAnnotations(annotations.annotations())));
+                default -> builder.with(element);
+            }
+        };
+    }
+
+    /**
+     * 映射类、字段、方法和记录组件上共有的属性：签名和注解，其他属性原样返回
+     */
+    private Attribute<?> mapAttribute(Attribute<?> attribute) {
+        return switch (attribute) {
+            case SignatureAttribute signature -> SignatureAttribute.of(mapSignature(signature.asTypeSignature()));
+            case RuntimeVisibleAnnotationsAttribute annotations ->
+                RuntimeVisibleAnnotationsAttribute.of(mapAnnotations(annotations.annotations()));
+            case RuntimeInvisibleAnnotationsAttribute annotations ->
+                RuntimeInvisibleAnnotationsAttribute.of(mapAnnotations(annotations.annotations()));
+            case RuntimeVisibleTypeAnnotationsAttribute annotations ->
+                RuntimeVisibleTypeAnnotationsAttribute.of(mapTypeAnnotations(annotations.annotations()));
+            case RuntimeInvisibleTypeAnnotationsAttribute annotations ->
+                RuntimeInvisibleTypeAnnotationsAttribute.of(mapTypeAnnotations(annotations.annotations()));
+            default -> attribute;
+        };
+    }
+
+    // ================= Constants and annotations =================
+
+    private ConstantDesc mapConstant(ConstantDesc constant) {
+        return switch (constant) {
+            case ClassDesc desc -> map(desc);
+            case MethodTypeDesc desc -> map(desc);
+            case DirectMethodHandleDesc desc -> mapMethodHandle(desc);
+            case DynamicConstantDesc<?> desc -> DynamicConstantDesc.ofNamed(
+                mapMethodHandle(desc.bootstrapMethod()),
+                desc.constantName(),
+                map(desc.constantType()),
+                desc.bootstrapArgsList().stream().map(this::mapConstant).toArray(ConstantDesc[]::new));
+            case String value when relocateStrings -> mapString(value);
+            default -> constant;
+        };
+    }
+
+    private DirectMethodHandleDesc mapMethodHandle(DirectMethodHandleDesc handle) {
+        return switch (handle.kind()) {
+            case GETTER, SETTER, STATIC_GETTER, STATIC_SETTER -> MethodHandleDesc.ofField(handle.kind(),
+                map(handle.owner()), handle.methodName(), map(ClassDesc.ofDescriptor(handle.lookupDescriptor())));
+            default -> MethodHandleDesc.ofMethod(handle.kind(), map(handle.owner()), handle.methodName(),
+                map(MethodTypeDesc.ofDescriptor(handle.lookupDescriptor())));
+        };
+    }
+
+    private List<Annotation> mapAnnotations(List<Annotation> annotations) {
+        return annotations.stream().map(this::mapAnnotation).toList();
+    }
+
+    private List<TypeAnnotation> mapTypeAnnotations(List<TypeAnnotation> annotations) {
+        return annotations.stream()
+            .map(annotation -> TypeAnnotation.of(annotation.targetInfo(), annotation.targetPath(),
+                mapAnnotation(annotation.annotation())))
+            .toList();
+    }
+
+    private Annotation mapAnnotation(Annotation annotation) {
+        return Annotation.of(map(annotation.classSymbol()), annotation.elements().stream()
+            .map(element -> AnnotationElement.of(element.name(), mapValue(element.value())))
+            .toList());
+    }
+
+    private AnnotationValue mapValue(AnnotationValue value) {
+        return switch (value) {
+            case AnnotationValue.OfAnnotation nested -> AnnotationValue.ofAnnotation(mapAnnotation(nested.annotation()));
+            case AnnotationValue.OfArray array -> AnnotationValue.ofArray(
+                array.values().stream().map(this::mapValue).toList());
+            case AnnotationValue.OfClass type -> AnnotationValue.ofClass(map(type.classSymbol()));
+            case AnnotationValue.OfEnum constant -> AnnotationValue.ofEnum(map(constant.classSymbol()),
+                constant.constantName().stringValue());
+            case AnnotationValue.OfString string when relocateStrings ->
+                AnnotationValue.ofString(mapString(string.stringValue()));
+            default -> value;
+        };
+    }
+
+    // ================= Signatures =================
+
+    private ClassSignature mapClassSignature(ClassSignature signature) {
+        return ClassSignature.of(mapTypeParams(signature.typeParameters()),
+            mapSignature(signature.superclassSignature()),
+            signature.superinterfaceSignatures().stream().map(this::mapSignature)
+                .toArray(Signature.ClassTypeSig[]::new));
+    }
+
+    private MethodSignature mapMethodSignature(MethodSignature signature) {
+        return MethodSignature.of(mapTypeParams(signature.typeParameters()),
+            signature.throwableSignatures().stream().map(this::mapSignature).toList(),
+            mapSignature(signature.result()),
+            signature.arguments().stream().map(this::mapSignature).toArray(Signature[]::new));
+    }
+
+    @SuppressWarnings("unchecked")
+    private <S extends Signature> S mapSignature(S signature) {
+        return (S) switch (signature) {
+            case Signature.ArrayTypeSig array -> Signature.ArrayTypeSig.of(mapSignature(array.componentSignature()));
+            case Signature.ClassTypeSig type -> Signature.ClassTypeSig.of(
+                type.outerType().map(this::mapSignature).orElse(null),
+                map(type.classDesc()),
+                type.typeArgs().stream().map(argument -> switch (argument) {
+                    case Signature.TypeArg.Unbounded unbounded -> unbounded;
+                    case Signature.TypeArg.Bounded bounded -> Signature.TypeArg.bounded(
+                        bounded.wildcardIndicator(), mapSignature(bounded.boundType()));
+                }).toArray(Signature.TypeArg[]::new));
+            default -> signature;
+        };
+    }
+
+    private List<Signature.TypeParam> mapTypeParams(List<Signature.TypeParam> typeParams) {
+        return typeParams.stream()
+            .map(param -> Signature.TypeParam.of(param.identifier(),
+                param.classBound().map(this::mapSignature),
+                param.interfaceBounds().stream().map(this::mapSignature).toArray(Signature.RefTypeSig[]::new)))
+            .toList();
+    }
+}
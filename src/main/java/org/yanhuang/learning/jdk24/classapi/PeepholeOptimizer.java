@@ -0,0 +1,641 @@
+package org.yanhuang.learning.jdk24.classapi;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.lang.classfile.*;
+import java.lang.classfile.instruction.*;
+import java.lang.constant.ClassDesc;
+import java.lang.constant.ConstantDesc;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.*;
+import java.util.stream.Stream;
+
+/**
+ * 窥孔优化器
+ * 逐个方法遍历 CodeAttribute 的指令序列，在同一个基本块内反复应用以下规则直到不再变化：
+ * <ul>
+ *     <li>常量折叠：int/long 常量之间的算术、位运算、取反和类型转换</li>
+ *     <li>冗余的存取：{@code xload n; xstore n} 自赋值，以及只被写一次读一次的局部变量的 {@code xstore n; xload n}</li>
+ *     <li>跳转到下一条指令的 goto，以及无条件跳转之后不可达的指令</li>
+ *     <li>装箱后立即拆箱：{@code Integer.valueOf(I); Integer.intValue()}</li>
+ * </ul>
+ * 只有发生变化的方法会被重新生成，栈映射帧由 ClassFile API 重新计算；
+ * 处理jar时按jar内和类路径上的类解析类层次，多个jar之间并行处理。
+ * 含有 jsr/ret 的方法（旧版本编译的 finally 子程序）不做处理：子程序只通过 jsr 进入，按基本块划分会被当作不可达代码。
+ */
+public class PeepholeOptimizer {
+
+    private final ClassFileToolkit toolkit = new ClassFileToolkit();
+
+    private static final Set<String> WRAPPERS = Set.of("java/lang/Integer", "java/lang/Long", "java/lang/Short",
+        "java/lang/Byte", "java/lang/Character", "java/lang/Boolean", "java/lang/Float", "java/lang/Double");
+
+    /**
+     * 一个方法的优化结果
+     *
+     * @param className 类的内部名称
+     * @param method 方法名称和描述符
+     * @param foldedConstants 折叠的常量运算数量
+     * @param loadStorePairs 删除的存取指令对数量
+     * @param deadGotos 删除的多余goto数量
+     * @param unreachableInstructions 删除的不可达指令数量
+     * @param boxUnboxPairs 删除的装箱拆箱对数量
+     */
+    public record MethodChange(String className, String method, int foldedConstants, int loadStorePairs,
+                               int deadGotos, int unreachableInstructions, int boxUnboxPairs) {
+    }
+
+    /**
+     * 单个类的优化结果
+     *
+     * @param bytes 优化后的字节，没有变化时为原始字节
+     * @param changes 发生变化的方法
+     */
+    public record ClassResult(byte[] bytes, List<MethodChange> changes) {
+    }
+
+    /**
+     * 优化报告
+     *
+     * @param jar 输入jar路径
+     * @param rewrite jar重写报告
+     * @param changes 所有发生变化的方法
+     */
+    public record OptimizationReport(Path jar, JarRewriter.RewriteReport rewrite, List<MethodChange> changes) {
+        public int foldedConstants() {
+            return changes.stream().mapToInt(MethodChange::foldedConstants).sum();
+        }
+
+        public int loadStorePairs() {
+            return changes.stream().mapToInt(MethodChange::loadStorePairs).sum();
+        }
+
+        public int deadGotos() {
+            return changes.stream().mapToInt(MethodChange::deadGotos).sum();
+        }
+
+        public int unreachableInstructions() {
+            return changes.stream().mapToInt(MethodChange::unreachableInstructions).sum();
+        }
+
+        public int boxUnboxPairs() {
+            return changes.stream().mapToInt(MethodChange::boxUnboxPairs).sum();
+        }
+    }
+
+    /** 优化过程中的一个代码元素，index为它在原始元素列表中的位置 */
+    private static final class Node {
+        final int index;
+        final CodeElement element;
+        ConstantDesc constant;
+        boolean folded;
+
+        Node(int index, CodeElement element) {
+            this.index = index;
+            this.element = element;
+            if (element instanceof ConstantInstruction instruction
+                    && (instruction.typeKind() == TypeKind.INT || instruction.typeKind() == TypeKind.LONG)) {
+                this.constant = instruction.constantValue();
+            }
+        }
+    }
+
+    /** 单个方法的统计 */
+    private static final class Counters {
+        int folded;
+        int loadStore;
+        int gotos;
+        int unreachable;
+        int boxing;
+
+        boolean changed() {
+            return folded + loadStore + gotos + unreachable + boxing > 0;
+        }
+    }
+
+    // ================= Jars =================
+
+    /**
+     * 并行优化多个jar，每个输入jar在输出目录中生成同名文件
+     *
+     * @param inputJars 输入jar路径
+     * @param outputDirectory 输出目录
+     * @return 每个jar的优化报告
+     * @throws IOException 如果文件读取或写入失败
+     * @throws IllegalArgumentException 如果多个输入jar的文件名相同，它们的输出会互相覆盖
+     */
+    public List<OptimizationReport> optimizeJars(List<Path> inputJars, Path outputDirectory) throws IOException {
+        return optimizeJars(inputJars, outputDirectory, List.of());
+    }
+
+    /**
+     * 同 {@link #optimizeJars(List, Path)}，并用所有输入jar和类路径上的依赖jar解析类层次
+     *
+     * @param inputJars 输入jar路径
+     * @param outputDirectory 输出目录
+     * @param classpath 依赖jar路径，按类路径顺序排列
+     * @return 每个jar的优化报告
+     * @throws IOException 如果文件读取或写入失败
+     * @throws IllegalArgumentException 如果多个输入jar的文件名相同，它们的输出会互相覆盖
+     */
+    public List<OptimizationReport> optimizeJars(List<Path> inputJars, Path outputDirectory, List<Path> classpath)
+            throws IOException {
+        Map<Path, Path> outputs = new HashMap<>();
+        for (Path jar : inputJars) {
+            Path previous = outputs.putIfAbsent(jar.getFileName(), jar);
+            if (previous != null) {
+                throw new IllegalArgumentException("输入jar文件名重复，输出会互相覆盖: " + previous + ", " + jar);
+            }
+        }
+        Files.createDirectories(outputDirectory);
+        Collection<ClassModel> dependencies = toolkit.readClasspath(
+            Stream.concat(inputJars.stream(), classpath.stream()).toList()).values();
+        int parallelism = Math.max(1, Runtime.getRuntime().availableProcessors() / Math.max(1, inputJars.size()));
+        try {
+            return inputJars.parallelStream()
+                .map(jar -> {
+                    try {
+                        return optimizeJar(jar, outputDirectory.resolve(jar.getFileName()), dependencies, parallelism);
+                    } catch (IOException e) {
+                        throw new UncheckedIOException(e);
+                    }
+                })
+                .toList();
+        } catch (UncheckedIOException e) {
+            throw e.getCause();
+        }
+    }
+
+    /**
+     * 优化单个jar，非类文件条目和没有变化的类直接复制
+     *
+     * @param inputJar 输入jar路径
+     * @param outputJar 输出jar路径
+     * @return 优化报告
+     * @throws IOException 如果文件读取或写入失败
+     */
+    public OptimizationReport optimizeJar(Path inputJar, Path outputJar) throws IOException {
+        return optimizeJar(inputJar, outputJar, List.of());
+    }
+
+    /**
+     * 同 {@link #optimizeJar(Path, Path)}，并用类路径上的依赖jar解析类层次，
+     * 类继承依赖中的类时，重新生成栈映射帧需要这些依赖
+     *
+     * @param inputJar 输入jar路径
+     * @param outputJar 输出jar路径
+     * @param classpath 依赖jar路径，按类路径顺序排列
+     * @return 优化报告
+     * @throws IOException 如果文件读取或写入失败
+     */
+    public OptimizationReport optimizeJar(Path inputJar, Path outputJar, List<Path> classpath) throws IOException {
+        return optimizeJar(inputJar, outputJar, toolkit.readClasspath(classpath).values(),
+            Runtime.getRuntime().availableProcessors());
+    }
+
+    private OptimizationReport optimizeJar(Path inputJar, Path outputJar, Collection<ClassModel> dependencies,
+                                           int parallelism) throws IOException {
+        ClassFile classFile = ClassFile.of(ClassFile.ClassHierarchyResolverOption.of(
+            toolkit.hierarchyResolver(toolkit.readClasspath(List.of(inputJar)).values(), dependencies)));
+        List<MethodChange> changes = Collections.synchronizedList(new ArrayList<>());
+
+        JarRewriter.RewriteReport rewrite = new JarRewriter((name, content) -> {
+            ClassResult result = optimize(classFile, content);
+            if (result.changes().isEmpty()) {
+                return null;
+            }
+            changes.addAll(result.changes());
+            return new JarRewriter.TransformedEntry(name, result.bytes());
+        }).setParallelism(parallelism).rewrite(inputJar, outputJar);
+
+        List<MethodChange> sorted = new ArrayList<>(changes);
+        sorted.sort(Comparator.comparing(MethodChange::className).thenComparing(MethodChange::method));
+        return new OptimizationReport(inputJar, rewrite, sorted);
+    }
+
+    // ================= Classes =================
+
+    /**
+     * 优化单个类
+     *
+     * @param classFile 解析和构建使用的上下文，应配置能解析相关类的类层次解析器
+     * @param classBytes 类文件字节数组
+     * @return 优化结果
+     */
+    public ClassResult optimize(ClassFile classFile, byte[] classBytes) {
+        ClassModel model = classFile.parse(classBytes);
+        String owner = model.thisClass().asInternalName();
+        Map<String, Node[]> plans = new HashMap<>();
+        List<MethodChange> changes = new ArrayList<>();
+
+        for (MethodModel method : model.methods()) {
+            if (method.code().isEmpty()) {
+                continue;
+            }
+            List<CodeElement> elements = method.code().get().elementList();
+            if (elements.stream().anyMatch(element -> element instanceof DiscontinuedInstruction)) {
+                continue;
+            }
+            Counters counters = new Counters();
+            Node[] plan = optimize(elements, counters);
+            if (counters.changed()) {
+                String key = method.methodName().stringValue() + method.methodType().stringValue();
+                plans.put(key, plan);
+                changes.add(new MethodChange(owner, key, counters.folded, counters.loadStore, counters.gotos,
+                    counters.unreachable, counters.boxing));
+            }
+        }
+        if (plans.isEmpty()) {
+            return new ClassResult(classBytes, List.of());
+        }
+        byte[] optimized = classFile.transformClass(model, (builder, element) -> {
+            Node[] plan = element instanceof MethodModel method
+                ? plans.get(method.methodName().stringValue() + method.methodType().stringValue())
+                : null;
+            if (plan != null) {
+                builder.transformMethod((MethodModel) element, MethodTransform.transformingCode(applyPlan(plan)));
+            } else {
+                builder.with(element);
+            }
+        });
+        return new ClassResult(optimized, changes);
+    }
+
+    private static CodeTransform applyPlan(Node[] plan) {
+        return CodeTransform.ofStateful(() -> new CodeTransform() {
+            private int index = 0;
+
+            @Override
+            public void accept(CodeBuilder builder, CodeElement element) {
+                Node node = plan[index++];
+                if (node == null) {
+                    return;
+                }
+                if (node.folded) {
+                    builder.loadConstant(node.constant);
+                } else {
+                    builder.with(element);
+                }
+            }
+        });
+    }
+
+    // ================= Rules =================
+
+    /**
+     * 对一个方法反复应用所有规则
+     *
+     * @return 按原始位置索引的保留元素，被删除的位置为null
+     */
+    private Node[] optimize(List<CodeElement> elements, Counters counters) {
+        List<Node> nodes = new ArrayList<>(elements.size());
+        for (int i = 0; i < elements.size(); i++) {
+            nodes.add(new Node(i, elements.get(i)));
+        }
+        Set<Label> branchTargets = new HashSet<>();
+        Set<Label> referencedLabels = new HashSet<>();
+        boolean[] protectedRange = new boolean[elements.size()];
+        for (CodeElement element : elements) {
+            switch (element) {
+                case BranchInstruction branch -> branchTargets.add(branch.target());
+                case TableSwitchInstruction table -> {
+                    branchTargets.add(table.defaultTarget());
+                    table.cases().forEach(c -> branchTargets.add(c.target()));
+                }
+                case LookupSwitchInstruction lookup -> {
+                    branchTargets.add(lookup.defaultTarget());
+                    lookup.cases().forEach(c -> branchTargets.add(c.target()));
+                }
+                case ExceptionCatch handler -> {
+                    branchTargets.add(handler.handler());
+                    referencedLabels.add(handler.tryStart());
+                    referencedLabels.add(handler.tryEnd());
+                    int start = indexOfLabel(elements, handler.tryStart());
+                    int end = indexOfLabel(elements, handler.tryEnd());
+                    for (int i = Math.max(start, 0); i < end && i < protectedRange.length; i++) {
+                        protectedRange[i] = true;
+                    }
+                }
+                default -> {
+                }
+            }
+        }
+        referencedLabels.addAll(branchTargets);
+
+        boolean changed = true;
+        while (changed) {
+            changed = foldConstants(nodes, referencedLabels, counters)
+                | removeSelfAssignments(nodes, referencedLabels, counters)
+                | removeStoreLoadPairs(nodes, referencedLabels, counters)
+                | removeGotoNext(nodes, counters)
+                | removeUnreachable(nodes, branchTargets, protectedRange, counters)
+                | removeBoxUnbox(nodes, referencedLabels, counters);
+        }
+
+        Node[] plan = new Node[elements.size()];
+        for (Node node : nodes) {
+            plan[node.index] = node;
+        }
+        return plan;
+    }
+
+    /**
+     * 常量折叠：两个常量加二元运算、一个常量加一元运算或类型转换
+     */
+    private static boolean foldConstants(List<Node> nodes, Set<Label> referencedLabels, Counters counters) {
+        boolean changed = false;
+        for (int i = 0; i < nodes.size(); i++) {
+            Node first = nodes.get(i);
+            if (first.constant == null) {
+                continue;
+            }
+            int j = nextInstruction(nodes, i, referencedLabels);
+            if (j < 0) {
+                continue;
+            }
+            ConstantDesc unary = foldUnary(first.constant, nodes.get(j).element);
+            if (unary != null) {
+                first.constant = unary;
+                first.folded = true;
+                nodes.remove(j);
+                counters.folded++;
+                changed = true;
+                i--;
+                continue;
+            }
+            Node second = nodes.get(j);
+            int k = second.constant != null ? nextInstruction(nodes, j, referencedLabels) : -1;
+            if (k < 0) {
+                continue;
+            }
+            ConstantDesc binary = foldBinary(first.constant, second.constant, nodes.get(k).element);
+            if (binary != null) {
+                first.constant = binary;
+                first.folded = true;
+                nodes.remove(k);
+                nodes.remove(j);
+                counters.folded++;
+                changed = true;
+                i--;
+            }
+        }
+        return changed;
+    }
+
+    private static ConstantDesc foldUnary(ConstantDesc value, CodeElement element) {
+        if (!(element instanceof Instruction instruction)) {
+            return null;
+        }
+        if (value instanceof Integer a) {
+            return switch (instruction.opcode()) {
+                case INEG -> Integer.valueOf(-a);
+                case I2L -> Long.valueOf(a);
+                case I2B -> Integer.valueOf((byte) (int) a);
+                case I2C -> Integer.valueOf((char) (int) a);
+                case I2S -> Integer.valueOf((short) (int) a);
+                default -> null;
+            };
+        }
+        if (value instanceof Long a) {
+            return switch (instruction.opcode()) {
+                case LNEG -> Long.valueOf(-a);
+                case L2I -> Integer.valueOf((int) (long) a);
+                default -> null;
+            };
+        }
+        return null;
+    }
+
+    private static ConstantDesc foldBinary(ConstantDesc left, ConstantDesc right, CodeElement element) {
+        if (!(element instanceof OperatorInstruction operator)) {
+            return null;
+        }
+        if (left instanceof Integer a && right instanceof Integer b) {
+            return switch (operator.opcode()) {
+                case IADD -> a + b;
+                case ISUB -> a - b;
+                case IMUL -> a * b;
+                case IDIV -> b == 0 ? null : a / b;
+                case IREM -> b == 0 ? null : a % b;
+                case IAND -> a & b;
+                case IOR -> a | b;
+                case IXOR -> a ^ b;
+                case ISHL -> a << b;
+                case ISHR -> a >> b;
+                case IUSHR -> a >>> b;
+                default -> null;
+            };
+        }
+        if (left instanceof Long a && right instanceof Long b) {
+            return switch (operator.opcode()) {
+                case LADD -> a + b;
+                case LSUB -> a - b;
+                case LMUL -> a * b;
+                case LDIV -> b == 0 ? null : a / b;
+                case LREM -> b == 0 ? null : a % b;
+                case LAND -> a & b;
+                case LOR -> a | b;
+                case LXOR -> a ^ b;
+                default -> null;
+            };
+        }
+        if (left instanceof Long a && right instanceof Integer b) {
+            return switch (operator.opcode()) {
+                case LSHL -> a << b;
+                case LSHR -> a >> b;
+                case LUSHR -> a >>> b;
+                default -> null;
+            };
+        }
+        return null;
+    }
+
+    /**
+     * 删除 {@code xload n; xstore n}
+     */
+    private static boolean removeSelfAssignments(List<Node> nodes, Set<Label> referencedLabels, Counters counters) {
+        boolean changed = false;
+        for (int i = 0; i < nodes.size(); i++) {
+            if (!(nodes.get(i).element instanceof LoadInstruction load)) {
+                continue;
+            }
+            int j = nextInstruction(nodes, i, referencedLabels);
+            if (j >= 0 && nodes.get(j).element instanceof StoreInstruction store
+                    && store.slot() == load.slot() && store.typeKind() == load.typeKind()) {
+                nodes.remove(j);
+                nodes.remove(i);
+                counters.loadStore++;
+                changed = true;
+                i--;
+            }
+        }
+        return changed;
+    }
+
+    /**
+     * 删除 {@code xstore n; xload n}，要求局部变量n在整个方法中只被写一次、读一次，值直接留在操作数栈上
+     */
+    private static boolean removeStoreLoadPairs(List<Node> nodes, Set<Label> referencedLabels, Counters counters) {
+        Map<Integer, Integer> loads = new HashMap<>();
+        Map<Integer, Integer> stores = new HashMap<>();
+        for (Node node : nodes) {
+            switch (node.element) {
+                case LoadInstruction load -> loads.merge(load.slot(), 1, Integer::sum);
+                case StoreInstruction store -> stores.merge(store.slot(), 1, Integer::sum);
+                case IncrementInstruction increment -> stores.merge(increment.slot(), 2, Integer::sum);
+                default -> {
+                }
+            }
+        }
+        boolean changed = false;
+        for (int i = 0; i < nodes.size(); i++) {
+            if (!(nodes.get(i).element instanceof StoreInstruction store)
+                    || loads.getOrDefault(store.slot(), 0) != 1 || stores.get(store.slot()) != 1) {
+                continue;
+            }
+            int j = nextInstruction(nodes, i, referencedLabels);
+            if (j >= 0 && nodes.get(j).element instanceof LoadInstruction load
+                    && load.slot() == store.slot() && load.typeKind() == store.typeKind()) {
+                int slot = store.slot();
+                nodes.remove(j);
+                nodes.remove(i);
+                // 变量已不存在，删除对应的调试信息
+                nodes.removeIf(node -> node.element instanceof LocalVariable variable && variable.slot() == slot
+                    || node.element instanceof LocalVariableType variable && variable.slot() == slot);
+                loads.remove(slot);
+                counters.loadStore++;
+                changed = true;
+                i = -1;
+            }
+        }
+        return changed;
+    }
+
+    /**
+     * 删除目标就是下一条指令的goto
+     */
+    private static boolean removeGotoNext(List<Node> nodes, Counters counters) {
+        boolean changed = false;
+        for (int i = 0; i < nodes.size(); i++) {
+            if (!(nodes.get(i).element instanceof BranchInstruction branch)
+                    || (branch.opcode() != Opcode.GOTO && branch.opcode() != Opcode.GOTO_W)) {
+                continue;
+            }
+            for (int j = i + 1; j < nodes.size(); j++) {
+                CodeElement element = nodes.get(j).element;
+                if (element instanceof LabelTarget target && target.label().equals(branch.target())) {
+                    nodes.remove(i);
+                    counters.gotos++;
+                    changed = true;
+                    i--;
+                    break;
+                }
+                if (element instanceof Instruction) {
+                    break;
+                }
+            }
+        }
+        return changed;
+    }
+
+    /**
+     * 删除无条件跳转、返回或抛出异常之后、下一个跳转目标之前的不可达指令，异常处理范围内的代码不做处理
+     */
+    private static boolean removeUnreachable(List<Node> nodes, Set<Label> branchTargets, boolean[] protectedRange,
+                                             Counters counters) {
+        boolean changed = false;
+        boolean reachable = true;
+        Iterator<Node> iterator = nodes.iterator();
+        while (iterator.hasNext()) {
+            Node node = iterator.next();
+            CodeElement element = node.element;
+            if (element instanceof LabelTarget target && branchTargets.contains(target.label())) {
+                reachable = true;
+            } else if (!reachable && element instanceof Instruction && !protectedRange[node.index]) {
+                iterator.remove();
+                counters.unreachable++;
+                changed = true;
+                continue;
+            }
+            if (element instanceof Instruction instruction && endsBlock(instruction)) {
+                reachable = false;
+            }
+        }
+        return changed;
+    }
+
+    private static boolean endsBlock(Instruction instruction) {
+        return switch (instruction) {
+            case BranchInstruction branch -> branch.opcode() == Opcode.GOTO || branch.opcode() == Opcode.GOTO_W;
+            case ReturnInstruction _, ThrowInstruction _, TableSwitchInstruction _, LookupSwitchInstruction _ -> true;
+            default -> false;
+        };
+    }
+
+    /**
+     * 删除 {@code W.valueOf(p); [checkcast W;] W.pValue()}
+     */
+    private static boolean removeBoxUnbox(List<Node> nodes, Set<Label> referencedLabels, Counters counters) {
+        boolean changed = false;
+        for (int i = 0; i < nodes.size(); i++) {
+            if (!(nodes.get(i).element instanceof InvokeInstruction box) || box.opcode() != Opcode.INVOKESTATIC
+                    || !WRAPPERS.contains(box.owner().asInternalName()) || !box.name().equalsString("valueOf")
+                    || box.typeSymbol().parameterCount() != 1 || !box.typeSymbol().parameterType(0).isPrimitive()) {
+                continue;
+            }
+            ClassDesc primitive = box.typeSymbol().parameterType(0);
+            int j = nextInstruction(nodes, i, referencedLabels);
+            int cast = -1;
+            if (j >= 0 && nodes.get(j).element instanceof TypeCheckInstruction check
+                    && check.opcode() == Opcode.CHECKCAST && check.type().asInternalName().equals(box.owner().asInternalName())) {
+                cast = j;
+                j = nextInstruction(nodes, j, referencedLabels);
+            }
+            if (j >= 0 && nodes.get(j).element instanceof InvokeInstruction unbox
+                    && unbox.opcode() == Opcode.INVOKEVIRTUAL && unbox.owner().asInternalName().equals(box.owner().asInternalName())
+                    && unbox.name().equalsString(primitive.displayName() + "Value")
+                    && unbox.typeSymbol().parameterCount() == 0
+                    && unbox.typeSymbol().returnType().equals(primitive)) {
+                nodes.remove(j);
+                if (cast >= 0) {
+                    nodes.remove(cast);
+                }
+                nodes.remove(i);
+                counters.boxing++;
+                changed = true;
+                i--;
+            }
+        }
+        return changed;
+    }
+
+    // ================= Helpers =================
+
+    /**
+     * 查找同一基本块内的下一条指令，中间只允许出现没有被引用的标签、行号等伪指令
+     *
+     * @return 下一条指令的位置，遇到被引用的标签或到达末尾时返回-1
+     */
+    private static int nextInstruction(List<Node> nodes, int index, Set<Label> referencedLabels) {
+        for (int i = index + 1; i < nodes.size(); i++) {
+            CodeElement element = nodes.get(i).element;
+            if (element instanceof LabelTarget target && referencedLabels.contains(target.label())) {
+                return -1;
+            }
+            if (element instanceof Instruction) {
+                return i;
+            }
+        }
+        return -1;
+    }
+
+    private static int indexOfLabel(List<CodeElement> elements, Label label) {
+        for (int i = 0; i < elements.size(); i++) {
+            if (elements.get(i) instanceof LabelTarget target && target.label().equals(label)) {
+                return i;
+            }
+        }
+        return elements.size();
+    }
+}
@@ -0,0 +1,467 @@
+package org.yanhuang.learning.jdk24.classapi;
+
+import java.io.IOException;
+import java.lang.classfile.*;
+import java.lang.classfile.constantpool.ClassEntry;
+import java.lang.classfile.instruction.*;
+import java.nio.file.Path;
+import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.Function;
+
+/**
+ * 基于字节码的静态性能检查器
+ * <p>
+ * 规则引擎对每个方法只遍历一次代码元素，同时把每个元素分发给所有规则的检查器，
+ * 因此规则数量增加时不会增加遍历次数。类之间并行处理，检查结果写入无锁队列，计数使用 {@link LongAdder}，
+ * 工作线程之间没有锁竞争。只依赖字节码，可以检查没有源码的第三方依赖。
+ * <p>
+ * 内置规则：
+ * <ul>
+ *     <li>{@code allocation-in-loop}：循环内创建对象或数组</li>
+ *     <li>{@code exception-control-flow}：抛出的异常被同一方法中的try块捕获，即用异常做流程控制</li>
+ *     <li>{@code sleep-in-loop}：循环内调用 Thread.sleep 或 TimeUnit.sleep 轮询</li>
+ *     <li>{@code unbounded-recursion}：直接递归调用自身</li>
+ *     <li>{@code string-concat-in-loop}：循环内拼接字符串</li>
+ * </ul>
+ * 循环通过回边识别，见 {@link ClassFileToolkit#loopDepths(List)}。
+ */
+public class PerformanceLinter {
+
+    private final ClassFileToolkit toolkit = new ClassFileToolkit();
+    private final List<Rule> rules = new ArrayList<>();
+    /** 已解析的父类，检查的类之外的类型通过系统类加载器查找（不初始化），找不到时为空 */
+    private final Map<String, Optional<String>> superclasses = new ConcurrentHashMap<>();
+
+    /**
+     * 检查结果的严重程度
+     */
+    public enum Severity {
+        INFO, WARNING, ERROR
+    }
+
+    /**
+     * 一条检查结果
+     *
+     * @param rule 规则标识
+     * @param severity 严重程度
+     * @param className 所在类的内部名称
+     * @param method 所在方法的名称和描述符
+     * @param line 源码行号，没有行号表时为-1
+     * @param message 说明
+     */
+    public record Finding(String rule, Severity severity, String className, String method, int line, String message) {
+    }
+
+    /**
+     * 检查报告
+     *
+     * @param findings 所有检查结果，按严重程度从高到低、类名、方法、行号排序
+     * @param countsByRule 每条规则的结果数量
+     */
+    public record LintReport(List<Finding> findings, Map<String, Long> countsByRule) {
+        public long count(Severity severity) {
+            return findings.stream().filter(finding -> finding.severity() == severity).count();
+        }
+
+        /**
+         * @param threshold 最低严重程度
+         * @return 是否存在不低于该严重程度的结果，可用于CI中决定构建是否失败
+         */
+        public boolean hasFindings(Severity threshold) {
+            return findings.stream().anyMatch(finding -> finding.severity().compareTo(threshold) >= 0);
+        }
+    }
+
+    /**
+     * 检查规则。每个方法调用一次 {@link #newChecker}，返回null表示该方法不需要检查
+     */
+    public interface Rule {
+        String id();
+
+        MethodChecker newChecker(MethodContext context);
+    }
+
+    /**
+     * 单个方法的检查器，按顺序接收方法中的每个代码元素
+     */
+    public interface MethodChecker {
+        void visit(int index, CodeElement element);
+
+        default void finish() {
+        }
+    }
+
+    /**
+     * 正在检查的方法及其预先计算的信息，供所有规则共享
+     */
+    public final class MethodContext {
+        private final ClassModel classModel;
+        private final MethodModel method;
+        private final String methodKey;
+        private final List<CodeElement> elements;
+        private final int[] loopDepth;
+        private final int[] lines;
+        private final List<ExceptionCatch> handlers;
+        private final Map<Label, Integer> labelIndex = new HashMap<>();
+        private final Map<String, ClassModel> corpus;
+        private final Collection<Finding> sink;
+        private final Map<String, LongAdder> counts;
+
+        private MethodContext(ClassModel classModel, MethodModel method, CodeModel code, Map<String, ClassModel> corpus,
+                              Collection<Finding> sink, Map<String, LongAdder> counts) {
+            this.classModel = classModel;
+            this.method = method;
+            this.methodKey = method.methodName().stringValue() + method.methodType().stringValue();
+            this.elements = code.elementList();
+            this.loopDepth = toolkit.loopDepths(elements);
+            this.lines = new int[elements.size()];
+            this.handlers = code.exceptionHandlers();
+            this.corpus = corpus;
+            this.sink = sink;
+            this.counts = counts;
+            int line = -1;
+            for (int i = 0; i < elements.size(); i++) {
+                CodeElement element = elements.get(i);
+                if (element instanceof LineNumber lineNumber) {
+                    line = lineNumber.line();
+                } else if (element instanceof LabelTarget target) {
+                    labelIndex.put(target.label(), i);
+                }
+                lines[i] = line;
+            }
+        }
+
+        public ClassModel classModel() {
+            return classModel;
+        }
+
+        public String className() {
+            return classModel.thisClass().asInternalName();
+        }
+
+        public MethodModel method() {
+            return method;
+        }
+
+        /**
+         * @return 方法名称和描述符
+         */
+        public String methodKey() {
+            return methodKey;
+        }
+
+        public List<CodeElement> elements() {
+            return elements;
+        }
+
+        public int loopDepth(int index) {
+            return loopDepth[index];
+        }
+
+        public int line(int index) {
+            return lines[index];
+        }
+
+        public int labelIndex(Label label) {
+            return labelIndex.getOrDefault(label, -1);
+        }
+
+        public List<ExceptionCatch> handlers() {
+            return handlers;
+        }
+
+        /**
+         * 判断类型是否为另一个类型本身或其子类
+         *
+         * @param type 内部类名
+         * @param superType 可能的父类内部类名
+         */
+        public boolean isSubclassOf(String type, String superType) {
+            for (String current = type; current != null; current = superclassOf(current, corpus)) {
+                if (current.equals(superType)) {
+                    return true;
+                }
+            }
+            return false;
+        }
+
+        /**
+         * 记录一条检查结果
+         *
+         * @param rule 规则标识
+         * @param severity 严重程度
+         * @param index 代码元素位置，用于确定行号
+         * @param message 说明
+         */
+        public void report(String rule, Severity severity, int index, String message) {
+            sink.add(new Finding(rule, severity, className(), methodKey, lines[index], message));
+            counts.computeIfAbsent(rule, id -> new LongAdder()).increment();
+        }
+    }
+
+    private String superclassOf(String internalName, Map<String, ClassModel> corpus) {
+        ClassModel model = corpus.get(internalName);
+        if (model != null) {
+            return model.superclass().map(ClassEntry::asInternalName).orElse(null);
+        }
+        return superclasses.computeIfAbsent(internalName, name -> {
+            try {
+                Class<?> type = Class.forName(name.replace('/', '.'), false, ClassLoader.getSystemClassLoader());
+                return Optional.ofNullable(type.getSuperclass()).map(s -> s.getName().replace('.', '/'));
+            } catch (ClassNotFoundException | LinkageError e) {
+                return Optional.empty();
+            }
+        }).orElse(null);
+    }
+
+    /**
+     * 添加一条规则
+     */
+    public PerformanceLinter addRule(Rule rule) {
+        rules.add(rule);
+        return this;
+    }
+
+    /**
+     * 添加所有内置规则
+     */
+    public PerformanceLinter withDefaultRules() {
+        rules.add(allocationInLoop());
+        rules.add(exceptionsAsControlFlow());
+        rules.add(sleepInLoop());
+        rules.add(unboundedRecursion());
+        rules.add(stringConcatInLoop());
+        return this;
+    }
+
+    // ================= Running rules =================
+
+    /**
+     * 检查一组jar中的所有类
+     *
+     * @param jarPaths jar路径列表
+     * @return 检查报告
+     * @throws IOException 如果文件读取失败
+     */
+    public LintReport lint(List<Path> jarPaths) throws IOException {
+        return lint(toolkit.readClasspath(jarPaths));
+    }
+
+    /**
+     * 并行检查一组类
+     *
+     * @param classes 内部类名到类模型的映射
+     * @return 检查报告
+     */
+    public LintReport lint(Map<String, ClassModel> classes) {
+        if (rules.isEmpty()) {
+            throw new IllegalStateException("没有配置检查规则");
+        }
+        Queue<Finding> findings = new ConcurrentLinkedQueue<>();
+        Map<String, LongAdder> counts = new ConcurrentHashMap<>();
+        classes.values().parallelStream().forEach(model -> lint(model, classes, findings, counts));
+
+        List<Finding> sorted = findings.stream()
+            .sorted(Comparator.comparing(Finding::severity).reversed()
+                .thenComparing(Finding::className)
+                .thenComparing(Finding::method)
+                .thenComparingInt(Finding::line))
+            .toList();
+        Map<String, Long> countsByRule = new TreeMap<>();
+        counts.forEach((rule, count) -> countsByRule.put(rule, count.sum()));
+        return new LintReport(sorted, countsByRule);
+    }
+
+    private void lint(ClassModel model, Map<String, ClassModel> corpus, Collection<Finding> sink,
+                      Map<String, LongAdder> counts) {
+        for (MethodModel method : model.methods()) {
+            if (method.code().isEmpty()) {
+                continue;
+            }
+            MethodContext context = new MethodContext(model, method, method.code().get(), corpus, sink, counts);
+            List<MethodChecker> checkers = new ArrayList<>(rules.size());
+            for (Rule rule : rules) {
+                MethodChecker checker = rule.newChecker(context);
+                if (checker != null) {
+                    checkers.add(checker);
+                }
+            }
+            if (checkers.isEmpty()) {
+                continue;
+            }
+            List<CodeElement> elements = context.elements();
+            for (int i = 0; i < elements.size(); i++) {
+                CodeElement element = elements.get(i);
+                for (MethodChecker checker : checkers) {
+                    checker.visit(i, element);
+                }
+            }
+            checkers.forEach(MethodChecker::finish);
+        }
+    }
+
+    // ================= Built-in rules =================
+
+    /**
+     * 用规则标识和检查器工厂创建规则
+     *
+     * @param id 规则标识
+     * @param factory 为每个方法创建检查器，返回null表示跳过该方法
+     */
+    public static Rule rule(String id, Function<MethodContext, MethodChecker> factory) {
+        return new Rule() {
+            @Override
+            public String id() {
+                return id;
+            }
+
+            @Override
+            public MethodChecker newChecker(MethodContext context) {
+                return factory.apply(context);
+            }
+        };
+    }
+
+    /**
+     * 循环内创建对象或数组。异常对象通常只在出错时创建，不计入
+     */
+    public static Rule allocationInLoop() {
+        String id = "allocation-in-loop";
+        return rule(id, context -> (index, element) -> {
+            if (context.loopDepth(index) == 0) {
+                return;
+            }
+            String type = switch (element) {
+                case NewObjectInstruction n -> isThrowableName(n.className().asInternalName())
+                    ? null : n.className().asInternalName();
+                case NewPrimitiveArrayInstruction n -> n.typeKind().upperBound().displayName() + "[]";
+                case NewReferenceArrayInstruction n -> n.componentType().asInternalName() + "[]";
+                case NewMultiArrayInstruction n -> n.arrayType().asInternalName();
+                default -> null;
+            };
+            if (type != null) {
+                context.report(id, Severity.WARNING, index,
+                    "循环内分配 " + type + "（循环深度 " + context.loopDepth(index) + "），考虑移到循环外复用");
+            }
+        });
+    }
+
+    private static boolean isThrowableName(String internalName) {
+        return internalName.endsWith("Exception") || internalName.endsWith("Error");
+    }
+
+    /**
+     * 抛出的异常被同一方法中覆盖该位置的try块捕获，异常被当作跳转使用，
+     * 每次都要填充调用栈，代价远高于普通分支。只处理紧接在 new 之后抛出的异常，忽略 finally 对应的 catch-any
+     */
+    public static Rule exceptionsAsControlFlow() {
+        String id = "exception-control-flow";
+        return rule(id, context -> {
+            if (context.handlers().stream().allMatch(handler -> handler.catchType().isEmpty())) {
+                return null;
+            }
+            String[] lastNew = new String[1];
+            return (index, element) -> {
+                if (element instanceof NewObjectInstruction n) {
+                    lastNew[0] = n.className().asInternalName();
+                } else if (element instanceof ThrowInstruction && lastNew[0] != null) {
+                    for (ExceptionCatch handler : context.handlers()) {
+                        if (handler.catchType().isEmpty()
+                            || index < context.labelIndex(handler.tryStart())
+                            || index >= context.labelIndex(handler.tryEnd())) {
+                            continue;
+                        }
+                        String caught = handler.catchType().get().asInternalName();
+                        if (context.isSubclassOf(lastNew[0], caught)) {
+                            context.report(id, Severity.WARNING, index,
+                                "抛出的 " + lastNew[0] + " 被本方法的 catch (" + caught + ") 捕获，异常被用作流程控制");
+                            break;
+                        }
+                    }
+                    lastNew[0] = null;
+                }
+            };
+        });
+    }
+
+    /**
+     * 循环内调用 sleep 轮询，通常应改为阻塞队列、条件等待或定时调度
+     */
+    public static Rule sleepInLoop() {
+        String id = "sleep-in-loop";
+        return rule(id, context -> (index, element) -> {
+            if (context.loopDepth(index) > 0 && element instanceof InvokeInstruction invoke
+                && invoke.name().equalsString("sleep")) {
+                String owner = invoke.owner().asInternalName();
+                if (owner.equals("java/lang/Thread") || owner.equals("java/util/concurrent/TimeUnit")) {
+                    context.report(id, Severity.WARNING, index,
+                        "循环内调用 " + owner + ".sleep 轮询，考虑使用阻塞队列、条件等待或 ScheduledExecutorService");
+                }
+            }
+        });
+    }
+
+    /**
+     * 方法直接调用自身。调用之前没有任何条件分支时递归必然无法结束（ERROR），
+     * 否则递归深度由参数决定，没有显式上限，较大的输入会导致栈溢出（WARNING）。每个方法只报告一次
+     */
+    public static Rule unboundedRecursion() {
+        String id = "unbounded-recursion";
+        return rule(id, context -> {
+            String owner = context.className();
+            MethodModel method = context.method();
+            boolean[] state = new boolean[2]; // [0]: 已出现条件分支, [1]: 已报告
+            return (index, element) -> {
+                switch (element) {
+                    case BranchInstruction branch when branch.opcode() != Opcode.GOTO
+                        && branch.opcode() != Opcode.GOTO_W -> state[0] = true;
+                    case TableSwitchInstruction table -> state[0] = true;
+                    case LookupSwitchInstruction lookup -> state[0] = true;
+                    case InvokeInstruction invoke when !state[1]
+                        && invoke.opcode() != Opcode.INVOKEINTERFACE
+                        && invoke.owner().asInternalName().equals(owner)
+                        && invoke.name().equalsString(method.methodName().stringValue())
+                        && invoke.type().equalsString(method.methodType().stringValue()) -> {
+                        state[1] = true;
+                        if (state[0]) {
+                            context.report(id, Severity.WARNING, index,
+                                "递归深度由参数决定且没有上限，较大输入会导致 StackOverflowError，考虑改为循环");
+                        } else {
+                            context.report(id, Severity.ERROR, index, "递归调用之前没有任何条件分支，递归无法结束");
+                        }
+                    }
+                    default -> {
+                    }
+                }
+            };
+        });
+    }
+
+    /**
+     * 循环内拼接字符串：invokedynamic 字符串拼接、String.concat 或新建 StringBuilder，
+     * 每次迭代都会创建新的字符串，累加时复制量随长度平方增长
+     */
+    public static Rule stringConcatInLoop() {
+        String id = "string-concat-in-loop";
+        return rule(id, context -> (index, element) -> {
+            if (context.loopDepth(index) == 0) {
+                return;
+            }
+            boolean concat = switch (element) {
+                case InvokeDynamicInstruction indy -> indy.bootstrapMethod().owner().descriptorString()
+                    .equals("Ljava/lang/invoke/StringConcatFactory;");
+                case InvokeInstruction invoke -> invoke.owner().asInternalName().equals("java/lang/String")
+                    && invoke.name().equalsString("concat");
+                case NewObjectInstruction n -> n.className().asInternalName().equals("java/lang/StringBuilder")
+                    || n.className().asInternalName().equals("java/lang/StringBuffer");
+                default -> false;
+            };
+            if (concat) {
+                context.report(id, Severity.WARNING, index, "循环内拼接字符串，考虑在循环外创建一个 StringBuilder 复用");
+            }
+        });
+    }
+}
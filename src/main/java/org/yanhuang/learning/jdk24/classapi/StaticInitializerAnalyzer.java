@@ -0,0 +1,170 @@
+package org.yanhuang.learning.jdk24.classapi;
+
+import java.io.IOException;
+import java.lang.classfile.*;
+import java.lang.classfile.attribute.CodeAttribute;
+import java.lang.classfile.instruction.*;
+import java.nio.file.Path;
+import java.util.*;
+
+/**
+ * 静态初始化器（&lt;clinit&gt;）开销分析
+ * 统计每个类的&lt;clinit&gt;代码大小、指令数、方法调用数和对象分配数，
+ * 并标记执行I/O、反射或大量分配的初始化器。类初始化是串行执行的，会直接拖慢启动。
+ * 可以用 {@link LazyHolderTransformer} 把符合条件的 static final 字段的初始化推迟到延迟持有类中。
+ */
+public class StaticInitializerAnalyzer {
+
+    /** 达到该分配数量的初始化器视为大量分配 */
+    private static final int HEAVY_ALLOCATION_THRESHOLD = 16;
+
+    /** 会执行I/O的包。java/nio/ 下的 ByteBuffer、charset 等只是内存操作，只算 file 和 channels */
+    private static final List<String> IO_PACKAGES = List.of(
+        "java/nio/file/", "java/nio/channels/", "java/net/", "java/util/logging/", "org/slf4j/", "org/apache/logging/");
+
+    /** java/io 中访问文件和控制台的类，ByteArrayInputStream、StringReader 等内存中的流不算 */
+    private static final Set<String> IO_CLASSES = Set.of(
+        "java/io/File", "java/io/FileInputStream", "java/io/FileOutputStream", "java/io/FileReader",
+        "java/io/FileWriter", "java/io/RandomAccessFile", "java/io/Console", "java/io/PrintStream");
+
+    private static final Set<String> REFLECTIVE_CLASS_METHODS = Set.of(
+        "forName", "getMethod", "getMethods", "getDeclaredMethod", "getDeclaredMethods",
+        "getField", "getFields", "getDeclaredField", "getDeclaredFields",
+        "getConstructor", "getDeclaredConstructor", "newInstance");
+
+    private final ClassFileToolkit toolkit = new ClassFileToolkit();
+
+    /**
+     * 初始化器中值得关注的行为
+     */
+    public enum Concern {
+        /** 执行I/O或日志输出 */
+        IO,
+        /** 使用反射或方法句柄查找 */
+        REFLECTION,
+        /** 大量分配或在循环中分配 */
+        HEAVY_ALLOCATION
+    }
+
+    /**
+     * 单个类的静态初始化器开销
+     *
+     * @param className 类的内部名称
+     * @param codeLength 字节码长度
+     * @param instructionCount 指令数量
+     * @param invocations 方法调用数量（包括invokedynamic）
+     * @param allocations 对象和数组分配数量
+     * @param hasLoop 是否包含循环
+     * @param concerns 值得关注的行为
+     */
+    public record InitializerCost(String className, int codeLength, int instructionCount, int invocations,
+                                  int allocations, boolean hasLoop, Set<Concern> concerns) {
+        /**
+         * 用于排序的粗略开销估算，调用和分配的权重高于普通指令
+         */
+        public int score() {
+            return instructionCount + invocations * 8 + allocations * 4 + concerns.size() * 100;
+        }
+    }
+
+    /**
+     * 分析类路径上所有类的静态初始化器
+     *
+     * @param jarPaths jar文件路径
+     * @return 按开销从高到低排列的分析结果
+     * @throws IOException 如果文件读取失败
+     */
+    public List<InitializerCost> analyze(List<Path> jarPaths) throws IOException {
+        return analyze(toolkit.readClasspath(jarPaths));
+    }
+
+    /**
+     * 并行分析一组类的静态初始化器
+     *
+     * @param classes 内部类名到类模型的映射
+     * @return 按开销从高到低排列的分析结果，没有&lt;clinit&gt;的类不出现在结果中
+     */
+    public List<InitializerCost> analyze(Map<String, ClassModel> classes) {
+        return classes.values().parallelStream()
+            .map(this::analyze)
+            .flatMap(Optional::stream)
+            .sorted(Comparator.comparingInt(InitializerCost::score).reversed())
+            .toList();
+    }
+
+    /**
+     * 分析单个类的静态初始化器
+     *
+     * @param classModel 类模型
+     * @return 分析结果，类没有&lt;clinit&gt;时为空
+     */
+    public Optional<InitializerCost> analyze(ClassModel classModel) {
+        return toolkit.findMethod(classModel, "<clinit>", "()V")
+            .flatMap(method -> method.findAttribute(Attributes.code()))
+            .map(code -> analyzeCode(classModel.thisClass().asInternalName(), code));
+    }
+
+    private static InitializerCost analyzeCode(String className, CodeAttribute code) {
+        int instructions = 0;
+        int invocations = 0;
+        int allocations = 0;
+        boolean hasLoop = false;
+        Set<Concern> concerns = EnumSet.noneOf(Concern.class);
+        Set<Label> boundLabels = new HashSet<>();
+
+        for (CodeElement element : code) {
+            if (element instanceof LabelTarget target) {
+                boundLabels.add(target.label());
+                continue;
+            }
+            if (!(element instanceof Instruction)) {
+                continue;
+            }
+            instructions++;
+            switch (element) {
+                case InvokeInstruction invoke -> {
+                    invocations++;
+                    String owner = invoke.owner().asInternalName();
+                    String name = invoke.name().stringValue();
+                    if (isIo(owner)) {
+                        concerns.add(Concern.IO);
+                    }
+                    if (owner.startsWith("java/lang/reflect/")
+                            || owner.equals("java/lang/Class") && REFLECTIVE_CLASS_METHODS.contains(name)
+                            || owner.equals("java/lang/invoke/MethodHandles$Lookup") && name.startsWith("find")) {
+                        concerns.add(Concern.REFLECTION);
+                    }
+                }
+                case InvokeDynamicInstruction _ -> invocations++;
+                case FieldInstruction field when field.opcode() == Opcode.GETSTATIC
+                        && field.owner().asInternalName().equals("java/lang/System") -> {
+                    // System.out / System.err / System.in
+                    concerns.add(Concern.IO);
+                }
+                case NewObjectInstruction _, NewPrimitiveArrayInstruction _,
+                     NewReferenceArrayInstruction _, NewMultiArrayInstruction _ -> allocations++;
+                case BranchInstruction branch when boundLabels.contains(branch.target()) -> hasLoop = true;
+                default -> {
+                }
+            }
+        }
+
+        if (allocations >= HEAVY_ALLOCATION_THRESHOLD || hasLoop && allocations > 0) {
+            concerns.add(Concern.HEAVY_ALLOCATION);
+        }
+        return new InitializerCost(className, code.codeLength(), instructions, invocations, allocations,
+            hasLoop, concerns);
+    }
+
+    private static boolean isIo(String owner) {
+        if (IO_CLASSES.contains(owner)) {
+            return true;
+        }
+        for (String prefix : IO_PACKAGES) {
+            if (owner.startsWith(prefix)) {
+                return true;
+            }
+        }
+        return false;
+    }
+}
@@ -0,0 +1,294 @@
+package org.yanhuang.learning.jdk24.classapi;
+
+import java.io.IOException;
+import java.lang.classfile.*;
+import java.lang.classfile.instruction.LineNumber;
+import java.lang.classfile.instruction.LocalVariable;
+import java.lang.classfile.instruction.LocalVariableType;
+import java.lang.classfile.instruction.ReturnInstruction;
+import java.lang.constant.ClassDesc;
+import java.lang.constant.ConstantDescs;
+import java.lang.constant.MethodTypeDesc;
+import java.nio.file.Path;
+import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.Predicate;
+
+/**
+ * 融合多个转换的流水线
+ * 注册类级、方法级和代码级的转换，每个转换带有匹配条件。处理一个类时只挑选匹配的转换，
+ * 用 ClassTransform.andThen 融合成一个转换，一次解析、一次遍历、一次构建完成全部修改；
+ * 没有任何转换匹配的类直接返回原始字节，不会被重新构建。
+ * <p>
+ * 使用示例：
+ * <pre>{@code
+ * TransformPipeline pipeline = new TransformPipeline()
+ *     .addCodeTransform("strip-debug", method -> true, TransformPipeline.stripDebugInfo())
+ *     .addClassTransform("timing", model -> true, TransformPipeline.timingProbe())
+ *     .addClassTransform("final", model -> model.thisClass().asInternalName().startsWith("com/example/"),
+ *         TransformPipeline.setClassFlags(ClassFile.ACC_FINAL, 0));
+ * pipeline.transformJar(input, output);
+ * }</pre>
+ */
+public class TransformPipeline {
+
+    private static final ClassDesc CD_TIMINGS = ClassDesc.of(Timings.class.getName());
+    private static final ClassDesc CD_SYSTEM = ClassDesc.of("java.lang.System");
+    private static final MethodTypeDesc MTD_NANO_TIME = MethodTypeDesc.of(ConstantDescs.CD_long);
+    private static final MethodTypeDesc MTD_RECORD = MethodTypeDesc.of(
+        ConstantDescs.CD_void, ConstantDescs.CD_String, ConstantDescs.CD_long);
+
+    private final ClassFileToolkit toolkit = new ClassFileToolkit();
+    private final List<Stage> stages = new ArrayList<>();
+    private ClassFile classFile = ClassFile.of();
+
+    private record Stage(String name, Predicate<ClassModel> matcher, ClassTransform transform) {
+    }
+
+    /**
+     * 单个类的处理结果
+     *
+     * @param bytes 转换后的字节，没有转换匹配时为原始字节
+     * @param appliedStages 匹配并应用的转换名称
+     */
+    public record ClassResult(byte[] bytes, List<String> appliedStages) {
+        public boolean rebuilt() {
+            return !appliedStages.isEmpty();
+        }
+    }
+
+    /**
+     * jar的处理报告
+     *
+     * @param classes 处理的类数量
+     * @param rebuilt 被重新构建的类数量
+     * @param stageHits 每个转换匹配的类数量
+     */
+    public record PipelineReport(int classes, int rebuilt, Map<String, Integer> stageHits) {
+    }
+
+    // ================= Registration =================
+
+    /**
+     * 设置转换时使用的类层次解析器，插入代码需要重新生成栈映射帧时使用
+     *
+     * @param resolver 类层次解析器，例如 ClassFileToolkit.hierarchyResolver 的结果
+     * @return 当前流水线
+     */
+    public TransformPipeline setClassHierarchyResolver(ClassHierarchyResolver resolver) {
+        this.classFile = ClassFile.of(ClassFile.ClassHierarchyResolverOption.of(resolver));
+        return this;
+    }
+
+    /**
+     * 注册类级转换
+     *
+     * @param name 转换名称，用于报告
+     * @param matcher 类匹配条件
+     * @param transform 类转换
+     * @return 当前流水线
+     */
+    public TransformPipeline addClassTransform(String name, Predicate<ClassModel> matcher, ClassTransform transform) {
+        stages.add(new Stage(name, matcher, transform));
+        return this;
+    }
+
+    /**
+     * 注册方法级转换，只作用于匹配的方法；类中至少有一个方法匹配时该转换才会应用
+     *
+     * @param name 转换名称，用于报告
+     * @param methodFilter 方法匹配条件
+     * @param transform 方法转换
+     * @return 当前流水线
+     */
+    public TransformPipeline addMethodTransform(String name, Predicate<MethodModel> methodFilter,
+                                                MethodTransform transform) {
+        stages.add(new Stage(name,
+            model -> model.methods().stream().anyMatch(methodFilter),
+            ClassTransform.transformingMethods(methodFilter, transform)));
+        return this;
+    }
+
+    /**
+     * 注册代码级转换，只作用于匹配且有方法体的方法
+     *
+     * @param name 转换名称，用于报告
+     * @param methodFilter 方法匹配条件
+     * @param transform 代码转换
+     * @return 当前流水线
+     */
+    public TransformPipeline addCodeTransform(String name, Predicate<MethodModel> methodFilter,
+                                              CodeTransform transform) {
+        Predicate<MethodModel> withCode = method -> method.code().isPresent() && methodFilter.test(method);
+        stages.add(new Stage(name,
+            model -> model.methods().stream().anyMatch(withCode),
+            ClassTransform.transformingMethodBodies(withCode, transform)));
+        return this;
+    }
+
+    // ================= Execution =================
+
+    /**
+     * 对单个类应用所有匹配的转换
+     *
+     * @param classBytes 类文件字节数组
+     * @return 处理结果
+     */
+    public ClassResult apply(byte[] classBytes) {
+        ClassModel model = classFile.parse(classBytes);
+        List<String> applied = new ArrayList<>();
+        ClassTransform fused = null;
+        for (Stage stage : stages) {
+            if (stage.matcher().test(model)) {
+                applied.add(stage.name());
+                fused = fused == null ? stage.transform() : fused.andThen(stage.transform());
+            }
+        }
+        if (fused == null) {
+            return new ClassResult(classBytes, List.of());
+        }
+        return new ClassResult(classFile.transformClass(model, fused), List.copyOf(applied));
+    }
+
+    /**
+     * 并行处理jar中的所有类文件，非类文件条目和未匹配的类原样保留
+     *
+     * @param inputJar 输入jar路径
+     * @param outputJar 输出jar路径
+     * @return 处理报告
+     * @throws IOException 如果文件读取或写入失败
+     */
+    public PipelineReport transformJar(Path inputJar, Path outputJar) throws IOException {
+        Map<String, byte[]> entries = toolkit.readJar(inputJar);
+        Map<String, byte[]> transformed = new ConcurrentHashMap<>();
+        Map<String, AtomicInteger> stageHits = new ConcurrentHashMap<>();
+        AtomicInteger classes = new AtomicInteger();
+        AtomicInteger rebuilt = new AtomicInteger();
+
+        entries.entrySet().parallelStream()
+            .filter(entry -> toolkit.isClassEntry(entry.getKey()))
+            .forEach(entry -> {
+                ClassResult result = apply(entry.getValue());
+                classes.incrementAndGet();
+                if (result.rebuilt()) {
+                    rebuilt.incrementAndGet();
+                    transformed.put(entry.getKey(), result.bytes());
+                    result.appliedStages().forEach(stage ->
+                        stageHits.computeIfAbsent(stage, s -> new AtomicInteger()).incrementAndGet());
+                }
+            });
+
+        Map<String, byte[]> output = new LinkedHashMap<>();
+        entries.forEach((name, bytes) -> output.put(name, transformed.getOrDefault(name, bytes)));
+        toolkit.writeJar(outputJar, output);
+
+        Map<String, Integer> hits = new LinkedHashMap<>();
+        stages.forEach(stage -> hits.put(stage.name(),
+            stageHits.getOrDefault(stage.name(), new AtomicInteger()).get()));
+        return new PipelineReport(classes.get(), rebuilt.get(), hits);
+    }
+
+    // ================= Common transforms =================
+
+    /**
+     * 删除局部变量表、局部变量类型表和行号表的代码转换
+     */
+    public static CodeTransform stripDebugInfo() {
+        return CodeTransform.dropping(element -> element instanceof LocalVariable
+            || element instanceof LocalVariableType
+            || element instanceof LineNumber);
+    }
+
+    /**
+     * 修改类访问标志的类转换
+     *
+     * @param setFlags 需要设置的标志
+     * @param clearFlags 需要清除的标志
+     */
+    public static ClassTransform setClassFlags(int setFlags, int clearFlags) {
+        return (builder, element) -> {
+            if (element instanceof AccessFlags flags) {
+                builder.withFlags((flags.flagsMask() | setFlags) & ~clearFlags);
+            } else {
+                builder.with(element);
+            }
+        };
+    }
+
+    /**
+     * 计时探针：在每个有方法体的方法入口记录System.nanoTime()，每个返回指令之前把耗时累加到 {@link Timings}
+     * 插入的局部变量会改变栈映射帧，应用探针时建议设置类层次解析器
+     */
+    public static ClassTransform timingProbe() {
+        return (classBuilder, element) -> {
+            if (element instanceof MethodModel method && method.code().isPresent()
+                    && !method.methodName().equalsString("<clinit>")) {
+                String key = method.parent().map(parent -> parent.thisClass().asInternalName()).orElse("?")
+                    + "." + method.methodName().stringValue() + method.methodType().stringValue();
+                classBuilder.transformMethod(method, MethodTransform.transformingCode(probeCode(key)));
+            } else {
+                classBuilder.with(element);
+            }
+        };
+    }
+
+    private static CodeTransform probeCode(String key) {
+        return CodeTransform.ofStateful(() -> new CodeTransform() {
+            private int startSlot;
+
+            @Override
+            public void atStart(CodeBuilder builder) {
+                startSlot = builder.allocateLocal(TypeKind.LONG);
+                builder.invokestatic(CD_SYSTEM, "nanoTime", MTD_NANO_TIME).lstore(startSlot);
+            }
+
+            @Override
+            public void accept(CodeBuilder builder, CodeElement element) {
+                if (element instanceof ReturnInstruction) {
+                    builder.ldc(key)
+                        .invokestatic(CD_SYSTEM, "nanoTime", MTD_NANO_TIME)
+                        .lload(startSlot)
+                        .lsub()
+                        .invokestatic(CD_TIMINGS, "record", MTD_RECORD);
+                }
+                builder.with(element);
+            }
+        });
+    }
+
+    /**
+     * 计时探针的累计结果，被插桩的代码在运行时调用 {@link #record}
+     */
+    public static final class Timings {
+        private static final Map<String, LongAdder> TOTAL_NANOS = new ConcurrentHashMap<>();
+        private static final Map<String, LongAdder> CALLS = new ConcurrentHashMap<>();
+
+        private Timings() {
+        }
+
+        public static void record(String method, long nanos) {
+            TOTAL_NANOS.computeIfAbsent(method, m -> new LongAdder()).add(nanos);
+            CALLS.computeIfAbsent(method, m -> new LongAdder()).increment();
+        }
+
+        /**
+         * @return 方法到累计纳秒数的快照
+         */
+        public static Map<String, Long> totalNanos() {
+            Map<String, Long> snapshot = new TreeMap<>();
+            TOTAL_NANOS.forEach((method, adder) -> snapshot.put(method, adder.sum()));
+            return snapshot;
+        }
+
+        /**
+         * @return 方法到调用次数的快照
+         */
+        public static Map<String, Long> calls() {
+            Map<String, Long> snapshot = new TreeMap<>();
+            CALLS.forEach((method, adder) -> snapshot.put(method, adder.sum()));
+            return snapshot;
+        }
+    }
+}
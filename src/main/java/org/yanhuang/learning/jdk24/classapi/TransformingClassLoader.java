@@ -0,0 +1,223 @@
+package org.yanhuang.learning.jdk24.classapi;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.UncheckedIOException;
+import java.lang.classfile.ClassFile;
+import java.lang.classfile.ClassHierarchyResolver;
+import java.lang.classfile.ClassModel;
+import java.lang.classfile.ClassTransform;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.function.Predicate;
+
+/**
+ * 在内存中转换类的类加载器
+ * 匹配过滤条件的类在findClass时才读取原始字节、应用ClassTransform并定义，整个过程不经过磁盘；
+ * 转换后的字节保存在按总字节数限制大小的LRU缓存中，多个加载器可以共享同一个缓存。
+ * 原始字节来自通过 {@link #addClass} 放入内存的类，或父加载器中的类文件资源。
+ * <p>
+ * 匹配过滤条件的类采用子优先（child-first）加载，其余类委派给父加载器。
+ * 加载器注册为并行加载（registerAsParallelCapable），不同类可以并发加载。
+ */
+public class TransformingClassLoader extends ClassLoader {
+
+    static {
+        registerAsParallelCapable();
+    }
+
+    private final Predicate<String> filter;
+    private final ClassTransform transform;
+    private final TransformedClassCache cache;
+    private final Map<String, byte[]> sources = new ConcurrentHashMap<>();
+    private final ClassFile classFile;
+
+    /**
+     * 按总字节数限制大小的LRU缓存，保存转换后的类字节
+     * 键包含转换本身（按对象标识比较）和原始字节的哈希，使用不同转换的加载器共享缓存时不会拿到对方的结果，
+     * 同名类的原始字节不同（例如通过 {@link #addClass} 放入了新版本）时也不会拿到旧版本的转换结果
+     */
+    public static class TransformedClassCache {
+        private final long maxBytes;
+        private final LinkedHashMap<Key, byte[]> entries = new LinkedHashMap<>(16, 0.75f, true);
+        private long currentBytes;
+
+        private record Key(ClassTransform transform, String className, ContentHasher.Hash128 source) {
+        }
+
+        /**
+         * @param maxBytes 缓存的最大总字节数
+         */
+        public TransformedClassCache(long maxBytes) {
+            this.maxBytes = maxBytes;
+        }
+
+        /**
+         * @param source 未转换的类字节的哈希
+         */
+        public synchronized byte[] get(ClassTransform transform, String className, ContentHasher.Hash128 source) {
+            return entries.get(new Key(transform, className, source));
+        }
+
+        public synchronized void put(ClassTransform transform, String className, ContentHasher.Hash128 source,
+                                     byte[] classBytes) {
+            byte[] previous = entries.put(new Key(transform, className, source), classBytes);
+            currentBytes += classBytes.length - (previous == null ? 0 : previous.length);
+            var iterator = entries.entrySet().iterator();
+            while (currentBytes > maxBytes && iterator.hasNext()) {
+                currentBytes -= iterator.next().getValue().length;
+                iterator.remove();
+            }
+        }
+
+        public synchronized long currentBytes() {
+            return currentBytes;
+        }
+    }
+
+    /**
+     * 创建使用独立缓存的类加载器
+     *
+     * @param parent 父加载器
+     * @param filter 类名（二进制名，例如 "com.example.Foo"）过滤条件，匹配的类由本加载器转换并定义
+     * @param transform 应用于匹配类的转换
+     * @param maxCacheBytes 转换结果缓存的最大总字节数
+     */
+    public TransformingClassLoader(ClassLoader parent, Predicate<String> filter, ClassTransform transform,
+                                   long maxCacheBytes) {
+        this(parent, filter, transform, new TransformedClassCache(maxCacheBytes));
+    }
+
+    /**
+     * 创建使用共享缓存的类加载器，例如并行测试中每个测试使用自己的加载器但共享转换结果。
+     * 只有使用同一个 transform 实例的加载器之间才会共享结果
+     *
+     * @param parent 父加载器
+     * @param filter 类名过滤条件
+     * @param transform 应用于匹配类的转换
+     * @param cache 转换结果缓存
+     */
+    public TransformingClassLoader(ClassLoader parent, Predicate<String> filter, ClassTransform transform,
+                                   TransformedClassCache cache) {
+        super(parent);
+        this.filter = filter;
+        this.transform = transform;
+        this.cache = cache;
+        // 转换需要生成栈映射帧时，从原始（未转换的）字节解析类层次
+        this.classFile = ClassFile.of(ClassFile.ClassHierarchyResolverOption.of(
+            ClassHierarchyResolver.defaultResolver()
+                .orElse(ClassHierarchyResolver.ofResourceParsing(desc -> openSource(toBinaryName(desc.descriptorString()))))
+                .cached()));
+    }
+
+    /**
+     * 把类的原始字节放入内存，之后加载该类时会对其应用转换
+     *
+     * @param className 类的二进制名，例如 "com.example.Foo"
+     * @param classBytes 未转换的类字节
+     */
+    public void addClass(String className, byte[] classBytes) {
+        sources.put(className, classBytes);
+    }
+
+    /**
+     * 获取转换后的类字节，原始字节没有变化时使用缓存
+     *
+     * @param className 类的二进制名
+     * @return 转换后的类字节，找不到原始类时返回null
+     */
+    public byte[] transformedBytes(String className) {
+        byte[] original = readSource(className);
+        if (original == null) {
+            return null;
+        }
+        ContentHasher.Hash128 source = ContentHasher.hash(original);
+        byte[] cached = cache.get(transform, className, source);
+        if (cached != null) {
+            return cached;
+        }
+        ClassModel model = classFile.parse(original);
+        byte[] transformed = classFile.transformClass(model, transform);
+        cache.put(transform, className, source, transformed);
+        return transformed;
+    }
+
+    @Override
+    protected Class<?> loadClass(String name, boolean resolve) throws ClassNotFoundException {
+        if (!filter.test(name)) {
+            return super.loadClass(name, resolve);
+        }
+        synchronized (getClassLoadingLock(name)) {
+            Class<?> loaded = findLoadedClass(name);
+            if (loaded == null) {
+                try {
+                    loaded = findClass(name);
+                } catch (ClassNotFoundException e) {
+                    loaded = super.loadClass(name, false);
+                }
+            }
+            if (resolve) {
+                resolveClass(loaded);
+            }
+            return loaded;
+        }
+    }
+
+    @Override
+    protected Class<?> findClass(String name) throws ClassNotFoundException {
+        if (!filter.test(name)) {
+            throw new ClassNotFoundException(name);
+        }
+        byte[] classBytes = transformedBytes(name);
+        if (classBytes == null) {
+            throw new ClassNotFoundException(name);
+        }
+        return defineClass(name, classBytes, 0, classBytes.length);
+    }
+
+    /**
+     * 匹配过滤条件的类文件资源返回转换后的字节，与实际定义的类保持一致
+     */
+    @Override
+    public InputStream getResourceAsStream(String name) {
+        if (name.endsWith(".class")) {
+            String className = name.substring(0, name.length() - ".class".length()).replace('/', '.');
+            if (filter.test(className)) {
+                byte[] classBytes = transformedBytes(className);
+                if (classBytes != null) {
+                    return new ByteArrayInputStream(classBytes);
+                }
+            }
+        }
+        return super.getResourceAsStream(name);
+    }
+
+    private byte[] readSource(String className) {
+        byte[] inMemory = sources.get(className);
+        if (inMemory != null) {
+            return inMemory;
+        }
+        try (InputStream in = openParentResource(className)) {
+            return in == null ? null : in.readAllBytes();
+        } catch (IOException e) {
+            throw new UncheckedIOException("读取类文件失败: " + className, e);
+        }
+    }
+
+    private InputStream openSource(String className) {
+        byte[] inMemory = sources.get(className);
+        return inMemory != null ? new ByteArrayInputStream(inMemory) : openParentResource(className);
+    }
+
+    private InputStream openParentResource(String className) {
+        String resource = className.replace('.', '/') + ".class";
+        ClassLoader parent = getParent();
+        return parent != null ? parent.getResourceAsStream(resource) : ClassLoader.getSystemResourceAsStream(resource);
+    }
+
+    private static String toBinaryName(String descriptor) {
+        return descriptor.substring(1, descriptor.length() - 1).replace('/', '.');
+    }
+}
@@ -0,0 +1,120 @@
+package org.yanhuang.learning.jdk24.classapi;
+
+import org.junit.jupiter.api.Test;
+
+import java.lang.classfile.ClassFile;
+import java.lang.classfile.ClassModel;
+import java.lang.classfile.CodeElement;
+import java.lang.classfile.Instruction;
+import java.lang.classfile.Label;
+import java.lang.classfile.MethodModel;
+import java.lang.classfile.Opcode;
+import java.lang.classfile.instruction.DiscontinuedInstruction;
+import java.lang.classfile.instruction.StackInstruction;
+import java.lang.constant.ClassDesc;
+import java.lang.constant.ConstantDescs;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class AbstractInterpreterTest {
+
+    private final AbstractInterpreter interpreter = new AbstractInterpreter();
+
+    // 栈内容从栈底到栈顶排列，压入的常量为 1..n
+
+    @Test
+    void dupX1() {
+        assertEquals(List.of(2, 1, 2), stackAfter(Opcode.DUP_X1, 2));
+    }
+
+    @Test
+    void dupX2() {
+        assertEquals(List.of(3, 1, 2, 3), stackAfter(Opcode.DUP_X2, 3));
+    }
+
+    @Test
+    void dup2() {
+        assertEquals(List.of(1, 2, 1, 2), stackAfter(Opcode.DUP2, 2));
+    }
+
+    @Test
+    void dup2X1() {
+        assertEquals(List.of(2, 3, 1, 2, 3), stackAfter(Opcode.DUP2_X1, 3));
+    }
+
+    @Test
+    void dup2X2() {
+        assertEquals(List.of(3, 4, 1, 2, 3, 4), stackAfter(Opcode.DUP2_X2, 4));
+    }
+
+    @Test
+    void swap() {
+        assertEquals(List.of(2, 1), stackAfter(Opcode.SWAP, 2));
+    }
+
+    @Test
+    void analyzeAllSkipsMethodsThatCannotBeInterpreted() {
+        byte[] bytes = ClassFile.of(ClassFile.StackMapsOption.DROP_STACK_MAPS).build(ClassDesc.of("Legacy"),
+            classBuilder -> classBuilder.withVersion(ClassFile.JAVA_5_VERSION, 0)
+                .withMethodBody("plain", ConstantDescs.MTD_void, ClassFile.ACC_STATIC, code -> code.return_())
+                .withMethodBody("subroutine", ConstantDescs.MTD_void, ClassFile.ACC_STATIC, code -> {
+                    Label subroutine = code.newLabel();
+                    code.with(DiscontinuedInstruction.JsrInstruction.of(subroutine))
+                        .return_()
+                        .labelBinding(subroutine)
+                        .astore(0)
+                        .with(DiscontinuedInstruction.RetInstruction.of(0));
+                }));
+        ClassModel model = ClassFile.of().parse(bytes);
+
+        AbstractInterpreter.AnalysisResults<String> results = interpreter.analyzeAll(Map.of("Legacy", model),
+            AbstractInterpreter.ConstantLattice::new, (owner, method, frames) -> method.methodName().stringValue());
+
+        assertEquals(List.of("plain"), results.results());
+        assertEquals(1, results.skippedMethods());
+    }
+
+    /**
+     * 生成依次压入 1..count 后执行栈指令的方法，返回栈指令执行后的常量
+     */
+    private List<Integer> stackAfter(Opcode opcode, int count) {
+        byte[] bytes = ClassFile.of().build(ClassDesc.of("StackPermutation"), classBuilder ->
+            classBuilder.withMethodBody("run", ConstantDescs.MTD_void, ClassFile.ACC_STATIC, code -> {
+                for (int i = 1; i <= count; i++) {
+                    code.loadConstant(i);
+                }
+                code.with(StackInstruction.of(opcode));
+                int size = count + switch (opcode) {
+                    case SWAP -> 0;
+                    case DUP, DUP_X1, DUP_X2 -> 1;
+                    default -> 2;
+                };
+                for (int i = 0; i < size; i++) {
+                    code.pop();
+                }
+                code.return_();
+            }));
+        ClassModel model = ClassFile.of().parse(bytes);
+        MethodModel method = model.methods().getFirst();
+        AbstractInterpreter.ConstantLattice lattice = new AbstractInterpreter.ConstantLattice();
+        AbstractInterpreter.Frames frames = interpreter.interpret(model, method, lattice);
+
+        List<CodeElement> elements = frames.elements();
+        int after = -1;
+        for (int i = 0; i < elements.size(); i++) {
+            if (elements.get(i) instanceof Instruction instruction && instruction.opcode() == opcode) {
+                after = i + 1;
+            }
+        }
+        assertTrue(after > 0 && frames.reached(after));
+
+        List<Integer> stack = new ArrayList<>();
+        for (int depth = frames.stackSize(after) - 1; depth >= 0; depth--) {
+            stack.add((Integer) lattice.value(frames.peek(after, depth)).orElseThrow());
+        }
+        return stack;
+    }
+}
@@ -0,0 +1,77 @@
+package org.yanhuang.learning.jdk24.classapi;
+
+import org.junit.jupiter.api.Test;
+
+import java.lang.classfile.ClassFile;
+import java.lang.constant.ClassDesc;
+import java.lang.constant.ConstantDesc;
+import java.lang.constant.ConstantDescs;
+import java.lang.constant.DirectMethodHandleDesc;
+import java.lang.constant.DynamicConstantDesc;
+import java.lang.constant.MethodHandleDesc;
+import java.lang.constant.MethodTypeDesc;
+import java.util.Optional;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class ClassDiffTest {
+
+    private final ClassDiff classDiff = new ClassDiff();
+
+    @Test
+    void sameConstantIsUnchanged() {
+        assertTrue(classDiff.diff(loading(ClassDesc.of("a.Foo")), loading(ClassDesc.of("a.Foo"))).isEmpty());
+    }
+
+    @Test
+    void classConstantsInDifferentPackagesDiffer() {
+        assertBodyChanged(ClassDesc.of("a.Foo"), ClassDesc.of("b.Foo"));
+    }
+
+    @Test
+    void methodTypeConstantsWithSameSimpleNamesDiffer() {
+        assertBodyChanged(MethodTypeDesc.of(ClassDesc.of("a.Foo")), MethodTypeDesc.of(ClassDesc.of("b.Foo")));
+    }
+
+    @Test
+    void methodHandleConstantsDifferByOwnerAndKind() {
+        MethodTypeDesc type = MethodTypeDesc.of(ConstantDescs.CD_void);
+        assertBodyChanged(handle(DirectMethodHandleDesc.Kind.STATIC, "a.Foo", type),
+            handle(DirectMethodHandleDesc.Kind.STATIC, "b.Foo", type));
+        assertBodyChanged(handle(DirectMethodHandleDesc.Kind.STATIC, "a.Foo", type),
+            handle(DirectMethodHandleDesc.Kind.INTERFACE_STATIC, "a.Foo", type));
+    }
+
+    @Test
+    void dynamicConstantsDifferByBootstrapArguments() {
+        assertBodyChanged(dynamic(ClassDesc.of("a.Foo")), dynamic(ClassDesc.of("b.Foo")));
+    }
+
+    private void assertBodyChanged(ConstantDesc oldValue, ConstantDesc newValue) {
+        Optional<ClassDiff.ClassChange> change = classDiff.diff(loading(oldValue), loading(newValue));
+        assertTrue(change.isPresent(), oldValue + " -> " + newValue);
+        assertTrue(change.get().bodyOnly());
+    }
+
+    private static DirectMethodHandleDesc handle(DirectMethodHandleDesc.Kind kind, String owner, MethodTypeDesc type) {
+        return MethodHandleDesc.ofMethod(kind, ClassDesc.of(owner), "run", type);
+    }
+
+    private static DynamicConstantDesc<?> dynamic(ClassDesc argument) {
+        return DynamicConstantDesc.ofNamed(ConstantDescs.BSM_INVOKE, "value", ConstantDescs.CD_Object,
+            MethodHandleDesc.ofMethod(DirectMethodHandleDesc.Kind.STATIC, ClassDesc.of("a.Factory"), "create",
+                MethodTypeDesc.of(ConstantDescs.CD_Object, ConstantDescs.CD_Class)),
+            argument);
+    }
+
+    // ================= Fixtures =================
+
+    /**
+     * 生成只用 ldc 加载给定常量的类
+     */
+    private static byte[] loading(ConstantDesc value) {
+        return ClassFile.of().build(ClassDesc.of("ConstantHolder"), classBuilder ->
+            classBuilder.withMethodBody("load", MethodTypeDesc.of(ConstantDescs.CD_Object), ClassFile.ACC_STATIC,
+                code -> code.loadConstant(value).areturn()));
+    }
+}
@@ -0,0 +1,227 @@
+package org.yanhuang.learning.jdk24.classapi;
+
+import org.junit.jupiter.api.Test;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.UncheckedIOException;
+import java.lang.classfile.Annotation;
+import java.lang.classfile.AnnotationElement;
+import java.lang.classfile.AnnotationValue;
+import java.lang.classfile.ClassBuilder;
+import java.lang.classfile.ClassFile;
+import java.lang.classfile.ClassModel;
+import java.lang.classfile.CodeModel;
+import java.lang.classfile.MethodModel;
+import java.lang.classfile.attribute.AnnotationDefaultAttribute;
+import java.lang.classfile.attribute.InnerClassInfo;
+import java.lang.classfile.attribute.InnerClassesAttribute;
+import java.lang.classfile.attribute.PermittedSubclassesAttribute;
+import java.lang.classfile.attribute.RuntimeInvisibleAnnotationsAttribute;
+import java.lang.classfile.attribute.RuntimeVisibleAnnotationsAttribute;
+import java.lang.constant.ClassDesc;
+import java.lang.constant.ConstantDescs;
+import java.lang.constant.MethodTypeDesc;
+import java.util.Arrays;
+import java.util.Optional;
+import java.util.concurrent.CompletableFuture;
+import java.util.function.Consumer;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class ClassFileToolkitTest {
+
+    private final ClassFileToolkit toolkit = new ClassFileToolkit();
+
+    // ================= Control flow =================
+
+    @Test
+    void whileWithContinueIsOneLoop() throws IOException {
+        int[] depth = loopDepths("sumEven");
+        // continue 和循环末尾各有一条回边指向同一个循环头
+        assertEquals(1, Arrays.stream(depth).max().orElse(0));
+        assertEquals(0, depth[depth.length - 1]);
+    }
+
+    @Test
+    void nestedLoopsAreCountedSeparately() throws IOException {
+        int[] depth = loopDepths("sumMatrix");
+        assertEquals(2, Arrays.stream(depth).max().orElse(0));
+    }
+
+    @Test
+    void straightLineCodeHasNoLoop() throws IOException {
+        int[] depth = loopDepths("noLoop");
+        assertTrue(Arrays.stream(depth).allMatch(value -> value == 0));
+    }
+
+    // ================= Runtime image =================
+
+    @Test
+    void concurrentRuntimeImageReadsShareOneScan() {
+        CompletableFuture<ClassFileToolkit.RuntimeImage> first = CompletableFuture.supplyAsync(this::runtimeImage);
+        CompletableFuture<ClassFileToolkit.RuntimeImage> second = CompletableFuture.supplyAsync(this::runtimeImage);
+        ClassFileToolkit.RuntimeImage image = first.join();
+
+        assertSame(image, second.join());
+        assertSame(image, runtimeImage());
+        assertTrue(image.classes().containsKey("java/lang/Object"));
+        assertEquals(Optional.of("java.base"), image.moduleOf("java/lang/String"));
+        assertTrue(image.modules().contains("java.base"));
+    }
+
+    private ClassFileToolkit.RuntimeImage runtimeImage() {
+        try {
+            return toolkit.readRuntimeImage();
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    // ================= Fingerprints =================
+
+    @Test
+    void identicalClassesHaveSameFingerprint() {
+        ClassFileToolkit.ClassFingerprint base = fingerprint(classBuilder -> { });
+        assertEquals(base, fingerprint(classBuilder -> { }));
+    }
+
+    @Test
+    void runtimeVisibleAnnotationsChangeApi() {
+        assertApiChanged(fingerprint(classBuilder -> classBuilder.with(
+            RuntimeVisibleAnnotationsAttribute.of(annotation("Lapp/Visible;")))));
+    }
+
+    @Test
+    void invisibleAnnotationsChangeOnlyBody() {
+        assertBodyOnlyChanged(fingerprint(classBuilder -> classBuilder.with(
+            RuntimeInvisibleAnnotationsAttribute.of(annotation("Lapp/Invisible;")))));
+    }
+
+    @Test
+    void annotationValuesAreHashed() {
+        ClassFileToolkit.ClassFingerprint one = fingerprint(classBuilder -> classBuilder.with(
+            RuntimeVisibleAnnotationsAttribute.of(annotation("Lapp/Visible;", AnnotationValue.ofInt(1)))));
+        ClassFileToolkit.ClassFingerprint two = fingerprint(classBuilder -> classBuilder.with(
+            RuntimeVisibleAnnotationsAttribute.of(annotation("Lapp/Visible;", AnnotationValue.ofInt(2)))));
+        assertNotEquals(one.api(), two.api());
+    }
+
+    @Test
+    void annotationDefaultChangesApi() {
+        ClassFileToolkit.ClassFingerprint withDefault = fingerprint(classBuilder -> classBuilder.withMethod("value",
+            MethodTypeDesc.of(ConstantDescs.CD_int), ClassFile.ACC_PUBLIC | ClassFile.ACC_ABSTRACT,
+            method -> method.with(AnnotationDefaultAttribute.of(AnnotationValue.ofInt(1)))));
+        ClassFileToolkit.ClassFingerprint withoutDefault = fingerprint(classBuilder -> classBuilder.withMethod("value",
+            MethodTypeDesc.of(ConstantDescs.CD_int), ClassFile.ACC_PUBLIC | ClassFile.ACC_ABSTRACT, method -> { }));
+        assertNotEquals(withoutDefault.api(), withDefault.api());
+    }
+
+    @Test
+    void permittedSubclassesChangeApi() {
+        assertApiChanged(fingerprint(classBuilder -> classBuilder.with(
+            PermittedSubclassesAttribute.ofSymbols(ClassDesc.of("app.Sub")))));
+    }
+
+    @Test
+    void innerClassFlagsChangeBody() {
+        ClassDesc inner = ClassDesc.of("app.Fingerprinted$Inner");
+        ClassFileToolkit.ClassFingerprint staticInner = fingerprint(classBuilder -> classBuilder.with(
+            InnerClassesAttribute.of(InnerClassInfo.of(inner, Optional.of(FINGERPRINTED),
+                Optional.of("Inner"), ClassFile.ACC_STATIC))));
+        ClassFileToolkit.ClassFingerprint memberInner = fingerprint(classBuilder -> classBuilder.with(
+            InnerClassesAttribute.of(InnerClassInfo.of(inner, Optional.of(FINGERPRINTED),
+                Optional.of("Inner"), 0))));
+        assertNotEquals(staticInner.body(), memberInner.body());
+    }
+
+    private void assertApiChanged(ClassFileToolkit.ClassFingerprint changed) {
+        ClassFileToolkit.ClassFingerprint base = fingerprint(classBuilder -> { });
+        assertNotEquals(base.api(), changed.api());
+        assertNotEquals(base.body(), changed.body());
+    }
+
+    private void assertBodyOnlyChanged(ClassFileToolkit.ClassFingerprint changed) {
+        ClassFileToolkit.ClassFingerprint base = fingerprint(classBuilder -> { });
+        assertEquals(base.api(), changed.api());
+        assertNotEquals(base.body(), changed.body());
+    }
+
+    private static Annotation annotation(String descriptor, AnnotationValue... values) {
+        return Annotation.of(ClassDesc.ofDescriptor(descriptor), Arrays.stream(values)
+            .map(value -> AnnotationElement.of("value", value))
+            .toList());
+    }
+
+    private ClassFileToolkit.ClassFingerprint fingerprint(Consumer<ClassBuilder> extra) {
+        return toolkit.fingerprint(ClassFile.of().build(FINGERPRINTED, classBuilder -> {
+            classBuilder.withFlags(ClassFile.ACC_PUBLIC | ClassFile.ACC_ABSTRACT);
+            extra.accept(classBuilder);
+        }));
+    }
+
+    // ================= Helpers =================
+
+    @Test
+    void elementClassNameStripsArrayDimensions() {
+        assertEquals("java/lang/String", toolkit.elementClassName("java/lang/String"));
+        assertEquals("java/lang/String", toolkit.elementClassName("[[Ljava/lang/String;"));
+        assertNull(toolkit.elementClassName("[I"));
+    }
+
+    @Test
+    void toPatternDistinguishesSingleAndDoubleStar() {
+        assertTrue(toolkit.toPattern("com.example.*").matcher("com.example.Foo").matches());
+        assertFalse(toolkit.toPattern("com.example.*").matcher("com.example.dto.Foo").matches());
+        assertTrue(toolkit.toPattern("com.example.**").matcher("com.example.dto.Foo").matches());
+        assertFalse(toolkit.toPattern("com.example.Foo$Bar").matcher("com.example.FooBar").matches());
+    }
+
+    private int[] loopDepths(String methodName) throws IOException {
+        ClassModel model = readOwnClass();
+        for (MethodModel method : model.methods()) {
+            if (method.methodName().equalsString(methodName)) {
+                CodeModel code = method.code().orElseThrow();
+                return toolkit.loopDepths(code.elementList());
+            }
+        }
+        throw new AssertionError("找不到方法: " + methodName);
+    }
+
+    private ClassModel readOwnClass() throws IOException {
+        try (InputStream in = ClassFileToolkitTest.class.getResourceAsStream("ClassFileToolkitTest.class")) {
+            return toolkit.readClass(in.readAllBytes());
+        }
+    }
+
+    // ================= Fixtures =================
+
+    private static final ClassDesc FINGERPRINTED = ClassDesc.of("app.Fingerprinted");
+
+    static int sumEven(int[] values) {
+        int sum = 0;
+        int i = 0;
+        while (i < values.length) {
+            int value = values[i++];
+            if (value % 2 != 0) {
+                continue;
+            }
+            sum += value;
+        }
+        return sum;
+    }
+
+    static int sumMatrix(int[][] matrix) {
+        int sum = 0;
+        for (int[] row : matrix) {
+            for (int value : row) {
+                sum += value;
+            }
+        }
+        return sum;
+    }
+
+    static int noLoop(int a, int b) {
+        return a > b ? a - b : b - a;
+    }
+}
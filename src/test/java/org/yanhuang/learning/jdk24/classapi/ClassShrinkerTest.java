@@ -0,0 +1,99 @@
+package org.yanhuang.learning.jdk24.classapi;
+
+import org.junit.jupiter.api.Test;
+
+import java.lang.classfile.Annotation;
+import java.lang.classfile.AnnotationElement;
+import java.lang.classfile.AnnotationValue;
+import java.lang.classfile.ClassBuilder;
+import java.lang.classfile.ClassFile;
+import java.lang.classfile.ClassModel;
+import java.lang.classfile.attribute.RuntimeInvisibleParameterAnnotationsAttribute;
+import java.lang.classfile.attribute.RuntimeVisibleAnnotationsAttribute;
+import java.lang.constant.ClassDesc;
+import java.lang.constant.ConstantDescs;
+import java.lang.constant.MethodTypeDesc;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.function.Consumer;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class ClassShrinkerTest {
+
+    private static final ClassDesc MAIN = ClassDesc.ofInternalName("app/Main");
+    private static final ClassDesc SERVICE = ClassDesc.ofInternalName("app/Service");
+    private static final ClassDesc MARKER = ClassDesc.ofInternalName("app/Marker");
+    private static final ClassDesc PARAM = ClassDesc.ofInternalName("app/Param");
+    private static final ClassDesc LEVEL = ClassDesc.ofInternalName("app/Level");
+    private static final ClassDesc PAYLOAD = ClassDesc.ofInternalName("app/Payload");
+    private static final ClassDesc UNUSED = ClassDesc.ofInternalName("app/Unused");
+
+    private final ClassFileToolkit toolkit = new ClassFileToolkit();
+
+    @Test
+    void keepsAnnotationsOfReachableMembers() {
+        ClassShrinker.Reachability reachability = new ClassShrinker().analyze(classes());
+
+        assertTrue(reachability.classes().containsAll(
+            List.of("app/Main", "app/Service", "app/Marker", "app/Param", "app/Level", "app/Payload")),
+            reachability.classes().toString());
+        assertFalse(reachability.classes().contains("app/Unused"));
+        // 注解元素方法只通过反射调用，注解接口可达时全部保留
+        assertTrue(reachability.isReachable("app/Marker", "level", "()Lapp/Level;"));
+        assertTrue(reachability.isReachable("app/Marker", "value", "()Ljava/lang/Class;"));
+        assertTrue(reachability.isReachable("app/Level", "HIGH", "Lapp/Level;"));
+        assertFalse(reachability.isReachable("app/Level", "LOW", "Lapp/Level;"));
+    }
+
+    // ================= Fixtures =================
+
+    /**
+     * app/Main.main 调用 app/Service.run，run 方法带有 @Marker(level = HIGH, value = Payload.class)，
+     * 参数带有不可见的 @Param
+     */
+    private Map<String, ClassModel> classes() {
+        Map<String, ClassModel> classes = new HashMap<>();
+        MethodTypeDesc run = MethodTypeDesc.of(ConstantDescs.CD_void, ConstantDescs.CD_String);
+        classes.put("app/Main", toolkit.readClass(ClassFile.of().build(MAIN, classBuilder -> classBuilder
+            .withMethodBody("main", MethodTypeDesc.of(ConstantDescs.CD_void, ConstantDescs.CD_String.arrayType()),
+                ClassFile.ACC_PUBLIC | ClassFile.ACC_STATIC,
+                code -> code.ldc("hello").invokestatic(SERVICE, "run", run).return_()))));
+        Annotation marker = Annotation.of(MARKER,
+            AnnotationElement.of("level", AnnotationValue.ofEnum(LEVEL, "HIGH")),
+            AnnotationElement.of("value", AnnotationValue.ofClass(PAYLOAD)));
+        classes.put("app/Service", toolkit.readClass(ClassFile.of().build(SERVICE, classBuilder -> classBuilder
+            .withMethod("run", run, ClassFile.ACC_PUBLIC | ClassFile.ACC_STATIC, method -> method
+                .with(RuntimeVisibleAnnotationsAttribute.of(marker))
+                .with(RuntimeInvisibleParameterAnnotationsAttribute.of(List.of(List.of(Annotation.of(PARAM)))))
+                .withCode(code -> code.return_())))));
+        classes.put("app/Marker", toolkit.readClass(annotation(MARKER, builder -> builder
+            .withMethod("level", MethodTypeDesc.of(LEVEL), ClassFile.ACC_PUBLIC | ClassFile.ACC_ABSTRACT, method -> {
+            })
+            .withMethod("value", MethodTypeDesc.of(ConstantDescs.CD_Class),
+                ClassFile.ACC_PUBLIC | ClassFile.ACC_ABSTRACT, method -> {
+                }))));
+        classes.put("app/Param", toolkit.readClass(annotation(PARAM, builder -> {
+        })));
+        classes.put("app/Level", toolkit.readClass(ClassFile.of().build(LEVEL, classBuilder -> classBuilder
+            .withFlags(ClassFile.ACC_PUBLIC | ClassFile.ACC_FINAL | ClassFile.ACC_ENUM)
+            .withSuperclass(ConstantDescs.CD_Enum)
+            .withField("HIGH", LEVEL, ClassFile.ACC_PUBLIC | ClassFile.ACC_STATIC | ClassFile.ACC_FINAL | ClassFile.ACC_ENUM)
+            .withField("LOW", LEVEL, ClassFile.ACC_PUBLIC | ClassFile.ACC_STATIC | ClassFile.ACC_FINAL | ClassFile.ACC_ENUM))));
+        classes.put("app/Payload", toolkit.readClass(ClassFile.of().build(PAYLOAD, classBuilder -> {
+        })));
+        classes.put("app/Unused", toolkit.readClass(ClassFile.of().build(UNUSED, classBuilder -> {
+        })));
+        return classes;
+    }
+
+    private static byte[] annotation(ClassDesc name, Consumer<ClassBuilder> members) {
+        return ClassFile.of().build(name, classBuilder -> {
+            classBuilder.withFlags(ClassFile.ACC_PUBLIC | ClassFile.ACC_INTERFACE | ClassFile.ACC_ABSTRACT
+                    | ClassFile.ACC_ANNOTATION)
+                .withInterfaceSymbols(ClassDesc.of("java.lang.annotation.Annotation"));
+            members.accept(classBuilder);
+        });
+    }
+}
@@ -0,0 +1,166 @@
+package org.yanhuang.learning.jdk24.classapi;
+
+import org.junit.jupiter.api.Test;
+import org.yanhuang.learning.jdk24.TestClass;
+
+import java.lang.reflect.Field;
+import java.nio.ByteBuffer;
+import java.time.LocalDateTime;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Deque;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.NavigableSet;
+import java.util.SortedMap;
+import java.util.TreeMap;
+import java.util.TreeSet;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class CodecGeneratorTest {
+
+    @Test
+    void roundTripsTestClass() throws ReflectiveOperationException {
+        TestClass original = new TestClass();
+        set(original, "privateField", 42);
+        set(original, "protectedField", 3.5);
+        set(original, "publicField", "public");
+        set(original, "stringList", new ArrayList<>(List.of("a", "b")));
+        set(original, "dataMap", new HashMap<>(Map.of("one", 1, "two", 2)));
+        set(original, "timestamp", LocalDateTime.of(2024, 3, 1, 12, 30, 15, 123_000_000));
+        ConcurrentHashMap<String, List<Integer>> complexData = new ConcurrentHashMap<>();
+        complexData.put("primes", new ArrayList<>(List.of(2, 3, 5)));
+        set(original, "complexData", complexData);
+        // 父类中声明的字段
+        set(original, "parentField", "inherited");
+
+        TestClass copy = roundTrip(original);
+
+        for (String field : List.of("privateField", "protectedField", "publicField", "stringList", "dataMap",
+                "timestamp", "complexData", "parentField")) {
+            assertEquals(get(original, field), get(copy, field), field);
+        }
+        assertInstanceOf(ConcurrentHashMap.class, get(copy, "complexData"));
+    }
+
+    @Test
+    void roundTripsNullFields() throws ReflectiveOperationException {
+        TestClass original = new TestClass();
+        set(original, "publicField", null);
+        set(original, "timestamp", null);
+        set(original, "parentField", null);
+
+        TestClass copy = roundTrip(original);
+
+        assertNull(get(copy, "publicField"));
+        assertNull(get(copy, "timestamp"));
+        assertNull(get(copy, "parentField"));
+    }
+
+    @Test
+    void rejectsClassesOutsideCorpus() {
+        assertThrows(IllegalArgumentException.class, () -> CodecGenerator.codecFor(ArrayList.class));
+    }
+
+    @Test
+    void roundTripsCollectionInterfacesAndAbstractSuperclassFields() {
+        Circle original = new Circle();
+        original.label = "circle";
+        original.radius = 2.5;
+        original.steps = new ArrayDeque<>(List.of("draw", "fill"));
+        original.ranks = new TreeMap<>(Map.of("b", 2, "a", 1));
+        original.counts = new ConcurrentHashMap<>(Map.of("x", 3));
+        original.marks = new TreeSet<>(List.of(3, 1, 2));
+
+        CodecGenerator.Codec<Circle> codec = CodecGenerator.codecFor(Circle.class);
+        ByteBuffer buffer = ByteBuffer.allocate(1024);
+        codec.write(original, buffer);
+        buffer.flip();
+        Circle copy = codec.read(buffer);
+
+        assertEquals("circle", copy.label);
+        assertEquals(2.5, copy.radius);
+        assertEquals(List.of("draw", "fill"), List.copyOf(copy.steps));
+        assertEquals(original.ranks, copy.ranks);
+        assertEquals(List.of("a", "b"), List.copyOf(copy.ranks.keySet()));
+        assertEquals(original.counts, copy.counts);
+        assertEquals(original.marks, copy.marks);
+    }
+
+    @Test
+    void rejectsCollectionsThatCannotBeRebuilt() {
+        IllegalArgumentException e = assertThrows(IllegalArgumentException.class,
+            () -> CodecGenerator.codecFor(Blocking.class));
+        assertTrue(e.getMessage().contains("queue"), e.getMessage());
+    }
+
+    @Test
+    void rejectsClassesWithoutNoArgConstructor() {
+        IllegalArgumentException e = assertThrows(IllegalArgumentException.class,
+            () -> CodecGenerator.codecFor(NoDefaultConstructor.class));
+        assertTrue(e.getMessage().contains("无参构造函数"), e.getMessage());
+    }
+
+    private static TestClass roundTrip(TestClass value) {
+        CodecGenerator.Codec<TestClass> codec = CodecGenerator.codecFor(TestClass.class);
+        ByteBuffer buffer = ByteBuffer.allocate(4096);
+        codec.write(value, buffer);
+        buffer.flip();
+        TestClass copy = codec.read(buffer);
+        assertFalse(buffer.hasRemaining());
+        return copy;
+    }
+
+    private static void set(Object target, String name, Object value) throws ReflectiveOperationException {
+        Field field = field(target.getClass(), name);
+        field.set(target, value);
+    }
+
+    private static Object get(Object target, String name) throws ReflectiveOperationException {
+        return field(target.getClass(), name).get(target);
+    }
+
+    private static Field field(Class<?> type, String name) throws NoSuchFieldException {
+        for (Class<?> current = type; current != null; current = current.getSuperclass()) {
+            try {
+                Field field = current.getDeclaredField(name);
+                field.setAccessible(true);
+                return field;
+            } catch (NoSuchFieldException e) {
+                // 继续在父类中查找
+            }
+        }
+        throw new NoSuchFieldException(name);
+    }
+
+    // ================= Fixtures =================
+
+    abstract static class Shape {
+        String label;
+    }
+
+    static final class Circle extends Shape {
+        double radius;
+        Deque<String> steps;
+        SortedMap<String, Integer> ranks;
+        ConcurrentMap<String, Integer> counts;
+        NavigableSet<Integer> marks;
+    }
+
+    static final class Blocking {
+        BlockingQueue<String> queue;
+    }
+
+    static final class NoDefaultConstructor {
+        final int value;
+
+        NoDefaultConstructor(int value) {
+            this.value = value;
+        }
+    }
+}
@@ -0,0 +1,87 @@
+package org.yanhuang.learning.jdk24.classapi;
+
+import org.junit.jupiter.api.Test;
+
+import java.lang.classfile.ClassFile;
+import java.lang.classfile.ClassHierarchyResolver;
+import java.lang.classfile.ClassModel;
+import java.lang.classfile.Label;
+import java.lang.constant.ClassDesc;
+import java.lang.constant.ConstantDescs;
+import java.lang.constant.MethodTypeDesc;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class ConstantPoolCompactorTest {
+
+    private static final ClassDesc BASE = ClassDesc.ofInternalName("dep/Base");
+    private static final ClassDesc LEFT = ClassDesc.ofInternalName("app/Left");
+    private static final ClassDesc RIGHT = ClassDesc.ofInternalName("app/Right");
+    private static final ClassDesc USER = ClassDesc.ofInternalName("app/User");
+
+    private final ClassFileToolkit toolkit = new ClassFileToolkit();
+
+    @Test
+    void rebuildsFramesWithDependencyHierarchy() {
+        Map<String, byte[]> classes = appClasses();
+        ConstantPoolCompactor.CompactionResult result = new ConstantPoolCompactor()
+            .compact(classes, List.of(toolkit.readClass(emptyClass(BASE, ConstantDescs.CD_Object))));
+
+        assertEquals(Map.of(), result.report().failures());
+        byte[] user = result.classes().get("app/User");
+        assertTrue(user.length < classes.get("app/User").length);
+        ClassModel compacted = toolkit.readClass(user);
+        assertTrue(compacted.constantPool().size() < toolkit.readClass(classes.get("app/User")).constantPool().size());
+    }
+
+    @Test
+    void keepsClassesThatCannotBeRebuilt() {
+        Map<String, byte[]> classes = appClasses();
+        byte[] broken = {(byte) 0xCA, (byte) 0xFE, 0, 1};
+        classes.put("app/Broken", broken);
+
+        ConstantPoolCompactor.CompactionResult result = new ConstantPoolCompactor()
+            .compact(classes, List.of(toolkit.readClass(emptyClass(BASE, ConstantDescs.CD_Object))));
+
+        assertEquals(Set.of("app/Broken"), result.report().failures().keySet());
+        assertSame(broken, result.classes().get("app/Broken"));
+        assertEquals(classes.keySet(), result.classes().keySet());
+        assertTrue(result.classes().get("app/User").length < classes.get("app/User").length);
+    }
+
+    // ================= Fixtures =================
+
+    /**
+     * app/Left 和 app/Right 继承依赖中的 dep/Base，app/User 的方法在分支合并处需要两者的公共父类
+     */
+    private static Map<String, byte[]> appClasses() {
+        Map<String, byte[]> classes = new LinkedHashMap<>();
+        classes.put("app/Left", emptyClass(LEFT, BASE));
+        classes.put("app/Right", emptyClass(RIGHT, BASE));
+        ClassHierarchyResolver resolver = ClassHierarchyResolver.of(Set.of(),
+            Map.of(LEFT, BASE, RIGHT, BASE, BASE, ConstantDescs.CD_Object));
+        classes.put("app/User", ClassFile.of(ClassFile.ClassHierarchyResolverOption.of(resolver)).build(USER,
+            classBuilder -> {
+                // 不被引用的常量池条目，压缩后应被删除
+                classBuilder.constantPool().utf8Entry("unused constant left behind by a rewrite");
+                classBuilder.constantPool().classEntry(ClassDesc.of("unused.Type"));
+                classBuilder.withMethodBody("pick", MethodTypeDesc.of(BASE, ConstantDescs.CD_boolean, LEFT, RIGHT),
+                    ClassFile.ACC_STATIC, code -> {
+                        Label right = code.newLabel();
+                        Label end = code.newLabel();
+                        code.iload(0).ifeq(right).aload(1).goto_(end)
+                            .labelBinding(right).aload(2)
+                            .labelBinding(end).areturn();
+                    });
+            }));
+        return classes;
+    }
+
+    private static byte[] emptyClass(ClassDesc name, ClassDesc superClass) {
+        return ClassFile.of().build(name, classBuilder -> classBuilder.withSuperclass(superClass));
+    }
+}
@@ -0,0 +1,59 @@
+package org.yanhuang.learning.jdk24.classapi;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.IOException;
+import java.lang.classfile.ClassFile;
+import java.lang.constant.ClassDesc;
+import java.lang.constant.ConstantDescs;
+import java.nio.file.Path;
+import java.util.List;
+import java.util.Map;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class DuplicateClassScannerTest {
+
+    private final ClassFileToolkit toolkit = new ClassFileToolkit();
+
+    @TempDir
+    Path tempDir;
+
+    @Test
+    void comparesFingerprintsOfConflictingCopies() throws IOException {
+        Path first = tempDir.resolve("first.jar");
+        Path second = tempDir.resolve("second.jar");
+        toolkit.writeJar(first, Map.of(
+            "app/Same.class", withMethods("app/Same", "run"),
+            "app/Changed.class", withMethods("app/Changed", "run")));
+        toolkit.writeJar(second, Map.of(
+            "app/Same.class", withMethods("app/Same", "run"),
+            "app/Changed.class", withMethods("app/Changed", "run", "stop")));
+
+        DuplicateClassScanner.ScanReport report = new DuplicateClassScanner().scan(List.of(first, second));
+
+        assertEquals(4, report.classCount());
+        DuplicateClassScanner.DuplicateGroup same = report.groups(DuplicateClassScanner.Kind.IDENTICAL_DUPLICATE)
+            .getFirst();
+        assertEquals("app/Same", same.className());
+        assertEquals(same.copies().get(1).size(), same.wastedBytes());
+        DuplicateClassScanner.DuplicateGroup changed = report.groups(DuplicateClassScanner.Kind.CONFLICT).getFirst();
+        assertEquals("app/Changed", changed.className());
+        assertEquals(first, changed.loaded().jar());
+        assertFalse(changed.sameApi());
+        assertEquals(List.of(new DuplicateClassScanner.SplitPackage("app", List.of(first, second))),
+            report.splitPackages());
+    }
+
+    // ================= Fixtures =================
+
+    private static byte[] withMethods(String name, String... methods) {
+        return ClassFile.of().build(ClassDesc.ofInternalName(name), classBuilder -> {
+            for (String method : methods) {
+                classBuilder.withMethodBody(method, ConstantDescs.MTD_void,
+                    ClassFile.ACC_PUBLIC | ClassFile.ACC_STATIC, code -> code.return_());
+            }
+        });
+    }
+}
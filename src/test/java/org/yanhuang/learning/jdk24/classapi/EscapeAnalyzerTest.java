@@ -0,0 +1,120 @@
+package org.yanhuang.learning.jdk24.classapi;
+
+import org.junit.jupiter.api.Test;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.lang.classfile.ClassModel;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class EscapeAnalyzerTest {
+
+    private final ClassFileToolkit toolkit = new ClassFileToolkit();
+
+    @Test
+    void trivialConstructorDoesNotEscape() throws IOException {
+        assertEquals(EscapeAnalyzer.EscapeState.NO_ESCAPE, stateOf("localPoint"));
+    }
+
+    @Test
+    void argumentsToLibraryFactoriesEscape() throws IOException {
+        // List.of 和 Optional.of 把参数存入返回的对象
+        assertEquals(EscapeAnalyzer.EscapeState.ARG_ESCAPE, stateOf("listOf"));
+        assertEquals(EscapeAnalyzer.EscapeState.ARG_ESCAPE, stateOf("optionalOf"));
+    }
+
+    @Test
+    void argumentsReturnedOrStoredBySmallCalleesEscape() throws IOException {
+        assertEquals(EscapeAnalyzer.EscapeState.ARG_ESCAPE, stateOf("returnedByCallee"));
+        assertEquals(EscapeAnalyzer.EscapeState.ARG_ESCAPE, stateOf("storedByCallee"));
+    }
+
+    @Test
+    void argumentsOnlyReadBySmallCalleesDoNotEscape() throws IOException {
+        assertEquals(EscapeAnalyzer.EscapeState.NO_ESCAPE, stateOf("readByCallee"));
+    }
+
+    /**
+     * @return 测试类中指定方法唯一的 Point 分配点的逃逸状态
+     */
+    private EscapeAnalyzer.EscapeState stateOf(String method) throws IOException {
+        String owner = internalName(EscapeAnalyzerTest.class);
+        List<EscapeAnalyzer.AllocationSite> sites = new EscapeAnalyzer().analyze(readNest()).sites().stream()
+            .filter(site -> site.className().equals(owner) && site.method().startsWith(method + "("))
+            .filter(site -> site.type().equals("L" + internalName(Point.class) + ";"))
+            .toList();
+        assertEquals(1, sites.size(), method);
+        return sites.getFirst().state();
+    }
+
+    private Map<String, ClassModel> readNest() throws IOException {
+        Map<String, ClassModel> classes = new HashMap<>();
+        for (Class<?> member : EscapeAnalyzerTest.class.getNestMembers()) {
+            try (InputStream in = member.getResourceAsStream("/" + internalName(member) + ".class")) {
+                classes.put(internalName(member), toolkit.readClass(in.readAllBytes()));
+            }
+        }
+        return classes;
+    }
+
+    private static String internalName(Class<?> type) {
+        return type.getName().replace('.', '/');
+    }
+
+    // ================= Fixtures =================
+
+    static final class Point {
+        final int x;
+        final int y;
+
+        Point(int x, int y) {
+            this.x = x;
+            this.y = y;
+        }
+    }
+
+    static Point last;
+
+    static int localPoint() {
+        Point point = new Point(1, 2);
+        return point.x + point.y;
+    }
+
+    static int listOf() {
+        return List.of(new Point(1, 2)).size();
+    }
+
+    static boolean optionalOf() {
+        return Optional.of(new Point(1, 2)).isPresent();
+    }
+
+    static int returnedByCallee() {
+        return same(new Point(1, 2)).x;
+    }
+
+    static int storedByCallee() {
+        store(new Point(1, 2));
+        return 0;
+    }
+
+    static int readByCallee() {
+        return sum(new Point(1, 2));
+    }
+
+    private static Point same(Point point) {
+        return point;
+    }
+
+    private static void store(Point point) {
+        last = point;
+    }
+
+    private static int sum(Point point) {
+        return point.x + point.y;
+    }
+}
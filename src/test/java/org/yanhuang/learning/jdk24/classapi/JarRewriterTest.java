@@ -0,0 +1,102 @@
+package org.yanhuang.learning.jdk24.classapi;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.zip.CRC32;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipFile;
+import java.util.zip.ZipOutputStream;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class JarRewriterTest {
+
+    @TempDir
+    Path tempDir;
+
+    @Test
+    void rewritesMatchingEntriesAndCopiesTheRest() throws IOException {
+        Map<String, byte[]> entries = new LinkedHashMap<>();
+        entries.put("META-INF/MANIFEST.MF", "Manifest-Version: 1.0\r\n".getBytes(StandardCharsets.UTF_8));
+        entries.put("a/upper.txt", "hello jar".getBytes(StandardCharsets.UTF_8));
+        entries.put("a/keep.txt", "unchanged".getBytes(StandardCharsets.UTF_8));
+        entries.put("b/stored.bin", new byte[]{1, 2, 3, 4, 5});
+        Path input = tempDir.resolve("input.jar");
+        writeJar(input, entries, "b/stored.bin");
+        Path output = tempDir.resolve("output.jar");
+
+        JarRewriter.RewriteReport report = new JarRewriter((name, content) -> name.equals("a/upper.txt")
+                ? new JarRewriter.TransformedEntry(name,
+                    new String(content, StandardCharsets.UTF_8).toUpperCase().getBytes(StandardCharsets.UTF_8))
+                : null)
+            .setContentFilter(name -> name.endsWith(".txt"))
+            .rewrite(input, output);
+
+        assertEquals(4, report.entries());
+        assertEquals(1, report.transformed());
+        Map<String, byte[]> expected = new LinkedHashMap<>(entries);
+        expected.put("a/upper.txt", "HELLO JAR".getBytes(StandardCharsets.UTF_8));
+        assertEntries(expected, output);
+    }
+
+    @Test
+    void identityRewriteKeepsEveryEntry() throws IOException {
+        Map<String, byte[]> entries = new LinkedHashMap<>();
+        for (int i = 0; i < 50; i++) {
+            entries.put("data/entry" + i + ".txt", ("entry " + i).repeat(i + 1).getBytes(StandardCharsets.UTF_8));
+        }
+        Path input = tempDir.resolve("input.jar");
+        writeJar(input, entries, null);
+        Path output = tempDir.resolve("output.jar");
+
+        JarRewriter.RewriteReport report = new JarRewriter((name, content) -> null)
+            .setContentFilter(name -> true)
+            .setParallelism(2)
+            .rewrite(input, output);
+
+        assertEquals(0, report.transformed());
+        assertEntries(entries, output);
+    }
+
+    private static void writeJar(Path jar, Map<String, byte[]> entries, String storedEntry) throws IOException {
+        try (OutputStream file = Files.newOutputStream(jar); ZipOutputStream zip = new ZipOutputStream(file)) {
+            for (Map.Entry<String, byte[]> entry : entries.entrySet()) {
+                ZipEntry zipEntry = new ZipEntry(entry.getKey());
+                if (entry.getKey().equals(storedEntry)) {
+                    CRC32 crc = new CRC32();
+                    crc.update(entry.getValue());
+                    zipEntry.setMethod(ZipEntry.STORED);
+                    zipEntry.setSize(entry.getValue().length);
+                    zipEntry.setCrc(crc.getValue());
+                }
+                zip.putNextEntry(zipEntry);
+                zip.write(entry.getValue());
+                zip.closeEntry();
+            }
+        }
+    }
+
+    private static void assertEntries(Map<String, byte[]> expected, Path jar) throws IOException {
+        try (ZipFile zip = new ZipFile(jar.toFile())) {
+            List<String> names = new ArrayList<>();
+            zip.stream().forEach(entry -> names.add(entry.getName()));
+            assertEquals(List.copyOf(expected.keySet()), names);
+            for (Map.Entry<String, byte[]> entry : expected.entrySet()) {
+                try (InputStream in = zip.getInputStream(zip.getEntry(entry.getKey()))) {
+                    assertArrayEquals(entry.getValue(), in.readAllBytes(), entry.getKey());
+                }
+            }
+        }
+    }
+}
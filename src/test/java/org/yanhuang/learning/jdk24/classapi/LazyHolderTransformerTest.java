@@ -0,0 +1,149 @@
+package org.yanhuang.learning.jdk24.classapi;
+
+import org.junit.jupiter.api.Test;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.ObjectStreamField;
+import java.io.Serializable;
+import java.lang.classfile.ClassModel;
+import java.lang.reflect.Method;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class LazyHolderTransformerTest {
+
+    private final ClassFileToolkit toolkit = new ClassFileToolkit();
+
+    @Test
+    void defersOnlyInitializersTheHolderCanAccess() throws Exception {
+        Map<String, byte[]> original = readNest();
+        Map<String, ClassModel> classes = new HashMap<>();
+        original.forEach((name, bytes) -> classes.put(name, toolkit.readClass(bytes)));
+
+        LazyHolderTransformer.TransformResult result = new LazyHolderTransformer().transform(classes);
+
+        // INSTANCE 调用嵌套类的私有构造函数，持有类不是嵌套成员，不能移动
+        String registry = internalName(Registry.class);
+        assertEquals(List.of("NAMES"), result.deferred().stream()
+            .filter(deferred -> deferred.owner().equals(registry))
+            .map(LazyHolderTransformer.DeferredField::fieldName)
+            .toList());
+
+        Map<String, byte[]> transformed = new HashMap<>(original);
+        transformed.putAll(result.classes());
+        ClassLoader loader = new NestClassLoader(transformed, getClass().getClassLoader());
+        Class<?> registryClass = loader.loadClass(Registry.class.getName());
+
+        Object instance = invoke(registryClass, "instance");
+        assertNotNull(instance);
+        assertEquals(Singleton.class.getName(), instance.getClass().getName());
+        assertSame(instance, invoke(registryClass, "instance"));
+        Object names = invoke(registryClass, "names");
+        assertEquals(List.of(), names);
+        assertSame(names, invoke(registryClass, "names"));
+    }
+
+    @Test
+    void keepsSerializationFieldsInPlace() throws Exception {
+        Map<String, ClassModel> classes = new HashMap<>();
+        readNest().forEach((name, bytes) -> classes.put(name, toolkit.readClass(bytes)));
+
+        LazyHolderTransformer.TransformResult result = new LazyHolderTransformer().transform(classes);
+
+        // 序列化机制直接反射读取这两个字段，移到持有类后会读到错误的值
+        String serial = internalName(Serial.class);
+        assertEquals(List.of("DEFAULTS"), result.deferred().stream()
+            .filter(deferred -> deferred.owner().equals(serial))
+            .map(LazyHolderTransformer.DeferredField::fieldName)
+            .toList());
+    }
+
+    private static Object invoke(Class<?> type, String name) throws ReflectiveOperationException {
+        Method method = type.getDeclaredMethod(name);
+        method.setAccessible(true);
+        return method.invoke(null);
+    }
+
+    /**
+     * 读取测试类所在嵌套（nest）中的所有类，嵌套成员必须由同一个加载器定义
+     */
+    private Map<String, byte[]> readNest() throws IOException {
+        Map<String, byte[]> classes = new HashMap<>();
+        for (Class<?> member : LazyHolderTransformerTest.class.getNestMembers()) {
+            String resource = "/" + internalName(member) + ".class";
+            try (InputStream in = member.getResourceAsStream(resource)) {
+                classes.put(internalName(member), in.readAllBytes());
+            }
+        }
+        return classes;
+    }
+
+    private static String internalName(Class<?> type) {
+        return type.getName().replace('.', '/');
+    }
+
+    /**
+     * 子优先加载给定字节的类，其余类委派给父加载器
+     */
+    private static final class NestClassLoader extends ClassLoader {
+        private final Map<String, byte[]> classes;
+
+        NestClassLoader(Map<String, byte[]> classes, ClassLoader parent) {
+            super(parent);
+            this.classes = classes;
+        }
+
+        @Override
+        protected Class<?> loadClass(String name, boolean resolve) throws ClassNotFoundException {
+            byte[] bytes = classes.get(name.replace('.', '/'));
+            if (bytes == null) {
+                return super.loadClass(name, resolve);
+            }
+            synchronized (getClassLoadingLock(name)) {
+                Class<?> loaded = findLoadedClass(name);
+                if (loaded == null) {
+                    loaded = defineClass(name, bytes, 0, bytes.length);
+                }
+                if (resolve) {
+                    resolveClass(loaded);
+                }
+                return loaded;
+            }
+        }
+    }
+
+    // ================= Fixtures =================
+
+    static final class Singleton {
+        private Singleton() {
+        }
+    }
+
+    static final class Registry {
+        private static final Singleton INSTANCE = new Singleton();
+        private static final List<String> NAMES = new ArrayList<>();
+
+        static Singleton instance() {
+            return INSTANCE;
+        }
+
+        static List<String> names() {
+            return NAMES;
+        }
+    }
+
+    static final class Serial implements Serializable {
+        private static final long serialVersionUID = Long.parseLong("1");
+        private static final ObjectStreamField[] serialPersistentFields = {
+            new ObjectStreamField("name", String.class)
+        };
+        private static final List<String> DEFAULTS = new ArrayList<>();
+
+        private String name;
+    }
+}
@@ -0,0 +1,76 @@
+package org.yanhuang.learning.jdk24.classapi;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.IOException;
+import java.lang.classfile.ClassFile;
+import java.lang.classfile.attribute.ModuleAttribute;
+import java.lang.constant.ClassDesc;
+import java.lang.constant.ModuleDesc;
+import java.nio.file.Path;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class ModuleDependencyAnalyzerTest {
+
+    private final ClassFileToolkit toolkit = new ClassFileToolkit();
+
+    @TempDir
+    Path tempDir;
+
+    @Test
+    void summarisesModulesAndMinimalJlinkRoots() throws IOException {
+        Path appJar = tempDir.resolve("app.jar");
+        Path helperJar = tempDir.resolve("helper-1.2.jar");
+        toolkit.writeJar(appJar, Map.of(
+            "module-info.class", moduleInfo("app", "java.sql"),
+            "app/Main.class", classWithFields("app/Main", "java/util/logging/Logger", "helper/Helper")));
+        toolkit.writeJar(helperJar, Map.of(
+            "helper/Helper.class", classWithFields("helper/Helper", "java/net/http/HttpClient", "missing/Gone")));
+
+        ModuleDependencyAnalyzer.DependencyReport report = new ModuleDependencyAnalyzer()
+            .analyze(List.of(appJar, helperJar));
+
+        ModuleDependencyAnalyzer.ModuleSummary app = report.modules().get(0);
+        assertEquals("app", app.name());
+        assertTrue(app.explicit());
+        assertEquals(Set.of("helper", "java.base", "java.logging"), app.requiredModules());
+        assertEquals(Set.of("java.sql"), app.unusedRequires());
+        // java.logging 可以通过 java.sql 的 requires transitive 读取
+        assertEquals(Set.of("helper"), app.missingRequires());
+
+        ModuleDependencyAnalyzer.ModuleSummary helper = report.modules().get(1);
+        assertEquals("helper", helper.name());
+        assertFalse(helper.explicit());
+        assertEquals(Set.of("java.base", "java.net.http"), helper.requiredModules());
+        assertEquals(Set.of("missing.Gone"), helper.unresolvedClasses());
+
+        assertTrue(report.jdkModules().containsAll(Set.of("java.base", "java.logging", "java.net.http", "java.sql")));
+        // 声明但未使用的 java.sql 启动时仍需解析，java.logging 和 java.base 由它传递引入
+        assertEquals(Set.of("java.net.http", "java.sql"), report.jlinkRoots());
+        assertEquals("--add-modules java.net.http,java.sql", report.addModulesOption());
+    }
+
+    // ================= Fixtures =================
+
+    private static byte[] moduleInfo(String name, String... requires) {
+        return ClassFile.of().buildModule(ModuleAttribute.of(ModuleDesc.of(name), module -> {
+            module.requires(ModuleDesc.of("java.base"), ClassFile.ACC_MANDATED, null);
+            for (String required : requires) {
+                module.requires(ModuleDesc.of(required), 0, null);
+            }
+        }));
+    }
+
+    private static byte[] classWithFields(String name, String... fieldTypes) {
+        return ClassFile.of().build(ClassDesc.ofInternalName(name), classBuilder -> {
+            for (int i = 0; i < fieldTypes.length; i++) {
+                classBuilder.withField("field" + i, ClassDesc.ofInternalName(fieldTypes[i]), ClassFile.ACC_PRIVATE);
+            }
+        });
+    }
+}
@@ -0,0 +1,83 @@
+package org.yanhuang.learning.jdk24.classapi;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.IOException;
+import java.lang.classfile.ClassFile;
+import java.lang.classfile.ClassHierarchyResolver;
+import java.lang.classfile.ClassModel;
+import java.lang.classfile.Label;
+import java.lang.constant.ClassDesc;
+import java.lang.constant.ConstantDescs;
+import java.lang.constant.MethodTypeDesc;
+import java.nio.file.Path;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class PackageRelocatorTest {
+
+    private static final ClassDesc BASE = ClassDesc.ofInternalName("dep/Base");
+    private static final ClassDesc LEFT = ClassDesc.ofInternalName("lib/Left");
+    private static final ClassDesc RIGHT = ClassDesc.ofInternalName("lib/Right");
+
+    private final ClassFileToolkit toolkit = new ClassFileToolkit();
+
+    @TempDir
+    Path tempDir;
+
+    @Test
+    void relocatesWithDependencyHierarchyAndCopiesUnrelatedClasses() throws IOException {
+        Path inputJar = tempDir.resolve("app.jar");
+        Path dependencyJar = tempDir.resolve("dep.jar");
+        Path outputJar = tempDir.resolve("out.jar");
+        byte[] plain = emptyClass(ClassDesc.ofInternalName("app/Plain"), ConstantDescs.CD_Object);
+        toolkit.writeJar(inputJar, Map.of(
+            "lib/Left.class", emptyClass(LEFT, BASE),
+            "lib/Right.class", emptyClass(RIGHT, BASE),
+            "lib/User.class", user(),
+            "app/Plain.class", plain));
+        toolkit.writeJar(dependencyJar, Map.of("dep/Base.class", emptyClass(BASE, ConstantDescs.CD_Object)));
+
+        new PackageRelocator()
+            .addRelocation("lib", "shaded.lib")
+            .relocateJar(inputJar, outputJar, List.of(dependencyJar));
+
+        Map<String, byte[]> output = toolkit.readJar(outputJar);
+        assertTrue(output.keySet().containsAll(Set.of("shaded/lib/Left.class", "shaded/lib/Right.class",
+            "shaded/lib/User.class", "app/Plain.class")), output.keySet().toString());
+        assertFalse(output.containsKey("lib/User.class"));
+        assertArrayEquals(plain, output.get("app/Plain.class"));
+        ClassModel user = toolkit.readClass(output.get("shaded/lib/User.class"));
+        assertEquals("(ILshaded/lib/Left;Lshaded/lib/Right;)Ldep/Base;",
+            user.methods().getFirst().methodType().stringValue());
+        assertEquals("dep/Base", toolkit.readClass(output.get("shaded/lib/Left.class"))
+            .superclass().orElseThrow().asInternalName());
+    }
+
+    // ================= Fixtures =================
+
+    /**
+     * lib/User.pick 在分支合并处需要 lib/Left 和 lib/Right 的公共父类 dep/Base
+     */
+    private static byte[] user() {
+        ClassHierarchyResolver resolver = ClassHierarchyResolver.of(Set.of(),
+            Map.of(LEFT, BASE, RIGHT, BASE, BASE, ConstantDescs.CD_Object));
+        return ClassFile.of(ClassFile.ClassHierarchyResolverOption.of(resolver)).build(
+            ClassDesc.ofInternalName("lib/User"), classBuilder -> classBuilder.withMethodBody("pick",
+                MethodTypeDesc.of(BASE, ConstantDescs.CD_int, LEFT, RIGHT), ClassFile.ACC_STATIC, code -> {
+                    Label right = code.newLabel();
+                    Label end = code.newLabel();
+                    code.iload(0).ifeq(right).aload(1).goto_(end)
+                        .labelBinding(right).aload(2)
+                        .labelBinding(end).areturn();
+                }));
+    }
+
+    private static byte[] emptyClass(ClassDesc name, ClassDesc superClass) {
+        return ClassFile.of().build(name, classBuilder -> classBuilder.withSuperclass(superClass));
+    }
+}
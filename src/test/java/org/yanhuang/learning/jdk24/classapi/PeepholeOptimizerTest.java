@@ -0,0 +1,109 @@
+package org.yanhuang.learning.jdk24.classapi;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.IOException;
+import java.lang.classfile.ClassFile;
+import java.lang.classfile.ClassHierarchyResolver;
+import java.lang.classfile.CodeBuilder;
+import java.lang.classfile.Label;
+import java.lang.classfile.instruction.DiscontinuedInstruction;
+import java.lang.constant.ClassDesc;
+import java.lang.constant.ConstantDescs;
+import java.lang.constant.MethodTypeDesc;
+import java.nio.file.Path;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class PeepholeOptimizerTest {
+
+    private static final ClassDesc BASE = ClassDesc.ofInternalName("dep/Base");
+    private static final ClassDesc LEFT = ClassDesc.ofInternalName("app/Left");
+    private static final ClassDesc RIGHT = ClassDesc.ofInternalName("app/Right");
+
+    private final ClassFileToolkit toolkit = new ClassFileToolkit();
+    private final PeepholeOptimizer optimizer = new PeepholeOptimizer();
+
+    @TempDir
+    Path tempDir;
+
+    @Test
+    void foldsConstants() {
+        byte[] bytes = ClassFile.of().build(ClassDesc.of("app.Folding"), classBuilder ->
+            classBuilder.withMethodBody("three", MethodTypeDesc.of(ConstantDescs.CD_int), ClassFile.ACC_STATIC,
+                code -> code.iconst_1().iconst_2().iadd().ireturn()));
+
+        PeepholeOptimizer.ClassResult result = optimizer.optimize(ClassFile.of(), bytes);
+
+        assertEquals(1, result.changes().size());
+        assertEquals(1, result.changes().getFirst().foldedConstants());
+    }
+
+    @Test
+    void leavesSubroutinesAlone() {
+        // 旧版本类文件中 finally 编译成的子程序只通过 jsr 进入
+        byte[] bytes = ClassFile.of(ClassFile.StackMapsOption.DROP_STACK_MAPS).build(ClassDesc.of("app.Legacy"),
+            classBuilder -> classBuilder.withVersion(ClassFile.JAVA_5_VERSION, 0)
+                .withMethodBody("run", MethodTypeDesc.of(ConstantDescs.CD_int), ClassFile.ACC_STATIC, code -> {
+                    Label subroutine = code.newLabel();
+                    code.with(DiscontinuedInstruction.JsrInstruction.of(subroutine))
+                        .iconst_1().iconst_2().iadd().ireturn()
+                        .labelBinding(subroutine)
+                        .astore(0)
+                        .with(DiscontinuedInstruction.RetInstruction.of(0));
+                }));
+
+        PeepholeOptimizer.ClassResult result = optimizer.optimize(ClassFile.of(), bytes);
+
+        assertEquals(List.of(), result.changes());
+        assertSame(bytes, result.bytes());
+    }
+
+    @Test
+    void resolvesSupertypesFromClasspath() throws IOException {
+        Path inputJar = tempDir.resolve("app.jar");
+        Path dependencyJar = tempDir.resolve("dep.jar");
+        toolkit.writeJar(inputJar, Map.of(
+            "app/Left.class", emptyClass(LEFT, BASE),
+            "app/Right.class", emptyClass(RIGHT, BASE),
+            "app/User.class", user()));
+        toolkit.writeJar(dependencyJar, Map.of("dep/Base.class", emptyClass(BASE, ConstantDescs.CD_Object)));
+
+        PeepholeOptimizer.OptimizationReport report = optimizer.optimizeJar(inputJar, tempDir.resolve("out.jar"),
+            List.of(dependencyJar));
+
+        assertEquals(1, report.foldedConstants());
+        assertEquals("app/User", report.changes().getFirst().className());
+    }
+
+    // ================= Fixtures =================
+
+    /**
+     * app/User.pick 先计算一个可以折叠的常量，然后在分支合并处需要 app/Left 和 app/Right 的公共父类 dep/Base
+     */
+    private static byte[] user() {
+        ClassHierarchyResolver resolver = ClassHierarchyResolver.of(Set.of(),
+            Map.of(LEFT, BASE, RIGHT, BASE, BASE, ConstantDescs.CD_Object));
+        return ClassFile.of(ClassFile.ClassHierarchyResolverOption.of(resolver)).build(ClassDesc.of("app.User"),
+            classBuilder -> classBuilder.withMethodBody("pick",
+                MethodTypeDesc.of(BASE, ConstantDescs.CD_int, LEFT, RIGHT), ClassFile.ACC_STATIC,
+                PeepholeOptimizerTest::pick));
+    }
+
+    private static void pick(CodeBuilder code) {
+        Label right = code.newLabel();
+        Label end = code.newLabel();
+        code.iload(0).iconst_1().iconst_2().iadd().if_icmpeq(right)
+            .aload(1).goto_(end)
+            .labelBinding(right).aload(2)
+            .labelBinding(end).areturn();
+    }
+
+    private static byte[] emptyClass(ClassDesc name, ClassDesc superClass) {
+        return ClassFile.of().build(name, classBuilder -> classBuilder.withSuperclass(superClass));
+    }
+}
@@ -0,0 +1,43 @@
+package org.yanhuang.learning.jdk24.classapi;
+
+import org.junit.jupiter.api.Test;
+
+import java.lang.classfile.ClassFile;
+import java.lang.classfile.ClassTransform;
+import java.lang.constant.ClassDesc;
+import java.lang.constant.ConstantDescs;
+import java.lang.constant.MethodTypeDesc;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class TransformingClassLoaderTest {
+
+    @Test
+    void sharedCacheDistinguishesSourceVersions() throws ReflectiveOperationException {
+        TransformingClassLoader.TransformedClassCache cache = new TransformingClassLoader.TransformedClassCache(1 << 20);
+        ClassTransform transform = ClassTransform.ACCEPT_ALL;
+
+        TransformingClassLoader first = new TransformingClassLoader(getClass().getClassLoader(),
+            name -> name.equals("demo.Versioned"), transform, cache);
+        first.addClass("demo.Versioned", versioned(1));
+        TransformingClassLoader second = new TransformingClassLoader(getClass().getClassLoader(),
+            name -> name.equals("demo.Versioned"), transform, cache);
+        second.addClass("demo.Versioned", versioned(2));
+
+        assertEquals(1, version(first));
+        assertEquals(2, version(second));
+    }
+
+    private static int version(ClassLoader loader) throws ReflectiveOperationException {
+        return (int) loader.loadClass("demo.Versioned").getMethod("version").invoke(null);
+    }
+
+    // ================= Fixtures =================
+
+    private static byte[] versioned(int version) {
+        return ClassFile.of().build(ClassDesc.of("demo.Versioned"), classBuilder -> classBuilder
+            .withFlags(ClassFile.ACC_PUBLIC)
+            .withMethodBody("version", MethodTypeDesc.of(ConstantDescs.CD_int),
+                ClassFile.ACC_PUBLIC | ClassFile.ACC_STATIC, code -> code.loadConstant(version).ireturn()));
+    }
+}